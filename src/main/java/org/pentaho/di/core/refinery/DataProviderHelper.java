@@ -194,5 +194,17 @@ public class DataProviderHelper {
         throw new ModelerException( "Step being Annotated is unsupported" );
       }
     }
+
+    public List<String> getFieldDatabase() {
+      return fieldDatabase;
+    }
+
+    public List<String> getFieldStream() {
+      return fieldStream;
+    }
+
+    public RowMeta getInsertRowMeta() {
+      return insertRowMeta;
+    }
   }
 }
@@ -25,13 +25,18 @@ package org.pentaho.di.core.refinery.extension;
 import java.util.Map;
 
 import org.apache.commons.lang.StringUtils;
+import org.pentaho.agilebi.modeler.ModelerException;
+import org.pentaho.di.core.ProvidesDatabaseConnectionInformation;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.extension.ExtensionPoint;
 import org.pentaho.di.core.extension.ExtensionPointInterface;
 import org.pentaho.di.core.logging.LogChannelInterface;
 import org.pentaho.di.core.refinery.DataProviderHelper;
+import org.pentaho.di.core.refinery.model.TableMetadataCache;
+import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.i18n.BaseMessages;
 import org.pentaho.di.job.Job;
+import org.pentaho.di.job.entries.build.AdditionalModel;
 import org.pentaho.di.job.entries.build.JobEntryBuildModel;
 import org.pentaho.di.job.entry.JobEntryCopy;
 import org.pentaho.di.trans.Trans;
@@ -40,6 +45,7 @@ import org.pentaho.di.trans.step.StepMetaDataCombi;
 import org.pentaho.di.trans.steps.annotation.BaseAnnotationMeta;
 import org.pentaho.di.trans.steps.annotation.ModelAnnotationData;
 import org.pentaho.di.trans.steps.annotation.ModelAnnotationMeta;
+import org.pentaho.di.trans.steps.tableoutput.TableOutputMeta;
 import org.pentaho.metastore.api.IMetaStore;
 import org.pentaho.metastore.api.exceptions.MetaStoreException;
 
@@ -81,26 +87,67 @@ public class DataRefineryTransFinishListener implements ExtensionPointInterface
         JobEntryBuildModel jeBuildModel = (JobEntryBuildModel) jeCopy.getEntry();
         final String outputStepName =
             StringUtils.trimToNull( job.environmentSubstitute( jeBuildModel.getOutputStep() ) );
-        if ( outputStepName == null ) {
-          continue;
-        }
-        for ( StepMetaDataCombi stepMetaData : trans.getSteps() ) {
-          String stepName = StringUtils.trimToNull( stepMetaData.stepname );
-          if ( outputStepName.equals( stepName ) ) {
-            Map<String, Object> map = job.getExtensionDataMap();
-            String key = JobEntryBuildModel.KEY_OUTPUT_STEP_PREFIX + jeBuildModel.getName();
-            if ( map.containsKey( key ) ) {
-              throw new KettleException(
-                  "Unable to auto-model because more than one step with the same name was found: "
-                      + stepMetaData.stepname );
-            }
-            map.put( key, stepMetaData );
+        setOutputStep( job, trans, outputStepName,
+            JobEntryBuildModel.KEY_OUTPUT_STEP_PREFIX + jeBuildModel.getName() );
+        for ( AdditionalModel additionalModel : jeBuildModel.getAdditionalModels() ) {
+          String additionalStepName =
+              StringUtils.trimToNull( job.environmentSubstitute( additionalModel.getOutputStep() ) );
+          if ( additionalStepName != null ) {
+            setOutputStep( job, trans, additionalStepName,
+                JobEntryBuildModel.getOutputStepKey( jeBuildModel.getName(), additionalStepName ) );
           }
         }
       }
     }
   }
 
+  private void setOutputStep( Job job, Trans trans, String outputStepName, String key ) throws KettleException {
+    if ( outputStepName == null ) {
+      return;
+    }
+    for ( StepMetaDataCombi stepMetaData : trans.getSteps() ) {
+      String stepName = StringUtils.trimToNull( stepMetaData.stepname );
+      if ( outputStepName.equals( stepName ) ) {
+        Map<String, Object> map = job.getExtensionDataMap();
+        if ( map.containsKey( key ) ) {
+          throw new KettleException(
+              "Unable to auto-model because more than one step with the same name was found: "
+                  + stepMetaData.stepname );
+        }
+        map.put( key, stepMetaData );
+        onTableWritten( trans, stepMetaData );
+      }
+    }
+  }
+
+  /**
+   * Lets cached metadata of the table loaded by the step go if the step changed the table
+   */
+  private void onTableWritten( Trans trans, StepMetaDataCombi stepMetaData ) {
+    if ( !( stepMetaData.meta instanceof ProvidesDatabaseConnectionInformation ) ) {
+      return;
+    }
+    ProvidesDatabaseConnectionInformation connInfo = (ProvidesDatabaseConnectionInformation) stepMetaData.meta;
+    if ( connInfo.getDatabaseMeta() == null ) {
+      return;
+    }
+    RowMetaInterface written = null;
+    try {
+      written = new DataProviderHelper.OutputStepMappingAdapter( stepMetaData ).getInsertRowMeta();
+    } catch ( ModelerException e ) {
+      // not a modeler step, only truncation tells
+    }
+    boolean truncated =
+        stepMetaData.meta instanceof TableOutputMeta && ( (TableOutputMeta) stepMetaData.meta ).truncateTable();
+    getTableMetadataCache().onTableWritten( connInfo.getDatabaseMeta(),
+        trans.environmentSubstitute( connInfo.getSchemaName() ), trans.environmentSubstitute( connInfo.getTableName() ),
+        written, truncated );
+  }
+
+  protected TableMetadataCache getTableMetadataCache() {
+    return TableMetadataCache.getInstance();
+  }
+
   /**
    * Updates shared annotation groups with data providers
    */
@@ -22,38 +22,25 @@
 
 package org.pentaho.di.core.refinery.model;
 
+import org.pentaho.agilebi.modeler.ModelerException;
+import org.pentaho.di.core.Const;
 import org.pentaho.di.core.ProvidesDatabaseConnectionInformation;
-import org.pentaho.di.core.database.Database;
 import org.pentaho.di.core.exception.KettleDatabaseException;
 import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.refinery.DataProviderHelper;
 import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.core.row.ValueMetaInterface;
 import org.pentaho.di.job.entries.build.JobEntryBuildModel;
 import org.pentaho.di.job.entry.JobEntryBase;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.InputSource;
-
-import javax.xml.transform.Source;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerConfigurationException;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.stream.StreamResult;
-import javax.xml.transform.stream.StreamSource;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathException;
-import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
-import java.io.StringReader;
-import java.io.StringWriter;
+import org.pentaho.di.trans.step.StepMetaDataCombi;
+
+import javax.xml.stream.XMLStreamException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
-import static java.util.Arrays.asList;
 import static org.pentaho.di.core.row.ValueMetaInterface.*;
 import static org.pentaho.di.i18n.BaseMessages.getString;
 
@@ -61,102 +48,80 @@ public class AnalysisModeler {
   private static final Class<?> PKG = JobEntryBuildModel.class;
   private JobEntryBase jobEntry;
   private ProvidesDatabaseConnectionInformation connectionInfo;
+  private StepMetaDataCombi outputStep;
+
+  /**
+   * Set to Y to match schema columns to database fields ignoring case.
+   */
+  public static final String CASE_INSENSITIVE_COLUMNS_PROPERTY = "KETTLE_DATA_REFINERY_CASE_INSENSITIVE_COLUMNS";
 
-  private static Map<String, List<Integer>> analysisTypeMapping = new HashMap<String, List<Integer>>();
+  // value meta types compatible with each analysis type, as bits of typeBit
+  private static Map<String, Long> analysisTypeMapping = new HashMap<String, Long>();
 
   static {
-    analysisTypeMapping.put( "String", asList( TYPE_STRING ) );
-    analysisTypeMapping.put( "Numeric", asList( TYPE_BIGNUMBER, TYPE_INTEGER, TYPE_NUMBER ) );
-    analysisTypeMapping.put( "Boolean", asList( TYPE_BOOLEAN ) );
-    analysisTypeMapping.put( "Date", asList( TYPE_DATE ) );
-    analysisTypeMapping.put( "Time", asList( TYPE_DATE, TYPE_TIMESTAMP ) );
-    analysisTypeMapping.put( "Timestamp", asList( TYPE_TIMESTAMP ) );
+    analysisTypeMapping.put( "String", typeBits( TYPE_STRING ) );
+    analysisTypeMapping.put( "Numeric", typeBits( TYPE_BIGNUMBER, TYPE_INTEGER, TYPE_NUMBER ) );
+    analysisTypeMapping.put( "Boolean", typeBits( TYPE_BOOLEAN ) );
+    analysisTypeMapping.put( "Date", typeBits( TYPE_DATE ) );
+    analysisTypeMapping.put( "Time", typeBits( TYPE_DATE, TYPE_TIMESTAMP ) );
+    analysisTypeMapping.put( "Timestamp", typeBits( TYPE_TIMESTAMP ) );
   }
 
+  private boolean caseInsensitive = "Y".equalsIgnoreCase( System.getProperty( CASE_INSENSITIVE_COLUMNS_PROPERTY ) );
+
   public AnalysisModeler(
       final JobEntryBase jobEntry, final ProvidesDatabaseConnectionInformation connectionInfo ) {
     this.jobEntry = jobEntry;
     this.connectionInfo = connectionInfo;
   }
 
+  /**
+   * @param outputStep step that loaded the table, its row layout saves querying the database for the fields
+   */
+  public AnalysisModeler( final JobEntryBase jobEntry, final ProvidesDatabaseConnectionInformation connectionInfo,
+      final StepMetaDataCombi outputStep ) {
+    this( jobEntry, connectionInfo );
+    this.outputStep = outputStep;
+  }
+
   public String replaceTableAndSchemaNames( final String schema, final String modelName ) throws KettleException {
+    AnalysisSchemaRewriter rewriter =
+      new AnalysisSchemaRewriter( Const.nullToEmpty( modelName ), Const.nullToEmpty( getTablename() ) );
+    String newSchema;
     try {
-      validateSDRSchema( schema );
-      return transformSchema( schema, modelName, getTablename() );
-    } catch ( TransformerConfigurationException e ) {
-      throw new KettleException( e );
-    } catch ( TransformerException e ) {
+      newSchema = rewriter.rewrite( schema );
+    } catch ( XMLStreamException e ) {
       throw new KettleException( e );
     }
+    validateSDRSchema( rewriter );
+    return newSchema;
   }
 
-  private String transformSchema( final String schema, final String modelName, final String tableName )
-    throws TransformerException {
-    TransformerFactory factory = TransformerFactory.newInstance();
-    Source xslt = new StreamSource( new StringReader( constructXsltForSwap( modelName, tableName ) ) );
-    Transformer transformer = factory.newTransformer( xslt );
-    Source text = new StreamSource( new StringReader( schema ) );
-    StringWriter writer = new StringWriter();
-    transformer.transform( text, new StreamResult( writer ) );
-    return writer.toString();
-  }
-
-  private String constructXsltForSwap( final String modelName, final String tableName ) {
-    return "<xsl:stylesheet version=\"1.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\" "
-      + "xmlns:fn=\"http://www.w3.org/2005/xpath-functions\">"
-      + "<xsl:template match=\"@*|node()\">\n"
-      + "<xsl:copy>\n"
-      + "    <xsl:apply-templates select=\"@*|node()\"/>\n"
-      + "  </xsl:copy>"
-      + "</xsl:template>"
-      + "<xsl:template match=\"Table/@name\">"
-      + "    <xsl:attribute name=\"name\">" + tableName + "</xsl:attribute>"
-      + "</xsl:template>"
-      + "<xsl:template match=\"Schema/@name\">"
-      + "    <xsl:attribute name=\"name\">" + modelName + "</xsl:attribute>"
-      + "</xsl:template>"
-      + "<xsl:template match=\"Cube/@name\">"
-      + "    <xsl:attribute name=\"name\">" + modelName + "</xsl:attribute>"
-      + "</xsl:template>"
-      + "</xsl:stylesheet>";
-  }
-
-  private void validateSDRSchema( final String schema ) throws KettleException {
-    try {
-      validateSingleTable( schema );
-      validateSingleCube( schema );
-      validateColumns( schema );
-    } catch ( XPathException e ) {
-      throw new KettleException( e );
+  private void validateSDRSchema( final AnalysisSchemaRewriter rewriter ) throws KettleException {
+    if ( rewriter.getTableNames().size() != 1 ) {
+      throw new KettleException( getString( PKG, "AnalysisModeler.SelectModelErrorMultipleTables" ) );
     }
+    if ( rewriter.getCubeCount() != 1 ) {
+      throw new KettleException( getString( PKG, "AnalysisModeler.SelectModelErrorMultipleCubes" ) );
+    }
+    validateColumns( rewriter.getColumns() );
   }
 
-  private void validateColumns( final String schema ) throws XPathExpressionException, KettleException {
+  private void validateColumns( final List<AnalysisSchemaRewriter.Column> schemaColumns ) throws KettleException {
     ArrayList<String> notFound = new ArrayList<String>();
     ArrayList<String> incompatibleTypes = new ArrayList<String>();
-    List<ValueMetaInterface> fieldsInDatabase = getFieldsInDatabase();
-    NodeList levelColumnAttributes = getNodeList( schema, "//Level | //Measure" );
-    for ( int i = 0; i < levelColumnAttributes.getLength(); i++ ) {
-      Node node = levelColumnAttributes.item( i );
-      Node schemaColumnNode = node.getAttributes().getNamedItem( "column" );
-      String schemaColumn = schemaColumnNode.getTextContent();
-      boolean foundColumn = false;
-      for ( ValueMetaInterface valueMetaInterface : fieldsInDatabase ) {
-        if (  valueMetaInterface.getName().equals( schemaColumn ) ) {
-          foundColumn = true;
-          Node type = node.getAttributes().getNamedItem( "type" );
-          if ( type != null ) {
-            List<Integer> validTypes = analysisTypeMapping.get( type.getTextContent() );
-            if ( !validTypes.contains( valueMetaInterface.getType() ) ) {
-              incompatibleTypes.add( schemaColumnNode.getTextContent() );
-            }
-          }
-        }
-      }
-      if ( !foundColumn ) {
-        notFound.add( schemaColumnNode.getTextContent() );
+    List<ValueMetaInterface> fieldsInOutputStep = getFieldsInOutputStep();
+    if ( fieldsInOutputStep != null ) {
+      findInvalidColumns( schemaColumns, indexFields( fieldsInOutputStep ), notFound, incompatibleTypes );
+      if ( notFound.isEmpty() && incompatibleTypes.isEmpty() ) {
+        return;
       }
+      // the step may not load every column of the table, and its stream types are not necessarily the column types
+      // the database chose, only the table has the final say
+      notFound.clear();
+      incompatibleTypes.clear();
     }
+    findInvalidColumns( schemaColumns, indexFields( getFieldsInDatabase() ), notFound, incompatibleTypes );
     if ( !notFound.isEmpty()  || !incompatibleTypes.isEmpty() ) {
       throw new KettleException(
         getString( PKG, "AnalysisModeler.ColumnValidation",
@@ -165,62 +130,98 @@ public class AnalysisModeler {
     }
   }
 
-  private String msgIfNotEmpty( final ArrayList<String> notFound, final String msgKey ) {
-    if ( notFound.isEmpty() ) {
-      return "";
+  private void findInvalidColumns( final List<AnalysisSchemaRewriter.Column> schemaColumns,
+      final Map<String, Long> fieldTypes, final List<String> notFound, final List<String> incompatibleTypes ) {
+    for ( AnalysisSchemaRewriter.Column schemaColumn : schemaColumns ) {
+      Long types = fieldTypes.get( getKey( schemaColumn.getName() ) );
+      if ( types == null ) {
+        notFound.add( schemaColumn.getName() );
+      } else if ( schemaColumn.getType() != null ) {
+        Long validTypes = analysisTypeMapping.get( schemaColumn.getType() );
+        // types the mapping does not know about are left to Mondrian
+        if ( validTypes != null && ( types & ~validTypes ) != 0 ) {
+          incompatibleTypes.add( schemaColumn.getName() );
+        }
+      }
     }
-    return getString( PKG, msgKey, notFound.toString() );
   }
 
-  private void validateSingleTable( final String schema ) throws XPathExpressionException, KettleException {
-    NodeList tableNameAttributes = getNodeList( schema, "//Table/@name" );
-    if ( !modelTablesAreSupported( tableNameAttributes ) ) {
-      throw new KettleException( getString( PKG, "AnalysisModeler.SelectModelErrorMultipleTables" ) );
+  /**
+   * @return types of the fields by field name, more than one bit is set when names repeat
+   */
+  private Map<String, Long> indexFields( final List<ValueMetaInterface> fields ) {
+    Map<String, Long> fieldTypes = new HashMap<String, Long>( fields.size() * 2 );
+    for ( ValueMetaInterface field : fields ) {
+      String key = getKey( field.getName() );
+      Long types = fieldTypes.get( key );
+      fieldTypes.put( key, ( types == null ? 0L : types ) | typeBit( field.getType() ) );
     }
+    return fieldTypes;
   }
 
-  private void validateSingleCube( final String schema ) throws XPathExpressionException, KettleException {
-    NodeList tableNameAttributes = getNodeList( schema, "//Cube" );
-    if ( tableNameAttributes.getLength() != 1 ) {
-      throw new KettleException( getString( PKG, "AnalysisModeler.SelectModelErrorMultipleCubes" ) );
-    }
+  private String getKey( final String name ) {
+    return caseInsensitive && name != null ? name.toLowerCase( Locale.ROOT ) : name;
   }
 
-  List<ValueMetaInterface> getFieldsInDatabase() throws KettleDatabaseException {
-    Database database = new Database( jobEntry, connectionInfo.getDatabaseMeta() );
-    try {
-      database.connect();
-      RowMetaInterface tableFields = database.getTableFields( getTablename() );
-      return tableFields.getValueMetaList();
-    } finally {
-      database.disconnect();
+  private static long typeBit( final int type ) {
+    // plugin types beyond the range share the last bit, no analysis type maps to it
+    return 1L << Math.min( Math.max( type, 0 ), 63 );
+  }
+
+  private static long typeBits( final int... types ) {
+    long bits = 0;
+    for ( int type : types ) {
+      bits |= typeBit( type );
     }
+    return bits;
   }
 
-  private String getTablename() {
-    return jobEntry.environmentSubstitute( connectionInfo.getTableName() );
+  public boolean isCaseInsensitive() {
+    return caseInsensitive;
   }
 
-  private NodeList getNodeList( final String schema, final String xPathExpression ) throws XPathExpressionException {
-    XPathFactory factory = XPathFactory.newInstance();
-    XPath xpath = factory.newXPath();
-    return (NodeList) xpath.compile( xPathExpression )
-        .evaluate( new InputSource( new StringReader( schema ) ), XPathConstants.NODESET );
+  /**
+   * @param caseInsensitive whether schema columns match database fields ignoring case,
+   *                        defaults to {@value #CASE_INSENSITIVE_COLUMNS_PROPERTY}
+   */
+  public void setCaseInsensitive( final boolean caseInsensitive ) {
+    this.caseInsensitive = caseInsensitive;
   }
 
-  private boolean modelTablesAreSupported( final NodeList tableNameAttributes ) {
-    int length = tableNameAttributes.getLength();
-    String uniqueTableName;
-    if ( length > 0 ) {
-      uniqueTableName = tableNameAttributes.item( 0 ).getTextContent();
-    } else {
-      return false;
+  private String msgIfNotEmpty( final ArrayList<String> notFound, final String msgKey ) {
+    if ( notFound.isEmpty() ) {
+      return "";
     }
-    for ( int i = 1; i < length; i++ ) {
-      if ( !tableNameAttributes.item( i ).getTextContent().equals( uniqueTableName ) ) {
-        return false;
-      }
+    return getString( PKG, msgKey, notFound.toString() );
+  }
+
+  /**
+   * @return fields as written by the output step, null if the step did not report them
+   */
+  List<ValueMetaInterface> getFieldsInOutputStep() {
+    if ( outputStep == null ) {
+      return null;
     }
-    return true;
+    try {
+      RowMetaInterface insertRowMeta = new DataProviderHelper.OutputStepMappingAdapter( outputStep ).getInsertRowMeta();
+      return insertRowMeta == null ? null : insertRowMeta.getValueMetaList();
+    } catch ( ModelerException e ) {
+      return null;
+    }
+  }
+
+  List<ValueMetaInterface> getFieldsInDatabase() throws KettleDatabaseException {
+    RowMetaInterface tableFields = getTableMetadataCache().getTableFields( jobEntry, connectionInfo.getDatabaseMeta(),
+      jobEntry.environmentSubstitute( connectionInfo.getSchemaName() ), getTablename() );
+    return tableFields == null ? new ArrayList<ValueMetaInterface>() : tableFields.getValueMetaList();
+  }
+
+  // Allows dependency injection/mocks
+  protected TableMetadataCache getTableMetadataCache() {
+    return TableMetadataCache.getInstance();
+  }
+
+  private String getTablename() {
+    return jobEntry.environmentSubstitute( connectionInfo.getTableName() );
   }
 }
@@ -0,0 +1,262 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2017 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+
+package org.pentaho.di.core.refinery.model;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Copies a Mondrian schema in a single streaming pass, swapping the table name and the schema and cube names, while
+ * collecting what {@link AnalysisModeler} validates: the table names, the number of cubes and the columns used by
+ * levels and measures.
+ */
+public class AnalysisSchemaRewriter {
+
+  private static final QName SCHEMA = new QName( "Schema" );
+  private static final QName CUBE = new QName( "Cube" );
+  private static final QName TABLE = new QName( "Table" );
+  private static final QName LEVEL = new QName( "Level" );
+  private static final QName MEASURE = new QName( "Measure" );
+
+  private static final String NAME = "name";
+  private static final String COLUMN = "column";
+  private static final String TYPE = "type";
+
+  private static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newInstance();
+  private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
+  static {
+    // no external entities, and no internal ones either, they could expand a small schema into gigabytes
+    INPUT_FACTORY.setProperty( XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false );
+    INPUT_FACTORY.setProperty( XMLInputFactory.SUPPORT_DTD, false );
+  }
+
+  private final String modelName;
+  private final String tableName;
+
+  private final Set<String> tableNames = new LinkedHashSet<String>();
+  private final List<Column> columns = new ArrayList<Column>();
+  private int cubeCount;
+
+  /**
+   * @param modelName new schema and cube name
+   * @param tableName new table name
+   */
+  public AnalysisSchemaRewriter( final String modelName, final String tableName ) {
+    this.modelName = modelName;
+    this.tableName = tableName;
+  }
+
+  /**
+   * @return the schema with the names swapped
+   */
+  public String rewrite( final String schema ) throws XMLStreamException {
+    StringWriter out = new StringWriter( schema.length() + 64 );
+    XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader( new StringReader( schema ) );
+    XMLStreamWriter writer = OUTPUT_FACTORY.createXMLStreamWriter( out );
+    try {
+      writer.writeStartDocument( "UTF-8", "1.0" );
+      int depth = 0;
+      Start pending = null;
+      while ( reader.hasNext() ) {
+        int event = reader.next();
+        if ( pending != null ) {
+          // elements without content stay <Table/>
+          pending.write( writer, event == XMLStreamConstants.END_ELEMENT );
+          pending = null;
+          if ( event == XMLStreamConstants.END_ELEMENT ) {
+            depth--;
+            continue;
+          }
+        }
+        switch ( event ) {
+          case XMLStreamConstants.START_ELEMENT:
+            depth++;
+            pending = startElement( reader );
+            break;
+          case XMLStreamConstants.END_ELEMENT:
+            depth--;
+            writer.writeEndElement();
+            break;
+          case XMLStreamConstants.CHARACTERS:
+          case XMLStreamConstants.SPACE:
+            // whitespace around the root element is not copied
+            if ( depth > 0 ) {
+              writer.writeCharacters( reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength() );
+            }
+            break;
+          case XMLStreamConstants.CDATA:
+            writer.writeCData( reader.getText() );
+            break;
+          case XMLStreamConstants.COMMENT:
+            writer.writeComment( reader.getText() );
+            break;
+          case XMLStreamConstants.PROCESSING_INSTRUCTION:
+            writer.writeProcessingInstruction( reader.getPITarget(), reader.getPIData() );
+            break;
+          default:
+            break;
+        }
+      }
+      writer.writeEndDocument();
+      writer.flush();
+    } finally {
+      reader.close();
+      writer.close();
+    }
+    return out.toString();
+  }
+
+  private Start startElement( final XMLStreamReader reader ) {
+    QName name = reader.getName();
+    String column = null;
+    String type = null;
+    Start start = new Start( name, reader.getNamespaceCount(), reader.getAttributeCount() );
+    for ( int i = 0; i < reader.getNamespaceCount(); i++ ) {
+      start.namespaces[i * 2] = reader.getNamespacePrefix( i );
+      start.namespaces[i * 2 + 1] = reader.getNamespaceURI( i );
+    }
+    for ( int i = 0; i < reader.getAttributeCount(); i++ ) {
+      QName attribute = reader.getAttributeName( i );
+      String value = reader.getAttributeValue( i );
+      if ( attribute.getNamespaceURI().isEmpty() ) {
+        String local = attribute.getLocalPart();
+        if ( NAME.equals( local ) ) {
+          if ( TABLE.equals( name ) ) {
+            tableNames.add( value );
+            value = tableName;
+          } else if ( SCHEMA.equals( name ) || CUBE.equals( name ) ) {
+            value = modelName;
+          }
+        } else if ( COLUMN.equals( local ) ) {
+          column = value;
+        } else if ( TYPE.equals( local ) ) {
+          type = value;
+        }
+      }
+      start.attributes[i] = attribute;
+      start.values[i] = value;
+    }
+    if ( CUBE.equals( name ) ) {
+      cubeCount++;
+    } else if ( column != null && ( LEVEL.equals( name ) || MEASURE.equals( name ) ) ) {
+      columns.add( new Column( column, type ) );
+    }
+    return start;
+  }
+
+  /**
+   * @return distinct names of the tables in the original schema
+   */
+  public Set<String> getTableNames() {
+    return tableNames;
+  }
+
+  public int getCubeCount() {
+    return cubeCount;
+  }
+
+  /**
+   * @return columns of levels and measures, in document order
+   */
+  public List<Column> getColumns() {
+    return columns;
+  }
+
+  /**
+   * Column of a level or measure, with its analysis type if the schema declares one.
+   */
+  public static class Column {
+    private final String name;
+    private final String type;
+
+    public Column( final String name, final String type ) {
+      this.name = name;
+      this.type = type;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * @return type attribute or null
+     */
+    public String getType() {
+      return type;
+    }
+  }
+
+  /**
+   * Start tag held back until it is known whether the element has content.
+   */
+  private static class Start {
+    private final QName name;
+    private final String[] namespaces;
+    private final QName[] attributes;
+    private final String[] values;
+
+    Start( final QName name, final int namespaceCount, final int attributeCount ) {
+      this.name = name;
+      this.namespaces = new String[namespaceCount * 2];
+      this.attributes = new QName[attributeCount];
+      this.values = new String[attributeCount];
+    }
+
+    void write( final XMLStreamWriter writer, final boolean empty ) throws XMLStreamException {
+      if ( empty ) {
+        writer.writeEmptyElement( name.getPrefix(), name.getLocalPart(), name.getNamespaceURI() );
+      } else {
+        writer.writeStartElement( name.getPrefix(), name.getLocalPart(), name.getNamespaceURI() );
+      }
+      for ( int i = 0; i < namespaces.length; i += 2 ) {
+        if ( namespaces[i] == null || namespaces[i].isEmpty() ) {
+          writer.writeDefaultNamespace( namespaces[i + 1] );
+        } else {
+          writer.writeNamespace( namespaces[i], namespaces[i + 1] );
+        }
+      }
+      for ( int i = 0; i < attributes.length; i++ ) {
+        QName attribute = attributes[i];
+        if ( attribute.getNamespaceURI().isEmpty() ) {
+          writer.writeAttribute( attribute.getLocalPart(), values[i] );
+        } else {
+          writer.writeAttribute( attribute.getPrefix(), attribute.getNamespaceURI(), attribute.getLocalPart(),
+            values[i] );
+        }
+      }
+    }
+  }
+}
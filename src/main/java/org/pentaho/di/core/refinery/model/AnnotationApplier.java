@@ -0,0 +1,257 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2017 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.model;
+
+import org.apache.commons.lang.StringUtils;
+import org.pentaho.agilebi.modeler.ModelerException;
+import org.pentaho.agilebi.modeler.ModelerPerspective;
+import org.pentaho.agilebi.modeler.ModelerWorkspace;
+import org.pentaho.agilebi.modeler.models.annotations.AnnotationType;
+import org.pentaho.agilebi.modeler.models.annotations.CreateAttribute;
+import org.pentaho.agilebi.modeler.models.annotations.CreateMeasure;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotation;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationGroup;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationGroup.ApplyStatus;
+import org.pentaho.agilebi.modeler.nodes.DimensionMetaData;
+import org.pentaho.agilebi.modeler.nodes.HierarchyMetaData;
+import org.pentaho.agilebi.modeler.nodes.LevelMetaData;
+import org.pentaho.agilebi.modeler.nodes.MeasureMetaData;
+import org.pentaho.metadata.model.IPhysicalColumn;
+import org.pentaho.metadata.model.LogicalColumn;
+import org.pentaho.metadata.model.LogicalModel;
+import org.pentaho.metadata.model.LogicalTable;
+import org.pentaho.metadata.model.SqlPhysicalColumn;
+import org.pentaho.metadata.model.concept.types.LocalizedString;
+import org.pentaho.metastore.api.IMetaStore;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Applies a group of annotations to a workspace. The modeler library retries failed annotations as long as others
+ * succeed, and each attempt looks the field up by walking every column of the workspace. Two indexes keep that work
+ * down:
+ * <ul>
+ *   <li>the attributes of the group by hierarchy and name, to put every attribute after its parent, so a wide group
+ *   is applied in a single pass instead of one pass per hierarchy level</li>
+ *   <li>the columns, levels and measures of the workspace by name, to resolve the field and parent attribute of each
+ *   attribute and measure up front. Annotations that cannot be resolved fail right away, they never reach the library
+ *   and are not retried on every pass.</li>
+ * </ul>
+ * An annotation that resolves is still applied by the library, which finds its column again on its own.
+ */
+public class AnnotationApplier {
+
+  public Map<ApplyStatus, List<ModelAnnotation>> apply( final ModelerWorkspace workspace,
+      final ModelAnnotationGroup modelAnnotations, final IMetaStore metaStore ) throws ModelerException {
+    ModelAnnotationGroup ordered = order( modelAnnotations );
+    List<ModelAnnotation> unresolved = new ArrayList<ModelAnnotation>();
+    // fields mapped by data providers are resolved by the library only
+    if ( modelAnnotations.getDataProviders() == null || modelAnnotations.getDataProviders().isEmpty() ) {
+      WorkspaceIndex index = new WorkspaceIndex( workspace, modelAnnotations );
+      for ( Iterator<ModelAnnotation> iterator = ordered.iterator(); iterator.hasNext(); ) {
+        ModelAnnotation modelAnnotation = iterator.next();
+        if ( !index.canResolve( modelAnnotation ) ) {
+          unresolved.add( modelAnnotation );
+          iterator.remove();
+        }
+      }
+    }
+    Map<ApplyStatus, List<ModelAnnotation>> statusMap = ordered.applyAnnotations( workspace, metaStore );
+    if ( !unresolved.isEmpty() ) {
+      List<ModelAnnotation> failed = new ArrayList<ModelAnnotation>();
+      if ( statusMap.get( ApplyStatus.FAILED ) != null ) {
+        failed.addAll( statusMap.get( ApplyStatus.FAILED ) );
+      }
+      failed.addAll( unresolved );
+      statusMap.put( ApplyStatus.FAILED, failed );
+    }
+    return statusMap;
+  }
+
+  /**
+   * @return lower case dimensions the attributes of the group are created in
+   */
+  static Set<String> getAttributeDimensions( final ModelAnnotationGroup modelAnnotations ) {
+    Set<String> dimensions = new HashSet<String>();
+    for ( ModelAnnotation modelAnnotation : modelAnnotations ) {
+      CreateAttribute attribute = getAttribute( modelAnnotation );
+      if ( attribute != null && attribute.getDimension() != null ) {
+        dimensions.add( attribute.getDimension().toLowerCase( Locale.ROOT ) );
+      }
+    }
+    return dimensions;
+  }
+
+  /**
+   * @return group with every attribute after its parent attribute, otherwise in the original order
+   */
+  static ModelAnnotationGroup order( final ModelAnnotationGroup modelAnnotations ) {
+    Map<String, ModelAnnotation> attributes = new HashMap<String, ModelAnnotation>();
+    for ( ModelAnnotation modelAnnotation : modelAnnotations ) {
+      CreateAttribute attribute = getAttribute( modelAnnotation );
+      if ( attribute != null && StringUtils.isNotBlank( attribute.getName() ) ) {
+        String key = getKey( attribute, attribute.getName() );
+        if ( !attributes.containsKey( key ) ) {
+          attributes.put( key, modelAnnotation );
+        }
+      }
+    }
+
+    ModelAnnotationGroup ordered = new ModelAnnotationGroup();
+    ordered.setName( modelAnnotations.getName() );
+    ordered.setDescription( modelAnnotations.getDescription() );
+    ordered.setSharedDimension( modelAnnotations.isSharedDimension() );
+    ordered.setDataProviders( modelAnnotations.getDataProviders() );
+    Map<ModelAnnotation, Boolean> added = new IdentityHashMap<ModelAnnotation, Boolean>();
+    List<ModelAnnotation> chain = new ArrayList<ModelAnnotation>();
+    for ( ModelAnnotation modelAnnotation : modelAnnotations ) {
+      // walk up to the first ancestor not added yet, then add the chain top down
+      ModelAnnotation current = modelAnnotation;
+      while ( current != null && !added.containsKey( current ) ) {
+        added.put( current, Boolean.TRUE );
+        chain.add( current );
+        current = getParent( current, attributes );
+      }
+      for ( int i = chain.size() - 1; i >= 0; i-- ) {
+        ordered.add( chain.get( i ) );
+      }
+      chain.clear();
+    }
+    return ordered;
+  }
+
+  private static ModelAnnotation getParent( final ModelAnnotation modelAnnotation,
+      final Map<String, ModelAnnotation> attributes ) {
+    CreateAttribute attribute = getAttribute( modelAnnotation );
+    if ( attribute == null || StringUtils.isBlank( attribute.getParentAttribute() ) ) {
+      return null;
+    }
+    return attributes.get( getKey( attribute, attribute.getParentAttribute() ) );
+  }
+
+  private static CreateAttribute getAttribute( final ModelAnnotation modelAnnotation ) {
+    if ( modelAnnotation != null && modelAnnotation.getAnnotation() instanceof CreateAttribute ) {
+      return (CreateAttribute) modelAnnotation.getAnnotation();
+    }
+    return null;
+  }
+
+  private static String getKey( final CreateAttribute attribute, final String name ) {
+    String hierarchy = StringUtils.defaultIfBlank( attribute.getHierarchy(), attribute.getDimension() );
+    return ( StringUtils.defaultString( attribute.getDimension() ) + '|' + StringUtils.defaultString( hierarchy )
+        + '|' + name ).toLowerCase( Locale.ROOT );
+  }
+
+  /**
+   * Names in the workspace an attribute or measure can refer to. Names are compared without case, spaces or
+   * underscores, so any spelling the library accepts is found, and an annotation is only failed when the library
+   * could not apply it either.
+   */
+  private static class WorkspaceIndex {
+    private final Set<String> fields = new HashSet<String>();
+    private final Set<String> levels = new HashSet<String>();
+
+    WorkspaceIndex( final ModelerWorkspace workspace, final ModelAnnotationGroup modelAnnotations ) {
+      LogicalModel logicalModel = workspace.getLogicalModel( ModelerPerspective.ANALYSIS );
+      if ( logicalModel != null ) {
+        for ( LogicalTable logicalTable : logicalModel.getLogicalTables() ) {
+          for ( LogicalColumn logicalColumn : logicalTable.getLogicalColumns() ) {
+            addNames( fields, logicalColumn.getId(), logicalColumn.getName() );
+            IPhysicalColumn physicalColumn = logicalColumn.getPhysicalColumn();
+            if ( physicalColumn != null ) {
+              addNames( fields, physicalColumn.getId(), physicalColumn.getName() );
+              if ( physicalColumn instanceof SqlPhysicalColumn ) {
+                add( fields, ( (SqlPhysicalColumn) physicalColumn ).getTargetColumn() );
+              }
+            }
+          }
+        }
+      }
+      if ( workspace.getModel() != null ) {
+        for ( DimensionMetaData dimension : workspace.getModel().getDimensions() ) {
+          for ( HierarchyMetaData hierarchy : dimension ) {
+            for ( LevelMetaData level : hierarchy ) {
+              add( levels, level.getName() );
+              add( fields, level.getName() );
+            }
+          }
+        }
+        for ( MeasureMetaData measure : workspace.getModel().getMeasures() ) {
+          add( fields, measure.getName() );
+        }
+      }
+      // parents created by the group itself
+      for ( ModelAnnotation modelAnnotation : modelAnnotations ) {
+        CreateAttribute attribute = getAttribute( modelAnnotation );
+        if ( attribute != null ) {
+          add( levels, attribute.getName() );
+        }
+      }
+    }
+
+    /**
+     * @return false if the annotation is an attribute or measure whose field or parent attribute is not there
+     */
+    boolean canResolve( final ModelAnnotation modelAnnotation ) {
+      AnnotationType annotation = modelAnnotation == null ? null : modelAnnotation.getAnnotation();
+      if ( !( annotation instanceof CreateAttribute || annotation instanceof CreateMeasure ) ) {
+        return true;
+      }
+      if ( StringUtils.isNotBlank( annotation.getField() ) && !fields.contains( normalize( annotation.getField() ) ) ) {
+        return false;
+      }
+      if ( annotation instanceof CreateAttribute ) {
+        String parent = ( (CreateAttribute) annotation ).getParentAttribute();
+        return StringUtils.isBlank( parent ) || levels.contains( normalize( parent ) );
+      }
+      return true;
+    }
+
+    private static void addNames( final Set<String> names, final String id, final LocalizedString name ) {
+      add( names, id );
+      if ( name != null ) {
+        for ( String locale : name.getLocales() ) {
+          add( names, name.getString( locale ) );
+        }
+      }
+    }
+
+    private static void add( final Set<String> names, final String name ) {
+      if ( StringUtils.isNotBlank( name ) ) {
+        names.add( normalize( name ) );
+      }
+    }
+
+    private static String normalize( final String name ) {
+      return StringUtils.remove( StringUtils.deleteWhitespace( name ), '_' ).toLowerCase( Locale.ROOT );
+    }
+  }
+}
@@ -0,0 +1,348 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2017 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+
+package org.pentaho.di.core.refinery.model;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.refinery.model.ModelServerFetcher.AuthorizationException;
+import org.pentaho.di.core.refinery.model.ModelServerFetcher.ServerException;
+import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
+import org.pentaho.di.core.refinery.publish.util.Fingerprint;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+
+/**
+ * Local mirror of the DSW and analysis datasource ids of each server and user, so checking a model exists or
+ * listing the models doesn't download and parse both catalogs every time.
+ * <p>
+ * A mirror older than {@value #TTL_PROPERTY} ms (default {@value #DEFAULT_TTL}) keeps answering listings while it
+ * is refreshed in the background. {@link #contains} only answers a hit from a mirror within the TTL: a miss, or a
+ * hit in a stale mirror, always lists the catalogs again before answering, so a model created since is never reported
+ * as missing and a deleted one is not reported as present. The datasource REST API only lists whole catalogs, so a
+ * refresh lists both of them concurrently and replaces the mirror as a whole. Publishing through {@link
+ * org.pentaho.di.job.entries.publish.DatasourcePublishService} drops the mirror of the server.
+ * <p>
+ * Disabled unless {@value #ENABLED_PROPERTY} is set to Y. Mirrors are also saved to {@value #DIRECTORY_PROPERTY} if
+ * set, so a new process starts with the last known catalogs and refreshes them in the background. Saved mirrors older
+ * than {@value #MAX_AGE_PROPERTY} ms (default {@value #DEFAULT_MAX_AGE}) are not used.
+ */
+public class DatasourceCatalog {
+
+  public static final String ENABLED_PROPERTY = "KETTLE_DATA_REFINERY_CATALOG_MIRROR";
+  public static final String TTL_PROPERTY = "KETTLE_DATA_REFINERY_CATALOG_TTL";
+  public static final String DIRECTORY_PROPERTY = "KETTLE_DATA_REFINERY_CATALOG_DIR";
+  public static final String MAX_AGE_PROPERTY = "KETTLE_DATA_REFINERY_CATALOG_MAX_AGE";
+
+  public static final int DEFAULT_TTL = 60000;
+  public static final int DEFAULT_MAX_AGE = 3600000;
+
+  private static final String EXTENSION = ".catalog";
+  private static final String DSW_PREFIX = "D ";
+  private static final String ANALYSIS_PREFIX = "A ";
+
+  private static final Executor REFRESH_EXECUTOR = Executors.newSingleThreadExecutor( new ThreadFactory() {
+    @Override public Thread newThread( Runnable r ) {
+      Thread thread = new Thread( r, "data-refinery-catalog-refresh" );
+      thread.setDaemon( true );
+      return thread;
+    }
+  } );
+
+  private static DatasourceCatalog instance;
+
+  private final long ttl;
+  private final long maxAge;
+  private final File directory;
+  private final Executor refreshExecutor;
+  private final ConcurrentMap<String, Mirror> mirrors = new ConcurrentHashMap<String, Mirror>();
+  private final Set<String> refreshing = Collections.newSetFromMap( new ConcurrentHashMap<String, Boolean>() );
+  private final AtomicLong refreshes = new AtomicLong();
+
+  /**
+   * @return shared catalog or null if the mirror is not enabled
+   */
+  public static synchronized DatasourceCatalog getInstance() {
+    if ( !"Y".equalsIgnoreCase( System.getProperty( ENABLED_PROPERTY ) ) ) {
+      return null;
+    }
+    if ( instance == null ) {
+      String directory = System.getProperty( DIRECTORY_PROPERTY );
+      instance = new DatasourceCatalog( Const.toInt( System.getProperty( TTL_PROPERTY ), DEFAULT_TTL ),
+          Const.toInt( System.getProperty( MAX_AGE_PROPERTY ), DEFAULT_MAX_AGE ),
+          StringUtils.isBlank( directory ) ? null : new File( directory ) );
+    }
+    return instance;
+  }
+
+  /**
+   * @param directory where mirrors are saved, null to keep them in memory only
+   */
+  public DatasourceCatalog( long ttl, File directory ) {
+    this( ttl, DEFAULT_MAX_AGE, directory );
+  }
+
+  /**
+   * @param maxAge    age of a saved mirror beyond which it is listed again instead of loaded
+   * @param directory where mirrors are saved, null to keep them in memory only
+   */
+  public DatasourceCatalog( long ttl, long maxAge, File directory ) {
+    this( ttl, maxAge, directory, REFRESH_EXECUTOR );
+  }
+
+  DatasourceCatalog( long ttl, long maxAge, File directory, Executor refreshExecutor ) {
+    this.ttl = ttl;
+    this.maxAge = maxAge;
+    this.directory = directory;
+    this.refreshExecutor = refreshExecutor;
+  }
+
+  /**
+   * Ids of a server catalog, both sets are read only.
+   */
+  public static class Mirror {
+    private final Set<String> dswIds;
+    private final Set<String> analysisIds;
+    private final long loaded;
+
+    Mirror( Collection<String> dswIds, Collection<String> analysisIds, long loaded ) {
+      this.dswIds = Collections.unmodifiableSet( new HashSet<String>( dswIds ) );
+      this.analysisIds = Collections.unmodifiableSet( new HashSet<String>( analysisIds ) );
+      this.loaded = loaded;
+    }
+
+    public boolean contains( String id ) {
+      return dswIds.contains( id ) || analysisIds.contains( id );
+    }
+
+    public Set<String> getDswIds() {
+      return dswIds;
+    }
+
+    public Set<String> getAnalysisIds() {
+      return analysisIds;
+    }
+
+    /**
+     * @return DSW and analysis ids in natural order
+     */
+    public SortedSet<String> getIds() {
+      SortedSet<String> ids = new TreeSet<String>( dswIds );
+      ids.addAll( analysisIds );
+      return ids;
+    }
+
+    public long getLoaded() {
+      return loaded;
+    }
+  }
+
+  /**
+   * Answers from the mirror only if it is within the TTL and has the id, anything else lists the catalogs again.
+   *
+   * @return whether the server of the fetcher has a DSW or analysis datasource with this id
+   */
+  public boolean contains( final ModelServerFetcher fetcher, final String id )
+    throws AuthorizationException, ServerException {
+    Mirror mirror = getCachedMirror( getKey( fetcher.getBiServerConnection() ) );
+    if ( mirror != null && !isStale( mirror ) && mirror.contains( id ) ) {
+      return true;
+    }
+    // may have been created, or deleted, since the last refresh
+    return refresh( fetcher ).contains( id );
+  }
+
+  /**
+   * @return mirror of the server catalogs, loaded if there is none yet and refreshed in the background if stale
+   */
+  public Mirror getMirror( final ModelServerFetcher fetcher ) throws AuthorizationException, ServerException {
+    final String key = getKey( fetcher.getBiServerConnection() );
+    Mirror mirror = getCachedMirror( key );
+    if ( mirror == null ) {
+      return refresh( fetcher );
+    }
+    if ( isStale( mirror ) && refreshing.add( key ) ) {
+      try {
+        refreshExecutor.execute( new Runnable() {
+          @Override public void run() {
+            try {
+              refresh( fetcher );
+            } catch ( Exception e ) {
+              // keep answering from the stale mirror, the next lookup tries again
+            } finally {
+              refreshing.remove( key );
+            }
+          }
+        } );
+      } catch ( RejectedExecutionException e ) {
+        refreshing.remove( key );
+      }
+    }
+    return mirror;
+  }
+
+  /**
+   * @return mirror in memory or saved by an earlier process, null if there is none
+   */
+  private Mirror getCachedMirror( final String key ) {
+    Mirror mirror = mirrors.get( key );
+    if ( mirror == null ) {
+      mirror = load( key );
+      if ( mirror != null ) {
+        Mirror current = mirrors.putIfAbsent( key, mirror );
+        mirror = current == null ? mirror : current;
+      }
+    }
+    return mirror;
+  }
+
+  private boolean isStale( final Mirror mirror ) {
+    return System.currentTimeMillis() - mirror.getLoaded() >= ttl;
+  }
+
+  /**
+   * Lists both catalogs of the server concurrently and replaces its mirror.
+   */
+  public Mirror refresh( final ModelServerFetcher fetcher ) throws AuthorizationException, ServerException {
+    String key = getKey( fetcher.getBiServerConnection() );
+    final long started = System.currentTimeMillis();
+    Mirror mirror = ModelServerFetcher.await( fetcher.fetchDswListAsync().thenCombine( fetcher.fetchAnalysisListAsync(),
+        new BiFunction<List<String>, List<String>, Mirror>() {
+          @Override public Mirror apply( List<String> dswIds, List<String> analysisIds ) {
+            return new Mirror( dswIds, analysisIds, started );
+          }
+        } ) );
+    refreshes.incrementAndGet();
+    mirrors.put( key, mirror );
+    save( key, mirror );
+    return mirror;
+  }
+
+  /**
+   * Drops the mirror of a server, e.g. after publishing to it.
+   */
+  public void invalidate( final BiServerConnection connection ) {
+    String key = getKey( connection );
+    mirrors.remove( key );
+    if ( directory != null ) {
+      getFile( key ).delete();
+    }
+  }
+
+  /**
+   * @return number of times a catalog was listed from a server
+   */
+  public long getRefreshes() {
+    return refreshes.get();
+  }
+
+  static String getKey( final BiServerConnection connection ) {
+    return connection == null ? "" : connection.getUrl() + '|' + connection.getUserId();
+  }
+
+  private File getFile( String key ) {
+    return new File( directory, new Fingerprint().add( key ).getValue() + EXTENSION );
+  }
+
+  private Mirror load( String key ) {
+    if ( directory == null ) {
+      return null;
+    }
+    File file = getFile( key );
+    // too old to answer even while refreshed in the background
+    if ( !file.isFile() || System.currentTimeMillis() - file.lastModified() >= maxAge ) {
+      return null;
+    }
+    try {
+      List<String> dswIds = new ArrayList<String>();
+      List<String> analysisIds = new ArrayList<String>();
+      List<?> lines = FileUtils.readLines( file, Const.XML_ENCODING );
+      // first line is the key, in case of a hash collision
+      if ( lines.isEmpty() || !key.equals( lines.get( 0 ) ) ) {
+        return null;
+      }
+      for ( Object line : lines.subList( 1, lines.size() ) ) {
+        String id = (String) line;
+        if ( id.startsWith( DSW_PREFIX ) ) {
+          dswIds.add( id.substring( DSW_PREFIX.length() ) );
+        } else if ( id.startsWith( ANALYSIS_PREFIX ) ) {
+          analysisIds.add( id.substring( ANALYSIS_PREFIX.length() ) );
+        }
+      }
+      return new Mirror( dswIds, analysisIds, file.lastModified() );
+    } catch ( IOException e ) {
+      return null;
+    }
+  }
+
+  private void save( String key, Mirror mirror ) {
+    if ( directory == null ) {
+      return;
+    }
+    List<String> lines = new ArrayList<String>( mirror.getDswIds().size() + mirror.getAnalysisIds().size() + 1 );
+    lines.add( key );
+    for ( String id : mirror.getDswIds() ) {
+      lines.add( DSW_PREFIX + id );
+    }
+    for ( String id : mirror.getAnalysisIds() ) {
+      lines.add( ANALYSIS_PREFIX + id );
+    }
+    try {
+      if ( !directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory() ) {
+        return;
+      }
+      // write aside and rename so another process never reads a partial file
+      File temp = File.createTempFile( "catalog", ".tmp", directory );
+      try {
+        FileUtils.writeLines( temp, Const.XML_ENCODING, lines );
+        File file = getFile( key );
+        if ( !temp.renameTo( file ) ) {
+          file.delete();
+          temp.renameTo( file );
+        }
+      } finally {
+        temp.delete();
+      }
+    } catch ( IOException e ) {
+      // the in-memory mirror is still up to date
+    }
+  }
+}
@@ -22,6 +22,7 @@
 
 package org.pentaho.di.core.refinery.model;
 
+import org.apache.commons.lang.SerializationUtils;
 import org.apache.commons.lang.StringUtils;
 import org.pentaho.agilebi.modeler.BaseModelerWorkspaceHelper;
 import org.pentaho.agilebi.modeler.ModelerException;
@@ -30,8 +31,6 @@ import org.pentaho.agilebi.modeler.ModelerWorkspace;
 import org.pentaho.agilebi.modeler.geo.GeoContext;
 import org.pentaho.agilebi.modeler.geo.GeoContextConfigProvider;
 import org.pentaho.agilebi.modeler.geo.GeoContextFactory;
-import org.pentaho.agilebi.modeler.models.annotations.AnnotationType;
-import org.pentaho.agilebi.modeler.models.annotations.CreateAttribute;
 import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotation;
 import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationGroup;
 import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationGroup.ApplyStatus;
@@ -87,6 +86,10 @@ public class DswModeler {
 
   private boolean useJndi = true;
 
+  private TableMetadataCache tableMetadataCache;
+
+  private GeoContextCache geoContextCache;
+
   public DswModeler() {
 
   }
@@ -107,6 +110,21 @@ public class DswModeler {
     this.useJndi = useJndi;
   }
 
+  public boolean isUseJndi() {
+    return useJndi;
+  }
+
+  public TableMetadataCache getTableMetadataCache() {
+    return tableMetadataCache;
+  }
+
+  /**
+   * @param tableMetadataCache cache of generated physical models, null to always query the database
+   */
+  public void setTableMetadataCache( TableMetadataCache tableMetadataCache ) {
+    this.tableMetadataCache = tableMetadataCache;
+  }
+
   /**
    * Creates a new DSW-enabled XMI model
    * @param modelName
@@ -123,7 +141,7 @@ public class DswModeler {
                              final IMetaStore metaStore )
     throws ModelerException {
     // Create PME with physical metadata and then set into modeler
-    Domain domain = source.generateDomain( importStrategy );
+    Domain domain = generateDomain( source, dbMeta, importStrategy );
 
     if ( domain.getLogicalModels().get( 0 ).getLogicalTables().get( 0 ).getLogicalColumns().size() == 0 ) {
       throw new ModelerException( BaseMessages.getString( PKG, "BuildModelJob.Error.NoData" ) );
@@ -165,37 +183,57 @@ public class DswModeler {
     return modeledDomain;
   }
 
+  private Domain generateDomain( final TableModelerSource source, final DatabaseMeta dbMeta,
+                                 final PhysicalTableImporter.ImportStrategy importStrategy ) throws ModelerException {
+    String strategyKey = getStrategyKey( importStrategy );
+    // a domain built from the written fields costs no database round trip
+    if ( tableMetadataCache == null || strategyKey == null || source instanceof RowMetaModelerSource ) {
+      return source.generateDomain( importStrategy );
+    }
+    // the domain's data source is named after the connection, connections to the same table get their own domain
+    Domain domain = tableMetadataCache.get( dbMeta, source.getSchemaName(), source.getTableName(),
+        "domain|" + dbMeta.getName() + "|" + strategyKey,
+        new TableMetadataCache.Loader<Domain, ModelerException>() {
+          @Override public Domain load() throws ModelerException {
+            return source.generateDomain( importStrategy );
+          }
+        } );
+    // the modeler changes the domain it works on
+    return (Domain) SerializationUtils.clone( domain );
+  }
+
+  /**
+   * @return what decides the columns the strategy imports, null if unknown
+   */
+  private String getStrategyKey( final PhysicalTableImporter.ImportStrategy importStrategy ) {
+    if ( importStrategy == PhysicalTableImporter.defaultImportStrategy ) {
+      return "default";
+    }
+    if ( importStrategy instanceof RefineryValueMetaStrategy ) {
+      return ( (RefineryValueMetaStrategy) importStrategy ).getCacheKey();
+    }
+    return null;
+  }
+
   private boolean hasGeoDimConflict( GeoContext geoContext, ModelAnnotationGroup annotations ) {
     if ( geoContext == null || StringUtils.isEmpty( geoContext.getDimensionName() ) ) {
       return false;
     }
-    String geoDim = geoContext.getDimensionName();
-    for ( ModelAnnotation<? extends AnnotationType> annotation : annotations ) {
-      if ( annotation.getType().equals( ModelAnnotation.Type.CREATE_ATTRIBUTE ) ) {
-        if ( geoDim.equalsIgnoreCase( ( (CreateAttribute) annotation.getAnnotation() ).getDimension() ) ) {
-          return true;
-        }
-      }
-    }
-    return false;
+    return AnnotationApplier.getAttributeDimensions( annotations )
+        .contains( geoContext.getDimensionName().toLowerCase( Locale.ROOT ) );
   }
 
   private void removeAutoGeo( final ModelerWorkspace workspace ) {
+    GeoContext geoContext = workspace.getGeoContext();
+    if ( geoContext == null ) {
+      return;
+    }
+    String geoDim = geoContext.getDimensionName();
     DimensionMetaDataCollection dimensions = workspace.getModel().getDimensions();
     DimensionMetaData toRemove = null;
-    GeoContext geoContext = workspace.getGeoContext();
     for ( DimensionMetaData dimensionMetaData : dimensions ) {
-      if ( geoContext != null && dimensionMetaData.getName().equals( geoContext.getDimensionName() ) ) {
-        for ( HierarchyMetaData hierarchyMetaData : dimensionMetaData ) {
-          if ( hierarchyMetaData.getName().equals( geoContext.getDimensionName() ) ) {
-            for ( LevelMetaData levelMetaData : hierarchyMetaData ) {
-              if ( levelMetaData.getMemberAnnotations().get( "Data.Role" ) != null ) {
-                toRemove = dimensionMetaData;
-                break;
-              }
-            }
-          }
-        }
+      if ( dimensionMetaData.getName().equals( geoDim ) && hasGeoRole( dimensionMetaData, geoDim ) ) {
+        toRemove = dimensionMetaData;
       }
     }
     if ( toRemove != null ) {
@@ -203,10 +241,26 @@ public class DswModeler {
     }
   }
 
+  private boolean hasGeoRole( final DimensionMetaData dimensionMetaData, final String geoDim ) {
+    for ( HierarchyMetaData hierarchyMetaData : dimensionMetaData ) {
+      if ( hierarchyMetaData.getName().equals( geoDim ) ) {
+        for ( LevelMetaData levelMetaData : hierarchyMetaData ) {
+          if ( levelMetaData.getMemberAnnotations().get( "Data.Role" ) != null ) {
+            return true;
+          }
+        }
+      }
+    }
+    return false;
+  }
+
   private GeoContext initGeoContext() {
     try {
       GeoContextConfigProvider config = getGeoContextConfigProvider();
 
+      if ( geoContextCache != null ) {
+        return geoContextCache.getGeoContext( config );
+      }
       return GeoContextFactory.create( config );
     } catch ( Throwable e ) {
       log.logDebug( "unable to locate geoRoles properties" );
@@ -218,7 +272,7 @@ public class DswModeler {
       final ModelerWorkspace model, final ModelAnnotationGroup modelAnnotations, final IMetaStore metaStore )
     throws ModelerException {
     Map<ApplyStatus, List<ModelAnnotation>> statusMap =
-        modelAnnotations.applyAnnotations( model, metaStore );
+        new AnnotationApplier().apply( model, modelAnnotations, metaStore );
     if ( log.isBasic() ) {
       logBasic( statusMap.get( SUCCESS ), "ModelAnnotation.log.AnnotationSuccess" );
       logBasic( statusMap.get( FAILED ), "ModelAnnotation.log.AnnotationFailure" );
@@ -260,9 +314,25 @@ public class DswModeler {
    */
   public Domain updateModel( String modelName, Domain domain, DatabaseMeta dbMeta, String schemaName, String tableName )
     throws ColumnMismatchException, UnsupportedModelException, PentahoMetadataException {
+    SqlPhysicalModel physicalModel = createPhysicalModel( modelName, dbMeta, schemaName, tableName );
+    return updateModel( modelName, domain, dbMeta, physicalModel );
+  }
+
+  /**
+   * Updates the connection for an existing DSW, pointing it to the table of the given physical model
+   *
+   * @param modelName Name of model to be generated ( no .xmi )
+   * @param domain Template model
+   * @param dbMeta
+   * @param physicalModel single table physical model, e.g. from {@link RowMetaModelerSource#generatePhysicalModel}
+   * @return
+   * @throws ColumnMismatchException
+   * @throws UnsupportedModelException
+   */
+  public Domain updateModel( String modelName, Domain domain, DatabaseMeta dbMeta, SqlPhysicalModel physicalModel )
+    throws ColumnMismatchException, UnsupportedModelException {
     final String dswId = modelName + ".xmi";
     domain.setId( dswId ); // ?
-    SqlPhysicalModel physicalModel = createPhysicalModel( modelName, dbMeta, schemaName, tableName );
     updatePhysicalModel( domain, physicalModel );
     updateDatasourceAccess( domain, dbMeta );
     updateModelName( modelName, domain );
@@ -401,6 +471,17 @@ public class DswModeler {
     this.geoContextConfigProvider = geoContextConfigProvider;
   }
 
+  /**
+   * @return shared geo context, null if the context is built for every model
+   */
+  public GeoContextCache getGeoContextCache() {
+    return geoContextCache;
+  }
+
+  public void setGeoContextCache( GeoContextCache geoContextCache ) {
+    this.geoContextCache = geoContextCache;
+  }
+
   private static class ColumnKey {
     private DataType dataType;
     private String columnName;
@@ -442,7 +523,22 @@ public class DswModeler {
     }
   }
 
-  private SqlPhysicalModel createPhysicalModel( String modelName, DatabaseMeta dbMeta, String schema, String table )
+  private SqlPhysicalModel createPhysicalModel( final String modelName, final DatabaseMeta dbMeta,
+                                                final String schema, final String table )
+    throws PentahoMetadataException {
+    if ( tableMetadataCache == null ) {
+      return generatePhysicalModel( modelName, dbMeta, schema, table );
+    }
+    SqlPhysicalModel physicalModel = tableMetadataCache.get( dbMeta, schema, table, "physical|" + modelName,
+        new TableMetadataCache.Loader<SqlPhysicalModel, PentahoMetadataException>() {
+          @Override public SqlPhysicalModel load() throws PentahoMetadataException {
+            return generatePhysicalModel( modelName, dbMeta, schema, table );
+          }
+        } );
+    return (SqlPhysicalModel) SerializationUtils.clone( physicalModel );
+  }
+
+  private SqlPhysicalModel generatePhysicalModel( String modelName, DatabaseMeta dbMeta, String schema, String table )
     throws PentahoMetadataException {
     SchemaTable schemaTable = new SchemaTable( schema, table );
     // generate a new physical domain
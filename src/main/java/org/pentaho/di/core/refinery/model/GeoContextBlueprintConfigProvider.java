@@ -35,6 +35,8 @@ import java.util.Hashtable;
  */
 public class GeoContextBlueprintConfigProvider implements GeoContextConfigProvider {
 
+  public static final String PID = "pentaho.geo.roles";
+
   private BundleContext bundleContext;
   protected Dictionary<String, Object> props = new Hashtable<>();
 
@@ -48,6 +50,15 @@ public class GeoContextBlueprintConfigProvider implements GeoContextConfigProvid
     initProps();
   }
 
+  /**
+   * Reads the configuration again, after it was changed
+   */
+  public void reload() {
+    if ( bundleContext != null ) {
+      initProps();
+    }
+  }
+
   protected void initProps() {
 
     final ServiceReference serviceReference = getBundleContext().getServiceReference( ConfigurationAdmin.class.getName() );
@@ -55,7 +66,7 @@ public class GeoContextBlueprintConfigProvider implements GeoContextConfigProvid
 
       try {
         final ConfigurationAdmin admin = (ConfigurationAdmin) getBundleContext().getService( serviceReference );
-        final Configuration configuration = admin.getConfiguration( "pentaho.geo.roles" );
+        final Configuration configuration = admin.getConfiguration( PID );
         props = configuration.getProperties();
       } catch ( Exception e ) {
         props = new Hashtable<>();
@@ -0,0 +1,136 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2017 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.model;
+
+import org.osgi.service.cm.ConfigurationEvent;
+import org.osgi.service.cm.ConfigurationListener;
+import org.pentaho.agilebi.modeler.ModelerException;
+import org.pentaho.agilebi.modeler.geo.GeoContext;
+import org.pentaho.agilebi.modeler.geo.GeoContextConfigProvider;
+import org.pentaho.agilebi.modeler.geo.GeoContextFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shares the geo context between model builds. Building it compiles the alias patterns of every geo role, so it is
+ * built once and again only after the {@value GeoContextBlueprintConfigProvider#PID} configuration changes.
+ * <p>
+ * Registered as a configuration listener in the blueprint. Meant for providers reading that configuration, the
+ * context of the first provider asking is shared with the others.
+ */
+public class GeoContextCache implements ConfigurationListener {
+
+  /**
+   * ms before a build that failed is tried again
+   */
+  public static final long DEFAULT_RETRY_DELAY = 60000;
+
+  private static GeoContextCache instance;
+
+  private final long retryDelay;
+  private GeoContext geoContext;
+  private boolean built;
+  private ModelerException failure;
+  private long failedAt;
+  private long buildCount;
+  private long buildTime;
+
+  public static synchronized GeoContextCache getInstance() {
+    if ( instance == null ) {
+      instance = new GeoContextCache();
+    }
+    return instance;
+  }
+
+  public GeoContextCache() {
+    this( DEFAULT_RETRY_DELAY );
+  }
+
+  /**
+   * @param retryDelay ms during which a failed build is reported again instead of being retried
+   */
+  public GeoContextCache( long retryDelay ) {
+    this.retryDelay = retryDelay;
+  }
+
+  /**
+   * @return shared geo context, null if the configuration has no usable geo roles
+   * @throws ModelerException if building the context failed, now or less than the retry delay ago
+   */
+  public synchronized GeoContext getGeoContext( GeoContextConfigProvider provider ) throws ModelerException {
+    if ( !built ) {
+      if ( failure != null && System.currentTimeMillis() - failedAt < retryDelay ) {
+        throw new ModelerException( failure.getMessage(), failure );
+      }
+      geoContext = null;
+      failure = null;
+      long start = System.nanoTime();
+      try {
+        if ( provider instanceof GeoContextBlueprintConfigProvider ) {
+          // prototype providers read the configuration once, this one may predate the change
+          ( (GeoContextBlueprintConfigProvider) provider ).reload();
+        }
+        geoContext = GeoContextFactory.create( provider );
+        built = true;
+      } catch ( ModelerException e ) {
+        failure = e;
+        failedAt = System.currentTimeMillis();
+        throw e;
+      } finally {
+        buildCount++;
+        buildTime += TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start );
+      }
+    }
+    return geoContext;
+  }
+
+  /**
+   * Drops the shared context, the next build creates it again.
+   */
+  public synchronized void invalidate() {
+    geoContext = null;
+    built = false;
+    failure = null;
+  }
+
+  @Override
+  public void configurationEvent( ConfigurationEvent event ) {
+    if ( GeoContextBlueprintConfigProvider.PID.equals( event.getPid() ) ) {
+      invalidate();
+    }
+  }
+
+  /**
+   * @return times the context was built
+   */
+  public synchronized long getBuildCount() {
+    return buildCount;
+  }
+
+  /**
+   * @return total ms spent building the context
+   */
+  public synchronized long getBuildTime() {
+    return buildTime;
+  }
+}
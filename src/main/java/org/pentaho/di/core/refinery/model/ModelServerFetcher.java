@@ -22,37 +22,62 @@
 
 package org.pentaho.di.core.refinery.model;
 
+import com.sun.jersey.api.client.ClientHandlerException;
 import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.api.client.WebResource;
 import org.apache.commons.httpclient.URIException;
 import org.apache.commons.httpclient.util.URIUtil;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.StringUtils;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
 import org.pentaho.di.core.refinery.publish.agilebi.ModelServerAction;
+import org.pentaho.di.core.refinery.publish.util.ServerResilience;
 import org.pentaho.metadata.model.Domain;
 import org.pentaho.metadata.util.XmiParser;
-import org.w3c.dom.NodeList;
-import org.xml.sax.InputSource;
 
 import javax.ws.rs.core.MediaType;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
 public class ModelServerFetcher extends ModelServerAction {
 
+  private static final int NOT_MODIFIED = 304;
+
+  private static final ExecutorService LISTING_EXECUTOR = Executors.newCachedThreadPool( new ThreadFactory() {
+    @Override public Thread newThread( Runnable r ) {
+      Thread thread = new Thread( r, "data-refinery-datasource-listing" );
+      thread.setDaemon( true );
+      return thread;
+    }
+  } );
+
+  private static XMLInputFactory inputFactory;
+
   private enum DataSourceType {
     ANALYSIS( "analysis" ),
-    DSW( "dsw" );
+    DSW( "dsw" ),
+    METADATA( "metadata" );
 
     private static final String DATASOURCE_PATH = "plugin/data-access/api/datasource";
     private final String listPath;
@@ -102,36 +127,180 @@ public class ModelServerFetcher extends ModelServerAction {
     return fetchDatasourceIds( DataSourceType.ANALYSIS.getListPath() );
   }
 
+  /**
+   * @return future of the accessible DSW IDs, listed on a background thread
+   */
+  public CompletableFuture<List<String>> fetchDswListAsync() {
+    return fetchIdsAsync( DataSourceType.DSW.getListPath() );
+  }
+
+  /**
+   * @return future of the accessible analysis datasource IDs, listed on a background thread
+   */
+  public CompletableFuture<List<String>> fetchAnalysisListAsync() {
+    return fetchIdsAsync( DataSourceType.ANALYSIS.getListPath() );
+  }
+
+  /**
+   * Lists the DSW and analysis datasources concurrently.
+   *
+   * @return future of the accessible IDs of both kinds, in natural order
+   */
+  public CompletableFuture<SortedSet<String>> fetchAllDatasourceIdsAsync() {
+    return fetchDswListAsync().thenCombine( fetchAnalysisListAsync(),
+        new BiFunction<List<String>, List<String>, SortedSet<String>>() {
+          @Override public SortedSet<String> apply( List<String> dswIds, List<String> analysisIds ) {
+            SortedSet<String> ids = new TreeSet<String>( dswIds );
+            ids.addAll( analysisIds );
+            return ids;
+          }
+        } );
+  }
+
+  /**
+   * @return accessible DSW and analysis datasource IDs, in natural order
+   * @throws AuthorizationException
+   * @throws ServerException
+   */
+  public SortedSet<String> fetchAllDatasourceIds() throws AuthorizationException, ServerException {
+    return await( fetchAllDatasourceIdsAsync() );
+  }
+
+  /**
+   * Reads the DSW and analysis listings concurrently, both parsed only until the id is found.
+   *
+   * @return whether a DSW or analysis datasource with this id is accessible
+   * @throws AuthorizationException
+   * @throws ServerException
+   */
+  public boolean datasourceExists( final String id ) throws AuthorizationException, ServerException {
+    final AtomicBoolean found = new AtomicBoolean();
+    final IdCallback finder = new IdCallback() {
+      @Override public boolean onId( String listed ) {
+        if ( listed.equals( id ) ) {
+          found.set( true );
+        }
+        return !found.get();
+      }
+    };
+    CompletableFuture<Void> dsw = CompletableFuture.runAsync( new Runnable() {
+      @Override public void run() {
+        try {
+          fetchDatasourceIds( DataSourceType.DSW.getListPath(), finder );
+        } catch ( AuthorizationException | ServerException e ) {
+          throw new CompletionException( e );
+        }
+      }
+    }, LISTING_EXECUTOR );
+    try {
+      fetchDatasourceIds( DataSourceType.ANALYSIS.getListPath(), finder );
+    } catch ( AuthorizationException | ServerException e ) {
+      if ( !found.get() ) {
+        await( dsw );
+        if ( !found.get() ) {
+          throw e;
+        }
+      }
+    }
+    if ( !found.get() ) {
+      await( dsw );
+    }
+    return found.get();
+  }
+
+  /**
+   * Parses the metadata domain listing only until the domain is found.
+   *
+   * @return whether a metadata domain with this id, with or without the .xmi the server may add, is accessible
+   * @throws AuthorizationException
+   * @throws ServerException
+   */
+  public boolean metadataExists( final String domainId ) throws AuthorizationException, ServerException {
+    return isListed( DataSourceType.METADATA.getListPath(), domainId, domainId + ".xmi" );
+  }
+
+  /**
+   * Streams the accessible DSW IDs to the callback as they are parsed.
+   */
+  public void fetchDswIds( IdCallback callback ) throws AuthorizationException, ServerException {
+    fetchDatasourceIds( DataSourceType.DSW.getListPath(), callback );
+  }
+
+  /**
+   * Streams the accessible analysis datasource IDs to the callback as they are parsed.
+   */
+  public void fetchAnalysisIds( IdCallback callback ) throws AuthorizationException, ServerException {
+    fetchDatasourceIds( DataSourceType.ANALYSIS.getListPath(), callback );
+  }
+
   protected List<String> fetchDatasourceIds( String path ) throws AuthorizationException, ServerException {
+    final ArrayList<String> result = new ArrayList<String>();
+    fetchDatasourceIds( path, new IdCallback() {
+      @Override public boolean onId( String id ) {
+        result.add( id );
+        return true;
+      }
+    } );
+    return result;
+  }
+
+  private CompletableFuture<List<String>> fetchIdsAsync( final String path ) {
+    return CompletableFuture.supplyAsync( new Supplier<List<String>>() {
+      @Override public List<String> get() {
+        try {
+          return fetchDatasourceIds( path );
+        } catch ( AuthorizationException | ServerException e ) {
+          throw new CompletionException( e );
+        }
+      }
+    }, LISTING_EXECUTOR );
+  }
+
+  /**
+   * Waits for a listing, rethrowing its failure.
+   */
+  static <T> T await( CompletableFuture<T> future ) throws AuthorizationException, ServerException {
+    try {
+      return future.join();
+    } catch ( CompletionException e ) {
+      Throwable cause = e.getCause();
+      if ( cause instanceof AuthorizationException ) {
+        throw (AuthorizationException) cause;
+      } else if ( cause instanceof ServerException ) {
+        throw (ServerException) cause;
+      } else if ( cause instanceof RuntimeException ) {
+        throw (RuntimeException) cause;
+      }
+      throw new ServerException( cause );
+    }
+  }
+
+  /**
+   * Stopping early only saves parsing: closing the response still reads the rest of the listing off the connection, so
+   * the pooled connection can be reused.
+   */
+  protected void fetchDatasourceIds( String path, IdCallback callback )
+    throws AuthorizationException, ServerException {
     WebResource listGet = getResource( path );
-    ClientResponse response = httpGet( listGet.type( MediaType.APPLICATION_XML ) );
+    ClientResponse response;
+    try {
+      response = httpGet( listGet.type( MediaType.APPLICATION_XML ) );
+    } catch ( ClientHandlerException e ) {
+      // unreachable, or failing fast while its circuit is open
+      throw new ServerException( e );
+    }
     if ( isSuccess( response ) ) {
       InputStream input = null;
       try {
         input = response.getEntity( InputStream.class );
-        InputSource source = new InputSource( input );
-        // <List>
-        //   <Item ... xsi:type="xs:string">Model.xmi</Item>
-        // </List>
-
-        // Weird Mac OS issue.  Without it, XPathFactory.newInstance() could intermittently fail
-        if ( Thread.currentThread().getContextClassLoader() == null ) {
-          Thread.currentThread().setContextClassLoader( getClass().getClassLoader() );
-        }
-        XPath xpath = XPathFactory.newInstance().newXPath();
-        NodeList items = (NodeList) xpath.evaluate( "/List/Item/text()", source, XPathConstants.NODESET );
-        ArrayList<String> result = new ArrayList<String>( items.getLength() );
-        for ( int i = 0; i < items.getLength(); i++ ) {
-          result.add( items.item( i ).getNodeValue() );
-        }
-        return result;
-      } catch ( XPathExpressionException e ) {
-        // shouldn't really happen
-        throw new RuntimeException( e );
+        readIds( input, callback );
+      } catch ( XMLStreamException e ) {
+        throw new ServerException( e );
       } finally {
         IOUtils.closeQuietly( input );
       }
     } else {
+      release( response );
       switch ( response.getStatus() ) {
         case 401:
           throw new AuthorizationException();
@@ -142,11 +311,57 @@ public class ModelServerFetcher extends ModelServerAction {
     }
   }
 
+  /**
+   * Parses the item text of a listing without building a DOM, until the callback asks to stop.
+   * <pre>
+   * &lt;List&gt;
+   *   &lt;Item ... xsi:type="xs:string"&gt;Model.xmi&lt;/Item&gt;
+   * &lt;/List&gt;
+   * </pre>
+   */
+  static void readIds( InputStream input, IdCallback callback ) throws XMLStreamException {
+    XMLStreamReader reader = getInputFactory().createXMLStreamReader( input );
+    try {
+      int depth = 0;
+      while ( reader.hasNext() ) {
+        int event = reader.next();
+        if ( event == XMLStreamConstants.START_ELEMENT ) {
+          depth++;
+          if ( depth == 2 && "Item".equals( reader.getLocalName() ) ) {
+            // reads up to the end element
+            depth--;
+            String id = reader.getElementText();
+            if ( !id.isEmpty() && !callback.onId( id ) ) {
+              return;
+            }
+          }
+        } else if ( event == XMLStreamConstants.END_ELEMENT ) {
+          depth--;
+        }
+      }
+    } finally {
+      reader.close();
+    }
+  }
+
+  private static synchronized XMLInputFactory getInputFactory() {
+    if ( inputFactory == null ) {
+      // Weird Mac OS issue.  Without it, the factory lookup could intermittently fail
+      if ( Thread.currentThread().getContextClassLoader() == null ) {
+        Thread.currentThread().setContextClassLoader( ModelServerFetcher.class.getClassLoader() );
+      }
+      XMLInputFactory factory = XMLInputFactory.newInstance();
+      factory.setProperty( XMLInputFactory.SUPPORT_DTD, false );
+      factory.setProperty( XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false );
+      inputFactory = factory;
+    }
+    return inputFactory;
+  }
+
   public String downloadAnalysisFile( String analysisId )
     throws KettleException, AuthorizationException, ServerException, URIException {
     String encodedId = URIUtil.encodePath( analysisId );
-    ClientResponse response =
-        getResource( DataSourceType.ANALYSIS.getDownloadPath( encodedId ) ).get( ClientResponse.class );
+    ClientResponse response = download( DataSourceType.ANALYSIS.getDownloadPath( encodedId ), null );
     if ( isSuccess( response ) ) {
       if ( response.getType().toString().equals( "application/zip" ) ) {
         try ( ZipInputStream zipInputStream = extractFromZip( "schema.xml", response ) ) {
@@ -158,6 +373,7 @@ public class ModelServerFetcher extends ModelServerAction {
         return response.getEntity( String.class );
       }
     } else {
+      release( response );
       switch ( response.getStatus() ) {
         case 401:
           throw new AuthorizationException();
@@ -178,15 +394,11 @@ public class ModelServerFetcher extends ModelServerAction {
   public Domain downloadDswFile( String dswId )
     throws KettleException, AuthorizationException, ServerException, URIException {
     String encodedId = URIUtil.encodePath( dswId );
-    ClientResponse response = getResource( DataSourceType.DSW.getDownloadPath( encodedId ) ).get( ClientResponse.class );
+    ClientResponse response = download( DataSourceType.DSW.getDownloadPath( encodedId ), null );
     if ( isSuccess( response ) ) {
-      try ( ZipInputStream zipInputStream = extractFromZip( dswId, response ) ) {
-        XmiParser parser = new XmiParser();
-        return parser.parseXmi( zipInputStream );
-      } catch ( Exception e ) {
-        throw new KettleException( e );
-      }
+      return readDswFile( dswId, response );
     } else {
+      release( response );
       switch ( response.getStatus() ) {
         case 401:
           throw new AuthorizationException();
@@ -197,6 +409,123 @@ public class ModelServerFetcher extends ModelServerAction {
     }
   }
 
+  /**
+   * Fetches a DSW model from the template cache. The cached model is revalidated with a conditional download, or if
+   * the server gave no ETag or Last-Modified date, by checking the DSW is still listed until the entry expires.
+   *
+   * @return copy of the model, null if it is not cached or can't be reused
+   * @throws AuthorizationException
+   * @throws ServerException
+   */
+  public Domain fetchCachedDswFile( String dswId )
+    throws KettleException, AuthorizationException, ServerException, URIException {
+    TemplateDomainCache cache = getTemplateDomainCache();
+    TemplateDomainCache.Entry cached = cache == null ? null : cache.get( biServerConnection, dswId );
+    if ( cached == null ) {
+      return null;
+    }
+    if ( !cached.hasValidator() ) {
+      if ( cached.isExpired() || !dswExists( dswId ) ) {
+        cache.remove( biServerConnection, dswId );
+        return null;
+      }
+      cache.hit();
+      return cached.getDomain();
+    }
+    String encodedId = URIUtil.encodePath( dswId );
+    ClientResponse response = download( DataSourceType.DSW.getDownloadPath( encodedId ), cached );
+    if ( response.getStatus() == NOT_MODIFIED ) {
+      release( response );
+      cache.hit();
+      return cached.getDomain();
+    }
+    if ( isSuccess( response ) ) {
+      return readDswFile( dswId, response );
+    }
+    release( response );
+    cache.remove( biServerConnection, dswId );
+    if ( response.getStatus() == 401 ) {
+      throw new AuthorizationException();
+    }
+    return null;
+  }
+
+  /**
+   * @return whether the DSW is listed, parsing the listing only until it is found
+   */
+  private boolean dswExists( final String dswId ) throws AuthorizationException, ServerException {
+    return isListed( DataSourceType.DSW.getListPath(), dswId );
+  }
+
+  /**
+   * @return whether any of the ids is listed, parsing the listing only until one is found
+   */
+  private boolean isListed( final String path, final String... ids ) throws AuthorizationException, ServerException {
+    final AtomicBoolean found = new AtomicBoolean();
+    fetchDatasourceIds( path, new IdCallback() {
+      @Override public boolean onId( String listed ) {
+        if ( ArrayUtils.contains( ids, listed ) ) {
+          found.set( true );
+        }
+        return !found.get();
+      }
+    } );
+    return found.get();
+  }
+
+  private Domain readDswFile( String dswId, ClientResponse response ) throws KettleException {
+    Domain domain;
+    try ( ZipInputStream zipInputStream = extractFromZip( dswId, response ) ) {
+      XmiParser parser = new XmiParser();
+      domain = parser.parseXmi( zipInputStream );
+    } catch ( Exception e ) {
+      throw new KettleException( e );
+    }
+    TemplateDomainCache cache = getTemplateDomainCache();
+    if ( cache != null ) {
+      cache.miss();
+      cache.put( biServerConnection, dswId, domain, getHeader( response, "ETag" ),
+          getHeader( response, "Last-Modified" ) );
+    }
+    return domain;
+  }
+
+  private static String getHeader( ClientResponse response, String name ) {
+    MultivaluedMap<String, String> headers = response.getHeaders();
+    return headers == null ? null : headers.getFirst( name );
+  }
+
+  // Allows dependency injection/mocks
+  protected TemplateDomainCache getTemplateDomainCache() {
+    return TemplateDomainCache.getInstance();
+  }
+
+  /**
+   * @param cached template to revalidate, null for a plain download
+   */
+  private ClientResponse download( String path, final TemplateDomainCache.Entry cached ) throws ServerException {
+    final WebResource resource = getResource( path );
+    try {
+      return execute( true, new ServerResilience.Call() {
+        @Override public ClientResponse execute() {
+          if ( cached == null ) {
+            return resource.get( ClientResponse.class );
+          }
+          WebResource.Builder builder = resource.getRequestBuilder();
+          if ( cached.getEtag() != null ) {
+            builder = builder.header( "If-None-Match", cached.getEtag() );
+          }
+          if ( cached.getLastModified() != null ) {
+            builder = builder.header( "If-Modified-Since", cached.getLastModified() );
+          }
+          return builder.get( ClientResponse.class );
+        }
+      } );
+    } catch ( ClientHandlerException e ) {
+      throw new ServerException( e );
+    }
+  }
+
   private ZipInputStream extractFromZip( final String fileName, final ClientResponse response ) throws KettleException {
     try {
       InputStream input = response.getEntity( InputStream.class );
@@ -214,11 +543,28 @@ public class ModelServerFetcher extends ModelServerAction {
     throw new KettleException( "file not found" );
   }
 
+  /**
+   * Receives datasource IDs as a listing is read.
+   */
+  public interface IdCallback {
+    /**
+     * @return false to stop parsing the listing
+     */
+    boolean onId( String id );
+  }
+
   /**
    * generic 500 or something else not covered
    */
   public static class ServerException extends Exception {
     private static final long serialVersionUID = 1L;
+
+    public ServerException() {
+    }
+
+    public ServerException( Throwable cause ) {
+      super( cause );
+    }
   }
   /**
    * 401
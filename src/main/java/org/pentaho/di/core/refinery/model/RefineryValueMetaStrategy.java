@@ -24,6 +24,7 @@ package org.pentaho.di.core.refinery.model;
 
 import org.pentaho.agilebi.modeler.ModelerException;
 import org.pentaho.di.core.refinery.DataProviderHelper;
+import org.pentaho.di.core.refinery.publish.util.Fingerprint;
 import org.pentaho.di.core.row.ValueMetaInterface;
 import org.pentaho.di.trans.step.StepMetaDataCombi;
 import org.pentaho.metadata.automodel.PhysicalTableImporter;
@@ -54,4 +55,24 @@ public class RefineryValueMetaStrategy extends DataProviderHelper.OutputStepMapp
     }
     return valueMeta.getName();
   }
+
+  /**
+   * @return fingerprint of the written fields and their mapping, which decide the imported columns and their names
+   */
+  public String getCacheKey() {
+    Fingerprint fingerprint = new Fingerprint();
+    addAll( fingerprint, insertRowMeta == null ? null : insertRowMeta.getFieldNames() );
+    addAll( fingerprint, fieldDatabase == null ? null : fieldDatabase.toArray( new String[fieldDatabase.size()] ) );
+    addAll( fingerprint, fieldStream == null ? null : fieldStream.toArray( new String[fieldStream.size()] ) );
+    return fingerprint.getValue();
+  }
+
+  private static void addAll( final Fingerprint fingerprint, final String[] values ) {
+    fingerprint.add( values == null ? -1 : values.length );
+    if ( values != null ) {
+      for ( String value : values ) {
+        fingerprint.add( value );
+      }
+    }
+  }
 }
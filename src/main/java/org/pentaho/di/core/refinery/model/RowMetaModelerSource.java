@@ -0,0 +1,193 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2017 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.model;
+
+import org.pentaho.agilebi.modeler.ModelerException;
+import org.pentaho.agilebi.modeler.util.TableModelerSource;
+import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.di.core.refinery.DataProviderHelper;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.metadata.automodel.PhysicalTableImporter;
+import org.pentaho.metadata.model.Category;
+import org.pentaho.metadata.model.Domain;
+import org.pentaho.metadata.model.IPhysicalColumn;
+import org.pentaho.metadata.model.LogicalColumn;
+import org.pentaho.metadata.model.LogicalModel;
+import org.pentaho.metadata.model.LogicalTable;
+import org.pentaho.metadata.model.SqlPhysicalColumn;
+import org.pentaho.metadata.model.SqlPhysicalModel;
+import org.pentaho.metadata.model.SqlPhysicalTable;
+import org.pentaho.metadata.model.concept.types.AggregationType;
+import org.pentaho.metadata.model.concept.types.DataType;
+import org.pentaho.metadata.model.concept.types.FieldType;
+import org.pentaho.metadata.model.concept.types.LocaleType;
+import org.pentaho.metadata.model.concept.types.LocalizedString;
+import org.pentaho.metadata.util.ThinModelConverter;
+
+/**
+ * Models the table an output step loaded from the fields the step wrote, without reading the database catalog. Ids,
+ * names, field types and default aggregations follow the rules {@link PhysicalTableImporter} applies to a table.
+ * <p>
+ * Column types come from the stream fields rather than the column definitions, so the domain only matches one
+ * generated from the database as far as the database kept those types. A step writing a string into a numeric column
+ * models it as a string, for instance. That is why this source is only used when {@value #ENABLED_PROPERTY} is set
+ * to Y.
+ */
+public class RowMetaModelerSource extends TableModelerSource {
+
+  public static final String ENABLED_PROPERTY = "KETTLE_DATA_REFINERY_MODEL_FROM_ROW_META";
+
+  private static final String LOCALE = LocalizedString.DEFAULT_LOCALE;
+
+  private final DatabaseMeta databaseMeta;
+  private final RowMetaInterface rowMeta;
+
+  /**
+   * @param rowMeta layout of the rows inserted in the table, field names are the column names
+   */
+  public RowMetaModelerSource( DatabaseMeta databaseMeta, String tableName, String schemaName,
+      RowMetaInterface rowMeta ) {
+    super( databaseMeta, tableName, schemaName );
+    this.databaseMeta = databaseMeta;
+    this.rowMeta = rowMeta;
+  }
+
+  public static boolean isEnabled() {
+    return "Y".equalsIgnoreCase( System.getProperty( ENABLED_PROPERTY ) );
+  }
+
+  public RowMetaInterface getRowMeta() {
+    return rowMeta;
+  }
+
+  @Override
+  public Domain generateDomain() throws ModelerException {
+    return generateDomain( PhysicalTableImporter.defaultImportStrategy );
+  }
+
+  @Override
+  public Domain generateDomain( PhysicalTableImporter.ImportStrategy importStrategy ) throws ModelerException {
+    SqlPhysicalModel physicalModel = generatePhysicalModel( importStrategy );
+    SqlPhysicalTable physicalTable = physicalModel.getPhysicalTables().get( 0 );
+    String tableId = toId( getTableName() );
+
+    Domain domain = new Domain();
+    domain.setId( getTableName() );
+    domain.addLocale( new LocaleType( LOCALE, "English (US)" ) );
+    domain.addPhysicalModel( physicalModel );
+
+    LogicalModel logicalModel = new LogicalModel();
+    logicalModel.setId( "MODEL_1" );
+    logicalModel.setName( new LocalizedString( LOCALE, getTableName() ) );
+    logicalModel.setPhysicalModel( physicalModel );
+    domain.addLogicalModel( logicalModel );
+
+    LogicalTable logicalTable = new LogicalTable();
+    logicalTable.setId( "BT_" + tableId + "_" + tableId );
+    logicalTable.setName( new LocalizedString( LOCALE, beautify( getTableName() ) ) );
+    logicalTable.setPhysicalTable( physicalTable );
+    logicalTable.setLogicalModel( logicalModel );
+    logicalModel.getLogicalTables().add( logicalTable );
+
+    Category category = new Category();
+    category.setId( tableId );
+    category.setName( new LocalizedString( LOCALE, beautify( getTableName() ) ) );
+    logicalModel.getCategories().add( category );
+
+    for ( IPhysicalColumn physicalColumn : physicalTable.getPhysicalColumns() ) {
+      LogicalColumn logicalColumn = new LogicalColumn();
+      logicalColumn.setId( "LC_" + tableId + "_" + toId( physicalColumn.getId() ) );
+      logicalColumn.setName( new LocalizedString( LOCALE, physicalColumn.getName( LOCALE ) ) );
+      logicalColumn.setPhysicalColumn( physicalColumn );
+      logicalColumn.setLogicalTable( logicalTable );
+      logicalTable.getLogicalColumns().add( logicalColumn );
+      category.getLogicalColumns().add( logicalColumn );
+    }
+    return domain;
+  }
+
+  /**
+   * @return physical model of one table holding a column for every inserted field the strategy includes
+   */
+  public SqlPhysicalModel generatePhysicalModel( PhysicalTableImporter.ImportStrategy importStrategy ) {
+    SqlPhysicalModel physicalModel = new SqlPhysicalModel();
+    physicalModel.setId( databaseMeta.getName() );
+    physicalModel.setName( new LocalizedString( LOCALE, databaseMeta.getName() ) );
+    physicalModel.setDatasource( ThinModelConverter.convertFromLegacy( databaseMeta ) );
+
+    SqlPhysicalTable physicalTable = new SqlPhysicalTable( physicalModel );
+    physicalTable.setId( "PT_" + toId( getTableName() ) );
+    physicalTable.setTargetSchema( getSchemaName() );
+    physicalTable.setTargetTable( getTableName() );
+    physicalTable.setName( new LocalizedString( LOCALE, beautify( getTableName() ) ) );
+    physicalModel.getPhysicalTables().add( physicalTable );
+
+    for ( ValueMetaInterface valueMeta : rowMeta.getValueMetaList() ) {
+      if ( !importStrategy.shouldInclude( valueMeta ) ) {
+        continue;
+      }
+      SqlPhysicalColumn physicalColumn = new SqlPhysicalColumn( physicalTable );
+      physicalColumn.setId( valueMeta.getName() );
+      physicalColumn.setTargetColumn( valueMeta.getName() );
+      physicalColumn.setName( new LocalizedString( LOCALE, beautify( importStrategy.displayName( valueMeta ) ) ) );
+      DataType dataType = getDataType( valueMeta );
+      physicalColumn.setDataType( dataType );
+      // same guesses as PhysicalTableImporter
+      physicalColumn.setFieldType( FieldType.guessFieldType( valueMeta.getName() ) );
+      physicalColumn.setAggregationType( dataType == DataType.NUMERIC ? AggregationType.SUM : AggregationType.NONE );
+      physicalTable.getPhysicalColumns().add( physicalColumn );
+    }
+    return physicalModel;
+  }
+
+  private static DataType getDataType( ValueMetaInterface valueMeta ) {
+    if ( valueMeta.getType() == ValueMetaInterface.TYPE_TIMESTAMP ) {
+      return DataType.DATE;
+    }
+    return DataProviderHelper.getDataType( valueMeta );
+  }
+
+  static String toId( String name ) {
+    return name.replace( ' ', '_' );
+  }
+
+  /**
+   * Display name the auto modeler would give: underscores become spaces and camel case words are split.
+   */
+  static String beautify( String name ) {
+    StringBuilder sb = new StringBuilder( name.length() + 8 );
+    for ( int i = 0; i < name.length(); i++ ) {
+      char c = name.charAt( i );
+      if ( c == '_' ) {
+        sb.append( ' ' );
+        continue;
+      }
+      if ( i > 0 && Character.isUpperCase( c ) && Character.isLowerCase( name.charAt( i - 1 ) ) ) {
+        sb.append( ' ' );
+      }
+      sb.append( c );
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,280 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2017 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+
+package org.pentaho.di.core.refinery.model;
+
+import org.apache.commons.lang.StringUtils;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.database.Database;
+import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.di.core.exception.KettleDatabaseException;
+import org.pentaho.di.core.logging.LoggingObjectInterface;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process wide cache of what modeling reads from the database catalog about a table: its fields and the physical
+ * models generated from it. Building models of the same table from many jobs queries the catalog once instead of
+ * on every build, and concurrent lookups of a table share one query.
+ * <p>
+ * Entries expire after {@value #TTL_PROPERTY} ms (system property or kettle.properties, default
+ * {@value #DEFAULT_TTL}), 0 disables the cache. They are dropped earlier when an output step truncates the table or
+ * writes columns the cache does not know, see {@link #onTableWritten}.
+ */
+public class TableMetadataCache {
+
+  public static final String TTL_PROPERTY = "KETTLE_DATA_REFINERY_TABLE_METADATA_TTL";
+
+  public static final int DEFAULT_TTL = 300000;
+
+  static final int MAX_ENTRIES = 1000;
+  private static final String FIELDS = "fields";
+
+  private static TableMetadataCache instance;
+
+  private final long ttl;
+  private final ConcurrentMap<String, Table> tables = new ConcurrentHashMap<String, Table>();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  public static synchronized TableMetadataCache getInstance() {
+    if ( instance == null ) {
+      instance = new TableMetadataCache( Const.toInt( System.getProperty( TTL_PROPERTY ), DEFAULT_TTL ) );
+    }
+    return instance;
+  }
+
+  public TableMetadataCache( long ttl ) {
+    this.ttl = ttl;
+  }
+
+  /**
+   * Reads what is not in the cache.
+   */
+  public interface Loader<T, E extends Exception> {
+    /**
+     * @return value to cache, null is returned but not cached
+     */
+    T load() throws E;
+  }
+
+  /**
+   * @param schemaName null or empty if the table name is used as is
+   * @return copy of the fields of the table, null if the database returns none
+   */
+  public RowMetaInterface getTableFields( final LoggingObjectInterface parent, final DatabaseMeta databaseMeta,
+      final String schemaName, final String tableName ) throws KettleDatabaseException {
+    RowMetaInterface fields = get( databaseMeta, schemaName, tableName, FIELDS,
+        new Loader<RowMetaInterface, KettleDatabaseException>() {
+          @Override public RowMetaInterface load() throws KettleDatabaseException {
+            return loadTableFields( parent, databaseMeta, schemaName, tableName );
+          }
+        } );
+    return fields == null ? null : fields.clone();
+  }
+
+  /**
+   * @param kind what is cached about the table, together with everything else its value depends on
+   * @return shared cached value, callers that change it must copy it first
+   */
+  public <T, E extends Exception> T get( final DatabaseMeta databaseMeta, final String schemaName,
+      final String tableName, final String kind, final Loader<T, E> loader ) throws E {
+    if ( ttl <= 0 ) {
+      misses.incrementAndGet();
+      return loader.load();
+    }
+    String key = getKey( databaseMeta, schemaName, tableName );
+    Table table = tables.get( key );
+    if ( table == null ) {
+      prune();
+      Table newTable = new Table();
+      table = tables.putIfAbsent( key, newTable );
+      if ( table == null ) {
+        table = newTable;
+      }
+    }
+    Entry entry = table.entries.get( kind );
+    if ( entry == null ) {
+      Entry newEntry = new Entry();
+      entry = table.entries.putIfAbsent( kind, newEntry );
+      if ( entry == null ) {
+        entry = newEntry;
+      }
+    }
+    synchronized ( entry ) {
+      long now = System.currentTimeMillis();
+      if ( entry.value != null && now < entry.expires ) {
+        hits.incrementAndGet();
+        @SuppressWarnings( "unchecked" )
+        T value = (T) entry.value;
+        return value;
+      }
+      misses.incrementAndGet();
+      T value = loader.load();
+      if ( value != null ) {
+        entry.value = value;
+        entry.expires = now + ttl;
+        table.expires = Math.max( table.expires, entry.expires );
+      }
+      return value;
+    }
+  }
+
+  /**
+   * Forgets everything about the table, for instance after its structure changed.
+   */
+  public void invalidate( final DatabaseMeta databaseMeta, final String schemaName, final String tableName ) {
+    tables.remove( getKey( databaseMeta, schemaName, tableName ) );
+  }
+
+  /**
+   * Called once an output step loaded the table. Forgets the table if the step truncated it, as it may have been
+   * recreated, or if it wrote a column the cached fields do not have.
+   *
+   * @param written fields written by the step, null if unknown
+   */
+  public void onTableWritten( final DatabaseMeta databaseMeta, final String schemaName, final String tableName,
+      final RowMetaInterface written, final boolean truncated ) {
+    String key = getKey( databaseMeta, schemaName, tableName );
+    Table table = tables.get( key );
+    if ( table == null ) {
+      return;
+    }
+    if ( truncated ) {
+      tables.remove( key );
+      return;
+    }
+    Entry entry = table.entries.get( FIELDS );
+    RowMetaInterface fields = entry == null ? null : (RowMetaInterface) entry.value;
+    if ( fields != null && written != null ) {
+      for ( ValueMetaInterface valueMeta : written.getValueMetaList() ) {
+        if ( fields.searchValueMeta( valueMeta.getName() ) == null ) {
+          tables.remove( key );
+          return;
+        }
+      }
+    }
+  }
+
+  public void clear() {
+    tables.clear();
+  }
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  // Allows dependency injection/mocks
+  protected RowMetaInterface loadTableFields( final LoggingObjectInterface parent, final DatabaseMeta databaseMeta,
+      final String schemaName, final String tableName ) throws KettleDatabaseException {
+    Database database = new Database( parent, databaseMeta );
+    try {
+      database.connect();
+      return database.getTableFields( StringUtils.isBlank( schemaName ) ? tableName
+          : databaseMeta.getQuotedSchemaTableCombination( schemaName, tableName ) );
+    } finally {
+      database.disconnect();
+    }
+  }
+
+  /**
+   * @return identity of the table, two connections to the same database as the same user share entries
+   */
+  static String getKey( final DatabaseMeta databaseMeta, final String schemaName, final String tableName ) {
+    return databaseMeta.getPluginId()
+        + "|" + databaseMeta.getAccessType()
+        + "|" + getUrl( databaseMeta )
+        + "|" + databaseMeta.environmentSubstitute( databaseMeta.getUsername() )
+        + "|" + Const.nullToEmpty( schemaName )
+        + "|" + tableName;
+  }
+
+  /**
+   * @return URL the connection opens, it also covers options, instances and URLs of generic connections
+   */
+  private static String getUrl( final DatabaseMeta databaseMeta ) {
+    try {
+      return databaseMeta.environmentSubstitute( databaseMeta.getURL() );
+    } catch ( KettleDatabaseException e ) {
+      return databaseMeta.environmentSubstitute( databaseMeta.getHostname() )
+          + "|" + databaseMeta.environmentSubstitute( databaseMeta.getDatabasePortNumberString() )
+          + "|" + databaseMeta.environmentSubstitute( databaseMeta.getDatabaseName() );
+    }
+  }
+
+  /**
+   * Drops expired tables once the cache is full, then the ones expiring first until there is room again.
+   */
+  private void prune() {
+    if ( tables.size() < MAX_ENTRIES ) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    for ( Iterator<Map.Entry<String, Table>> it = tables.entrySet().iterator(); it.hasNext(); ) {
+      if ( it.next().getValue().expires <= now ) {
+        it.remove();
+      }
+    }
+    if ( tables.size() < MAX_ENTRIES ) {
+      return;
+    }
+    List<Map.Entry<String, Table>> byExpiry = new ArrayList<Map.Entry<String, Table>>( tables.entrySet() );
+    Collections.sort( byExpiry, new Comparator<Map.Entry<String, Table>>() {
+      @Override public int compare( Map.Entry<String, Table> first, Map.Entry<String, Table> second ) {
+        return Long.compare( first.getValue().expires, second.getValue().expires );
+      }
+    } );
+    // a tenth more than needed, so the next lookups do not sort again
+    int excess = byExpiry.size() - MAX_ENTRIES + 1 + MAX_ENTRIES / 10;
+    for ( int i = 0; i < excess && i < byExpiry.size(); i++ ) {
+      tables.remove( byExpiry.get( i ).getKey(), byExpiry.get( i ).getValue() );
+    }
+  }
+
+  int size() {
+    return tables.size();
+  }
+
+  private static class Table {
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private volatile long expires;
+  }
+
+  private static class Entry {
+    private volatile Object value;
+    private volatile long expires;
+  }
+}
@@ -0,0 +1,187 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2017 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.model;
+
+import org.apache.commons.lang.SerializationUtils;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
+import org.pentaho.metadata.model.Domain;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process wide cache of the parsed DSW models used as templates when a build updates an existing model, so a run
+ * reusing a template revalidates it with one light request instead of downloading and parsing it again. See
+ * {@link ModelServerFetcher#fetchCachedDswFile(String)}.
+ * <p>
+ * Entries the server gave an ETag or Last-Modified date are revalidated with a conditional download. Others are
+ * trusted for {@value #TTL_PROPERTY} ms (system property or kettle.properties, default {@value #DEFAULT_TTL}) as long
+ * as the DSW is still listed, then downloaded again. The listing only tells whether the DSW exists, so for those
+ * entries a template edited on the server is not noticed until the TTL expires. A TTL of 0 disables the cache.
+ */
+public class TemplateDomainCache {
+
+  public static final String TTL_PROPERTY = "KETTLE_DATA_REFINERY_TEMPLATE_TTL";
+
+  public static final int DEFAULT_TTL = 300000;
+
+  private static final int MAX_ENTRIES = 100;
+
+  private static TemplateDomainCache instance;
+
+  private final long ttl;
+  private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * @return shared cache or null if the cache is disabled
+   */
+  public static synchronized TemplateDomainCache getInstance() {
+    long ttl = Const.toInt( System.getProperty( TTL_PROPERTY ), DEFAULT_TTL );
+    if ( ttl <= 0 ) {
+      return null;
+    }
+    if ( instance == null ) {
+      instance = new TemplateDomainCache( ttl );
+    }
+    return instance;
+  }
+
+  public TemplateDomainCache( long ttl ) {
+    this.ttl = ttl;
+  }
+
+  /**
+   * A parsed template and what is needed to revalidate it.
+   */
+  public static class Entry {
+    private final Domain domain;
+    private final String etag;
+    private final String lastModified;
+    private final long expires;
+
+    Entry( Domain domain, String etag, String lastModified, long expires ) {
+      this.domain = domain;
+      this.etag = etag;
+      this.lastModified = lastModified;
+      this.expires = expires;
+    }
+
+    /**
+     * @return copy of the template, the modeler changes the domain it works on
+     */
+    public Domain getDomain() {
+      return (Domain) SerializationUtils.clone( domain );
+    }
+
+    public String getEtag() {
+      return etag;
+    }
+
+    public String getLastModified() {
+      return lastModified;
+    }
+
+    public boolean hasValidator() {
+      return etag != null || lastModified != null;
+    }
+
+    public boolean isExpired() {
+      return System.currentTimeMillis() >= expires;
+    }
+  }
+
+  /**
+   * @return cached template or null
+   */
+  public Entry get( final BiServerConnection connection, final String dswId ) {
+    return entries.get( getKey( connection, dswId ) );
+  }
+
+  /**
+   * @param etag ETag header of the download, null if none
+   * @param lastModified Last-Modified header of the download, null if none
+   * @return cached entry, holding its own copy of the domain
+   */
+  public Entry put( final BiServerConnection connection, final String dswId, final Domain domain, final String etag,
+      final String lastModified ) {
+    prune();
+    Entry entry = new Entry( (Domain) SerializationUtils.clone( domain ), etag, lastModified,
+        System.currentTimeMillis() + ttl );
+    entries.put( getKey( connection, dswId ), entry );
+    return entry;
+  }
+
+  public void remove( final BiServerConnection connection, final String dswId ) {
+    entries.remove( getKey( connection, dswId ) );
+  }
+
+  public void clear() {
+    entries.clear();
+  }
+
+  /**
+   * Counts a template reused without downloading it.
+   */
+  void hit() {
+    hits.incrementAndGet();
+  }
+
+  /**
+   * Counts a template that had to be downloaded.
+   */
+  void miss() {
+    misses.incrementAndGet();
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  static String getKey( final BiServerConnection connection, final String dswId ) {
+    return ( connection == null ? "" : connection.getUrl() + '|' + connection.getUserId() ) + '|' + dswId;
+  }
+
+  private void prune() {
+    if ( entries.size() < MAX_ENTRIES ) {
+      return;
+    }
+    for ( Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator(); it.hasNext(); ) {
+      if ( it.next().getValue().isExpired() ) {
+        it.remove();
+      }
+    }
+    if ( entries.size() >= MAX_ENTRIES ) {
+      entries.clear();
+    }
+  }
+}
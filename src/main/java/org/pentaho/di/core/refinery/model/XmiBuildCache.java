@@ -0,0 +1,179 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2017 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.model;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.refinery.publish.util.PayloadSpool;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Content-addressed on-disk cache of generated XMI. Entries are stored under the fingerprint of everything that goes
+ * into building the model, so an unchanged table, annotation group and model name reuse the previous XMI instead of
+ * running the modeler again.
+ * <p>
+ * Disabled unless {@value #ENABLED_PROPERTY} is set to Y. Other settings (system properties or kettle.properties):
+ * <ul>
+ *   <li>{@value #DIRECTORY_PROPERTY} - cache folder (default data-refinery/xmi-cache in the kettle home folder)</li>
+ *   <li>{@value #MAX_ENTRIES_PROPERTY} - models kept, least recently used are removed first
+ *   (default {@value #DEFAULT_MAX_ENTRIES})</li>
+ * </ul>
+ * Geo role configuration and shared dimensions stored in the metastore are not part of the fingerprint; delete the
+ * cache folder after changing them.
+ */
+public class XmiBuildCache {
+
+  public static final String ENABLED_PROPERTY = "KETTLE_DATA_REFINERY_XMI_CACHE";
+  public static final String DIRECTORY_PROPERTY = "KETTLE_DATA_REFINERY_XMI_CACHE_DIR";
+  public static final String MAX_ENTRIES_PROPERTY = "KETTLE_DATA_REFINERY_XMI_CACHE_MAX_ENTRIES";
+
+  public static final int DEFAULT_MAX_ENTRIES = 200;
+
+  private static final String EXTENSION = ".xmi";
+
+  private static XmiBuildCache instance;
+
+  private final File directory;
+  private final int maxEntries;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * @return shared cache or null if caching is not enabled
+   */
+  public static synchronized XmiBuildCache getInstance() {
+    if ( !"Y".equalsIgnoreCase( System.getProperty( ENABLED_PROPERTY ) ) ) {
+      return null;
+    }
+    if ( instance == null ) {
+      String directory = System.getProperty( DIRECTORY_PROPERTY );
+      if ( StringUtils.isBlank( directory ) ) {
+        directory = Const.getKettleDirectory() + Const.FILE_SEPARATOR + "data-refinery" + Const.FILE_SEPARATOR
+            + "xmi-cache";
+      }
+      instance = new XmiBuildCache( new File( directory ),
+          Const.toInt( System.getProperty( MAX_ENTRIES_PROPERTY ), DEFAULT_MAX_ENTRIES ) );
+    }
+    return instance;
+  }
+
+  public XmiBuildCache( File directory, int maxEntries ) {
+    this.directory = directory;
+    this.maxEntries = maxEntries;
+  }
+
+  /**
+   * @return cached XMI or null on a miss
+   */
+  public String get( String fingerprint ) {
+    File file = getFile( fingerprint );
+    if ( file.isFile() ) {
+      try {
+        String xmi = FileUtils.readFileToString( file, Const.XML_ENCODING );
+        file.setLastModified( System.currentTimeMillis() );
+        hits.incrementAndGet();
+        return xmi;
+      } catch ( IOException e ) {
+        // pruned by another job in between, treat as a miss
+      }
+    }
+    misses.incrementAndGet();
+    return null;
+  }
+
+  public void put( String fingerprint, String xmi ) throws IOException {
+    if ( !directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory() ) {
+      throw new IOException( "Unable to create " + directory );
+    }
+    // write aside and rename so concurrent jobs never read a partial file
+    File temp = File.createTempFile( "xmi", ".tmp", directory );
+    try {
+      OutputStream out = new BufferedOutputStream( new FileOutputStream( temp ) );
+      try {
+        PayloadSpool.write( xmi, out );
+      } finally {
+        out.close();
+      }
+      File file = getFile( fingerprint );
+      if ( !temp.renameTo( file ) ) {
+        file.delete();
+        if ( !temp.renameTo( file ) ) {
+          throw new IOException( "Unable to write " + file );
+        }
+      }
+    } finally {
+      temp.delete();
+    }
+    prune();
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public File getDirectory() {
+    return directory;
+  }
+
+  private File getFile( String fingerprint ) {
+    return new File( directory, fingerprint + EXTENSION );
+  }
+
+  private void prune() {
+    File[] files = directory.listFiles();
+    if ( files == null ) {
+      return;
+    }
+    int entries = 0;
+    for ( File file : files ) {
+      if ( file.getName().endsWith( EXTENSION ) ) {
+        files[entries++] = file;
+      }
+    }
+    if ( entries <= maxEntries ) {
+      return;
+    }
+    File[] cached = Arrays.copyOf( files, entries );
+    Arrays.sort( cached, new Comparator<File>() {
+      @Override public int compare( File f1, File f2 ) {
+        return Long.compare( f1.lastModified(), f2.lastModified() );
+      }
+    } );
+    for ( int i = 0; i < entries - maxEntries; i++ ) {
+      cached[i].delete();
+    }
+  }
+}
@@ -74,6 +74,20 @@ public class BiServerConnection implements Serializable {
     super();
   }
 
+  /**
+   * Copy constructor, all fields are immutable so this is a deep copy
+   * @param other
+   */
+  public BiServerConnection( BiServerConnection other ) {
+    super();
+    this.url = other.url;
+    this.userId = other.userId;
+    this.password = other.password;
+    this.name = other.name;
+    this.defaultFolder = other.defaultFolder;
+    this.defaultDatasourcePublish = other.defaultDatasourcePublish;
+  }
+
   public String getDefaultFolder() {
     return defaultFolder;
   }
@@ -28,21 +28,24 @@ import org.pentaho.database.service.DatabaseDialectService;
 import org.pentaho.database.util.DatabaseTypeHelper;
 import org.pentaho.di.core.database.DatabaseInterface;
 import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.di.core.logging.LogChannelInterface;
+import org.pentaho.di.core.refinery.publish.util.HttpClientPool;
+import org.pentaho.di.core.refinery.publish.util.ServerResilience;
 
 import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.ClientHandlerException;
 import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.api.client.WebResource;
 import com.sun.jersey.api.client.WebResource.Builder;
-import com.sun.jersey.api.client.config.ClientConfig;
-import com.sun.jersey.api.client.config.DefaultClientConfig;
-import com.sun.jersey.api.client.filter.HTTPBasicAuthFilter;
-import com.sun.jersey.api.json.JSONConfiguration;
+
+import java.io.IOException;
+import java.io.InputStream;
 
 public class ModelServerAction {
 
   protected BiServerConnection biServerConnection;
-  private Client _client = null;
   protected DatabaseMeta databaseMeta;
+  protected LogChannelInterface logChannel;
 
   public ModelServerAction() {
     super();
@@ -53,15 +56,11 @@ public class ModelServerAction {
   }
 
   protected Client getClient() {
-
-    // initialize
-    if ( this._client == null ) {
-      ClientConfig clientConfig = new DefaultClientConfig();
-      clientConfig.getFeatures().put( JSONConfiguration.FEATURE_POJO_MAPPING, Boolean.TRUE );
-      this._client = Client.create( clientConfig );
+    // pooled clients are shared by every action talking to the same server with the same credentials
+    if ( biServerConnection == null ) {
+      return HttpClientPool.getInstance().getClient();
     }
-
-    return this._client;
+    return HttpClientPool.getInstance().getClient( biServerConnection.getUserId(), biServerConnection.getPassword() );
   }
 
   protected IDatabaseType getDatabaseType( DatabaseInterface databaseInterface ) {
@@ -80,19 +79,84 @@ public class ModelServerAction {
   }
 
   protected ClientResponse httpPut( final Builder builder ) {
-    return builder.put( ClientResponse.class );
+    return execute( false, new ServerResilience.Call() {
+      @Override public ClientResponse execute() {
+        return builder.put( ClientResponse.class );
+      }
+    } );
+  }
+
+  /**
+   * PUT of an uploaded stream, retried on transient failures if the stream can be rewound.
+   */
+  protected ClientResponse httpPut( final Builder builder, final InputStream upload ) {
+    return httpUpload( builder, upload, "PUT" );
   }
 
   protected ClientResponse httpPost( final Builder builder ) {
-    return builder.post( ClientResponse.class );
+    return execute( false, new ServerResilience.Call() {
+      @Override public ClientResponse execute() {
+        return builder.post( ClientResponse.class );
+      }
+    } );
+  }
+
+  /**
+   * POST of an uploaded stream that is idempotent, retried on transient failures if the stream can be rewound.
+   */
+  protected ClientResponse httpPost( final Builder builder, final InputStream upload ) {
+    return httpUpload( builder, upload, "POST" );
   }
 
   protected ClientResponse httpGet( final Builder builder ) {
-    return builder.get( ClientResponse.class );
+    return execute( true, new ServerResilience.Call() {
+      @Override public ClientResponse execute() {
+        return builder.get( ClientResponse.class );
+      }
+    } );
   }
 
   protected ClientResponse httpDelete( final Builder builder ) {
-    return builder.delete( ClientResponse.class );
+    return execute( true, new ServerResilience.Call() {
+      @Override public ClientResponse execute() {
+        return builder.delete( ClientResponse.class );
+      }
+    } );
+  }
+
+  private ClientResponse httpUpload( final Builder builder, final InputStream upload, final String method ) {
+    final boolean rewindable = upload != null && upload.markSupported();
+    if ( rewindable ) {
+      upload.mark( Integer.MAX_VALUE );
+    }
+    return execute( rewindable, new ServerResilience.Call() {
+      private boolean sent;
+
+      @Override public ClientResponse execute() {
+        if ( sent ) {
+          try {
+            upload.reset();
+          } catch ( IOException e ) {
+            throw new ClientHandlerException( e );
+          }
+        }
+        sent = true;
+        return builder.method( method, ClientResponse.class );
+      }
+    } );
+  }
+
+  /**
+   * Runs the call through the retry and circuit breaker policy of the server.
+   */
+  protected ClientResponse execute( boolean idempotent, ServerResilience.Call call ) {
+    return getServerResilience().execute( biServerConnection != null ? biServerConnection.getUrl() : null,
+        idempotent, call, logChannel );
+  }
+
+  // Allows dependency injection/mocks
+  protected ServerResilience getServerResilience() {
+    return ServerResilience.getInstance();
   }
 
   protected String getUrl( final String path ) {
@@ -110,8 +174,21 @@ public class ModelServerAction {
    */
   public void setBiServerConnection( BiServerConnection biServerConnection ) {
     this.biServerConnection = biServerConnection;
-    getClient()
-        .addFilter( new HTTPBasicAuthFilter( biServerConnection.getUserId(), biServerConnection.getPassword() ) );
+  }
+
+  public BiServerConnection getBiServerConnection() {
+    return biServerConnection;
+  }
+
+  public LogChannelInterface getLogChannel() {
+    return logChannel;
+  }
+
+  /**
+   * @param logChannel where retries and circuit changes of the calls made are logged
+   */
+  public void setLogChannel( LogChannelInterface logChannel ) {
+    this.logChannel = logChannel;
   }
 
   public DatabaseMeta getDatabaseMeta() {
@@ -122,6 +199,19 @@ public class ModelServerAction {
     this.databaseMeta = databaseMeta;
   }
 
+  /**
+   * Hands the pooled connection back when the response entity is not going to be read.
+   */
+  protected void release( final ClientResponse response ) {
+    if ( response != null ) {
+      try {
+        response.close();
+      } catch ( Exception e ) {
+        // connection is reclaimed by the pool anyway
+      }
+    }
+  }
+
   /**
    * 2xx
    */
@@ -23,13 +23,18 @@
 
 package org.pentaho.di.core.refinery.publish.agilebi;
 
+import com.sun.jersey.api.client.ClientRequest;
 import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.api.client.WebResource;
 import com.sun.jersey.api.client.WebResource.Builder;
+import com.sun.jersey.api.client.config.ClientConfig;
+import com.sun.jersey.api.client.filter.ClientFilter;
 import com.sun.jersey.core.header.FormDataContentDisposition;
 import com.sun.jersey.multipart.FormDataMultiPart;
 
 import org.apache.commons.httpclient.util.URIUtil;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CloseShieldInputStream;
 import org.apache.commons.lang.StringUtils;
 import org.jfree.util.Log;
 import org.pentaho.database.model.DatabaseAccessType;
@@ -38,6 +43,7 @@ import org.pentaho.di.core.database.DatabaseInterface;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.logging.LogChannelInterface;
 import org.pentaho.di.core.refinery.publish.model.DataSourceAclModel;
+import org.pentaho.di.core.refinery.publish.util.HttpClientPool;
 import org.pentaho.di.core.refinery.publish.util.JAXBUtils;
 import org.pentaho.di.job.entries.publish.exception.DuplicateDataSourceException;
 
@@ -62,9 +68,9 @@ public class ModelServerPublish extends ModelServerAction {
   private static final String PLUGIN_DATA_ACCESS_API_CONNECTION_UPDATE = "plugin/data-access/api/connection/update";
   private static final String PLUGIN_DATA_ACCESS_API_CONNECTION_DELETE = "plugin/data-access/api/connection/deletebyname";
   private static final String DATA_ACCESS_API_CONNECTION_GET = "plugin/data-access/api/connection/getresponse";
+  private static final int CHUNK_SIZE = 64 * 1024;
   private boolean forceOverwrite;
   private DataSourceAclModel aclModel;
-  private LogChannelInterface logChannel;
 
   public ModelServerPublish( final LogChannelInterface logChannel ) {
 
@@ -79,6 +85,16 @@ public class ModelServerPublish extends ModelServerAction {
    * @throws org.pentaho.di.core.exception.KettleDatabaseException
    */
   public boolean publishDataSource( boolean update, String connectionId ) throws KettleException {
+    return updateConnection( getDatabaseConnection( connectionId ), update );
+  }
+
+  /**
+   * Builds the connection published for the current databaseMeta
+   *
+   * @param connectionId
+   * @return
+   */
+  public DatabaseConnection getDatabaseConnection( String connectionId ) {
 
     // create a new connection object and populate it from the databaseMeta
     DatabaseConnection connection = new DatabaseConnection();
@@ -98,7 +114,7 @@ public class ModelServerPublish extends ModelServerAction {
     connection.setAccessType( DatabaseAccessType.NATIVE );
     connection.setExtraOptions( getDatabaseMeta().getExtraOptions() );
     connection.setDatabaseType( getDatabaseType( intf ) );
-    return updateConnection( connection, update );
+    return connection;
   }
 
   /**
@@ -108,7 +124,7 @@ public class ModelServerPublish extends ModelServerAction {
    * @param update
    * @return
    */
-  protected boolean updateConnection( DatabaseConnection connection, boolean update ) throws KettleException {
+  public boolean updateConnection( DatabaseConnection connection, boolean update ) throws KettleException {
     String storeDomainUrl;
     try {
       if ( update ) {
@@ -125,6 +141,7 @@ public class ModelServerPublish extends ModelServerAction {
       if ( resp == null ) {
         return false;
       }
+      release( resp );
       if ( resp.getStatus() == 409 ) {
         throw new DuplicateDataSourceException();
       } else if ( resp.getStatus() != 200 ) {
@@ -180,6 +197,7 @@ public class ModelServerPublish extends ModelServerAction {
           .type( MediaType.APPLICATION_JSON );
 
       ClientResponse resp = httpDelete( builder );
+      release( resp );
       if ( resp == null || resp.getStatus() != 200 ) {
         return false;
       }
@@ -207,7 +225,7 @@ public class ModelServerPublish extends ModelServerAction {
     int response = PUBLISH_FAILED;
     FormDataMultiPart part = new FormDataMultiPart();
     part.field( "parameters", parms, MediaType.MULTIPART_FORM_DATA_TYPE )
-        .field( "uploadAnalysis", mondrianFile, MediaType.MULTIPART_FORM_DATA_TYPE )
+        .field( "uploadAnalysis", new CloseShieldInputStream( mondrianFile ), MediaType.MULTIPART_FORM_DATA_TYPE )
         .field( "catalogName", catalogName, MediaType.MULTIPART_FORM_DATA_TYPE )
         .field( "overwrite", overwriteInRepos ? "true" : "false", MediaType.MULTIPART_FORM_DATA_TYPE )
         .field( "xmlaEnabledFlag", "true", MediaType.MULTIPART_FORM_DATA_TYPE );
@@ -219,7 +237,8 @@ public class ModelServerPublish extends ModelServerAction {
         FormDataContentDisposition.name( "uploadAnalysis" ).fileName( catalogName ).build() );
     try {
       Builder builder = resourceBuilder( resource, part );
-      ClientResponse resp = httpPost( builder );
+      // replacing the catalog gives the same result when sent twice, adding it does not
+      ClientResponse resp = overwriteInRepos ? httpPost( builder, mondrianFile ) : httpPost( builder );
       String entity = null;
       if ( resp != null && resp.getStatus() == 200 ) {
         entity = resp.getEntity( String.class );
@@ -230,6 +249,7 @@ public class ModelServerPublish extends ModelServerAction {
         }
       } else {
         Log.info( resp );
+        release( resp );
       }
     } catch ( Exception ex ) {
       Log.error( ex.getMessage() );
@@ -238,11 +258,26 @@ public class ModelServerPublish extends ModelServerAction {
   }
 
   Builder resourceBuilder( final WebResource resource, final FormDataMultiPart part ) {
+    final int readTimeout = getUploadReadTimeout();
+    // send chunked, so uploaded files are streamed instead of buffered in memory first
+    resource.addFilter( new ClientFilter() {
+      @Override public ClientResponse handle( ClientRequest request ) {
+        request.getProperties().put( ClientConfig.PROPERTY_CHUNKED_ENCODING_SIZE, CHUNK_SIZE );
+        // the server imports the file before answering, the pooled read timeout is meant for small REST calls
+        request.getProperties().put( ClientConfig.PROPERTY_READ_TIMEOUT, readTimeout );
+        return getNext().handle( request );
+      }
+    } );
     return resource
         .type( MediaType.MULTIPART_FORM_DATA_TYPE )
         .entity( part );
   }
 
+  // Allows dependency injection/mocks
+  protected int getUploadReadTimeout() {
+    return HttpClientPool.getInstance().getUploadReadTimeout();
+  }
+
   /**
    * Jersey call to use the put service to load a metadataFile file into the Jcr repsoitory
    *
@@ -257,7 +292,7 @@ public class ModelServerPublish extends ModelServerAction {
     int response = PUBLISH_FAILED;
     FormDataMultiPart part = new FormDataMultiPart();
     part.field( "domainId", domainId, MediaType.MULTIPART_FORM_DATA_TYPE )
-        .field( "metadataFile", metadataFile, MediaType.MULTIPART_FORM_DATA_TYPE );
+        .field( "metadataFile", new CloseShieldInputStream( metadataFile ), MediaType.MULTIPART_FORM_DATA_TYPE );
 
     if ( this.isForceOverwrite() ) {
       part.field( "overwrite", this.isForceOverwrite() + "", MediaType.MULTIPART_FORM_DATA_TYPE );
@@ -270,11 +305,14 @@ public class ModelServerPublish extends ModelServerAction {
             .fileName( domainId ).build() );
     try {
       Builder builder = resourceBuilder( resource, part );
-      ClientResponse resp = httpPut( builder );
+      // replacing the domain gives the same result when sent twice, adding it does not
+      ClientResponse resp = isForceOverwrite() ? httpPut( builder, metadataFile ) : httpPut( builder );
       if ( resp != null && resp.getStatus() == 200 ) {
         if ( resp.getEntity( String.class ).equals( PUBLISH_SUCCESS + "" ) ) {
           response = PUBLISH_SUCCESS;
         }
+      } else {
+        release( resp );
       }
     } catch ( Exception ex ) {
       Log.error( ex.getMessage() );
@@ -292,7 +330,7 @@ public class ModelServerPublish extends ModelServerAction {
 
     FormDataMultiPart part = new FormDataMultiPart();
     part.field( "domainId", domainId, MediaType.MULTIPART_FORM_DATA_TYPE )
-        .field( "metadataFile", metadataFile, MediaType.MULTIPART_FORM_DATA_TYPE );
+        .field( "metadataFile", new CloseShieldInputStream( metadataFile ), MediaType.MULTIPART_FORM_DATA_TYPE );
     if ( this.isForceOverwrite() ) {
       part.field( "overwrite", Boolean.toString( this.isForceOverwrite() ), MediaType.MULTIPART_FORM_DATA_TYPE );
     }
@@ -304,8 +342,10 @@ public class ModelServerPublish extends ModelServerAction {
 
     try {
       Builder builder = resourceBuilder( resource, part );
-      ClientResponse resp = httpPut( builder );
+      // a retried add that was stored the first time would come back as a conflict
+      ClientResponse resp = isForceOverwrite() ? httpPut( builder, metadataFile ) : httpPut( builder );
       if ( resp != null ) {
+        release( resp );
         // TODO: we can get more info from the response;
         switch ( ClientResponse.Status.fromStatusCode( resp.getStatus() ) ) {
           case OK:
@@ -349,11 +389,14 @@ public class ModelServerPublish extends ModelServerAction {
       ClientResponse response = httpGet( builder );
       if ( response != null && response.getStatus() == 200 ) {
 
-        String payload = response.getEntity( String.class );
-        DatabaseConnection connection = JAXBUtils.unmarshalFromJson( payload, DatabaseConnection.class );
-
-        return connection;
+        InputStream payload = response.getEntity( InputStream.class );
+        try {
+          return JAXBUtils.unmarshalFromJson( payload, DatabaseConnection.class );
+        } finally {
+          IOUtils.closeQuietly( payload );
+        }
       }
+      release( response );
     } catch ( Exception ex ) {
       Log.error( ex.getMessage() );
     }
@@ -32,7 +32,16 @@ public class DataSourceAclModel {
   private List<String> users;
   private List<String> roles;
 
+  public DataSourceAclModel() {
+  }
 
+  /**
+   * Deep copy, the user and role lists are copied.
+   */
+  public DataSourceAclModel( DataSourceAclModel other ) {
+    this.users = other.users == null ? null : new ArrayList<String>( other.users );
+    this.roles = other.roles == null ? null : new ArrayList<String>( other.roles );
+  }
 
   public void addUser( String user ) {
     if ( users == null ) {
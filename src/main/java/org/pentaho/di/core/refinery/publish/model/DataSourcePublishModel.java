@@ -38,11 +38,32 @@ public class DataSourcePublishModel implements Serializable {
 
   private String modelName = "";
   private boolean override;
+  private boolean publishOnlyIfChanged;
+  private boolean publishAllModels;
+  private boolean publishAsync;
   private String userOrRole;
   private String accessType = ACCESS_TYPE_EVERYONE;
 
   private BiServerConnection biServerConnection;
 
+  public DataSourcePublishModel() {
+  }
+
+  /**
+   * Deep copy, the server connection is copied too.
+   */
+  public DataSourcePublishModel( DataSourcePublishModel other ) {
+    this.modelName = other.modelName;
+    this.override = other.override;
+    this.publishOnlyIfChanged = other.publishOnlyIfChanged;
+    this.publishAllModels = other.publishAllModels;
+    this.publishAsync = other.publishAsync;
+    this.userOrRole = other.userOrRole;
+    this.accessType = other.accessType;
+    this.biServerConnection =
+        other.biServerConnection == null ? null : new BiServerConnection( other.biServerConnection );
+  }
+
   public BiServerConnection getBiServerConnection() {
     return biServerConnection;
   }
@@ -67,6 +88,30 @@ public class DataSourcePublishModel implements Serializable {
     this.override = override;
   }
 
+  public boolean isPublishOnlyIfChanged() {
+    return publishOnlyIfChanged;
+  }
+
+  public void setPublishOnlyIfChanged( boolean publishOnlyIfChanged ) {
+    this.publishOnlyIfChanged = publishOnlyIfChanged;
+  }
+
+  public boolean isPublishAllModels() {
+    return publishAllModels;
+  }
+
+  public void setPublishAllModels( boolean publishAllModels ) {
+    this.publishAllModels = publishAllModels;
+  }
+
+  public boolean isPublishAsync() {
+    return publishAsync;
+  }
+
+  public void setPublishAsync( boolean publishAsync ) {
+    this.publishAsync = publishAsync;
+  }
+
   public String getUserOrRole() {
     return userOrRole;
   }
@@ -0,0 +1,101 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2017 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.publish.model;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable result of probing a set of authorization actions on a BA server for one user.
+ */
+public final class PermissionSnapshot {
+
+  /**
+   * HTTP status reported for actions that were not probed or got no response
+   */
+  public static final int NO_RESPONSE = -1;
+
+  private final Map<String, Boolean> authorized;
+  private final Map<String, Integer> statuses;
+
+  /**
+   * @param authorized action -&gt; granted, in probe order
+   * @param statuses   action -&gt; HTTP status of the probe
+   */
+  public PermissionSnapshot( Map<String, Boolean> authorized, Map<String, Integer> statuses ) {
+    this.authorized = Collections.unmodifiableMap( new LinkedHashMap<String, Boolean>( authorized ) );
+    this.statuses = Collections.unmodifiableMap( new LinkedHashMap<String, Integer>( statuses ) );
+  }
+
+  public Set<String> getActions() {
+    return authorized.keySet();
+  }
+
+  public boolean isAuthorized( String action ) {
+    return Boolean.TRUE.equals( authorized.get( action ) );
+  }
+
+  /**
+   * @return true if every probed action is granted
+   */
+  public boolean isAuthorized() {
+    return !authorized.containsValue( Boolean.FALSE );
+  }
+
+  public int getStatus( String action ) {
+    Integer status = statuses.get( action );
+    return status == null ? NO_RESPONSE : status;
+  }
+
+  /**
+   * @return true if every probed action got an answer from the server, a snapshot with a failed probe says nothing
+   * about the user's rights and should not be kept
+   */
+  public boolean isComplete() {
+    for ( String action : authorized.keySet() ) {
+      if ( getStatus( action ) == NO_RESPONSE ) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return first action, in probe order, that is not granted or null if all are
+   */
+  public String getFirstDenied() {
+    for ( Map.Entry<String, Boolean> entry : authorized.entrySet() ) {
+      if ( !entry.getValue() ) {
+        return entry.getKey();
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public String toString() {
+    return "PermissionSnapshot" + authorized;
+  }
+}
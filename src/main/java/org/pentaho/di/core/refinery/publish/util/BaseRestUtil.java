@@ -26,9 +26,6 @@ import com.sun.jersey.api.client.Client;
 import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.api.client.WebResource;
 import com.sun.jersey.api.client.config.ClientConfig;
-import com.sun.jersey.api.client.config.DefaultClientConfig;
-import com.sun.jersey.api.client.filter.HTTPBasicAuthFilter;
-import com.sun.jersey.api.json.JSONConfiguration;
 import com.sun.jersey.core.header.FormDataContentDisposition;
 import com.sun.jersey.multipart.FormDataMultiPart;
 import org.apache.commons.httpclient.HttpClient;
@@ -49,18 +46,18 @@ import java.net.URLEncoder;
  */
 public abstract class BaseRestUtil {
 
+  protected static final int READ_TIMEOUT = 2000; // 2 sec. timeout
+
+  protected HttpClientPool getHttpClientPool() {
+    return HttpClientPool.getInstance();
+  }
+
   protected Client getAnonymousClient() {
-    ClientConfig clientConfig = new DefaultClientConfig();
-    clientConfig.getFeatures().put( JSONConfiguration.FEATURE_POJO_MAPPING, Boolean.TRUE );
-    clientConfig.getProperties().put(
-        ClientConfig.PROPERTY_READ_TIMEOUT, 2000 ); // 2 sec. timeout
-    return Client.create( clientConfig );
+    return getHttpClientPool().getClient();
   }
 
   protected Client getAuthenticatedClient( final BiServerConnection connection ) {
-    Client client = getAnonymousClient();
-    client.addFilter( new HTTPBasicAuthFilter( connection.getUserId(), connection.getPassword() ) );
-    return client;
+    return getHttpClientPool().getClient( connection.getUserId(), connection.getPassword() );
   }
 
   protected WebResource getWebResource( final BiServerConnection connection, final String restUrl,
@@ -74,12 +71,10 @@ public abstract class BaseRestUtil {
 
   protected ClientResponse httpGet( final BiServerConnection connection, final String restUrl, boolean authenticate ) {
 
-    Client client = getAnonymousClient();
-    if ( authenticate ) {
-      client = getAuthenticatedClient( connection );
-    }
+    Client client = authenticate ? getAuthenticatedClient( connection ) : getAnonymousClient();
 
     WebResource resource = getWebResource( connection, restUrl, client );
+    resource.setProperty( ClientConfig.PROPERTY_READ_TIMEOUT, READ_TIMEOUT );
     WebResource.Builder builder = getDefaultWebResourceBuilder( resource );
     return builder.get( ClientResponse.class );
   }
@@ -87,12 +82,10 @@ public abstract class BaseRestUtil {
   protected ClientResponse httpPut( final BiServerConnection connection, final String restUrl,
       final boolean authenticate, final Object requestEntity ) {
 
-    Client client = getAnonymousClient();
-    if ( authenticate ) {
-      client = getAuthenticatedClient( connection );
-    }
+    Client client = authenticate ? getAuthenticatedClient( connection ) : getAnonymousClient();
 
     WebResource resource = getWebResource( connection, restUrl, client );
+    resource.setProperty( ClientConfig.PROPERTY_READ_TIMEOUT, READ_TIMEOUT );
     WebResource.Builder builder = getDefaultWebResourceBuilder( resource );
     return builder.put( ClientResponse.class, requestEntity );
   }
@@ -115,7 +108,7 @@ public abstract class BaseRestUtil {
 
   protected HttpClient getSimpleHttpClient( final BiServerConnection connection, boolean authenticate ) {
 
-    HttpClient client = new HttpClient();
+    HttpClient client = getHttpClientPool().newHttpClient();
     if ( authenticate ) {
       client.getState().setCredentials(
           new AuthScope( AuthScope.ANY_HOST, AuthScope.ANY_PORT ),
@@ -0,0 +1,138 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2017 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.publish.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Accumulates values into a SHA-256 fingerprint, used for content addressed caches, publish state and keys that must
+ * not hold secrets in plain text.
+ */
+public class Fingerprint {
+
+  private final MessageDigest digest;
+  private String hex;
+
+  public Fingerprint() {
+    try {
+      digest = MessageDigest.getInstance( "SHA-256" );
+    } catch ( NoSuchAlgorithmException e ) {
+      throw new IllegalStateException( e );
+    }
+  }
+
+  public Fingerprint add( String value ) {
+    try {
+      byte[] bytes = value == null ? new byte[0] : value.getBytes( "UTF-8" );
+      // length prefix keeps ("ab", "c") and ("a", "bc") apart, and null apart from ""
+      update( value == null ? -1 : bytes.length );
+      digest.update( bytes );
+    } catch ( UnsupportedEncodingException e ) {
+      throw new IllegalStateException( e );
+    }
+    return this;
+  }
+
+  public Fingerprint add( long value ) {
+    update( value );
+    return this;
+  }
+
+  public Fingerprint add( boolean value ) {
+    digest.update( (byte) ( value ? 1 : 0 ) );
+    return this;
+  }
+
+  /**
+   * Adds the serialized form of the object.
+   *
+   * @throws IOException if the object can not be serialized
+   */
+  public Fingerprint add( Serializable value ) throws IOException {
+    ObjectOutputStream out = new ObjectOutputStream( new OutputStream() {
+      @Override public void write( int b ) {
+        digest.update( (byte) b );
+      }
+
+      @Override public void write( byte[] b, int off, int len ) {
+        digest.update( b, off, len );
+      }
+    } );
+    out.writeObject( value );
+    out.close();
+    return this;
+  }
+
+  /**
+   * Adds the content of the file without loading it in memory.
+   */
+  public Fingerprint add( File file ) throws IOException {
+    update( file.length() );
+    InputStream in = new FileInputStream( file );
+    try {
+      byte[] buffer = new byte[8192];
+      int read;
+      while ( ( read = in.read( buffer ) ) != -1 ) {
+        digest.update( buffer, 0, read );
+      }
+    } finally {
+      in.close();
+    }
+    return this;
+  }
+
+  private void update( long value ) {
+    for ( int i = 56; i >= 0; i -= 8 ) {
+      digest.update( (byte) ( value >>> i ) );
+    }
+  }
+
+  /**
+   * @return hex digest, nothing should be added after calling this
+   */
+  public String getValue() {
+    if ( hex == null ) {
+      byte[] bytes = digest.digest();
+      StringBuilder sb = new StringBuilder( bytes.length * 2 );
+      for ( byte b : bytes ) {
+        sb.append( Character.forDigit( ( b >> 4 ) & 0xF, 16 ) ).append( Character.forDigit( b & 0xF, 16 ) );
+      }
+      hex = sb.toString();
+    }
+    return hex;
+  }
+
+  @Override
+  public String toString() {
+    return getValue();
+  }
+}
@@ -0,0 +1,190 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2017 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.publish.util;
+
+import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.config.ClientConfig;
+import com.sun.jersey.api.client.filter.HTTPBasicAuthFilter;
+import com.sun.jersey.api.json.JSONConfiguration;
+import com.sun.jersey.client.apache.ApacheHttpClient;
+import com.sun.jersey.client.apache.ApacheHttpClientHandler;
+import com.sun.jersey.client.apache.config.DefaultApacheHttpClientConfig;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.pentaho.di.core.Const;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Plugin-wide HTTP client shared by every REST call made against a BA server.
+ * <p>
+ * All clients handed out by the pool sit on top of a single {@link MultiThreadedHttpConnectionManager}, so
+ * connections (and their TCP/TLS handshakes) are kept alive and reused across job entries, dialogs and jobs
+ * running in the same JVM. Limits and timeouts can be tuned with the following system properties (or
+ * kettle.properties entries):
+ * <ul>
+ *   <li>{@value #CONNECT_TIMEOUT_PROPERTY} - connect timeout in ms (default {@value #DEFAULT_CONNECT_TIMEOUT})</li>
+ *   <li>{@value #READ_TIMEOUT_PROPERTY} - socket read timeout in ms (default {@value #DEFAULT_READ_TIMEOUT})</li>
+ *   <li>{@value #UPLOAD_READ_TIMEOUT_PROPERTY} - socket read timeout in ms for XMI, Mondrian and DSW imports, which
+ *   the server processes before answering, 0 waits forever (default {@value #DEFAULT_UPLOAD_READ_TIMEOUT})</li>
+ *   <li>{@value #MAX_CONNECTIONS_PER_HOST_PROPERTY} - pooled connections per BA server
+ *   (default {@value #DEFAULT_MAX_CONNECTIONS_PER_HOST})</li>
+ *   <li>{@value #MAX_TOTAL_CONNECTIONS_PROPERTY} - pooled connections overall
+ *   (default {@value #DEFAULT_MAX_TOTAL_CONNECTIONS})</li>
+ * </ul>
+ */
+public class HttpClientPool {
+
+  public static final String CONNECT_TIMEOUT_PROPERTY = "KETTLE_DATA_REFINERY_HTTP_CONNECT_TIMEOUT";
+  public static final String READ_TIMEOUT_PROPERTY = "KETTLE_DATA_REFINERY_HTTP_READ_TIMEOUT";
+  public static final String UPLOAD_READ_TIMEOUT_PROPERTY = "KETTLE_DATA_REFINERY_HTTP_UPLOAD_READ_TIMEOUT";
+  public static final String MAX_CONNECTIONS_PER_HOST_PROPERTY = "KETTLE_DATA_REFINERY_HTTP_MAX_CONNECTIONS_PER_HOST";
+  public static final String MAX_TOTAL_CONNECTIONS_PROPERTY = "KETTLE_DATA_REFINERY_HTTP_MAX_TOTAL_CONNECTIONS";
+
+  public static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+  public static final int DEFAULT_READ_TIMEOUT = 60000;
+  public static final int DEFAULT_UPLOAD_READ_TIMEOUT = 0;
+  public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 20;
+  public static final int DEFAULT_MAX_TOTAL_CONNECTIONS = 100;
+
+  /**
+   * Authenticated clients kept, the least recently used one is dropped beyond that
+   */
+  static final int MAX_AUTHENTICATED_CLIENTS = 100;
+
+  private static HttpClientPool instance;
+
+  private final MultiThreadedHttpConnectionManager connectionManager;
+  private final ClientConfig clientConfig;
+  private final ApacheHttpClientHandler clientHandler;
+  private final Client anonymousClient;
+  // keyed by a hash of the credentials, plain passwords are not kept as map keys
+  private final Map<String, Client> authenticatedClients =
+      new LinkedHashMap<String, Client>( 16, 0.75f, true ) {
+        @Override protected boolean removeEldestEntry( Map.Entry<String, Client> eldest ) {
+          return size() > MAX_AUTHENTICATED_CLIENTS;
+        }
+      };
+  private final int connectTimeout;
+  private final int uploadReadTimeout;
+
+  public static synchronized HttpClientPool getInstance() {
+    if ( instance == null ) {
+      instance = new HttpClientPool(
+          Const.toInt( System.getProperty( CONNECT_TIMEOUT_PROPERTY ), DEFAULT_CONNECT_TIMEOUT ),
+          Const.toInt( System.getProperty( READ_TIMEOUT_PROPERTY ), DEFAULT_READ_TIMEOUT ),
+          Const.toInt( System.getProperty( UPLOAD_READ_TIMEOUT_PROPERTY ), DEFAULT_UPLOAD_READ_TIMEOUT ),
+          Const.toInt( System.getProperty( MAX_CONNECTIONS_PER_HOST_PROPERTY ), DEFAULT_MAX_CONNECTIONS_PER_HOST ),
+          Const.toInt( System.getProperty( MAX_TOTAL_CONNECTIONS_PROPERTY ), DEFAULT_MAX_TOTAL_CONNECTIONS ) );
+    }
+    return instance;
+  }
+
+  HttpClientPool( int connectTimeout, int readTimeout, int uploadReadTimeout, int maxConnectionsPerHost,
+      int maxTotalConnections ) {
+    this.connectTimeout = connectTimeout;
+    this.uploadReadTimeout = uploadReadTimeout;
+
+    connectionManager = new MultiThreadedHttpConnectionManager();
+    HttpConnectionManagerParams params = connectionManager.getParams();
+    params.setConnectionTimeout( connectTimeout );
+    params.setSoTimeout( readTimeout );
+    params.setDefaultMaxConnectionsPerHost( maxConnectionsPerHost );
+    params.setMaxTotalConnections( maxTotalConnections );
+    params.setStaleCheckingEnabled( true );
+
+    clientConfig = new DefaultApacheHttpClientConfig();
+    clientConfig.getFeatures().put( JSONConfiguration.FEATURE_POJO_MAPPING, Boolean.TRUE );
+    clientConfig.getProperties().put( ClientConfig.PROPERTY_CONNECT_TIMEOUT, connectTimeout );
+    clientConfig.getProperties().put( ClientConfig.PROPERTY_READ_TIMEOUT, readTimeout );
+
+    clientHandler = new ApacheHttpClientHandler( newHttpClient(), clientConfig );
+    anonymousClient = new ApacheHttpClient( clientHandler, clientConfig );
+  }
+
+  /**
+   * @return shared client without credentials
+   */
+  public Client getClient() {
+    return anonymousClient;
+  }
+
+  /**
+   * Clients are created once per set of credentials and reuse the pooled connections, the
+   * {@value #MAX_AUTHENTICATED_CLIENTS} most recently used ones are kept. Basic authentication is sent preemptively
+   * so no extra 401 round trip is made.
+   *
+   * @return shared client that authenticates as the given user
+   */
+  public Client getClient( final String userId, final String password ) {
+    String key = new Fingerprint().add( userId ).add( password ).getValue();
+    synchronized ( authenticatedClients ) {
+      Client client = authenticatedClients.get( key );
+      if ( client == null ) {
+        client = new ApacheHttpClient( clientHandler, clientConfig );
+        client.addFilter( new HTTPBasicAuthFilter( userId, password ) );
+        authenticatedClients.put( key, client );
+      }
+      return client;
+    }
+  }
+
+  /**
+   * @return read timeout in ms to set on upload requests, 0 for none
+   */
+  public int getUploadReadTimeout() {
+    return uploadReadTimeout;
+  }
+
+  int getAuthenticatedClientCount() {
+    synchronized ( authenticatedClients ) {
+      return authenticatedClients.size();
+    }
+  }
+
+  /**
+   * HttpClient instances are cheap, the connections they use come from the shared pool. Callers own the returned
+   * instance, so credentials set on its state are not visible to anyone else.
+   *
+   * @return commons-httpclient client backed by the shared connection pool
+   */
+  public HttpClient newHttpClient() {
+    HttpClient client = new HttpClient( connectionManager );
+    // fail instead of hanging forever if the pool is exhausted by unreleased responses
+    client.getParams().setConnectionManagerTimeout( connectTimeout );
+    return client;
+  }
+
+  MultiThreadedHttpConnectionManager getConnectionManager() {
+    return connectionManager;
+  }
+
+  /**
+   * Closes every pooled connection. The pool stays usable and will open new connections on demand.
+   */
+  public void closeIdleConnections() {
+    connectionManager.closeIdleConnections( 0 );
+  }
+}
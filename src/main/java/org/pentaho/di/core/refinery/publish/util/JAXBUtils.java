@@ -28,51 +28,161 @@ import com.sun.jersey.api.json.JSONUnmarshaller;
 
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
 import javax.xml.bind.Marshaller;
 import javax.xml.bind.Unmarshaller;
+import javax.xml.transform.Source;
+import javax.xml.transform.stream.StreamSource;
 
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.io.Writer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
+ * JAXB contexts are built once per class and shared. Marshallers and unmarshallers are not thread safe, so each call
+ * borrows one from a small per-class pool and hands it back when done.
+ *
  * @author Rowell Belen
  */
 public class JAXBUtils {
 
+  // idle marshallers and unmarshallers kept per class and kind
+  private static final int POOL_SIZE = 8;
+
+  private static final String ENCODING = "UTF-8";
+
+  private static final ConcurrentMap<Class<?>, Binding> BINDINGS = new ConcurrentHashMap<Class<?>, Binding>();
+
   public static String marshallToXml( Object source ) throws Exception {
-    JAXBContext jaxbContext = JAXBContext.newInstance( source.getClass() );
-    Marshaller marshaller = jaxbContext.createMarshaller();
-    marshaller.setProperty( Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE );
     StringWriter writer = new StringWriter();
-    marshaller.marshal( source, writer );
+    marshallToXml( source, writer );
     return writer.toString();
   }
 
-  @SuppressWarnings( "unchecked" )
+  /**
+   * Writes the source as formatted XML, the writer is not closed.
+   */
+  public static void marshallToXml( Object source, Writer writer ) throws Exception {
+    Binding binding = getBinding( source.getClass() );
+    Marshaller marshaller = binding.marshallers.poll();
+    if ( marshaller == null ) {
+      marshaller = binding.createMarshaller();
+    }
+    marshaller.marshal( source, writer );
+    binding.marshallers.offer( marshaller );
+  }
+
   public static <T> T unmarshalFromXml( final String xml, Class<T> destinationClass ) throws Exception {
-    JAXBContext jaxbContext = JAXBContext.newInstance( destinationClass );
-    Unmarshaller unmarshaller = jaxbContext.createUnmarshaller();
-    StringReader reader = new StringReader( xml );
-    return (T) unmarshaller.unmarshal( reader );
+    return unmarshalFromXml( new StreamSource( new StringReader( xml ) ), destinationClass );
+  }
+
+  /**
+   * Reads XML from the stream, which is not closed.
+   */
+  public static <T> T unmarshalFromXml( final InputStream xml, Class<T> destinationClass ) throws Exception {
+    return unmarshalFromXml( new StreamSource( xml ), destinationClass );
+  }
+
+  @SuppressWarnings( "unchecked" )
+  private static <T> T unmarshalFromXml( final Source xml, Class<T> destinationClass ) throws Exception {
+    Binding binding = getBinding( destinationClass );
+    Unmarshaller unmarshaller = binding.unmarshallers.poll();
+    if ( unmarshaller == null ) {
+      unmarshaller = binding.context.createUnmarshaller();
+    }
+    T result = (T) unmarshaller.unmarshal( xml );
+    binding.unmarshallers.offer( unmarshaller );
+    return result;
   }
 
   public static String marshallToJson( Object source ) throws Exception {
-    JAXBContext jaxbContext = JAXBContext.newInstance( source.getClass() );
-    Marshaller marshaller = jaxbContext.createMarshaller();
-    marshaller.setProperty( Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE );
-    JSONMarshaller jsonMarshaller = JSONJAXBContext.getJSONMarshaller( marshaller, jaxbContext );
     StringWriter writer = new StringWriter();
-    jsonMarshaller.marshallToJSON( source, writer );
+    marshallToJson( source, writer );
     return writer.toString();
   }
 
+  /**
+   * Writes the source as formatted JSON, the writer is not closed.
+   */
+  public static void marshallToJson( Object source, Writer writer ) throws Exception {
+    Binding binding = getBinding( source.getClass() );
+    JSONMarshaller jsonMarshaller = binding.jsonMarshallers.poll();
+    if ( jsonMarshaller == null ) {
+      jsonMarshaller = JSONJAXBContext.getJSONMarshaller( binding.createMarshaller(), binding.context );
+    }
+    jsonMarshaller.marshallToJSON( source, writer );
+    binding.jsonMarshallers.offer( jsonMarshaller );
+  }
+
   public static <T> T unmarshalFromJson( final String json, Class<T> destinationClass ) throws Exception {
-    JAXBContext jaxbContext = JAXBContext.newInstance( destinationClass );
-    Unmarshaller unmarshaller = jaxbContext.createUnmarshaller();
-    JSONUnmarshaller jsonUnmarshaller = JSONJAXBContext.getJSONUnmarshaller( unmarshaller, jaxbContext );
-    StringReader reader = new StringReader( json );
-    JAXBElement<T> element = jsonUnmarshaller.unmarshalJAXBElementFromJSON( reader, destinationClass );
+    return unmarshalFromJson( new StringReader( json ), destinationClass );
+  }
+
+  /**
+   * Reads UTF-8 JSON from the stream, which is not closed.
+   */
+  public static <T> T unmarshalFromJson( final InputStream json, Class<T> destinationClass ) throws Exception {
+    return unmarshalFromJson( new InputStreamReader( json, ENCODING ), destinationClass );
+  }
+
+  private static <T> T unmarshalFromJson( final Reader json, Class<T> destinationClass ) throws Exception {
+    Binding binding = getBinding( destinationClass );
+    JSONUnmarshaller jsonUnmarshaller = binding.jsonUnmarshallers.poll();
+    if ( jsonUnmarshaller == null ) {
+      jsonUnmarshaller =
+          JSONJAXBContext.getJSONUnmarshaller( binding.context.createUnmarshaller(), binding.context );
+    }
+    JAXBElement<T> element = jsonUnmarshaller.unmarshalJAXBElementFromJSON( json, destinationClass );
+    binding.jsonUnmarshallers.offer( jsonUnmarshaller );
     return element.getValue();
   }
 
+  static JAXBContext getContext( Class<?> type ) throws JAXBException {
+    return getBinding( type ).context;
+  }
+
+  private static Binding getBinding( Class<?> type ) throws JAXBException {
+    Binding binding = BINDINGS.get( type );
+    if ( binding == null ) {
+      // two callers may build the context at once, only one is kept
+      Binding created = new Binding( JAXBContext.newInstance( type ) );
+      binding = BINDINGS.putIfAbsent( type, created );
+      if ( binding == null ) {
+        binding = created;
+      }
+    }
+    return binding;
+  }
+
+  /**
+   * Context of a class and its idle marshallers. Only marshallers that completed their last call are pooled, a
+   * failed one is left for the garbage collector.
+   */
+  private static class Binding {
+    private final JAXBContext context;
+    private final BlockingQueue<Marshaller> marshallers = new ArrayBlockingQueue<Marshaller>( POOL_SIZE );
+    private final BlockingQueue<Unmarshaller> unmarshallers = new ArrayBlockingQueue<Unmarshaller>( POOL_SIZE );
+    private final BlockingQueue<JSONMarshaller> jsonMarshallers =
+        new ArrayBlockingQueue<JSONMarshaller>( POOL_SIZE );
+    private final BlockingQueue<JSONUnmarshaller> jsonUnmarshallers =
+        new ArrayBlockingQueue<JSONUnmarshaller>( POOL_SIZE );
+
+    private Binding( JAXBContext context ) {
+      this.context = context;
+    }
+
+    private Marshaller createMarshaller() throws JAXBException {
+      Marshaller marshaller = context.createMarshaller();
+      marshaller.setProperty( Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE );
+      return marshaller;
+    }
+  }
+
 }
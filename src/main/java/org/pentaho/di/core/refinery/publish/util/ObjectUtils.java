@@ -22,6 +22,10 @@
 
 package org.pentaho.di.core.refinery.publish.util;
 
+import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
+import org.pentaho.di.core.refinery.publish.model.DataSourceAclModel;
+import org.pentaho.di.core.refinery.publish.model.DataSourcePublishModel;
+
 import java.beans.XMLDecoder;
 import java.beans.XMLEncoder;
 import java.io.ByteArrayInputStream;
@@ -44,6 +48,16 @@ public class ObjectUtils {
     if ( object == null ) {
       return null;
     }
+    // the plugin's own models are copied field by field, subclasses go the generic way
+    if ( object.getClass() == BiServerConnection.class ) {
+      return (T) new BiServerConnection( (BiServerConnection) object );
+    }
+    if ( object.getClass() == DataSourcePublishModel.class ) {
+      return (T) new DataSourcePublishModel( (DataSourcePublishModel) object );
+    }
+    if ( object.getClass() == DataSourceAclModel.class ) {
+      return (T) new DataSourceAclModel( (DataSourceAclModel) object );
+    }
     if ( object instanceof Serializable ) {
       T ret = cloneSerialize( object );
       if ( ret != null ) {
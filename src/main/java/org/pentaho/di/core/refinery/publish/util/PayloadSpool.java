@@ -0,0 +1,154 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2017 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.publish.util;
+
+import org.apache.commons.lang.StringUtils;
+import org.pentaho.di.core.Const;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Hands generated XMI and Mondrian schemas from the build model entry to the publish entry through files, so only a
+ * short file name travels in job variables instead of the whole document.
+ * <p>
+ * Disabled unless {@value #ENABLED_PROPERTY} is set to Y. Files go to {@value #DIRECTORY_PROPERTY}, by default
+ * data-refinery-spool in the java temp folder, gzip compressed if {@value #GZIP_PROPERTY} is set to Y. The build
+ * entry removes its files once the job finishes; files left behind by a killed process are removed after
+ * {@value #DEFAULT_MAX_AGE} ms.
+ * <p>
+ * Payloads are encoded while they are written, without an encoded copy of the whole document in memory. Read spool
+ * files with {@link RewindableFileInputStream#open(File)}, which undoes the compression.
+ */
+public class PayloadSpool {
+
+  public static final String ENABLED_PROPERTY = "KETTLE_DATA_REFINERY_SPOOL_PAYLOADS";
+  public static final String DIRECTORY_PROPERTY = "KETTLE_DATA_REFINERY_SPOOL_DIR";
+  public static final String GZIP_PROPERTY = "KETTLE_DATA_REFINERY_SPOOL_GZIP";
+
+  public static final long DEFAULT_MAX_AGE = 24L * 60 * 60 * 1000;
+
+  private static final String EXTENSION = ".spool";
+
+  // the writer encodes chunks up to this size in its own buffer
+  private static final int CHUNK_SIZE = 1024;
+
+  private static PayloadSpool instance;
+
+  private final File directory;
+  private final boolean gzip;
+
+  /**
+   * @return shared spool or null if spooling is not enabled
+   */
+  public static synchronized PayloadSpool getInstance() {
+    if ( !"Y".equalsIgnoreCase( System.getProperty( ENABLED_PROPERTY ) ) ) {
+      return null;
+    }
+    if ( instance == null ) {
+      String directory = System.getProperty( DIRECTORY_PROPERTY );
+      if ( StringUtils.isBlank( directory ) ) {
+        directory = System.getProperty( "java.io.tmpdir" ) + Const.FILE_SEPARATOR + "data-refinery-spool";
+      }
+      instance = new PayloadSpool( new File( directory ),
+          "Y".equalsIgnoreCase( System.getProperty( GZIP_PROPERTY ) ) );
+      instance.prune( System.currentTimeMillis() - DEFAULT_MAX_AGE );
+    }
+    return instance;
+  }
+
+  public PayloadSpool( File directory ) {
+    this( directory, false );
+  }
+
+  public PayloadSpool( File directory, boolean gzip ) {
+    this.directory = directory;
+    this.gzip = gzip;
+  }
+
+  /**
+   * @param prefix at least three characters, see {@link File#createTempFile(String, String, File)}
+   * @return new spool file holding the payload, UTF-8 encoded and compressed if gzip is enabled
+   */
+  public File write( String prefix, String payload ) throws IOException {
+    if ( !directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory() ) {
+      throw new IOException( "Unable to create " + directory );
+    }
+    File file = File.createTempFile( prefix, EXTENSION, directory );
+    try {
+      OutputStream out = new BufferedOutputStream( new FileOutputStream( file ) );
+      try {
+        if ( gzip ) {
+          out = new GZIPOutputStream( out );
+        }
+        write( payload, out );
+      } finally {
+        out.close();
+      }
+    } catch ( IOException e ) {
+      file.delete();
+      throw e;
+    }
+    return file;
+  }
+
+  /**
+   * Writes the payload UTF-8 encoded, a chunk at a time. The stream is flushed but not closed.
+   */
+  public static void write( String payload, OutputStream out ) throws IOException {
+    Writer writer = new OutputStreamWriter( out, Const.XML_ENCODING );
+    for ( int i = 0; i < payload.length(); i += CHUNK_SIZE ) {
+      writer.write( payload, i, Math.min( CHUNK_SIZE, payload.length() - i ) );
+    }
+    writer.flush();
+  }
+
+  public boolean isGzip() {
+    return gzip;
+  }
+
+  public File getDirectory() {
+    return directory;
+  }
+
+  /**
+   * Removes spool files last modified before the given time.
+   */
+  void prune( long before ) {
+    File[] files = directory.listFiles();
+    if ( files == null ) {
+      return;
+    }
+    for ( File file : files ) {
+      if ( file.getName().endsWith( EXTENSION ) && file.lastModified() < before ) {
+        file.delete();
+      }
+    }
+  }
+}
@@ -27,24 +27,41 @@ import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
+import org.pentaho.di.core.refinery.publish.model.PermissionSnapshot;
 import org.pentaho.di.core.refinery.publish.model.ResponseStatus;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
 /**
  * @author Rowell Belen
  */
 public class PublishRestUtil extends BaseRestUtil {
 
-  protected static final String CAN_PUBLISH_PATH =
-      "api/authorization/action/isauthorized?authAction=org.pentaho.security.publish";
+  public static final String PUBLISH_ACTION = "org.pentaho.security.publish";
+
+  public static final String CREATE_ACTION = "org.pentaho.repository.create";
+
+  public static final String EXECUTE_ACTION = "org.pentaho.repository.execute";
+
+  public static final String MANAGE_DATASOURCES_ACTION = "org.pentaho.platform.dataaccess.datasource.security.manage";
+
+  protected static final String IS_AUTHORIZED_PATH = "api/authorization/action/isauthorized?authAction=";
 
-  protected static final String CAN_CREATE_PATH =
-      "api/authorization/action/isauthorized?authAction=org.pentaho.repository.create";
+  protected static final String CAN_PUBLISH_PATH = IS_AUTHORIZED_PATH + PUBLISH_ACTION;
 
-  protected static final String CAN_EXECUTE_PATH =
-      "api/authorization/action/isauthorized?authAction=org.pentaho.repository.execute";
+  protected static final String CAN_CREATE_PATH = IS_AUTHORIZED_PATH + CREATE_ACTION;
 
-  protected static final String CAN_MANAGE_DATASOURCES =
-      "api/authorization/action/isauthorized?authAction=org.pentaho.platform.dataaccess.datasource.security.manage";
+  protected static final String CAN_EXECUTE_PATH = IS_AUTHORIZED_PATH + EXECUTE_ACTION;
+
+  protected static final String CAN_MANAGE_DATASOURCES = IS_AUTHORIZED_PATH + MANAGE_DATASOURCES_ACTION;
 
   protected static final String PENTAHO_WEBCONTEXT_PATH = "webcontext.js";
 
@@ -52,6 +69,14 @@ public class PublishRestUtil extends BaseRestUtil {
 
   protected static final String SUCCESS_RESPONSE = "SUCCESS";
 
+  private static final ExecutorService PROBE_EXECUTOR = Executors.newCachedThreadPool( new ThreadFactory() {
+    @Override public Thread newThread( Runnable r ) {
+      Thread thread = new Thread( r, "data-refinery-authorization-probe" );
+      thread.setDaemon( true );
+      return thread;
+    }
+  } );
+
   private Log logger = LogFactory.getLog( PublishRestUtil.class );
   protected int lastHTTPStatus = 0;
 
@@ -88,6 +113,72 @@ public class PublishRestUtil extends BaseRestUtil {
     return false;
   }
 
+  /**
+   * Probes all the given authorization actions at once, in parallel over the shared client. As with the serial
+   * can* methods, {@link #getLastHTTPStatus()} afterwards holds the status of the first denied action (in iteration
+   * order) or of the last action if all are granted.
+   *
+   * @param authActions e.g. {@link #PUBLISH_ACTION}, {@link #MANAGE_DATASOURCES_ACTION}
+   * @return immutable snapshot of the user's permissions
+   */
+  public PermissionSnapshot getPermissions( final BiServerConnection connection, final Set<String> authActions ) {
+
+    Map<String, Future<ResponseStatus>> probes = new LinkedHashMap<String, Future<ResponseStatus>>();
+    for ( final String authAction : authActions ) {
+      probes.put( authAction, PROBE_EXECUTOR.submit( new Callable<ResponseStatus>() {
+        @Override public ResponseStatus call() throws Exception {
+          return isAuthorized( connection, authAction );
+        }
+      } ) );
+    }
+
+    Map<String, Boolean> authorized = new LinkedHashMap<String, Boolean>();
+    Map<String, Integer> statuses = new LinkedHashMap<String, Integer>();
+    boolean denied = false;
+    for ( Map.Entry<String, Future<ResponseStatus>> probe : probes.entrySet() ) {
+      ResponseStatus response = getProbeResult( probe.getValue() );
+      boolean granted = Boolean.parseBoolean( response.getMessage() );
+      authorized.put( probe.getKey(), granted );
+      statuses.put( probe.getKey(), response.getStatus() );
+      if ( !denied ) {
+        // same status a serial check stopping at the first denied action would leave behind
+        lastHTTPStatus = response.getStatus();
+        denied = !granted;
+      }
+    }
+    return new PermissionSnapshot( authorized, statuses );
+  }
+
+  protected ResponseStatus isAuthorized( final BiServerConnection connection, final String authAction ) {
+
+    ResponseStatus responseStatus = new ResponseStatus();
+    try {
+      ClientResponse response = httpGet( connection, IS_AUTHORIZED_PATH + authAction, true );
+      if ( response != null ) {
+        responseStatus.setStatus( response.getStatus() );
+        responseStatus.setMessage( response.getEntity( String.class ) );
+        return responseStatus;
+      }
+    } catch ( RuntimeException e ) {
+      logger.warn( e.getMessage(), e );
+    }
+    responseStatus.setStatus( PermissionSnapshot.NO_RESPONSE );
+    return responseStatus;
+  }
+
+  private ResponseStatus getProbeResult( final Future<ResponseStatus> probe ) {
+    try {
+      return probe.get();
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+    } catch ( ExecutionException e ) {
+      logger.warn( e.getMessage(), e );
+    }
+    ResponseStatus responseStatus = new ResponseStatus();
+    responseStatus.setStatus( PermissionSnapshot.NO_RESPONSE );
+    return responseStatus;
+  }
+
   public boolean canCreate( final BiServerConnection connection ) {
 
     ClientResponse response = httpGet( connection, CAN_CREATE_PATH, true );
@@ -0,0 +1,144 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2017 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.publish.util;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.pentaho.di.core.Const;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Remembers the content fingerprint of every artifact successfully published to a BA server, so a publish job entry
+ * can skip uploads whose payload did not change since the last run. Fingerprints are kept in a properties file, by
+ * default data-refinery/publish-state.properties in the kettle home folder; use {@value #STATE_FILE_PROPERTY} to
+ * change it.
+ * <p>
+ * The file is read again before every lookup so that several jobs on the same host share the state.
+ */
+public class PublishStateStore {
+
+  public static final String STATE_FILE_PROPERTY = "KETTLE_DATA_REFINERY_PUBLISH_STATE_FILE";
+
+  public static final String TYPE_DATABASE = "database";
+  public static final String TYPE_XMI = "xmi";
+  public static final String TYPE_MONDRIAN = "mondrian";
+
+  private static PublishStateStore instance;
+
+  private final File file;
+
+  public static synchronized PublishStateStore getInstance() {
+    if ( instance == null ) {
+      String file = System.getProperty( STATE_FILE_PROPERTY );
+      if ( StringUtils.isBlank( file ) ) {
+        file = Const.getKettleDirectory() + Const.FILE_SEPARATOR + "data-refinery" + Const.FILE_SEPARATOR
+            + "publish-state.properties";
+      }
+      instance = new PublishStateStore( new File( file ) );
+    }
+    return instance;
+  }
+
+  public PublishStateStore( File file ) {
+    this.file = file;
+  }
+
+  /**
+   * @return key of an artifact published to a server
+   */
+  public static String key( String serverUrl, String type, String name ) {
+    return StringUtils.removeEnd( Const.nullToEmpty( serverUrl ), "/" ) + "|" + type + "|" + name;
+  }
+
+  /**
+   * @return fingerprint recorded by the last successful publish, or null if unknown
+   */
+  public synchronized String getFingerprint( String key ) throws IOException {
+    return load().getProperty( key );
+  }
+
+  /**
+   * Records fingerprints in one write, a null fingerprint forgets the artifact.
+   */
+  public synchronized void putFingerprints( Map<String, String> fingerprints ) throws IOException {
+    Properties properties = load();
+    for ( Map.Entry<String, String> entry : fingerprints.entrySet() ) {
+      if ( entry.getValue() == null ) {
+        properties.remove( entry.getKey() );
+      } else {
+        properties.setProperty( entry.getKey(), entry.getValue() );
+      }
+    }
+    store( properties );
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  private Properties load() throws IOException {
+    Properties properties = new Properties();
+    if ( file.isFile() ) {
+      InputStream in = new FileInputStream( file );
+      try {
+        properties.load( in );
+      } finally {
+        IOUtils.closeQuietly( in );
+      }
+    }
+    return properties;
+  }
+
+  private void store( Properties properties ) throws IOException {
+    File directory = file.getAbsoluteFile().getParentFile();
+    if ( !directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory() ) {
+      throw new IOException( "Unable to create " + directory );
+    }
+    // write aside and rename so a concurrent reader never sees a partial file
+    File temp = File.createTempFile( "publish-state", ".tmp", directory );
+    try {
+      OutputStream out = new FileOutputStream( temp );
+      try {
+        properties.store( out, null );
+      } finally {
+        IOUtils.closeQuietly( out );
+      }
+      if ( !temp.renameTo( file ) ) {
+        file.delete();
+        if ( !temp.renameTo( file ) ) {
+          throw new IOException( "Unable to write " + file );
+        }
+      }
+    } finally {
+      temp.delete();
+    }
+  }
+}
@@ -0,0 +1,87 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2017 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+
+package org.pentaho.di.core.refinery.publish.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * File stream that supports mark and reset by moving the file position instead of buffering, so a failed upload of
+ * a large file can be sent again.
+ */
+public class RewindableFileInputStream extends FileInputStream {
+
+  private long mark;
+
+  public RewindableFileInputStream( File file ) throws FileNotFoundException {
+    super( file );
+  }
+
+  /**
+   * Opens a payload file, uncompressing it if it is gzip compressed.
+   *
+   * @return stream supporting mark and reset
+   */
+  public static InputStream open( File file ) throws IOException {
+    if ( isGzip( file ) ) {
+      return new RewindableGzipFileInputStream( file );
+    }
+    return new RewindableFileInputStream( file );
+  }
+
+  private static boolean isGzip( File file ) throws IOException {
+    InputStream in = new FileInputStream( file );
+    try {
+      // gzip magic number, an XML document can't start with it
+      return in.read() == 0x1f && in.read() == 0x8b;
+    } finally {
+      in.close();
+    }
+  }
+
+  @Override
+  public boolean markSupported() {
+    return true;
+  }
+
+  @Override
+  public synchronized void mark( int readlimit ) {
+    try {
+      mark = getChannel().position();
+    } catch ( IOException e ) {
+      mark = -1;
+    }
+  }
+
+  @Override
+  public synchronized void reset() throws IOException {
+    if ( mark < 0 ) {
+      throw new IOException( "Mark not available" );
+    }
+    getChannel().position( mark );
+  }
+}
@@ -0,0 +1,115 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2017 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.publish.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Uncompressed content of a gzip file. Supports mark and reset by opening the file again and skipping to the mark,
+ * so a failed upload can be sent again without holding the content in memory.
+ */
+public class RewindableGzipFileInputStream extends InputStream {
+
+  private final File file;
+  private InputStream in;
+  private long position;
+  private long mark;
+
+  public RewindableGzipFileInputStream( File file ) throws IOException {
+    this.file = file;
+    in = open();
+  }
+
+  private InputStream open() throws IOException {
+    FileInputStream fileIn = new FileInputStream( file );
+    try {
+      return new GZIPInputStream( fileIn, 8192 );
+    } catch ( IOException e ) {
+      fileIn.close();
+      throw e;
+    }
+  }
+
+  @Override
+  public int read() throws IOException {
+    int b = in.read();
+    if ( b >= 0 ) {
+      position++;
+    }
+    return b;
+  }
+
+  @Override
+  public int read( byte[] b, int off, int len ) throws IOException {
+    int read = in.read( b, off, len );
+    if ( read > 0 ) {
+      position += read;
+    }
+    return read;
+  }
+
+  @Override
+  public long skip( long n ) throws IOException {
+    long skipped = in.skip( n );
+    position += skipped;
+    return skipped;
+  }
+
+  @Override
+  public int available() throws IOException {
+    return in.available();
+  }
+
+  @Override
+  public boolean markSupported() {
+    return true;
+  }
+
+  @Override
+  public synchronized void mark( int readlimit ) {
+    mark = position;
+  }
+
+  @Override
+  public synchronized void reset() throws IOException {
+    in.close();
+    in = open();
+    position = 0;
+    while ( position < mark ) {
+      long skipped = in.skip( mark - position );
+      if ( skipped <= 0 ) {
+        throw new IOException( "Unable to reset " + file );
+      }
+      position += skipped;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+}
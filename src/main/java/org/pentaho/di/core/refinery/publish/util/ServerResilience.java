@@ -0,0 +1,324 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2017 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+
+package org.pentaho.di.core.refinery.publish.util;
+
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientResponse;
+import org.apache.commons.lang.StringUtils;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.logging.LogChannelInterface;
+import org.pentaho.di.i18n.BaseMessages;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Guards the REST calls made against a BA server. Idempotent calls that fail for a transient reason (no response, or
+ * 502, 503 or 504) are retried after a jittered exponential backoff. A server that keeps failing gets its circuit
+ * opened: calls to it fail right away with {@link ServerUnavailableException} instead of waiting for timeouts, until
+ * a single trial call after the open time succeeds.
+ * <p>
+ * Retries and circuits opening or closing are logged to the log channel of the caller, the counters are reported by
+ * the publish job entry once it is done.
+ * <p>
+ * Settings (system properties or kettle.properties):
+ * <ul>
+ *   <li>{@value #RETRIES_PROPERTY} - retries of an idempotent call (default {@value #DEFAULT_RETRIES})</li>
+ *   <li>{@value #RETRY_DELAY_PROPERTY} - ms the backoff starts from, doubled for every further retry
+ *   (default {@value #DEFAULT_RETRY_DELAY})</li>
+ *   <li>{@value #FAILURE_THRESHOLD_PROPERTY} - consecutive transient failures that open the circuit of a server,
+ *   0 disables it (default {@value #DEFAULT_FAILURE_THRESHOLD})</li>
+ *   <li>{@value #OPEN_TIME_PROPERTY} - ms a circuit stays open (default {@value #DEFAULT_OPEN_TIME})</li>
+ * </ul>
+ */
+public class ServerResilience {
+
+  private static Class<?> PKG = ServerResilience.class;
+
+  public static final String RETRIES_PROPERTY = "KETTLE_DATA_REFINERY_HTTP_RETRIES";
+  public static final String RETRY_DELAY_PROPERTY = "KETTLE_DATA_REFINERY_HTTP_RETRY_DELAY";
+  public static final String FAILURE_THRESHOLD_PROPERTY = "KETTLE_DATA_REFINERY_CIRCUIT_FAILURES";
+  public static final String OPEN_TIME_PROPERTY = "KETTLE_DATA_REFINERY_CIRCUIT_OPEN_TIME";
+
+  public static final int DEFAULT_RETRIES = 2;
+  public static final int DEFAULT_RETRY_DELAY = 500;
+  public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+  public static final int DEFAULT_OPEN_TIME = 30000;
+
+  private static final long MAX_RETRY_DELAY = 30000;
+
+  private static ServerResilience instance;
+
+  private final int retries;
+  private final long retryDelay;
+  private final int failureThreshold;
+  private final long openTime;
+  private final ConcurrentMap<String, Circuit> circuits = new ConcurrentHashMap<String, Circuit>();
+
+  private final AtomicLong retried = new AtomicLong();
+  private final AtomicLong rejected = new AtomicLong();
+  private final AtomicLong opened = new AtomicLong();
+
+  public static synchronized ServerResilience getInstance() {
+    if ( instance == null ) {
+      instance = new ServerResilience(
+          Const.toInt( System.getProperty( RETRIES_PROPERTY ), DEFAULT_RETRIES ),
+          Const.toInt( System.getProperty( RETRY_DELAY_PROPERTY ), DEFAULT_RETRY_DELAY ),
+          Const.toInt( System.getProperty( FAILURE_THRESHOLD_PROPERTY ), DEFAULT_FAILURE_THRESHOLD ),
+          Const.toInt( System.getProperty( OPEN_TIME_PROPERTY ), DEFAULT_OPEN_TIME ) );
+    }
+    return instance;
+  }
+
+  public ServerResilience( int retries, long retryDelay, int failureThreshold, long openTime ) {
+    this.retries = Math.max( 0, retries );
+    this.retryDelay = Math.max( 0, retryDelay );
+    this.failureThreshold = failureThreshold;
+    this.openTime = openTime;
+  }
+
+  /**
+   * A single attempt of a REST call.
+   */
+  public interface Call {
+    ClientResponse execute();
+  }
+
+  /**
+   * Same as {@link #execute(String, boolean, Call, LogChannelInterface)} without logging.
+   */
+  public ClientResponse execute( String server, boolean idempotent, Call call ) {
+    return execute( server, idempotent, call, null );
+  }
+
+  /**
+   * @param server     base url of the server called, null if unknown, then no circuit is used
+   * @param idempotent whether the call may be sent again after a transient failure
+   * @param log        where retries and circuit changes are logged, may be null
+   * @return response of the last attempt
+   * @throws ServerUnavailableException if the circuit of the server is open
+   */
+  public ClientResponse execute( String server, boolean idempotent, Call call, LogChannelInterface log ) {
+    Circuit circuit = getCircuit( server );
+    for ( int attempt = 0; ; attempt++ ) {
+      if ( circuit != null && !circuit.allowRequest( currentTimeMillis() ) ) {
+        rejected.incrementAndGet();
+        if ( log != null ) {
+          log.logDetailed( getMsg( "ServerResilience.Rejected", server ) );
+        }
+        throw new ServerUnavailableException( server );
+      }
+      ClientResponse response;
+      try {
+        response = call.execute();
+      } catch ( RuntimeException e ) {
+        onFailure( circuit, server, log );
+        if ( idempotent && attempt < retries && e instanceof ClientHandlerException ) {
+          backoff( attempt, e, server, String.valueOf( e.getMessage() ), log );
+          continue;
+        }
+        throw e;
+      }
+      if ( response != null && isTransient( response.getStatus() ) ) {
+        onFailure( circuit, server, log );
+        if ( idempotent && attempt < retries ) {
+          release( response );
+          backoff( attempt, null, server, "HTTP " + response.getStatus(), log );
+          continue;
+        }
+      } else if ( circuit != null && circuit.onSuccess() && log != null ) {
+        log.logBasic( getMsg( "ServerResilience.CircuitClosed", server ) );
+      }
+      return response;
+    }
+  }
+
+  private boolean isTransient( int status ) {
+    return status == 502 || status == 503 || status == 504;
+  }
+
+  private void onFailure( Circuit circuit, String server, LogChannelInterface log ) {
+    if ( circuit != null && circuit.onFailure( currentTimeMillis() ) ) {
+      opened.incrementAndGet();
+      if ( log != null ) {
+        log.logError( getMsg( "ServerResilience.CircuitOpened", server, String.valueOf( failureThreshold ),
+          String.valueOf( openTime ) ) );
+      }
+    }
+  }
+
+  private void backoff( int attempt, RuntimeException cause, String server, String reason,
+      LogChannelInterface log ) {
+    retried.incrementAndGet();
+    long delay = getRetryDelay( attempt );
+    if ( log != null ) {
+      log.logBasic( getMsg( "ServerResilience.Retry", server, String.valueOf( attempt + 1 ),
+        String.valueOf( retries ), String.valueOf( delay ), reason ) );
+    }
+    if ( delay > 0 ) {
+      try {
+        Thread.sleep( delay );
+      } catch ( InterruptedException e ) {
+        Thread.currentThread().interrupt();
+        throw cause != null ? cause : new ClientHandlerException( e );
+      }
+    }
+  }
+
+  /**
+   * @return random delay between half and all of the exponential backoff of the attempt, so retrying clients spread
+   * out
+   */
+  long getRetryDelay( int attempt ) {
+    if ( retryDelay == 0 ) {
+      return 0;
+    }
+    long max = Math.min( MAX_RETRY_DELAY, retryDelay << Math.min( attempt, 16 ) );
+    return max / 2 + ThreadLocalRandom.current().nextLong( max / 2 + 1 );
+  }
+
+  protected long currentTimeMillis() {
+    return System.currentTimeMillis();
+  }
+
+  private void release( ClientResponse response ) {
+    try {
+      response.close();
+    } catch ( Exception e ) {
+      // connection is reclaimed by the pool anyway
+    }
+  }
+
+  private Circuit getCircuit( String server ) {
+    if ( failureThreshold <= 0 || StringUtils.isBlank( server ) ) {
+      return null;
+    }
+    String key = StringUtils.removeEnd( server, "/" );
+    Circuit circuit = circuits.get( key );
+    if ( circuit == null ) {
+      Circuit newCircuit = new Circuit();
+      circuit = circuits.putIfAbsent( key, newCircuit );
+      if ( circuit == null ) {
+        circuit = newCircuit;
+      }
+    }
+    return circuit;
+  }
+
+  /**
+   * @return whether calls to the server currently fail fast
+   */
+  public boolean isOpen( String server ) {
+    Circuit circuit = getCircuit( server );
+    return circuit != null && circuit.isOpen( currentTimeMillis() );
+  }
+
+  /**
+   * @return number of servers whose circuit is open
+   */
+  public int getOpenCircuits() {
+    long now = currentTimeMillis();
+    int open = 0;
+    for ( Circuit circuit : circuits.values() ) {
+      if ( circuit.isOpen( now ) ) {
+        open++;
+      }
+    }
+    return open;
+  }
+
+  /**
+   * @return times a circuit was opened
+   */
+  public long getCircuitsOpened() {
+    return opened.get();
+  }
+
+  /**
+   * @return calls sent again after a transient failure
+   */
+  public long getRetries() {
+    return retried.get();
+  }
+
+  /**
+   * @return calls failed fast because of an open circuit
+   */
+  public long getRejected() {
+    return rejected.get();
+  }
+
+  private static String getMsg( String key, String... parameters ) {
+    return BaseMessages.getString( PKG, key, parameters );
+  }
+
+  private class Circuit {
+    private int failures;
+    private long openUntil;
+    private boolean trial;
+
+    synchronized boolean allowRequest( long now ) {
+      if ( openUntil == 0 ) {
+        return true;
+      }
+      if ( now < openUntil || trial ) {
+        return false;
+      }
+      // half open, one call finds out whether the server is back
+      trial = true;
+      return true;
+    }
+
+    /**
+     * @return true if the circuit was open before
+     */
+    synchronized boolean onSuccess() {
+      boolean wasOpen = openUntil != 0;
+      failures = 0;
+      openUntil = 0;
+      trial = false;
+      return wasOpen;
+    }
+
+    /**
+     * @return true if the circuit was closed before
+     */
+    synchronized boolean onFailure( long now ) {
+      failures++;
+      if ( failures < failureThreshold ) {
+        return false;
+      }
+      boolean wasClosed = openUntil == 0;
+      openUntil = now + openTime;
+      trial = false;
+      return wasClosed;
+    }
+
+    synchronized boolean isOpen( long now ) {
+      return openUntil != 0 && ( now < openUntil || trial );
+    }
+  }
+}
@@ -0,0 +1,38 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2017 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+
+package org.pentaho.di.core.refinery.publish.util;
+
+import com.sun.jersey.api.client.ClientHandlerException;
+
+/**
+ * Thrown instead of calling a BA server whose circuit is open, see {@link ServerResilience}.
+ */
+public class ServerUnavailableException extends ClientHandlerException {
+
+  private static final long serialVersionUID = 1L;
+
+  public ServerUnavailableException( String server ) {
+    super( "Server " + server + " is unavailable, not calling it until it recovers" );
+  }
+}
@@ -0,0 +1,61 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2017 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.job.entries.build;
+
+/**
+ * Output step and model name of a model built by a {@link JobEntryBuildModel} in addition to its main model.
+ */
+public class AdditionalModel implements Cloneable {
+
+  private String outputStep;
+  private String modelName;
+
+  public AdditionalModel() {
+  }
+
+  public AdditionalModel( String outputStep, String modelName ) {
+    this.outputStep = outputStep;
+    this.modelName = modelName;
+  }
+
+  public String getOutputStep() {
+    return outputStep;
+  }
+
+  public void setOutputStep( String outputStep ) {
+    this.outputStep = outputStep;
+  }
+
+  public String getModelName() {
+    return modelName;
+  }
+
+  public void setModelName( String modelName ) {
+    this.modelName = modelName;
+  }
+
+  @Override
+  public AdditionalModel clone() {
+    return new AdditionalModel( outputStep, modelName );
+  }
+}
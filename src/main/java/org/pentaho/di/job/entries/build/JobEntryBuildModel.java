@@ -36,7 +36,9 @@ import org.pentaho.di.core.encryption.Encr;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.exception.KettleXMLException;
 import org.pentaho.di.core.logging.LogChannel;
+import org.pentaho.di.core.refinery.DataProviderHelper;
 import org.pentaho.di.core.refinery.model.AnalysisModeler;
+import org.pentaho.di.core.refinery.model.DatasourceCatalog;
 import org.pentaho.di.core.refinery.model.DswModeler;
 import org.pentaho.di.core.refinery.model.DswModeler.ColumnMismatchException;
 import org.pentaho.di.core.refinery.model.DswModeler.UnsupportedModelException;
@@ -44,10 +46,19 @@ import org.pentaho.di.core.refinery.model.ModelServerFetcher;
 import org.pentaho.di.core.refinery.model.ModelServerFetcher.AuthorizationException;
 import org.pentaho.di.core.refinery.model.ModelServerFetcher.ServerException;
 import org.pentaho.di.core.refinery.model.RefineryValueMetaStrategy;
+import org.pentaho.di.core.refinery.model.RowMetaModelerSource;
+import org.pentaho.di.core.refinery.model.XmiBuildCache;
 import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
+import org.pentaho.di.core.refinery.publish.model.PermissionSnapshot;
+import org.pentaho.di.core.refinery.publish.util.Fingerprint;
+import org.pentaho.di.core.refinery.publish.util.ObjectUtils;
+import org.pentaho.di.core.refinery.publish.util.PayloadSpool;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
 import org.pentaho.di.core.xml.XMLHandler;
 import org.pentaho.di.i18n.BaseMessages;
 import org.pentaho.di.job.Job;
+import org.pentaho.di.job.JobAdapter;
 import org.pentaho.di.job.JobMeta;
 import org.pentaho.di.job.entries.trans.JobEntryTrans;
 import org.pentaho.di.job.entry.JobEntryBase;
@@ -64,14 +75,23 @@ import org.pentaho.di.ui.job.entries.build.JobEntryBuildModelDialog;
 import org.pentaho.di.ui.job.entries.common.ConnectionValidator;
 import org.pentaho.metadata.automodel.PhysicalTableImporter;
 import org.pentaho.metadata.model.Domain;
+import org.pentaho.metadata.model.SqlPhysicalModel;
 import org.pentaho.metadata.util.XmiParser;
 import org.pentaho.metastore.api.IMetaStore;
 import org.pentaho.metastore.api.exceptions.MetaStoreException;
 import org.w3c.dom.Node;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import static org.pentaho.di.core.Const.nullToEmpty;
 import static org.pentaho.platform.util.StringUtil.isEmpty;
@@ -85,6 +105,20 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
   public static final String PLUGIN_ID = "DataRefineryBuildModel";
   public static final String KEY_MODEL_ANNOTATIONS = "KEY_MODEL_ANNOTATIONS";
   public static final String KEY_OUTPUT_STEP_PREFIX = "JobEntryBuildModel.OutputStep.";
+  /**
+   * Variables holding the database connection name of each model built in the job
+   */
+  public static final String DATABASE_CONNECTION_VARIABLE_PREFIX = "JobEntryBuildModel.DatabaseConnection.";
+  /**
+   * Variables holding the spool file of the XMI or Mondrian schema when payload spooling is enabled
+   */
+  public static final String XMI_FILE_VARIABLE_PREFIX = "JobEntryBuildModel.XMI.File.";
+  public static final String MONDRIAN_SCHEMA_FILE_VARIABLE_PREFIX = "JobEntryBuildModel.Mondrian.Schema.File.";
+  /**
+   * Maximum number of models built at the same time when an entry has additional models, defaults to the number of
+   * processors
+   */
+  public static final String BUILD_THREADS_PROPERTY = "KETTLE_DATA_REFINERY_BUILD_THREADS";
   private static Class<?> PKG = JobEntryBuildModel.class; // for i18n purposes, needed by Translator2!!
 
   private DswModeler modeler;
@@ -99,6 +133,12 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
   private String selectedModel;
   private BiServerConnection biServerConnection;
   private DataServiceContext dataServiceContext;
+  private List<AdditionalModel> additionalModels = new ArrayList<AdditionalModel>();
+
+  /* set on the copies building the models of an entry with additional models */
+  private String outputStepKey;
+  private ModelAnnotationGroup modelAnnotations;
+  private ConcurrentMap<String, PermissionSnapshot> permissionMemo;
 
   public boolean useExistingModel() {
     return useExistingModel;
@@ -135,6 +175,10 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
     public static final String BASERVER_PASSWORD = "ba_server_password";
     public static final String SELECTED_MODEL = "selected_model";
     public static final String CREATE_ON_PUBLISH = "create_on_publish";
+    public static final String ADDITIONAL_MODELS = "additional_models";
+    public static final String ADDITIONAL_MODEL = "additional_model";
+    public static final String ADDITIONAL_OUTPUT_STEP = "additional_output_step";
+    public static final String ADDITIONAL_MODEL_NAME = "additional_model_name";
   }
 
   public JobEntryBuildModel() {
@@ -153,6 +197,16 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
     modeler.setLog( log );
   }
 
+  @Override
+  public Object clone() {
+    JobEntryBuildModel clone = (JobEntryBuildModel) super.clone();
+    clone.additionalModels = new ArrayList<AdditionalModel>();
+    for ( AdditionalModel additionalModel : additionalModels ) {
+      clone.additionalModels.add( additionalModel.clone() );
+    }
+    return clone;
+  }
+
   public DswModeler getModeler() {
     return modeler;
   }
@@ -213,10 +267,9 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
     String schemaName = StringUtils.defaultIfBlank( environmentSubstitute( getConnectionInfo().getSchemaName() ), "" );
     String tableName = environmentSubstitute( getConnectionInfo().getTableName() );
 
-    TableModelerSource source = new TableModelerSource( dbMeta, tableName, schemaName ); //$NON-NLS-1$
+    TableModelerSource source = getModelerSource( dbMeta, tableName, schemaName );
     source.setSchemaName( StringUtils.defaultIfBlank( source.getSchemaName(), "" ) );
     try {
-      Domain modeledDomain;
       PhysicalTableImporter.ImportStrategy importStrategy = getImportStrategy();
 
       final ModelAnnotationGroup modelAnnotations = getModelAnnotations();
@@ -224,33 +277,38 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
       if ( useExistingModel() ) {
         String existingModelId = environmentSubstitute( getSelectedModel() );
         ModelServerFetcher fetcher = getModelServerFetcher();
-        // model can be created/deleted in between checking and fetching, but there is no sure way to tell
-        // if a model doesn't exist or some other error occurred
-        if ( !modelExists( existingModelId, fetcher ) ) {
-          if ( isCreateOnPublish() ) {
-            logBasic( getMsg( "BuildModelJob.Info.ModelNotFound", existingModelId ) );
-            modeledDomain =
-                getDswModeler()
-                    .createModel( modelName, source, dbMeta, importStrategy, modelAnnotations, getMetaStore() );
-          } else {
-            if ( Const.isEmpty( existingModelId ) ) {
-              throw new KettleException( getMsg( "BuildModelJob.Error.ModelNullNotFound", getName() ) );
+        // a template still current in the cache saves listing and downloading the models
+        Domain templateModel = fetcher.fetchCachedDswFile( existingModelId );
+        if ( templateModel == null ) {
+          // model can be created/deleted in between checking and fetching, but there is no sure way to tell
+          // if a model doesn't exist or some other error occurred
+          if ( !modelExists( existingModelId, fetcher ) ) {
+            if ( isCreateOnPublish() ) {
+              logBasic( getMsg( "BuildModelJob.Info.ModelNotFound", existingModelId ) );
+              return createXmi( modelName, source, dbMeta, importStrategy, modelAnnotations );
             } else {
-              throw new KettleException( getMsg( "BuildModelJob.Error.ModelNotFound", existingModelId ) );
+              if ( Const.isEmpty( existingModelId ) ) {
+                throw new KettleException( getMsg( "BuildModelJob.Error.ModelNullNotFound", getName() ) );
+              } else {
+                throw new KettleException( getMsg( "BuildModelJob.Error.ModelNotFound", existingModelId ) );
+              }
             }
           }
+          templateModel = fetcher.downloadDswFile( existingModelId );
+        }
+        Domain modeledDomain;
+        if ( source instanceof RowMetaModelerSource ) {
+          SqlPhysicalModel physicalModel = ( (RowMetaModelerSource) source )
+              .generatePhysicalModel( PhysicalTableImporter.defaultImportStrategy );
+          modeledDomain = getDswModeler().updateModel( modelName, templateModel, dbMeta, physicalModel );
         } else {
-          final Domain templateModel = fetcher.downloadDswFile( existingModelId );
           modeledDomain = getDswModeler().updateModel( modelName, templateModel, dbMeta, schemaName, tableName );
         }
+        XmiParser parser = new XmiParser();
+        return parser.generateXmi( modeledDomain );
       } else {
-        modeledDomain =
-            getDswModeler()
-                .createModel( modelName, source, dbMeta, importStrategy, modelAnnotations, getMetaStore() );
+        return createXmi( modelName, source, dbMeta, importStrategy, modelAnnotations );
       }
-      XmiParser parser = new XmiParser();
-      String localXmi = parser.generateXmi( modeledDomain );
-      return localXmi;
     } catch ( AuthorizationException e ) {
       throw new KettleException( getMsg( "BuildModelJob.Error.Authorization" ) );
     } catch ( ServerException e ) {
@@ -272,7 +330,109 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
     }
   }
 
+  /**
+   * Auto-models the table into a new domain. If the XMI build cache is enabled and nothing that goes into the model
+   * changed since an earlier build, the XMI of that build is returned instead.
+   */
+  private String createXmi( final String modelName, final TableModelerSource source, final DatabaseMeta dbMeta,
+      final PhysicalTableImporter.ImportStrategy importStrategy, final ModelAnnotationGroup modelAnnotations )
+    throws ModelerException {
+
+    XmiBuildCache cache = getXmiBuildCache();
+    String fingerprint = null;
+    if ( cache != null ) {
+      fingerprint = getXmiFingerprint( modelName, source, dbMeta, modelAnnotations );
+    }
+    if ( fingerprint != null ) {
+      String xmi = cache.get( fingerprint );
+      if ( xmi != null ) {
+        logBasic( getMsg( "BuildModelJob.Info.XmiCacheHit", modelName, String.valueOf( cache.getHits() ),
+            String.valueOf( cache.getMisses() ) ) );
+        return xmi;
+      }
+      logBasic( getMsg( "BuildModelJob.Info.XmiCacheMiss", modelName, String.valueOf( cache.getHits() ),
+          String.valueOf( cache.getMisses() ) ) );
+    }
+
+    Domain modeledDomain =
+        getDswModeler().createModel( modelName, source, dbMeta, importStrategy, modelAnnotations, getMetaStore() );
+    XmiParser parser = new XmiParser();
+    String xmi = parser.generateXmi( modeledDomain );
+
+    if ( fingerprint != null ) {
+      try {
+        cache.put( fingerprint, xmi );
+      } catch ( IOException e ) {
+        logError( getMsg( "BuildModelJob.Error.XmiCacheWrite", cache.getDirectory().getPath() ), e );
+      }
+    }
+    return xmi;
+  }
+
+  /**
+   * @return fingerprint of the inputs of a new model, or null if they can't be determined
+   */
+  String getXmiFingerprint( final String modelName, final TableModelerSource source, final DatabaseMeta dbMeta,
+      final ModelAnnotationGroup modelAnnotations ) {
+    StepMetaDataCombi stepMetaDataCombi = getStepMetaDataCombi();
+    if ( stepMetaDataCombi == null ) {
+      // data services are modeled from their live definition
+      return null;
+    }
+    try {
+      DataProviderHelper.OutputStepMappingAdapter mapping =
+          new DataProviderHelper.OutputStepMappingAdapter( stepMetaDataCombi );
+      if ( mapping.getInsertRowMeta() == null ) {
+        return null;
+      }
+      Fingerprint fingerprint = new Fingerprint()
+          .add( JobEntryBuildModel.class.getPackage().getImplementationVersion() )
+          .add( modelName )
+          .add( source.getSchemaName() )
+          .add( source.getTableName() )
+          .add( dbMeta.getName() )
+          .add( dbMeta.getPluginId() )
+          .add( dbMeta.getAccessType() )
+          .add( dbMeta.environmentSubstitute( dbMeta.getHostname() ) )
+          .add( dbMeta.environmentSubstitute( dbMeta.getDatabasePortNumberString() ) )
+          .add( dbMeta.environmentSubstitute( dbMeta.getDatabaseName() ) )
+          .add( getDswModeler().isUseJndi() )
+          .add( source instanceof RowMetaModelerSource );
+      for ( ValueMetaInterface valueMeta : mapping.getInsertRowMeta().getValueMetaList() ) {
+        fingerprint.add( valueMeta.getName() ).add( valueMeta.getType() ).add( valueMeta.getLength() )
+            .add( valueMeta.getPrecision() );
+      }
+      addAll( fingerprint, mapping.getFieldDatabase() );
+      addAll( fingerprint, mapping.getFieldStream() );
+      fingerprint.add( modelAnnotations );
+      return fingerprint.getValue();
+    } catch ( Exception e ) {
+      logDebug( getMsg( "BuildModelJob.Debug.NoXmiFingerprint", modelName ), e );
+      return null;
+    }
+  }
+
+  private static void addAll( Fingerprint fingerprint, List<String> values ) {
+    fingerprint.add( values == null ? -1 : values.size() );
+    if ( values != null ) {
+      for ( String value : values ) {
+        fingerprint.add( value );
+      }
+    }
+  }
+
+  protected XmiBuildCache getXmiBuildCache() {
+    return XmiBuildCache.getInstance();
+  }
+
+  protected DatasourceCatalog getDatasourceCatalog() {
+    return DatasourceCatalog.getInstance();
+  }
+
   private ModelAnnotationGroup getModelAnnotations() {
+    if ( modelAnnotations != null ) {
+      return modelAnnotations;
+    }
     Object modelAnnotationGroup = this.getParentJob().getExtensionDataMap().get( KEY_MODEL_ANNOTATIONS );
     if ( modelAnnotationGroup != null && modelAnnotationGroup instanceof ModelAnnotationGroup ) {
       return (ModelAnnotationGroup) modelAnnotationGroup;
@@ -288,8 +448,36 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
     return PhysicalTableImporter.defaultImportStrategy;
   }
 
+  /**
+   * @return source modeling the table from the fields the output step wrote if {@link RowMetaModelerSource} is
+   * enabled and the step reported them, otherwise a source reading the database catalog
+   */
+  TableModelerSource getModelerSource( DatabaseMeta dbMeta, String tableName, String schemaName ) {
+    StepMetaDataCombi stepMetaDataCombi = RowMetaModelerSource.isEnabled() ? getStepMetaDataCombi() : null;
+    if ( stepMetaDataCombi != null ) {
+      try {
+        RowMetaInterface rowMeta =
+            new DataProviderHelper.OutputStepMappingAdapter( stepMetaDataCombi ).getInsertRowMeta();
+        if ( rowMeta != null ) {
+          return new RowMetaModelerSource( dbMeta, tableName, schemaName, rowMeta );
+        }
+      } catch ( ModelerException e ) {
+        logDebug( getMsg( "BuildModelJob.Debug.NoRowMetaModel", tableName ), e );
+      }
+    }
+    return new TableModelerSource( dbMeta, tableName, schemaName ); //$NON-NLS-1$
+  }
+
   StepMetaDataCombi getStepMetaDataCombi() {
-    return (StepMetaDataCombi) this.getParentJob().getExtensionDataMap().get( KEY_OUTPUT_STEP_PREFIX + getName() );
+    String key = outputStepKey == null ? KEY_OUTPUT_STEP_PREFIX + getName() : outputStepKey;
+    return (StepMetaDataCombi) this.getParentJob().getExtensionDataMap().get( key );
+  }
+
+  /**
+   * @return extension data key of the output step of an additional model
+   */
+  public static String getOutputStepKey( String entryName, String outputStepName ) {
+    return KEY_OUTPUT_STEP_PREFIX + entryName + "/" + outputStepName;
   }
 
   private List<TransMeta> findAllTransInJob() throws KettleException {
@@ -354,15 +542,21 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
   protected ConnectionValidator getConnectionValidator( BiServerConnection connection ) {
     ConnectionValidator validator = new ConnectionValidator();
     validator.setConnection( connection );
+    if ( permissionMemo != null ) {
+      validator.setPermissionMemo( permissionMemo );
+    } else if ( getParentJob() != null ) {
+      validator.setJobExtensionDataMap( getParentJob().getExtensionDataMap() );
+    }
     return validator;
   }
 
   protected boolean modelExists( String modelId, ModelServerFetcher fetcher ) throws KettleException,
     AuthorizationException, ServerException {
-    HashSet<String> allIds = new HashSet<String>();
-    allIds.addAll( fetcher.fetchAnalysisList() );
-    allIds.addAll( fetcher.fetchDswList() );
-    return allIds.contains( modelId );
+    DatasourceCatalog catalog = getDatasourceCatalog();
+    if ( catalog != null ) {
+      return catalog.contains( fetcher, modelId );
+    }
+    return fetcher.datasourceExists( modelId );
   }
 
   public BiServerConnection environmentSubstitute( BiServerConnection conn ) {
@@ -384,21 +578,26 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
   @Override
   public Result execute( Result result, int nr ) throws KettleException {
 
+    if ( !getAdditionalModels().isEmpty() ) {
+      return executeModels( result );
+    }
+
     String outputStep = environmentSubstitute( getOutputStep() );
     String modelName = environmentSubstitute( getModelName() );
 
     try {
 
-      setVarAndLogBasic( "JobEntryBuildModel.DatabaseConnection." + modelName, getConnectionInfo().getDatabaseMeta()
+      setVarAndLogBasic( DATABASE_CONNECTION_VARIABLE_PREFIX + modelName, getConnectionInfo().getDatabaseMeta()
           .getName() );
 
       if ( isPublishAnalysis() ) {
-        setVarAndLogDebug( "JobEntryBuildModel.Mondrian.Schema." + modelName, buildAnalysis( modelName ) );
+        setPayloadVariable( "JobEntryBuildModel.Mondrian.Schema." + modelName,
+            MONDRIAN_SCHEMA_FILE_VARIABLE_PREFIX + modelName, "mondrian", buildAnalysis( modelName ) );
         setVarAndLogBasic( "JobEntryBuildModel.Mondrian.Datasource." + modelName, getConnectionInfo().getDatabaseMeta()
             .getName() );
       } else {
-        setVarAndLogDebug( "JobEntryBuildModel.XMI." + modelName, buildXmi( getParentJob().getJobMeta(), outputStep,
-            modelName ) );
+        setPayloadVariable( "JobEntryBuildModel.XMI." + modelName, XMI_FILE_VARIABLE_PREFIX + modelName, "xmi",
+            buildXmi( getParentJob().getJobMeta(), outputStep, modelName ) );
         setVarAndLogBasic( "JobEntryBuildModel.XMI.DSW." + modelName, "true" );
       }
 
@@ -412,6 +611,144 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
     return result;
   }
 
+  /**
+   * Builds the main and the additional models concurrently, each one by its own copy of this entry with its own
+   * modeler. Variables are set once all models are built; a failed model does not stop the others.
+   */
+  private Result executeModels( Result result ) {
+    List<JobEntryBuildModel> builders = getModelEntries();
+    for ( JobEntryBuildModel builder : builders ) {
+      DswModeler modeler = new DswModeler( log );
+      modeler.setUseJndi( getDswModeler().isUseJndi() );
+      modeler.setGeoContextConfigProvider( getDswModeler().getGeoContextConfigProvider() );
+      modeler.setTableMetadataCache( getDswModeler().getTableMetadataCache() );
+      modeler.setGeoContextCache( getDswModeler().getGeoContextCache() );
+      builder.setModeler( modeler );
+      // annotations are applied to every model, each one gets its own copy
+      builder.modelAnnotations = ObjectUtils.deepClone( getModelAnnotations() );
+      // the job's extension data is not thread safe, the builders must not add to it
+      builder.permissionMemo = ConnectionValidator.getPermissionMemo( getParentJob().getExtensionDataMap() );
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool( Math.min( builders.size(), getBuildThreads() ),
+        new ThreadFactory() {
+          @Override public Thread newThread( Runnable r ) {
+            Thread thread = new Thread( r, "data-refinery-build-model" );
+            thread.setDaemon( true );
+            return thread;
+          }
+        } );
+    int failures = 0;
+    try {
+      List<Future<BuiltModel>> futures = new ArrayList<Future<BuiltModel>>();
+      for ( final JobEntryBuildModel builder : builders ) {
+        futures.add( executor.submit( new Callable<BuiltModel>() {
+          @Override public BuiltModel call() throws Exception {
+            return builder.buildModel();
+          }
+        } ) );
+      }
+      // job variables are not meant for concurrent updates, set them from this thread only
+      for ( int i = 0; i < builders.size(); i++ ) {
+        String modelName = builders.get( i ).environmentSubstitute( builders.get( i ).getModelName() );
+        try {
+          setModelVariables( futures.get( i ).get() );
+        } catch ( Exception e ) {
+          if ( e instanceof InterruptedException ) {
+            Thread.currentThread().interrupt();
+          }
+          Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+          failures++;
+          log.logError( getMsg( "BuildModelJob.Error.ModelFailed", modelName, cause.getMessage() ), cause );
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    log.logBasic( getMsg( "BuildModelJob.Info.ModelsBuilt", String.valueOf( builders.size() - failures ),
+        String.valueOf( builders.size() ) ) );
+    result.setResult( failures == 0 );
+    result.setNrErrors( failures );
+    return result;
+  }
+
+  /**
+   * @return one copy of this entry per model it builds, the main model first, each without additional models
+   */
+  public List<JobEntryBuildModel> getModelEntries() {
+    List<JobEntryBuildModel> modelEntries = new ArrayList<JobEntryBuildModel>();
+    modelEntries.add( newModelEntry( getOutputStep(), getModelName(), outputStepKey ) );
+    for ( AdditionalModel additionalModel : getAdditionalModels() ) {
+      String outputStepName = StringUtils.trimToEmpty( environmentSubstitute( additionalModel.getOutputStep() ) );
+      modelEntries.add( newModelEntry( additionalModel.getOutputStep(), additionalModel.getModelName(),
+          getOutputStepKey( getName(), outputStepName ) ) );
+    }
+    return modelEntries;
+  }
+
+  private JobEntryBuildModel newModelEntry( String outputStep, String modelName, String outputStepKey ) {
+    JobEntryBuildModel modelEntry = (JobEntryBuildModel) clone();
+    modelEntry.additionalModels = new ArrayList<AdditionalModel>();
+    modelEntry.outputStepKey = outputStepKey;
+    modelEntry.setOutputStep( outputStep );
+    modelEntry.setModelName( modelName );
+    return modelEntry;
+  }
+
+  /**
+   * Builds the model without touching job variables, so several models can be built at once.
+   */
+  BuiltModel buildModel() throws KettleException {
+    String modelName = environmentSubstitute( getModelName() );
+    boolean analysis = isPublishAnalysis();
+    String payload = analysis ? buildAnalysis( modelName )
+        : buildXmi( getParentJob().getJobMeta(), environmentSubstitute( getOutputStep() ), modelName );
+    File payloadFile;
+    try {
+      // spooled right away, so models waiting for the others to finish don't hold their payload
+      payloadFile = spoolPayload( analysis ? "mondrian" : "xmi", payload );
+    } catch ( IOException e ) {
+      throw new KettleException( e );
+    }
+    return new BuiltModel( modelName, getConnectionInfo().getDatabaseMeta().getName(), analysis,
+        payloadFile == null ? payload : null, payloadFile );
+  }
+
+  private void setModelVariables( BuiltModel model ) throws IOException {
+    setVarAndLogBasic( DATABASE_CONNECTION_VARIABLE_PREFIX + model.modelName, model.connectionName );
+    if ( model.analysis ) {
+      setPayloadVariable( "JobEntryBuildModel.Mondrian.Schema." + model.modelName,
+          MONDRIAN_SCHEMA_FILE_VARIABLE_PREFIX + model.modelName, model.payload, model.payloadFile );
+      setVarAndLogBasic( "JobEntryBuildModel.Mondrian.Datasource." + model.modelName, model.connectionName );
+    } else {
+      setPayloadVariable( "JobEntryBuildModel.XMI." + model.modelName, XMI_FILE_VARIABLE_PREFIX + model.modelName,
+          model.payload, model.payloadFile );
+      setVarAndLogBasic( "JobEntryBuildModel.XMI.DSW." + model.modelName, "true" );
+    }
+  }
+
+  protected int getBuildThreads() {
+    return Math.max( 1, Const.toInt( System.getProperty( BUILD_THREADS_PROPERTY ),
+        Runtime.getRuntime().availableProcessors() ) );
+  }
+
+  static class BuiltModel {
+    final String modelName;
+    final String connectionName;
+    final boolean analysis;
+    final String payload;
+    final File payloadFile;
+
+    BuiltModel( String modelName, String connectionName, boolean analysis, String payload, File payloadFile ) {
+      this.modelName = modelName;
+      this.connectionName = connectionName;
+      this.analysis = analysis;
+      this.payload = payload;
+      this.payloadFile = payloadFile;
+    }
+  }
+
   String buildAnalysis( final String modelName ) throws KettleException {
     String analysisFile;
     String selectedModelName = environmentSubstitute( getSelectedModel() );
@@ -434,11 +771,13 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
   }
 
   AnalysisModeler getAnalysisModeler() throws KettleException {
-    return new AnalysisModeler( this, getConnectionInfo() );
+    return new AnalysisModeler( this, getConnectionInfo(), getStepMetaDataCombi() );
   }
 
   ModelServerFetcher getModelServerFetcher() throws KettleException {
-    return new ModelServerFetcher( validBIServerConnection() );
+    ModelServerFetcher fetcher = new ModelServerFetcher( validBIServerConnection() );
+    fetcher.setLogChannel( log );
+    return fetcher;
   }
 
   protected void setVarAndLogDebug( final String varName, final String value ) {
@@ -451,6 +790,47 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
     log.logBasic( getMsg( "BuildModelJob.SetVariable", varName, parentJob.getVariable( varName ) ) );
   }
 
+  /**
+   * Sets the payload variable, or with spooling enabled writes the payload to a spool file and only sets the file
+   * variable. Spool files are deleted when the job finishes.
+   */
+  protected void setPayloadVariable( final String varName, final String fileVarName, final String prefix,
+      final String payload ) throws IOException {
+    File file = spoolPayload( prefix, payload );
+    setPayloadVariable( varName, fileVarName, file == null ? payload : null, file );
+  }
+
+  private void setPayloadVariable( final String varName, final String fileVarName, final String payload,
+      final File file ) {
+    if ( file == null ) {
+      parentJob.setVariable( fileVarName, null );
+      setVarAndLogDebug( varName, payload );
+      return;
+    }
+    parentJob.addJobListener( new JobAdapter() {
+      @Override public void jobFinished( Job job ) {
+        file.delete();
+      }
+    } );
+    parentJob.setVariable( varName, null );
+    setVarAndLogBasic( fileVarName, file.getAbsolutePath() );
+  }
+
+  /**
+   * @return spool file holding the payload, null if spooling is not enabled
+   */
+  File spoolPayload( final String prefix, final String payload ) throws IOException {
+    PayloadSpool spool = getPayloadSpool();
+    if ( spool == null || payload == null ) {
+      return null;
+    }
+    return spool.write( prefix, payload );
+  }
+
+  protected PayloadSpool getPayloadSpool() {
+    return PayloadSpool.getInstance();
+  }
+
   protected boolean isPublishAnalysis() {
     return useExistingModel() && !StringUtils.isBlank( getSelectedModel() )
         && !environmentSubstitute( getSelectedModel() ).endsWith( ".xmi" );
@@ -490,6 +870,16 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
     }
     retval.append( "      " ).append( XMLHandler.addTagValue( Fields.SELECTED_MODEL, getSelectedModel() ) );
     retval.append( "      " ).append( XMLHandler.addTagValue( Fields.CREATE_ON_PUBLISH, isCreateOnPublish() ) );
+    retval.append( "      " ).append( XMLHandler.openTag( Fields.ADDITIONAL_MODELS ) ).append( Const.CR );
+    for ( AdditionalModel additionalModel : getAdditionalModels() ) {
+      retval.append( "        " ).append( XMLHandler.openTag( Fields.ADDITIONAL_MODEL ) ).append( Const.CR );
+      retval.append( "          " ).append(
+          XMLHandler.addTagValue( Fields.ADDITIONAL_OUTPUT_STEP, additionalModel.getOutputStep() ) );
+      retval.append( "          " ).append(
+          XMLHandler.addTagValue( Fields.ADDITIONAL_MODEL_NAME, additionalModel.getModelName() ) );
+      retval.append( "        " ).append( XMLHandler.closeTag( Fields.ADDITIONAL_MODEL ) ).append( Const.CR );
+    }
+    retval.append( "      " ).append( XMLHandler.closeTag( Fields.ADDITIONAL_MODELS ) ).append( Const.CR );
     return retval.toString();
   }
 
@@ -513,6 +903,16 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
 
     setSelectedModel( XMLHandler.getTagValue( entrynode, Fields.SELECTED_MODEL ) );
     setCreateOnPublish( BooleanUtils.toBoolean( XMLHandler.getTagValue( entrynode, Fields.CREATE_ON_PUBLISH ) ) );
+
+    List<AdditionalModel> additional = new ArrayList<AdditionalModel>();
+    Node additionalNode = XMLHandler.getSubNode( entrynode, Fields.ADDITIONAL_MODELS );
+    int count = XMLHandler.countNodes( additionalNode, Fields.ADDITIONAL_MODEL );
+    for ( int i = 0; i < count; i++ ) {
+      Node modelNode = XMLHandler.getSubNodeByNr( additionalNode, Fields.ADDITIONAL_MODEL, i );
+      additional.add( new AdditionalModel( XMLHandler.getTagValue( modelNode, Fields.ADDITIONAL_OUTPUT_STEP ),
+          XMLHandler.getTagValue( modelNode, Fields.ADDITIONAL_MODEL_NAME ) ) );
+    }
+    setAdditionalModels( additional );
   }
 
   @Override
@@ -538,6 +938,15 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
     setSelectedModel( rep.getJobEntryAttributeString( id_jobentry, Fields.SELECTED_MODEL ) );
     setCreateOnPublish( BooleanUtils
         .toBoolean( rep.getJobEntryAttributeString( id_jobentry, Fields.CREATE_ON_PUBLISH ) ) );
+
+    List<AdditionalModel> additional = new ArrayList<AdditionalModel>();
+    int count = rep.countNrJobEntryAttributes( id_jobentry, Fields.ADDITIONAL_OUTPUT_STEP );
+    for ( int i = 0; i < count; i++ ) {
+      additional.add( new AdditionalModel(
+          rep.getJobEntryAttributeString( id_jobentry, i, Fields.ADDITIONAL_OUTPUT_STEP ),
+          rep.getJobEntryAttributeString( id_jobentry, i, Fields.ADDITIONAL_MODEL_NAME ) ) );
+    }
+    setAdditionalModels( additional );
   }
 
   public void saveRep( Repository rep, IMetaStore metaStore, ObjectId id_job ) throws KettleException {
@@ -557,6 +966,13 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
     }
     rep.saveJobEntryAttribute( id_job, getObjectId(), Fields.SELECTED_MODEL, getSelectedModel() );
     rep.saveJobEntryAttribute( id_job, getObjectId(), Fields.CREATE_ON_PUBLISH, isCreateOnPublish() );
+    List<AdditionalModel> additional = getAdditionalModels();
+    for ( int i = 0; i < additional.size(); i++ ) {
+      rep.saveJobEntryAttribute( id_job, getObjectId(), i, Fields.ADDITIONAL_OUTPUT_STEP,
+          additional.get( i ).getOutputStep() );
+      rep.saveJobEntryAttribute( id_job, getObjectId(), i, Fields.ADDITIONAL_MODEL_NAME,
+          additional.get( i ).getModelName() );
+    }
   }
 
   public String getModelName() {
@@ -567,6 +983,17 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
     this.modelName = modelName;
   }
 
+  /**
+   * @return models built by this entry besides the one of {@link #getOutputStep()} and {@link #getModelName()}
+   */
+  public List<AdditionalModel> getAdditionalModels() {
+    return additionalModels;
+  }
+
+  public void setAdditionalModels( List<AdditionalModel> additionalModels ) {
+    this.additionalModels = additionalModels == null ? new ArrayList<AdditionalModel>() : additionalModels;
+  }
+
   public BiServerConnection getBiServerConnection() {
     return biServerConnection;
   }
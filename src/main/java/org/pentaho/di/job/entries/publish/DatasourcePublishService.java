@@ -28,13 +28,18 @@ import org.pentaho.database.model.DatabaseConnection;
 import org.pentaho.di.core.database.DatabaseMeta;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.logging.LogChannelInterface;
+import org.pentaho.di.core.refinery.model.DatasourceCatalog;
 import org.pentaho.di.core.refinery.publish.agilebi.ModelServerPublish;
+import org.pentaho.di.core.refinery.publish.util.RewindableFileInputStream;
 import org.pentaho.di.i18n.BaseMessages;
 import org.pentaho.di.job.entries.publish.exception.DuplicateDataSourceException;
 import org.pentaho.di.trans.dataservice.client.DataServiceConnectionInformation;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
 
 /**
  * Created by bmorrise on 9/1/16.
@@ -93,6 +98,48 @@ public class DatasourcePublishService implements PublishService {
     log.logBasic( this.getMsg( "JobEntryDatasourcePublish.Publish.DBConnection.Success", databaseMeta.getName() ) );
   }
 
+  /**
+   * @return connection as published for the database meta, variables resolved, for publishing later on
+   */
+  public DatabaseConnection getDatabaseConnection( final ModelServerPublish modelServerPublish,
+                                                   final DatabaseMeta databaseMeta ) throws KettleException {
+
+    if ( isKettleThinLocal( databaseMeta ) ) {
+      throw new KettleException( getMsg( "JobEntryDatasourcePublish.Publish.LocalPentahoDataService" ) );
+    }
+    if ( isKettleThin( databaseMeta ) ) {
+      databaseMeta.setForcingIdentifiersToLowerCase( false );
+    }
+
+    modelServerPublish.setDatabaseMeta( databaseMeta );
+    return modelServerPublish.getDatabaseConnection( null );
+  }
+
+  /**
+   * Publishes a connection built by {@link #getDatabaseConnection(ModelServerPublish, DatabaseMeta)}.
+   */
+  public void publishDatabaseConnection( final ModelServerPublish modelServerPublish,
+                                         final DatabaseConnection connection, final boolean forceOverride )
+    throws KettleException {
+
+    DatabaseConnection existing = modelServerPublish.connectionNameExists( connection.getName() );
+    connection.setId( existing != null ? existing.getId() : null );
+
+    try {
+      // same as publishDatabaseMeta, add fails if the connection exists and override is off
+      boolean success = modelServerPublish.updateConnection( connection, forceOverride && existing != null );
+      if ( !success ) {
+        throw new Exception( this.getMsg( "JobEntryDatasourcePublish.Publish.DBConnection.Failed",
+          connection.getName() ) );
+      }
+    } catch ( KettleException ke ) {
+      throw ke;
+    } catch ( Exception e ) {
+      throw new KettleException( e );
+    }
+    log.logBasic( this.getMsg( "JobEntryDatasourcePublish.Publish.DBConnection.Success", connection.getName() ) );
+  }
+
   protected void deleteDatabaseMeta( final ModelServerPublish modelServerPublish, final DatabaseMeta databaseMeta )
     throws KettleException {
 
@@ -162,10 +209,34 @@ public class DatasourcePublishService implements PublishService {
       return;
     }
 
+    try {
+      uploadMondrianSchema( modelName, new ByteArrayInputStream( mondrianSchema.getBytes( ENCODING ) ),
+        mondrianDatasource, modelServerPublish, forceOverride );
+    } catch ( UnsupportedEncodingException e ) {
+      throw new KettleException( e );
+    }
+  }
+
+  /**
+   * Streams a spooled Mondrian schema to the server.
+   */
+  public void publishMondrianSchemaFile( final String modelName, final File mondrianSchema,
+                                         final String mondrianDatasource, final ModelServerPublish modelServerPublish,
+                                         final boolean forceOverride ) throws KettleException {
+
+    if ( mondrianSchema == null || mondrianDatasource == null ) {
+      return;
+    }
+
+    uploadMondrianSchema( modelName, openFile( mondrianSchema ), mondrianDatasource, modelServerPublish,
+      forceOverride );
+  }
+
+  private void uploadMondrianSchema( final String modelName, final InputStream mondrianInputStream,
+                                      final String mondrianDatasource, final ModelServerPublish modelServerPublish,
+                                      final boolean forceOverride ) throws KettleException {
     // Publish Mondrian Schema
-    InputStream mondrianInputStream = null;
     try {
-      mondrianInputStream = new ByteArrayInputStream( mondrianSchema.getBytes( ENCODING ) );
       modelServerPublish.setForceOverwrite( forceOverride );
       int status =
         modelServerPublish.publishMondrianSchema( mondrianInputStream, modelName, mondrianDatasource, forceOverride );
@@ -177,6 +248,7 @@ public class DatasourcePublishService implements PublishService {
     } finally {
       IOUtils.closeQuietly( mondrianInputStream );
     }
+    invalidateCatalog( modelServerPublish );
     log.logBasic( this.getMsg( "JobEntryDatasourcePublish.Publish.Mondrian.Success", modelName ) );
   }
 
@@ -188,10 +260,33 @@ public class DatasourcePublishService implements PublishService {
       return;
     }
 
+    try {
+      uploadMetadataXmi( modelName, new ByteArrayInputStream( xmiString.getBytes( ENCODING ) ), modelServerPublish,
+        forceOverride );
+    } catch ( UnsupportedEncodingException e ) {
+      throw new KettleException( e );
+    }
+  }
+
+  /**
+   * Streams a spooled XMI to the server.
+   */
+  public void publishMetadataXmiFile( final String modelName, final File xmiFile,
+                                      final ModelServerPublish modelServerPublish,
+                                      final boolean forceOverride ) throws KettleException {
+
+    if ( xmiFile == null ) {
+      return;
+    }
+
+    uploadMetadataXmi( modelName, openFile( xmiFile ), modelServerPublish, forceOverride );
+  }
+
+  private void uploadMetadataXmi( final String modelName, final InputStream xmiInputStream,
+                                   final ModelServerPublish modelServerPublish,
+                                   final boolean forceOverride ) throws KettleException {
     // Publish XMI
-    InputStream xmiInputStream = null;
     try {
-      xmiInputStream = new ByteArrayInputStream( xmiString.getBytes( ENCODING ) );
       modelServerPublish.setForceOverwrite( forceOverride );
       int status = modelServerPublish.publishMetaDataFile( xmiInputStream, modelName );
       if ( status != ModelServerPublish.PUBLISH_SUCCESS ) {
@@ -202,6 +297,7 @@ public class DatasourcePublishService implements PublishService {
     } finally {
       IOUtils.closeQuietly( xmiInputStream );
     }
+    invalidateCatalog( modelServerPublish );
     log.logBasic( this.getMsg( "JobEntryDatasourcePublish.Publish.Metadata.Success", modelName ) );
   }
 
@@ -213,10 +309,32 @@ public class DatasourcePublishService implements PublishService {
       return;
     }
 
+    try {
+      uploadDswXmi( modelName, IOUtils.toInputStream( xmiString, ENCODING ), modelServerPublish, forceOverride );
+    } catch ( IOException e ) {
+      throw new KettleException( e );
+    }
+  }
+
+  /**
+   * Streams a spooled DSW XMI to the server.
+   */
+  public void publishDswXmiFile( final String modelName, final File xmiFile,
+                                 final ModelServerPublish modelServerPublish,
+                                 final boolean forceOverride ) throws KettleException {
+
+    if ( xmiFile == null ) {
+      return;
+    }
+
+    uploadDswXmi( modelName, openFile( xmiFile ), modelServerPublish, forceOverride );
+  }
+
+  private void uploadDswXmi( final String modelName, final InputStream xmiInputStream,
+                              final ModelServerPublish modelServerPublish,
+                              final boolean forceOverride ) throws KettleException {
     // Publish XMI
-    InputStream xmiInputStream = null;
     try {
-      xmiInputStream = IOUtils.toInputStream( xmiString, ENCODING );
       modelServerPublish.setForceOverwrite( forceOverride );
       int status = modelServerPublish.publishDsw( xmiInputStream, checkDswId( modelName ) );
       if ( status == ModelServerPublish.PUBLISH_CONFLICT ) {
@@ -229,9 +347,28 @@ public class DatasourcePublishService implements PublishService {
     } finally {
       IOUtils.closeQuietly( xmiInputStream );
     }
+    invalidateCatalog( modelServerPublish );
     log.logBasic( this.getMsg( "JobEntryDatasourcePublish.Publish.Dsw.Success", modelName ) );
   }
 
+  // the server's catalogs changed, a mirror of them must be listed again
+  private void invalidateCatalog( final ModelServerPublish modelServerPublish ) {
+    DatasourceCatalog catalog = DatasourceCatalog.getInstance();
+    if ( catalog != null ) {
+      catalog.invalidate( modelServerPublish.getBiServerConnection() );
+    }
+  }
+
+  private InputStream openFile( final File file ) throws KettleException {
+    try {
+      // rewindable, so a failed upload can be retried without reading the file into memory
+      return RewindableFileInputStream.open( file );
+    } catch ( IOException e ) {
+      throw new KettleException( this.getMsg( "JobEntryDatasourcePublish.Error.MissingPayloadFile", file.getPath() ),
+        e );
+    }
+  }
+
 
   private boolean isKettleThinLocal( final DatabaseMeta databaseMeta ) {
     return isKettleThin( databaseMeta )
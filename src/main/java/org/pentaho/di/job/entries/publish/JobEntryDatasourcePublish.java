@@ -33,11 +33,18 @@ import org.pentaho.di.core.database.DatabaseMeta;
 import org.pentaho.di.core.encryption.Encr;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.exception.KettleXMLException;
+import org.pentaho.di.core.refinery.model.DatasourceCatalog;
+import org.pentaho.di.core.refinery.model.ModelServerFetcher;
+import org.pentaho.di.core.refinery.model.ModelServerFetcher.AuthorizationException;
+import org.pentaho.di.core.refinery.model.ModelServerFetcher.ServerException;
 import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
 import org.pentaho.di.core.refinery.publish.agilebi.ModelServerPublish;
 import org.pentaho.di.core.refinery.publish.model.DataSourceAclModel;
 import org.pentaho.di.core.refinery.publish.model.DataSourcePublishModel;
+import org.pentaho.di.core.refinery.publish.util.Fingerprint;
 import org.pentaho.di.core.refinery.publish.util.PublishRestUtil;
+import org.pentaho.di.core.refinery.publish.util.PublishStateStore;
+import org.pentaho.di.core.refinery.publish.util.ServerResilience;
 import org.pentaho.di.core.variables.VariableSpace;
 import org.pentaho.di.core.xml.XMLHandler;
 import org.pentaho.di.i18n.BaseMessages;
@@ -45,6 +52,7 @@ import org.pentaho.di.job.JobHopMeta;
 import org.pentaho.di.job.JobMeta;
 import org.pentaho.di.job.entries.build.JobEntryBuildModel;
 import org.pentaho.di.job.entry.JobEntryBase;
+import org.pentaho.di.job.entry.JobEntryCopy;
 import org.pentaho.di.job.entry.JobEntryInterface;
 import org.pentaho.di.repository.ObjectId;
 import org.pentaho.di.repository.Repository;
@@ -52,7 +60,23 @@ import org.pentaho.di.ui.job.entries.common.ConnectionValidator;
 import org.pentaho.metastore.api.IMetaStore;
 import org.w3c.dom.Node;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * @author Rowell Belen
@@ -66,12 +90,21 @@ public class JobEntryDatasourcePublish extends JobEntryBase implements Cloneable
 
   private static Class<?> PKG = JobEntryDatasourcePublish.class; // for i18n purposes, needed by Translator2!!
 
+  /**
+   * Maximum number of models uploaded at the same time when publishing all models
+   */
+  public static final String PUBLISH_THREADS_PROPERTY = "KETTLE_DATA_REFINERY_PUBLISH_THREADS";
+  public static final int DEFAULT_PUBLISH_THREADS = 4;
+
   private DataSourcePublishModel dataSourcePublishModel;
   private DatasourcePublishService datasourcePublishService;
 
   public final class Fields {
     public static final String LOGICAL_MODEL = "logical_model";
     public static final String OVERRIDE = "override";
+    public static final String PUBLISH_ONLY_IF_CHANGED = "publish_only_if_changed";
+    public static final String PUBLISH_ALL_MODELS = "publish_all_models";
+    public static final String PUBLISH_ASYNC = "publish_async";
     public static final String BASERVER_URL = "ba_server_url";
     public static final String BASERVER_NAME = "ba_server_name";
     public static final String BASERVER_USERID = "ba_server_user_id";
@@ -94,60 +127,23 @@ public class JobEntryDatasourcePublish extends JobEntryBase implements Cloneable
 
   @Override
   public Result execute( Result result, int i ) throws KettleException {
+    if ( dataSourcePublishModel.isPublishAsync() ) {
+      return executeAsync( result );
+    }
+    if ( dataSourcePublishModel.isPublishAllModels() ) {
+      return executeAllModels( result );
+    }
     boolean dsPublished, metaPublished;
     dsPublished = metaPublished = false;
     DatabaseMeta databaseMeta = null;
     ModelServerPublish modelServerPublish = null;
     String dswFlag = null;
     String modelName = null;
+    PublishSettings settings = null;
+    Map<String, String> fingerprints = new LinkedHashMap<String, String>();
     try {
-      BiServerConnection biServerModel = dataSourcePublishModel.getBiServerConnection();
-
-      // Resolve parametized values before execution
-      biServerModel.setName( environmentSubstitute( biServerModel.getName() ) );
-      biServerModel.setUserId( environmentSubstitute( biServerModel.getUserId() ) );
-      biServerModel.setPassword( environmentSubstitute( biServerModel.getPassword() ) );
-      String url = environmentSubstitute( biServerModel.getUrl() );
-      if ( url != null && url.endsWith( "//" ) ) {
-        url = url.substring( 0, url.length() - 1 );
-      }
-      biServerModel.setUrl( url );
-      // Fail early if invalid Pentaho BA Server or Unauthenticated user.
-      // Prevent Spoon from displaying user/password prompt.
-      ConnectionValidator validator = getConnectionValidator( biServerModel );
-      validator.validateConnectionInRuntime();
-
-      BiServerConnection connection = new BiServerConnection();
-      connection.setName( biServerModel.getName() );
-      connection.setUrl( biServerModel.getUrl() );
-      connection.setPassword( biServerModel.getPassword() );
-      connection.setUserId( biServerModel.getUserId() );
-      log.logBasic( getMsg( "JobEntryDatasourcePublish.Publish.BAServer", biServerModel.getUrl() ) );
-
-      modelServerPublish = getModelServerPublish();
-      modelServerPublish.setBiServerConnection( connection );
-
-      boolean forceOverride = dataSourcePublishModel.isOverride();
-
-      DataSourceAclModel datasourceAcl = new DataSourceAclModel();
-      String accessType =
-        Const.isEmpty( dataSourcePublishModel.getAccessType() ) ? DataSourcePublishModel.ACCESS_TYPE_EVERYONE
-          : environmentSubstitute( dataSourcePublishModel.getAccessType() ).toLowerCase();
-      String userOrRole = environmentSubstitute( dataSourcePublishModel.getUserOrRole() );
-      if ( DataSourcePublishModel.ACCESS_TYPE_ROLE.equals( accessType ) ) {
-        if ( StringUtils.isBlank( userOrRole ) ) {
-          throw new KettleException( this.getMsg( "JobEntryDatasourcePublish.Error.MissingRoleMsg" ) );
-        }
-        datasourceAcl.addRole( userOrRole );
-      } else if ( DataSourcePublishModel.ACCESS_TYPE_USER.equals( accessType ) ) {
-        if ( StringUtils.isBlank( userOrRole ) ) {
-          throw new KettleException( this.getMsg( "JobEntryDatasourcePublish.Error.MissingUserMsg" ) );
-        }
-        datasourceAcl.addUser( userOrRole );
-      } else if ( !DataSourcePublishModel.ACCESS_TYPE_EVERYONE.equals( accessType ) ) {
-        throw new KettleException( "Access Type '" + accessType + "' not recognized" );
-      }
-      modelServerPublish.setAclModel( datasourceAcl );
+      settings = getPublishSettings( true );
+      modelServerPublish = newModelServerPublish( settings );
 
       modelName = getModelName();
       log.logBasic( this.getMsg( "JobEntryDatasourcePublish.Publish.Model", modelName ) );
@@ -158,54 +154,29 @@ public class JobEntryDatasourcePublish extends JobEntryBase implements Cloneable
 
       // Publish Database Meta
       databaseMeta = discoverDatabaseMeta( getParentJob().getJobMeta() );
-      if ( databaseMeta != null ) {
-        // Cannot publish JNDI data sources at this time, we don't know if BIServer has access to it
-        if ( DatabaseAccessType.values()[ databaseMeta.getAccessType() ] == DatabaseAccessType.JNDI ) {
-          throw new KettleException(
-            this.getMsg( "JobEntryDatasourcePublish.Error.JNDIDatasource", databaseMeta.getName() ) );
-        }
-
-        // check overwrite condition
-        DatabaseConnection dbConnection = modelServerPublish.connectionNameExists( databaseMeta.getName() );
-        if ( dbConnection != null && !dataSourcePublishModel.isOverride() ) {
-          throw new KettleException( this.getMsg( "JobEntryDatasourcePublish.Error.DBConnectionExists" ) );
-        }
-
-        datasourcePublishService.publishDatabaseMeta( modelServerPublish, databaseMeta, forceOverride );
-      } else {
+      if ( databaseMeta == null ) {
         throw new KettleException( this.getMsg( "JobEntryDatasourcePublish.Error.UnableToFindDBConnection" ) );
       }
-      dsPublished = true;
+      dsPublished = publishDatabase( modelServerPublish, settings, databaseMeta, fingerprints );
 
       // Publish Metadata XMI
-      dswFlag = getParentJob().getVariable( "JobEntryBuildModel.XMI.DSW." + modelName );
-      log.logBasic( getMsg( "JobEntryDatasourcePublish.Publish.ReadVariable", "JobEntryBuildModel.XMI.DSW."
-        + modelName, dswFlag ) );
-      String xmiString = getParentJob().getVariable( "JobEntryBuildModel.XMI." + modelName );
-      log.logDetailed(
-        getMsg( "JobEntryDatasourcePublish.Publish.ReadVariable", "JobEntryBuildModel.XMI." + modelName, xmiString ) );
-      if ( dswFlag != null && dswFlag.equalsIgnoreCase( "true" ) ) {
-        datasourcePublishService.publishDswXmi( modelName, xmiString, modelServerPublish, forceOverride );
-      } else {
-        datasourcePublishService.publishMetadataXmi( modelName, xmiString, modelServerPublish, forceOverride );
-      }
-      metaPublished = true;
+      dswFlag = getDswFlag( modelName );
+      metaPublished = publishXmi( modelServerPublish, settings, modelName, dswFlag, fingerprints );
 
       // Publish Mondrian Schema
-      String mondrianSchema = getParentJob().getVariable( "JobEntryBuildModel.Mondrian.Schema." + modelName );
-      log.logDetailed( getMsg( "JobEntryDatasourcePublish.Publish.ReadVariable", "JobEntryBuildModel.Mondrian.Schema."
-        + modelName, mondrianSchema ) );
-      String mondrianDatasource = getParentJob().getVariable( "JobEntryBuildModel.Mondrian.Datasource." + modelName );
-      log.logBasic( getMsg( "JobEntryDatasourcePublish.Publish.ReadVariable", "JobEntryBuildModel.Mondrian.Datasource."
-        + modelName, mondrianDatasource ) );
-
-      datasourcePublishService
-        .publishMondrianSchema( modelName, mondrianSchema, mondrianDatasource, modelServerPublish, forceOverride );
+      publishMondrianSchema( modelServerPublish, settings, modelName, fingerprints );
 
       result.setResult( true );
 
+      if ( settings.stateStore != null ) {
+        recordFingerprints( settings.stateStore, fingerprints );
+      }
+
     } catch ( KettleException e ) {
       logBasic( this.getMsg( "JobEntryDatasourcePublish.Rollback" ) );
+      if ( settings != null ) {
+        forgetFingerprints( settings.stateStore, fingerprints );
+      }
       if ( dsPublished && databaseMeta != null ) {
         datasourcePublishService.deleteDatabaseMeta( modelServerPublish, databaseMeta );
       }
@@ -216,10 +187,486 @@ public class JobEntryDatasourcePublish extends JobEntryBase implements Cloneable
       result.setResult( false );
       result.setNrErrors( 1 );
     }
+    logServerResilience();
+
+    return result;
+  }
+
+  /**
+   * Publishes every model built earlier in the job. Connections shared by several models are published once, then the
+   * models are published concurrently. A failed model is rolled back on its own, its connection only if no other model
+   * using it was published.
+   */
+  private Result executeAllModels( Result result ) {
+    PublishSettings settings;
+    Map<String, String> models;
+    Map<String, DatabaseMeta> databases;
+    try {
+      settings = getPublishSettings( true );
+      models = discoverModels();
+      if ( models.isEmpty() ) {
+        throw new KettleException( this.getMsg( "JobEntryDatasourcePublish.Error.UnableToDiscoverModel" ) );
+      }
+      databases = discoverDatabaseMetas( getParentJob().getJobMeta() );
+    } catch ( KettleException e ) {
+      logError( e.getMessage(), e );
+      result.setResult( false );
+      result.setNrErrors( 1 );
+      return result;
+    }
+
+    Map<String, String> fingerprints = new LinkedHashMap<String, String>();
+    ModelServerPublish connectionPublish = newModelServerPublish( settings );
+    Map<String, DatabaseMeta> publishedConnections = new LinkedHashMap<String, DatabaseMeta>();
+    Set<String> failedConnections = new HashSet<String>();
+    for ( String connectionName : new LinkedHashSet<String>( models.values() ) ) {
+      try {
+        DatabaseMeta databaseMeta = databases.get( connectionName );
+        if ( databaseMeta == null ) {
+          throw new KettleException( this.getMsg( "JobEntryDatasourcePublish.Error.UnableToFindDBConnection" ) );
+        }
+        if ( publishDatabase( connectionPublish, settings, databaseMeta, fingerprints ) ) {
+          publishedConnections.put( connectionName, databaseMeta );
+        }
+      } catch ( KettleException e ) {
+        failedConnections.add( connectionName );
+        logError( e.getMessage(), e );
+      }
+    }
+
+    int failures = 0;
+    Set<String> usedConnections = new HashSet<String>();
+    ExecutorService executor = Executors.newFixedThreadPool( Math.min( models.size(), getPublishThreads() ),
+      new ThreadFactory() {
+        @Override public Thread newThread( Runnable r ) {
+          Thread thread = new Thread( r, "data-refinery-publish-model" );
+          thread.setDaemon( true );
+          return thread;
+        }
+      } );
+    try {
+      Map<String, Future<Map<String, String>>> futures = new LinkedHashMap<String, Future<Map<String, String>>>();
+      for ( final String modelName : models.keySet() ) {
+        if ( !failedConnections.contains( models.get( modelName ) ) ) {
+          futures.put( modelName, executor.submit( new Callable<Map<String, String>>() {
+            @Override public Map<String, String> call() throws Exception {
+              return publishModel( settings, modelName );
+            }
+          } ) );
+        }
+      }
+      for ( Map.Entry<String, String> model : models.entrySet() ) {
+        Future<Map<String, String>> future = futures.get( model.getKey() );
+        if ( future == null ) {
+          failures++;
+          logError( getMsg( "JobEntryDatasourcePublish.Error.ModelFailed", model.getKey(),
+            getMsg( "JobEntryDatasourcePublish.Error.ConnectionFailed", model.getValue() ) ) );
+          continue;
+        }
+        try {
+          fingerprints.putAll( future.get() );
+          usedConnections.add( model.getValue() );
+        } catch ( Exception e ) {
+          if ( e instanceof InterruptedException ) {
+            Thread.currentThread().interrupt();
+          }
+          Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+          failures++;
+          logError( getMsg( "JobEntryDatasourcePublish.Error.ModelFailed", model.getKey(), cause.getMessage() ),
+            cause );
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    // a connection uploaded only for models that all failed is rolled back with them
+    for ( Map.Entry<String, DatabaseMeta> connection : publishedConnections.entrySet() ) {
+      if ( !usedConnections.contains( connection.getKey() ) ) {
+        fingerprints.put( PublishStateStore.key( settings.url, PublishStateStore.TYPE_DATABASE, connection.getKey() ),
+          null );
+        try {
+          datasourcePublishService.deleteDatabaseMeta( connectionPublish, connection.getValue() );
+        } catch ( KettleException e ) {
+          logError( e.getMessage(), e );
+        }
+      }
+    }
+    if ( settings.stateStore != null ) {
+      recordFingerprints( settings.stateStore, fingerprints );
+    }
+
+    logBasic( getMsg( "JobEntryDatasourcePublish.Publish.Summary", String.valueOf( models.size() - failures ),
+      String.valueOf( models.size() ) ) );
+    logServerResilience();
+    result.setResult( failures == 0 );
+    result.setNrErrors( failures );
+    return result;
+  }
+
+  /**
+   * Queues the model, or every model built by the job, in the publish outbox and returns without waiting for the
+   * server. A connection shared by several models is queued with the first of them, the batches of the others wait
+   * for that one.
+   */
+  private Result executeAsync( Result result ) {
+    PublishSettings settings;
+    PublishOutbox outbox;
+    Map<String, String> models;
+    Map<String, DatabaseMeta> databases;
+    try {
+      // not validated, the server may well be down while the outbox keeps retrying
+      settings = getPublishSettings( false );
+      outbox = getPublishOutbox();
+      if ( dataSourcePublishModel.isPublishAllModels() ) {
+        models = discoverModels();
+        if ( models.isEmpty() ) {
+          throw new KettleException( this.getMsg( "JobEntryDatasourcePublish.Error.UnableToDiscoverModel" ) );
+        }
+        databases = discoverDatabaseMetas( getParentJob().getJobMeta() );
+      } else {
+        String modelName = getModelName();
+        DatabaseMeta databaseMeta = discoverDatabaseMeta( getParentJob().getJobMeta() );
+        if ( databaseMeta == null ) {
+          throw new KettleException( this.getMsg( "JobEntryDatasourcePublish.Error.UnableToFindDBConnection" ) );
+        }
+        models = Collections.singletonMap( modelName, databaseMeta.getName() );
+        databases = Collections.singletonMap( databaseMeta.getName(), databaseMeta );
+      }
+    } catch ( KettleException e ) {
+      logError( e.getMessage(), e );
+      result.setResult( false );
+      result.setNrErrors( 1 );
+      return result;
+    }
 
+    int failures = 0;
+    // batch queued with each connection
+    Map<String, File> queuedConnections = new HashMap<String, File>();
+    for ( Map.Entry<String, String> model : models.entrySet() ) {
+      try {
+        DatabaseMeta databaseMeta = databases.get( model.getValue() );
+        if ( databaseMeta == null ) {
+          throw new KettleException( this.getMsg( "JobEntryDatasourcePublish.Error.UnableToFindDBConnection" ) );
+        }
+        boolean connectionQueued = queuedConnections.containsKey( model.getValue() );
+        PublishOutbox.Batch batch = newBatch( settings, model.getKey(), connectionQueued ? null : databaseMeta );
+        batch.setDependsOn( queuedConnections.get( model.getValue() ) );
+        File folder = null;
+        if ( !batch.isEmpty() ) {
+          folder = outbox.enqueue( batch );
+          logBasic( getMsg( "JobEntryDatasourcePublish.Publish.Queued", model.getKey(), folder.getPath() ) );
+        }
+        if ( !connectionQueued ) {
+          // null if the connection is unchanged, nothing to wait for then
+          queuedConnections.put( model.getValue(), batch.hasDatabaseConnection() ? folder : null );
+        }
+      } catch ( Exception e ) {
+        failures++;
+        logError( getMsg( "JobEntryDatasourcePublish.Error.ModelFailed", model.getKey(), e.getMessage() ), e );
+      }
+    }
+
+    logBasic( getMsg( "JobEntryDatasourcePublish.Publish.QueuedSummary", String.valueOf( models.size() - failures ),
+      String.valueOf( models.size() ), String.valueOf( outbox.getQueueDepth() ) ) );
+    result.setResult( failures == 0 );
+    result.setNrErrors( failures );
     return result;
   }
 
+  /**
+   * Collects what would be published for the model, leaving out unchanged content.
+   *
+   * @param databaseMeta connection to publish along, or null
+   */
+  private PublishOutbox.Batch newBatch( PublishSettings settings, String modelName, DatabaseMeta databaseMeta )
+    throws KettleException {
+    log.logBasic( this.getMsg( "JobEntryDatasourcePublish.Publish.Model", modelName ) );
+    PublishOutbox.Batch batch = new PublishOutbox.Batch( settings.connection, modelName );
+    batch.setForceOverride( settings.forceOverride );
+    batch.setAccess( settings.accessType, settings.userOrRole );
+    Map<String, String> fingerprints = new LinkedHashMap<String, String>();
+
+    if ( databaseMeta != null ) {
+      if ( DatabaseAccessType.values()[ databaseMeta.getAccessType() ] == DatabaseAccessType.JNDI ) {
+        throw new KettleException(
+          this.getMsg( "JobEntryDatasourcePublish.Error.JNDIDatasource", databaseMeta.getName() ) );
+      }
+      String dbKey = PublishStateStore.key( settings.url, PublishStateStore.TYPE_DATABASE, databaseMeta.getName() );
+      String dbFingerprint = settings.stateStore != null ? getDatabaseFingerprint( databaseMeta ) : null;
+      // unlike a direct publish, the server is not asked whether an unchanged connection is still there
+      if ( isUnchanged( settings.stateStore, dbKey, dbFingerprint ) ) {
+        log.logBasic( getMsg( "JobEntryDatasourcePublish.Publish.Unchanged", databaseMeta.getName() ) );
+      } else {
+        batch.setDatabaseConnection(
+          datasourcePublishService.getDatabaseConnection( getModelServerPublish(), databaseMeta ) );
+        fingerprints.put( dbKey, dbFingerprint );
+      }
+    }
+
+    String dswFlag = getDswFlag( modelName );
+    Payload xmi = getXmiPayload( settings, modelName, dswFlag );
+    if ( isPublished( settings, xmi, getXmiId( modelName, dswFlag ), !"true".equalsIgnoreCase( dswFlag ) ) ) {
+      log.logBasic( getMsg( "JobEntryDatasourcePublish.Publish.Unchanged", modelName ) );
+    } else if ( xmi.content != null || xmi.file != null ) {
+      batch.setXmi( "true".equalsIgnoreCase( dswFlag ), xmi.content, xmi.file );
+      fingerprints.put( xmi.key, xmi.fingerprint );
+    }
+
+    Payload mondrian = getMondrianPayload( settings, modelName );
+    if ( isPublished( settings, mondrian, modelName, false ) ) {
+      log.logBasic( getMsg( "JobEntryDatasourcePublish.Publish.Unchanged", mondrian.datasource ) );
+    } else {
+      batch.setMondrianSchema( mondrian.datasource, mondrian.content, mondrian.file );
+      fingerprints.put( mondrian.key, mondrian.fingerprint );
+    }
+
+    if ( settings.stateStore != null ) {
+      batch.setFingerprints( settings.stateStore.getFile(), fingerprints );
+    }
+    return batch;
+  }
+
+  /**
+   * Publishes the XMI and Mondrian schema of one model, removing the XMI again if the schema fails.
+   *
+   * @return fingerprints of the published content
+   */
+  private Map<String, String> publishModel( PublishSettings settings, String modelName ) throws KettleException {
+    Map<String, String> fingerprints = new LinkedHashMap<String, String>();
+    ModelServerPublish modelServerPublish = newModelServerPublish( settings );
+    log.logBasic( this.getMsg( "JobEntryDatasourcePublish.Publish.Model", modelName ) );
+    String dswFlag = getDswFlag( modelName );
+    boolean metaPublished = false;
+    try {
+      metaPublished = publishXmi( modelServerPublish, settings, modelName, dswFlag, fingerprints );
+      publishMondrianSchema( modelServerPublish, settings, modelName, fingerprints );
+      return fingerprints;
+    } catch ( KettleException e ) {
+      logBasic( this.getMsg( "JobEntryDatasourcePublish.Rollback" ) );
+      forgetFingerprints( settings.stateStore, fingerprints );
+      if ( metaPublished ) {
+        datasourcePublishService.deleteXMI( modelServerPublish, modelName, dswFlag );
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Resolves and validates the server connection and access control shared by everything published by this entry.
+   */
+  private PublishSettings getPublishSettings( boolean validate ) throws KettleException {
+    BiServerConnection biServerModel = dataSourcePublishModel.getBiServerConnection();
+
+    // Resolve parametized values before execution
+    biServerModel.setName( environmentSubstitute( biServerModel.getName() ) );
+    biServerModel.setUserId( environmentSubstitute( biServerModel.getUserId() ) );
+    biServerModel.setPassword( environmentSubstitute( biServerModel.getPassword() ) );
+    String url = environmentSubstitute( biServerModel.getUrl() );
+    if ( url != null && url.endsWith( "//" ) ) {
+      url = url.substring( 0, url.length() - 1 );
+    }
+    biServerModel.setUrl( url );
+    if ( validate ) {
+      // Fail early if invalid Pentaho BA Server or Unauthenticated user.
+      // Prevent Spoon from displaying user/password prompt.
+      ConnectionValidator validator = getConnectionValidator( biServerModel );
+      validator.validateConnectionInRuntime();
+    }
+
+    PublishSettings settings = new PublishSettings();
+    settings.url = url;
+    settings.connection = new BiServerConnection();
+    settings.connection.setName( biServerModel.getName() );
+    settings.connection.setUrl( biServerModel.getUrl() );
+    settings.connection.setPassword( biServerModel.getPassword() );
+    settings.connection.setUserId( biServerModel.getUserId() );
+    log.logBasic( getMsg( "JobEntryDatasourcePublish.Publish.BAServer", biServerModel.getUrl() ) );
+
+    settings.forceOverride = dataSourcePublishModel.isOverride();
+
+    settings.aclModel = new DataSourceAclModel();
+    settings.accessType =
+      Const.isEmpty( dataSourcePublishModel.getAccessType() ) ? DataSourcePublishModel.ACCESS_TYPE_EVERYONE
+        : environmentSubstitute( dataSourcePublishModel.getAccessType() ).toLowerCase();
+    settings.userOrRole = environmentSubstitute( dataSourcePublishModel.getUserOrRole() );
+    if ( DataSourcePublishModel.ACCESS_TYPE_ROLE.equals( settings.accessType ) ) {
+      if ( StringUtils.isBlank( settings.userOrRole ) ) {
+        throw new KettleException( this.getMsg( "JobEntryDatasourcePublish.Error.MissingRoleMsg" ) );
+      }
+      settings.aclModel.addRole( settings.userOrRole );
+    } else if ( DataSourcePublishModel.ACCESS_TYPE_USER.equals( settings.accessType ) ) {
+      if ( StringUtils.isBlank( settings.userOrRole ) ) {
+        throw new KettleException( this.getMsg( "JobEntryDatasourcePublish.Error.MissingUserMsg" ) );
+      }
+      settings.aclModel.addUser( settings.userOrRole );
+    } else if ( !DataSourcePublishModel.ACCESS_TYPE_EVERYONE.equals( settings.accessType ) ) {
+      throw new KettleException( "Access Type '" + settings.accessType + "' not recognized" );
+    }
+
+    if ( dataSourcePublishModel.isPublishOnlyIfChanged() ) {
+      settings.stateStore = getPublishStateStore();
+    }
+    return settings;
+  }
+
+  private ModelServerPublish newModelServerPublish( PublishSettings settings ) {
+    ModelServerPublish modelServerPublish = getModelServerPublish();
+    modelServerPublish.setBiServerConnection( settings.connection );
+    modelServerPublish.setAclModel( settings.aclModel );
+    return modelServerPublish;
+  }
+
+  /**
+   * Publishes the database connection unless it is unchanged.
+   *
+   * @return true if the connection was uploaded
+   */
+  private boolean publishDatabase( ModelServerPublish modelServerPublish, PublishSettings settings,
+                                   DatabaseMeta databaseMeta, Map<String, String> fingerprints )
+    throws KettleException {
+    // Cannot publish JNDI data sources at this time, we don't know if BIServer has access to it
+    if ( DatabaseAccessType.values()[ databaseMeta.getAccessType() ] == DatabaseAccessType.JNDI ) {
+      throw new KettleException(
+        this.getMsg( "JobEntryDatasourcePublish.Error.JNDIDatasource", databaseMeta.getName() ) );
+    }
+
+    DatabaseConnection dbConnection = modelServerPublish.connectionNameExists( databaseMeta.getName() );
+    String dbKey = PublishStateStore.key( settings.url, PublishStateStore.TYPE_DATABASE, databaseMeta.getName() );
+    String dbFingerprint = settings.stateStore != null ? getDatabaseFingerprint( databaseMeta ) : null;
+    // only skip if the connection is still on the server, it may have been deleted in between
+    if ( dbConnection != null && isUnchanged( settings.stateStore, dbKey, dbFingerprint ) ) {
+      log.logBasic( getMsg( "JobEntryDatasourcePublish.Publish.Unchanged", databaseMeta.getName() ) );
+      return false;
+    }
+    // check overwrite condition
+    if ( dbConnection != null && !dataSourcePublishModel.isOverride() ) {
+      throw new KettleException( this.getMsg( "JobEntryDatasourcePublish.Error.DBConnectionExists" ) );
+    }
+
+    datasourcePublishService.publishDatabaseMeta( modelServerPublish, databaseMeta, settings.forceOverride );
+    fingerprints.put( dbKey, dbFingerprint );
+    return true;
+  }
+
+  private String getDswFlag( String modelName ) {
+    String dswFlag = getParentJob().getVariable( "JobEntryBuildModel.XMI.DSW." + modelName );
+    log.logBasic( getMsg( "JobEntryDatasourcePublish.Publish.ReadVariable", "JobEntryBuildModel.XMI.DSW."
+      + modelName, dswFlag ) );
+    return dswFlag;
+  }
+
+  /**
+   * Publishes the metadata XMI of the model unless it is unchanged.
+   *
+   * @return true if the XMI was uploaded
+   */
+  private boolean publishXmi( ModelServerPublish modelServerPublish, PublishSettings settings, String modelName,
+                              String dswFlag, Map<String, String> fingerprints ) throws KettleException {
+    Payload xmi = getXmiPayload( settings, modelName, dswFlag );
+    // only skip if the model is still on the server, it may have been deleted in between
+    if ( isPublished( settings, xmi, getXmiId( modelName, dswFlag ), !"true".equalsIgnoreCase( dswFlag ) ) ) {
+      log.logBasic( getMsg( "JobEntryDatasourcePublish.Publish.Unchanged", modelName ) );
+      return false;
+    }
+    String xmiString = xmi.content;
+    File xmiFile = xmi.file;
+    boolean forceOverride = settings.forceOverride;
+    if ( dswFlag != null && dswFlag.equalsIgnoreCase( "true" ) ) {
+      if ( xmiFile != null ) {
+        datasourcePublishService.publishDswXmiFile( modelName, xmiFile, modelServerPublish, forceOverride );
+      } else {
+        datasourcePublishService.publishDswXmi( modelName, xmiString, modelServerPublish, forceOverride );
+      }
+    } else {
+      if ( xmiFile != null ) {
+        datasourcePublishService.publishMetadataXmiFile( modelName, xmiFile, modelServerPublish, forceOverride );
+      } else {
+        datasourcePublishService.publishMetadataXmi( modelName, xmiString, modelServerPublish, forceOverride );
+      }
+    }
+    fingerprints.put( xmi.key, xmi.fingerprint );
+    return true;
+  }
+
+  private Payload getXmiPayload( PublishSettings settings, String modelName, String dswFlag )
+    throws KettleException {
+    Payload xmi = new Payload();
+    xmi.content = getParentJob().getVariable( "JobEntryBuildModel.XMI." + modelName );
+    log.logDetailed( getMsg( "JobEntryDatasourcePublish.Publish.ReadVariable", "JobEntryBuildModel.XMI." + modelName,
+      xmi.content ) );
+    // a spooled XMI takes precedence and is streamed from disk
+    xmi.file = getPayloadFile( JobEntryBuildModel.XMI_FILE_VARIABLE_PREFIX + modelName );
+    xmi.key = PublishStateStore.key( settings.url, PublishStateStore.TYPE_XMI, modelName );
+    xmi.fingerprint = settings.stateStore != null
+      ? getPayloadFingerprint( dswFlag, xmi.content, xmi.file, settings.accessType, settings.userOrRole ) : null;
+    return xmi;
+  }
+
+  /**
+   * Publishes the Mondrian schema of the model unless it is unchanged.
+   */
+  private void publishMondrianSchema( ModelServerPublish modelServerPublish, PublishSettings settings,
+                                      String modelName, Map<String, String> fingerprints ) throws KettleException {
+    Payload mondrian = getMondrianPayload( settings, modelName );
+    if ( isPublished( settings, mondrian, modelName, false ) ) {
+      log.logBasic( getMsg( "JobEntryDatasourcePublish.Publish.Unchanged", mondrian.datasource ) );
+      return;
+    }
+    String mondrianSchema = mondrian.content;
+    String mondrianDatasource = mondrian.datasource;
+    File mondrianFile = mondrian.file;
+    if ( mondrianFile != null ) {
+      datasourcePublishService.publishMondrianSchemaFile( modelName, mondrianFile, mondrianDatasource,
+        modelServerPublish, settings.forceOverride );
+    } else {
+      datasourcePublishService.publishMondrianSchema( modelName, mondrianSchema, mondrianDatasource,
+        modelServerPublish, settings.forceOverride );
+    }
+    fingerprints.put( mondrian.key, mondrian.fingerprint );
+  }
+
+  private Payload getMondrianPayload( PublishSettings settings, String modelName ) throws KettleException {
+    Payload mondrian = new Payload();
+    mondrian.content = getParentJob().getVariable( "JobEntryBuildModel.Mondrian.Schema." + modelName );
+    log.logDetailed( getMsg( "JobEntryDatasourcePublish.Publish.ReadVariable", "JobEntryBuildModel.Mondrian.Schema."
+      + modelName, mondrian.content ) );
+    mondrian.datasource = getParentJob().getVariable( "JobEntryBuildModel.Mondrian.Datasource." + modelName );
+    log.logBasic( getMsg( "JobEntryDatasourcePublish.Publish.ReadVariable", "JobEntryBuildModel.Mondrian.Datasource."
+      + modelName, mondrian.datasource ) );
+    mondrian.file = getPayloadFile( JobEntryBuildModel.MONDRIAN_SCHEMA_FILE_VARIABLE_PREFIX + modelName );
+
+    mondrian.key = PublishStateStore.key( settings.url, PublishStateStore.TYPE_MONDRIAN, modelName );
+    mondrian.fingerprint = settings.stateStore != null && mondrian.datasource != null
+      ? getPayloadFingerprint( mondrian.datasource, mondrian.content, mondrian.file, settings.accessType,
+        settings.userOrRole ) : null;
+    return mondrian;
+  }
+
+  /**
+   * Server connection, access control and options resolved once per execution
+   */
+  private static class PublishSettings {
+    private String url;
+    private BiServerConnection connection;
+    private DataSourceAclModel aclModel;
+    private String accessType;
+    private String userOrRole;
+    private boolean forceOverride;
+    private PublishStateStore stateStore;
+  }
+
+  /**
+   * XMI or Mondrian schema handed over by the build model entry, with its publish state key and fingerprint
+   */
+  private static class Payload {
+    private String content;
+    private File file;
+    private String datasource;
+    private String key;
+    private String fingerprint;
+  }
+
   @Override
   public String getXML() {
 
@@ -230,6 +677,10 @@ public class JobEntryDatasourcePublish extends JobEntryBase implements Cloneable
     if ( model != null ) {
       xml.append( "      " ).append( XMLHandler.addTagValue( Fields.LOGICAL_MODEL, model.getModelName() ) );
       xml.append( "      " ).append( XMLHandler.addTagValue( Fields.OVERRIDE, model.isOverride() ) );
+      xml.append( "      " ).append(
+        XMLHandler.addTagValue( Fields.PUBLISH_ONLY_IF_CHANGED, model.isPublishOnlyIfChanged() ) );
+      xml.append( "      " ).append( XMLHandler.addTagValue( Fields.PUBLISH_ALL_MODELS, model.isPublishAllModels() ) );
+      xml.append( "      " ).append( XMLHandler.addTagValue( Fields.PUBLISH_ASYNC, model.isPublishAsync() ) );
       xml.append( "      " ).append( XMLHandler.addTagValue( Fields.ACL_ACCESS_TYPE, model.getAccessType() ) );
       xml.append( "      " ).append( XMLHandler.addTagValue( Fields.ACL_USER_OR_ROLE, model.getUserOrRole() ) );
 
@@ -274,6 +725,11 @@ public class JobEntryDatasourcePublish extends JobEntryBase implements Cloneable
     model.setBiServerConnection( biServerModel );
 
     model.setOverride( BooleanUtils.toBoolean( XMLHandler.getTagValue( entrynode, Fields.OVERRIDE ) ) );
+    model.setPublishOnlyIfChanged(
+      BooleanUtils.toBoolean( XMLHandler.getTagValue( entrynode, Fields.PUBLISH_ONLY_IF_CHANGED ) ) );
+    model.setPublishAllModels(
+      BooleanUtils.toBoolean( XMLHandler.getTagValue( entrynode, Fields.PUBLISH_ALL_MODELS ) ) );
+    model.setPublishAsync( BooleanUtils.toBoolean( XMLHandler.getTagValue( entrynode, Fields.PUBLISH_ASYNC ) ) );
     model.setAccessType( XMLHandler.getTagValue( entrynode, Fields.ACL_ACCESS_TYPE ) );
     model.setUserOrRole( XMLHandler.getTagValue( entrynode, Fields.ACL_USER_OR_ROLE ) );
 
@@ -302,6 +758,9 @@ public class JobEntryDatasourcePublish extends JobEntryBase implements Cloneable
     DataSourcePublishModel dsModel = new DataSourcePublishModel();
     dsModel.setModelName( rep.getJobEntryAttributeString( id_jobentry, Fields.LOGICAL_MODEL ) );
     dsModel.setOverride( rep.getJobEntryAttributeBoolean( id_jobentry, Fields.OVERRIDE ) );
+    dsModel.setPublishOnlyIfChanged( rep.getJobEntryAttributeBoolean( id_jobentry, Fields.PUBLISH_ONLY_IF_CHANGED ) );
+    dsModel.setPublishAllModels( rep.getJobEntryAttributeBoolean( id_jobentry, Fields.PUBLISH_ALL_MODELS ) );
+    dsModel.setPublishAsync( rep.getJobEntryAttributeBoolean( id_jobentry, Fields.PUBLISH_ASYNC ) );
     dsModel.setAccessType( rep.getJobEntryAttributeString( id_jobentry, Fields.ACL_ACCESS_TYPE ) );
     dsModel.setUserOrRole( rep.getJobEntryAttributeString( id_jobentry, Fields.ACL_USER_OR_ROLE ) );
     dsModel.setBiServerConnection( biServerModel );
@@ -324,6 +783,11 @@ public class JobEntryDatasourcePublish extends JobEntryBase implements Cloneable
         .getUserId() ) );
       rep.saveJobEntryAttribute( id_job, getObjectId(), Fields.LOGICAL_MODEL, dataSourcePublishModel.getModelName() );
       rep.saveJobEntryAttribute( id_job, getObjectId(), Fields.OVERRIDE, dataSourcePublishModel.isOverride() );
+      rep.saveJobEntryAttribute( id_job, getObjectId(), Fields.PUBLISH_ONLY_IF_CHANGED,
+        dataSourcePublishModel.isPublishOnlyIfChanged() );
+      rep.saveJobEntryAttribute( id_job, getObjectId(), Fields.PUBLISH_ALL_MODELS,
+        dataSourcePublishModel.isPublishAllModels() );
+      rep.saveJobEntryAttribute( id_job, getObjectId(), Fields.PUBLISH_ASYNC, dataSourcePublishModel.isPublishAsync() );
       rep
         .saveJobEntryAttribute( id_job, getObjectId(), Fields.ACL_ACCESS_TYPE, dataSourcePublishModel.getAccessType() );
       rep.saveJobEntryAttribute( id_job, getObjectId(), Fields.ACL_USER_OR_ROLE,
@@ -337,6 +801,13 @@ public class JobEntryDatasourcePublish extends JobEntryBase implements Cloneable
     return new ModelServerPublish( getLogChannel() );
   }
 
+  // Allows dependency injection/mocks
+  protected ModelServerFetcher getModelServerFetcher( BiServerConnection connection ) {
+    ModelServerFetcher fetcher = new ModelServerFetcher( connection );
+    fetcher.setLogChannel( getLogChannel() );
+    return fetcher;
+  }
+
   // Allows dependency injection/mocks
   protected PublishRestUtil getPublishRestUtil() {
     return new PublishRestUtil();
@@ -346,9 +817,149 @@ public class JobEntryDatasourcePublish extends JobEntryBase implements Cloneable
   protected ConnectionValidator getConnectionValidator( BiServerConnection connection ) {
     ConnectionValidator validator = new ConnectionValidator();
     validator.setConnection( connection );
+    if ( getParentJob() != null ) {
+      validator.setJobExtensionDataMap( getParentJob().getExtensionDataMap() );
+    }
     return validator;
   }
 
+  // Allows dependency injection/mocks
+  protected PublishStateStore getPublishStateStore() {
+    return PublishStateStore.getInstance();
+  }
+
+  // Allows dependency injection/mocks
+  protected PublishOutbox getPublishOutbox() {
+    return PublishOutbox.getInstance();
+  }
+
+  protected int getPublishThreads() {
+    return Math.max( 1, Const.toInt( System.getProperty( PUBLISH_THREADS_PROPERTY ), DEFAULT_PUBLISH_THREADS ) );
+  }
+
+  private boolean isUnchanged( PublishStateStore stateStore, String key, String fingerprint ) {
+    if ( stateStore == null || fingerprint == null ) {
+      return false;
+    }
+    try {
+      return fingerprint.equals( stateStore.getFingerprint( key ) );
+    } catch ( IOException e ) {
+      logError( getMsg( "JobEntryDatasourcePublish.Error.PublishState", stateStore.getFile().getPath() ), e );
+      return false;
+    }
+  }
+
+  /**
+   * Unchanged content is only skipped while it is still on the server, it may have been deleted or replaced there.
+   * Content that is gone has its recorded state dropped, so it is published again.
+   *
+   * @param id       id the server lists the model or schema under
+   * @param metadata whether the id is a metadata domain rather than a DSW or analysis datasource
+   * @return true if the payload is unchanged since it was last published and still on the server
+   */
+  private boolean isPublished( PublishSettings settings, Payload payload, String id, boolean metadata ) {
+    if ( !isUnchanged( settings.stateStore, payload.key, payload.fingerprint ) ) {
+      return false;
+    }
+    if ( existsOnServer( settings.connection, id, metadata ) ) {
+      return true;
+    }
+    log.logBasic( getMsg( "JobEntryDatasourcePublish.Publish.NotOnServer", id ) );
+    recordFingerprints( settings.stateStore, Collections.singletonMap( payload.key, (String) null ) );
+    return false;
+  }
+
+  /**
+   * @return whether the server lists the id, false if it cannot be asked
+   */
+  boolean existsOnServer( BiServerConnection connection, String id, boolean metadata ) {
+    ModelServerFetcher fetcher = getModelServerFetcher( connection );
+    try {
+      if ( metadata ) {
+        return fetcher.metadataExists( id );
+      }
+      DatasourceCatalog catalog = DatasourceCatalog.getInstance();
+      return catalog != null ? catalog.contains( fetcher, id ) : fetcher.datasourceExists( id );
+    } catch ( AuthorizationException | ServerException e ) {
+      logError( getMsg( "JobEntryDatasourcePublish.Error.NotListed", id ), e );
+      return false;
+    }
+  }
+
+  private String getXmiId( String modelName, String dswFlag ) {
+    return "true".equalsIgnoreCase( dswFlag ) ? datasourcePublishService.checkDswId( modelName ) : modelName;
+  }
+
+  private void recordFingerprints( PublishStateStore stateStore, Map<String, String> fingerprints ) {
+    try {
+      stateStore.putFingerprints( fingerprints );
+    } catch ( IOException e ) {
+      // next run will publish again, nothing else is affected
+      logError( getMsg( "JobEntryDatasourcePublish.Error.PublishState", stateStore.getFile().getPath() ), e );
+    }
+  }
+
+  private void forgetFingerprints( PublishStateStore stateStore, Map<String, String> fingerprints ) {
+    if ( stateStore != null && !fingerprints.isEmpty() ) {
+      // whatever was uploaded or rolled back no longer matches the recorded state
+      for ( String key : fingerprints.keySet() ) {
+        fingerprints.put( key, null );
+      }
+      recordFingerprints( stateStore, fingerprints );
+    }
+  }
+
+  /**
+   * @return fingerprint of the connection as it is published, variables resolved
+   */
+  String getDatabaseFingerprint( DatabaseMeta databaseMeta ) {
+    return new Fingerprint()
+      .add( databaseMeta.getXML() )
+      .add( databaseMeta.environmentSubstitute( databaseMeta.getHostname() ) )
+      .add( databaseMeta.environmentSubstitute( databaseMeta.getDatabasePortNumberString() ) )
+      .add( databaseMeta.environmentSubstitute( databaseMeta.getDatabaseName() ) )
+      .add( databaseMeta.environmentSubstitute( databaseMeta.getUsername() ) )
+      .add( databaseMeta.environmentSubstitute( databaseMeta.getPassword() ) )
+      .getValue();
+  }
+
+  /**
+   * @return fingerprint of the payload, read from the spool file if there is one, or null if there is no payload
+   */
+  String getPayloadFingerprint( String kind, String payload, File payloadFile, String accessType,
+                                String userOrRole ) throws KettleException {
+    if ( payload == null && payloadFile == null ) {
+      return null;
+    }
+    Fingerprint fingerprint = new Fingerprint().add( kind );
+    if ( payloadFile != null ) {
+      try {
+        fingerprint.add( payloadFile );
+      } catch ( IOException e ) {
+        throw new KettleException( e );
+      }
+    } else {
+      fingerprint.add( payload );
+    }
+    return fingerprint.add( accessType ).add( userOrRole ).getValue();
+  }
+
+  /**
+   * @return spool file named by the variable, or null if the variable is not set
+   */
+  private File getPayloadFile( String varName ) throws KettleException {
+    String path = getParentJob().getVariable( varName );
+    if ( StringUtils.isBlank( path ) ) {
+      return null;
+    }
+    log.logBasic( getMsg( "JobEntryDatasourcePublish.Publish.ReadVariable", varName, path ) );
+    File file = new File( path );
+    if ( !file.isFile() ) {
+      throw new KettleException( getMsg( "JobEntryDatasourcePublish.Error.MissingPayloadFile", path ) );
+    }
+    return file;
+  }
+
   /**
    * @return Runtime substituted model name. May be parameterized with variables/params.
    */
@@ -371,6 +982,65 @@ public class JobEntryDatasourcePublish extends JobEntryBase implements Cloneable
     return environmentSubstitute( modelName );
   }
 
+  /**
+   * @return database connection name of every model built earlier in the job that has an XMI or Mondrian schema to
+   * publish, by model name
+   */
+  public Map<String, String> discoverModels() {
+    Map<String, String> models = new TreeMap<String, String>();
+    for ( String varName : getParentJob().listVariables() ) {
+      if ( !varName.startsWith( JobEntryBuildModel.DATABASE_CONNECTION_VARIABLE_PREFIX ) ) {
+        continue;
+      }
+      String modelName = varName.substring( JobEntryBuildModel.DATABASE_CONNECTION_VARIABLE_PREFIX.length() );
+      String connectionName = getParentJob().getVariable( varName );
+      if ( StringUtils.isNotBlank( connectionName ) && hasPayload( modelName ) ) {
+        models.put( modelName, connectionName );
+      }
+    }
+    return models;
+  }
+
+  private boolean hasPayload( String modelName ) {
+    for ( String prefix : new String[] { "JobEntryBuildModel.XMI.", JobEntryBuildModel.XMI_FILE_VARIABLE_PREFIX,
+      "JobEntryBuildModel.Mondrian.Schema.", JobEntryBuildModel.MONDRIAN_SCHEMA_FILE_VARIABLE_PREFIX } ) {
+      if ( StringUtils.isNotBlank( getParentJob().getVariable( prefix + modelName ) ) ) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return runtime database connections of the models of every build model job entry in the job, by name
+   */
+  public Map<String, DatabaseMeta> discoverDatabaseMetas( final JobMeta jobMeta ) {
+    Map<String, DatabaseMeta> databases = new HashMap<String, DatabaseMeta>();
+    for ( JobEntryCopy copy : jobMeta.getJobCopies() ) {
+      if ( !( copy.getEntry() instanceof JobEntryBuildModel ) ) {
+        continue;
+      }
+      // initialized as in discoverDatabaseMeta
+      JobEntryBuildModel cloneJei = (JobEntryBuildModel) copy.getEntry().clone();
+      ( (VariableSpace) cloneJei ).copyVariablesFrom( this );
+      cloneJei.setRepository( rep );
+      if ( rep != null ) {
+        cloneJei.setMetaStore( rep.getMetaStore() );
+      }
+      cloneJei.setParentJob( this.getParentJob() );
+      for ( JobEntryBuildModel modelEntry : cloneJei.getModelEntries() ) {
+        try {
+          DatabaseMeta databaseMeta = modelEntry.getConnectionInfo().getDatabaseMeta();
+          databases.put( databaseMeta.getName(), databaseMeta );
+        } catch ( KettleException e ) {
+          // not run in this job, its models can't be published
+          logDebug( e.getMessage() );
+        }
+      }
+    }
+    return databases;
+  }
+
   public DatabaseMeta discoverDatabaseMeta( final JobMeta jobMeta ) throws KettleException {
     JobEntryBuildModel jobEntryBuildModel = findPrecedingBuildModelJobEntry( jobMeta, this );
     if ( jobEntryBuildModel == null ) {
@@ -436,6 +1106,21 @@ public class JobEntryDatasourcePublish extends JobEntryBase implements Cloneable
     return true;
   }
 
+  /**
+   * Reports the retry and circuit breaker counters, they cover every call made by this JVM so far.
+   */
+  void logServerResilience() {
+    ServerResilience resilience = getServerResilience();
+    logBasic( getMsg( "JobEntryDatasourcePublish.Publish.Resilience", String.valueOf( resilience.getRetries() ),
+      String.valueOf( resilience.getRejected() ), String.valueOf( resilience.getCircuitsOpened() ),
+      String.valueOf( resilience.getOpenCircuits() ) ) );
+  }
+
+  // Allows dependency injection/mocks
+  protected ServerResilience getServerResilience() {
+    return ServerResilience.getInstance();
+  }
+
   private String getMsg( String key, String... parameters ) {
     return BaseMessages.getString( PKG, key, parameters );
   }
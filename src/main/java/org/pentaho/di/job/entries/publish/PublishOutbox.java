@@ -0,0 +1,851 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2017 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+
+package org.pentaho.di.job.entries.publish;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.exception.ExceptionUtils;
+import org.pentaho.database.model.DatabaseConnection;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.encryption.Encr;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.logging.LogChannel;
+import org.pentaho.di.core.logging.LogChannelInterface;
+import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
+import org.pentaho.di.core.refinery.publish.agilebi.ModelServerPublish;
+import org.pentaho.di.core.refinery.publish.model.DataSourceAclModel;
+import org.pentaho.di.core.refinery.publish.model.DataSourcePublishModel;
+import org.pentaho.di.core.refinery.publish.util.JAXBUtils;
+import org.pentaho.di.core.refinery.publish.util.PublishStateStore;
+import org.pentaho.di.i18n.BaseMessages;
+import org.pentaho.di.job.entries.publish.exception.DuplicateDataSourceException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Durable queue of models waiting to be published to a BA server. The publish job entry drops everything a model
+ * needs (database connection, XMI, Mondrian schema and access control) into a batch folder and moves on, a
+ * background dispatcher delivers the batches. Batches of the same model on the same server are delivered in the order
+ * they were queued, and a batch depending on another one, e.g. for a shared database connection, waits until that
+ * one is delivered and is given up with it. A failed delivery is retried with an exponential backoff, resuming with
+ * the first artifact that did not make it. Batches left by a stopped process are delivered once the outbox is used
+ * again.
+ * <p>
+ * Several processes may share the outbox folder. All of them queue batches, but only the one holding the lock on
+ * {@value #LOCK_FILE} delivers them; the others try to take the lock over every retry delay, in case it exits.
+ * <p>
+ * The dispatcher is a daemon thread of the process that queued the batches. When that process exits, e.g. Kitchen
+ * right after the job finished, it waits up to {@value #DRAIN_WAIT_PROPERTY} ms (default
+ * {@value #DEFAULT_DRAIN_WAIT}) for the queue to drain and logs how many batches are left. Those are only delivered
+ * once another process publishes asynchronously through the same outbox, so a deployment running jobs from Kitchen
+ * needs a long running process, such as Carte, that does.
+ * <p>
+ * Batches hold the BA server and database passwords, obfuscated with the same reversible encoding as job files,
+ * which is not encryption. The outbox folder is therefore made accessible to its owner only.
+ * <p>
+ * Settings (system properties or kettle.properties):
+ * <ul>
+ *   <li>{@value #DIRECTORY_PROPERTY} - outbox folder (default data-refinery/publish-outbox in the kettle home
+ *   folder)</li>
+ *   <li>{@value #MAX_ATTEMPTS_PROPERTY} - deliveries tried before a batch is given up
+ *   (default {@value #DEFAULT_MAX_ATTEMPTS})</li>
+ *   <li>{@value #RETRY_DELAY_PROPERTY} - ms before the first retry, doubled for every further one
+ *   (default {@value #DEFAULT_RETRY_DELAY})</li>
+ *   <li>{@value #MAX_RETRY_DELAY_PROPERTY} - longest ms between retries
+ *   (default {@value #DEFAULT_MAX_RETRY_DELAY})</li>
+ * </ul>
+ * Batches given up, or rejected because the content already exists and override is off, are moved to the
+ * {@value #FAILED_FOLDER} folder of the outbox. What was delivered before is not rolled back.
+ */
+public class PublishOutbox {
+
+  private static Class<?> PKG = JobEntryDatasourcePublish.class;
+
+  public static final String DIRECTORY_PROPERTY = "KETTLE_DATA_REFINERY_PUBLISH_OUTBOX_DIR";
+  public static final String MAX_ATTEMPTS_PROPERTY = "KETTLE_DATA_REFINERY_PUBLISH_OUTBOX_MAX_ATTEMPTS";
+  public static final String RETRY_DELAY_PROPERTY = "KETTLE_DATA_REFINERY_PUBLISH_OUTBOX_RETRY_DELAY";
+  public static final String MAX_RETRY_DELAY_PROPERTY = "KETTLE_DATA_REFINERY_PUBLISH_OUTBOX_MAX_RETRY_DELAY";
+  public static final String DRAIN_WAIT_PROPERTY = "KETTLE_DATA_REFINERY_PUBLISH_OUTBOX_DRAIN_WAIT";
+
+  public static final int DEFAULT_MAX_ATTEMPTS = 10;
+  public static final int DEFAULT_RETRY_DELAY = 5000;
+  public static final int DEFAULT_MAX_RETRY_DELAY = 600000;
+  public static final int DEFAULT_DRAIN_WAIT = 10000;
+
+  public static final String FAILED_FOLDER = "failed";
+
+  private static final String BATCH_EXTENSION = ".batch";
+  private static final String BATCH_FILE = "batch.properties";
+  private static final String LOCK_FILE = "dispatcher.lock";
+  private static final String CONNECTION_FILE = "connection.json";
+  private static final String XMI_FILE = "model.xmi";
+  private static final String MONDRIAN_FILE = "schema.mondrian.xml";
+  private static final String ENCODING = "UTF-8";
+
+  private static final String SERVER_NAME = "server.name";
+  private static final String SERVER_URL = "server.url";
+  private static final String SERVER_USER_ID = "server.user_id";
+  private static final String SERVER_PASSWORD = "server.password";
+  private static final String MODEL_NAME = "model.name";
+  private static final String DSW = "model.dsw";
+  private static final String MONDRIAN_DATASOURCE = "mondrian.datasource";
+  private static final String CONNECTION_PASSWORD = "connection.password";
+  private static final String OVERRIDE = "override";
+  private static final String ACCESS_TYPE = "acl.access_type";
+  private static final String USER_OR_ROLE = "acl.user_or_role";
+  private static final String STATE_FILE = "state.file";
+  private static final String FINGERPRINT_PREFIX = "fingerprint.";
+  private static final String ENQUEUED = "enqueued";
+  private static final String ATTEMPTS = "attempts";
+  private static final String NEXT_ATTEMPT = "next_attempt";
+  private static final String ERROR = "error";
+  private static final String DEPENDS_ON = "depends_on";
+
+  private static PublishOutbox instance;
+
+  private final File directory;
+  private final DatasourcePublishService publishService;
+  private final LogChannelInterface log;
+  private final int maxAttempts;
+  private final long retryDelay;
+  private final long maxRetryDelay;
+  private final AtomicLong sequence;
+
+  private final AtomicLong delivered = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+  private final AtomicLong retries = new AtomicLong();
+  private final AtomicLong totalLatency = new AtomicLong();
+  private volatile long lastLatency;
+
+  private final Object signal = new Object();
+  private boolean signalled;
+  private Thread dispatcher;
+  private FileChannel lockChannel;
+  private FileLock lock;
+  private boolean lockReported;
+
+  /**
+   * @return shared outbox, its dispatcher started
+   */
+  public static synchronized PublishOutbox getInstance() {
+    if ( instance == null ) {
+      String directory = System.getProperty( DIRECTORY_PROPERTY );
+      if ( StringUtils.isBlank( directory ) ) {
+        directory = Const.getKettleDirectory() + Const.FILE_SEPARATOR + "data-refinery" + Const.FILE_SEPARATOR
+          + "publish-outbox";
+      }
+      LogChannelInterface log = new LogChannel( "Publish outbox" );
+      instance = new PublishOutbox( new File( directory ), new DatasourcePublishService( log ), log,
+        Const.toInt( System.getProperty( MAX_ATTEMPTS_PROPERTY ), DEFAULT_MAX_ATTEMPTS ),
+        Const.toInt( System.getProperty( RETRY_DELAY_PROPERTY ), DEFAULT_RETRY_DELAY ),
+        Const.toInt( System.getProperty( MAX_RETRY_DELAY_PROPERTY ), DEFAULT_MAX_RETRY_DELAY ) );
+      instance.start();
+      final PublishOutbox outbox = instance;
+      final long drainWait = Const.toInt( System.getProperty( DRAIN_WAIT_PROPERTY ), DEFAULT_DRAIN_WAIT );
+      Runtime.getRuntime().addShutdownHook( new Thread( new Runnable() {
+        @Override public void run() {
+          outbox.drain( drainWait );
+        }
+      }, "data-refinery-publish-outbox-drain" ) );
+    }
+    return instance;
+  }
+
+  public PublishOutbox( File directory, DatasourcePublishService publishService, LogChannelInterface log,
+                        int maxAttempts, long retryDelay, long maxRetryDelay ) {
+    this.directory = directory;
+    this.publishService = publishService;
+    this.log = log;
+    this.maxAttempts = Math.max( 1, maxAttempts );
+    this.retryDelay = Math.max( 1, retryDelay );
+    this.maxRetryDelay = Math.max( this.retryDelay, maxRetryDelay );
+    long last = 0;
+    for ( File batch : listBatches() ) {
+      last = Math.max( last, Const.toLong( StringUtils.removeEnd( batch.getName(), BATCH_EXTENSION ), 0 ) );
+    }
+    sequence = new AtomicLong( last );
+  }
+
+  /**
+   * Stores the batch in the outbox and wakes up the dispatcher.
+   *
+   * @return folder of the queued batch
+   */
+  public File enqueue( Batch batch ) throws IOException {
+    createDirectory();
+    // filled aside and renamed so the dispatcher never sees a partial batch
+    File temp = new File( directory, UUID.randomUUID().toString() + ".tmp" );
+    try {
+      if ( !temp.mkdir() ) {
+        throw new IOException( "Unable to create " + temp );
+      }
+      Properties properties = batch.toProperties();
+      if ( batch.connection != null ) {
+        // the password goes to the properties, encrypted like in job files
+        String password = batch.connection.getPassword();
+        try {
+          batch.connection.setPassword( null );
+          Writer writer = new OutputStreamWriter( new FileOutputStream( new File( temp, CONNECTION_FILE ) ), ENCODING );
+          try {
+            JAXBUtils.marshallToJson( batch.connection, writer );
+          } finally {
+            writer.close();
+          }
+        } catch ( IOException e ) {
+          throw e;
+        } catch ( Exception e ) {
+          throw new IOException( e.getMessage(), e );
+        } finally {
+          batch.connection.setPassword( password );
+        }
+        properties.setProperty( CONNECTION_PASSWORD,
+          Const.nullToEmpty( Encr.encryptPasswordIfNotUsingVariables( Const.nullToEmpty( password ) ) ) );
+      }
+      writePayload( new File( temp, XMI_FILE ), batch.xmi, batch.xmiFile );
+      if ( batch.mondrianDatasource != null ) {
+        writePayload( new File( temp, MONDRIAN_FILE ), batch.mondrianSchema, batch.mondrianSchemaFile );
+      }
+      long now = System.currentTimeMillis();
+      properties.setProperty( ENQUEUED, String.valueOf( now ) );
+      properties.setProperty( ATTEMPTS, "0" );
+      properties.setProperty( NEXT_ATTEMPT, String.valueOf( now ) );
+      storeProperties( temp, properties );
+
+      File target;
+      do {
+        target = new File( directory, String.format( "%019d", sequence.incrementAndGet() ) + BATCH_EXTENSION );
+      } while ( target.exists() );
+      if ( !temp.renameTo( target ) ) {
+        throw new IOException( "Unable to create " + target );
+      }
+      wakeUp();
+      return target;
+    } finally {
+      if ( temp.exists() ) {
+        FileUtils.deleteQuietly( temp );
+      }
+    }
+  }
+
+  /**
+   * Starts the dispatcher thread, unless already running.
+   */
+  public synchronized void start() {
+    if ( dispatcher != null ) {
+      return;
+    }
+    dispatcher = new Thread( new Runnable() {
+      @Override public void run() {
+        dispatchLoop();
+      }
+    }, "data-refinery-publish-outbox" );
+    dispatcher.setDaemon( true );
+    dispatcher.start();
+  }
+
+  /**
+   * Stops the dispatcher thread, queued batches stay in the outbox.
+   */
+  public synchronized void stop() {
+    if ( dispatcher != null ) {
+      dispatcher.interrupt();
+      dispatcher = null;
+    }
+    unlock();
+  }
+
+  /**
+   * Claims the outbox for the dispatcher of this process.
+   *
+   * @return true if this process holds the lock, false if another one does
+   */
+  synchronized boolean lock() {
+    if ( lock != null && lock.isValid() ) {
+      return true;
+    }
+    try {
+      createDirectory();
+      FileChannel channel = new RandomAccessFile( new File( directory, LOCK_FILE ), "rw" ).getChannel();
+      FileLock acquired;
+      try {
+        acquired = channel.tryLock();
+      } catch ( OverlappingFileLockException e ) {
+        // held by another outbox of this process
+        acquired = null;
+      }
+      if ( acquired == null ) {
+        channel.close();
+        return false;
+      }
+      lockChannel = channel;
+      lock = acquired;
+      return true;
+    } catch ( IOException e ) {
+      log.logError( e.getMessage(), e );
+      return false;
+    }
+  }
+
+  /**
+   * Lets another process dispatch the outbox.
+   */
+  synchronized void unlock() {
+    try {
+      if ( lock != null ) {
+        lock.release();
+      }
+      if ( lockChannel != null ) {
+        lockChannel.close();
+      }
+    } catch ( IOException e ) {
+      // released when the process exits anyway
+    } finally {
+      lock = null;
+      lockChannel = null;
+    }
+  }
+
+  /**
+   * Waits for the dispatcher of this process to deliver the queued batches, then logs the ones left.
+   *
+   * @param timeout longest ms to wait
+   * @return batches still queued
+   */
+  int drain( long timeout ) {
+    long deadline = System.currentTimeMillis() + timeout;
+    int depth = getQueueDepth();
+    try {
+      while ( depth > 0 && isDispatching() && System.currentTimeMillis() < deadline ) {
+        Thread.sleep( Math.min( 100, Math.max( 1, deadline - System.currentTimeMillis() ) ) );
+        depth = getQueueDepth();
+      }
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+    }
+    if ( depth > 0 ) {
+      log.logMinimal( getMsg( "PublishOutbox.Pending", String.valueOf( depth ), directory.getPath() ) );
+    }
+    return depth;
+  }
+
+  private synchronized boolean isDispatching() {
+    return dispatcher != null && lock != null && lock.isValid();
+  }
+
+  /**
+   * Creates the outbox folder if needed and keeps other users out, batches hold passwords.
+   */
+  private void createDirectory() throws IOException {
+    if ( !directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory() ) {
+      throw new IOException( "Unable to create " + directory );
+    }
+    directory.setReadable( false, false );
+    directory.setReadable( true, true );
+    directory.setWritable( false, false );
+    directory.setWritable( true, true );
+    directory.setExecutable( false, false );
+    directory.setExecutable( true, true );
+  }
+
+  private void dispatchLoop() {
+    while ( !Thread.currentThread().isInterrupted() ) {
+      long wait;
+      if ( !lock() ) {
+        if ( !lockReported ) {
+          log.logBasic( getMsg( "PublishOutbox.Locked", directory.getPath() ) );
+          lockReported = true;
+        }
+        wait = retryDelay;
+      } else {
+        try {
+          wait = dispatch( System.currentTimeMillis() );
+        } catch ( RuntimeException e ) {
+          log.logError( e.getMessage(), e );
+          wait = retryDelay;
+        }
+      }
+      synchronized ( signal ) {
+        try {
+          if ( !signalled ) {
+            signal.wait( wait );
+          }
+        } catch ( InterruptedException e ) {
+          return;
+        } finally {
+          signalled = false;
+        }
+      }
+    }
+  }
+
+  private void wakeUp() {
+    synchronized ( signal ) {
+      signalled = true;
+      signal.notifyAll();
+    }
+  }
+
+  /**
+   * Delivers the batches that are due, only the oldest batch of a model is considered.
+   *
+   * @return ms until the next retry is due, 0 if nothing is waiting for one
+   */
+  long dispatch( long now ) {
+    Set<String> blocked = new HashSet<String>();
+    long next = Long.MAX_VALUE;
+    for ( File batch : listBatches() ) {
+      Properties properties;
+      try {
+        properties = loadProperties( batch );
+      } catch ( IOException e ) {
+        // renamed in before its properties were written, or damaged
+        log.logError( getMsg( "PublishOutbox.Error.Batch", batch.getPath() ), e );
+        continue;
+      }
+      String key = properties.getProperty( SERVER_URL ) + "|" + properties.getProperty( MODEL_NAME );
+      if ( blocked.contains( key ) ) {
+        continue;
+      }
+      String dependsOn = properties.getProperty( DEPENDS_ON );
+      if ( dependsOn != null ) {
+        if ( new File( directory, dependsOn ).isDirectory() ) {
+          // still queued
+          blocked.add( key );
+          continue;
+        }
+        if ( new File( new File( directory, FAILED_FOLDER ), dependsOn ).isDirectory() ) {
+          giveUp( batch, properties,
+            new KettleException( getMsg( "PublishOutbox.Error.DependencyFailed", dependsOn ) ) );
+          continue;
+        }
+      }
+      long due = Const.toLong( properties.getProperty( NEXT_ATTEMPT ), 0 );
+      if ( due <= now ) {
+        due = deliver( batch, properties, now );
+      }
+      if ( due > 0 ) {
+        // later batches of the model wait for this one
+        blocked.add( key );
+        next = Math.min( next, due );
+      }
+    }
+    return next == Long.MAX_VALUE ? 0 : Math.max( 1, next - now );
+  }
+
+  /**
+   * @return time of the next attempt, or 0 if the batch is done with
+   */
+  private long deliver( File batch, Properties properties, long now ) {
+    String modelName = properties.getProperty( MODEL_NAME );
+    boolean forceOverride = Boolean.parseBoolean( properties.getProperty( OVERRIDE ) );
+    ModelServerPublish modelServerPublish = getModelServerPublish();
+    modelServerPublish.setBiServerConnection( getBiServerConnection( properties ) );
+    modelServerPublish.setAclModel( getAclModel( properties ) );
+    try {
+      // every artifact is removed once delivered, so a retry resumes with the first one missing
+      File connectionFile = new File( batch, CONNECTION_FILE );
+      if ( connectionFile.isFile() ) {
+        DatabaseConnection connection;
+        InputStream in = new FileInputStream( connectionFile );
+        try {
+          connection = JAXBUtils.unmarshalFromJson( in, DatabaseConnection.class );
+        } finally {
+          in.close();
+        }
+        connection.setPassword(
+          Encr.decryptPasswordOptionallyEncrypted( properties.getProperty( CONNECTION_PASSWORD ) ) );
+        publishService.publishDatabaseConnection( modelServerPublish, connection, forceOverride );
+        delete( connectionFile );
+      }
+      File xmiFile = new File( batch, XMI_FILE );
+      if ( xmiFile.isFile() ) {
+        if ( Boolean.parseBoolean( properties.getProperty( DSW ) ) ) {
+          publishService.publishDswXmiFile( modelName, xmiFile, modelServerPublish, forceOverride );
+        } else {
+          publishService.publishMetadataXmiFile( modelName, xmiFile, modelServerPublish, forceOverride );
+        }
+        delete( xmiFile );
+      }
+      File mondrianFile = new File( batch, MONDRIAN_FILE );
+      if ( mondrianFile.isFile() ) {
+        publishService.publishMondrianSchemaFile( modelName, mondrianFile,
+          properties.getProperty( MONDRIAN_DATASOURCE ), modelServerPublish, forceOverride );
+        delete( mondrianFile );
+      }
+    } catch ( Exception e ) {
+      int attempts = Const.toInt( properties.getProperty( ATTEMPTS ), 0 ) + 1;
+      properties.setProperty( ATTEMPTS, String.valueOf( attempts ) );
+      if ( attempts >= maxAttempts || ExceptionUtils.indexOfType( e, DuplicateDataSourceException.class ) >= 0 ) {
+        giveUp( batch, properties, e );
+        return 0;
+      }
+      long delay = getRetryDelay( attempts );
+      properties.setProperty( NEXT_ATTEMPT, String.valueOf( now + delay ) );
+      try {
+        storeProperties( batch, properties );
+      } catch ( IOException ioe ) {
+        // retried right away on the next pass then
+        log.logError( ioe.getMessage(), ioe );
+      }
+      retries.incrementAndGet();
+      log.logError( getMsg( "PublishOutbox.Error.Retry", modelName, String.valueOf( attempts ),
+        String.valueOf( delay ), e.getMessage() ) );
+      return now + delay;
+    }
+
+    recordFingerprints( properties, false );
+    long latency = System.currentTimeMillis() - Const.toLong( properties.getProperty( ENQUEUED ), now );
+    lastLatency = latency;
+    totalLatency.addAndGet( latency );
+    delivered.incrementAndGet();
+    FileUtils.deleteQuietly( batch );
+    log.logBasic( getMsg( "PublishOutbox.Delivered", modelName, String.valueOf( latency ) ) );
+    return 0;
+  }
+
+  private void giveUp( File batch, Properties properties, Exception cause ) {
+    failed.incrementAndGet();
+    // published content no longer matches the recorded state
+    recordFingerprints( properties, true );
+    properties.setProperty( ERROR, Const.nullToEmpty( cause.getMessage() ) );
+    File target = new File( new File( directory, FAILED_FOLDER ), batch.getName() );
+    try {
+      storeProperties( batch, properties );
+      FileUtils.moveDirectory( batch, target );
+    } catch ( IOException e ) {
+      log.logError( e.getMessage(), e );
+      FileUtils.deleteQuietly( batch );
+    }
+    log.logError( getMsg( "PublishOutbox.Error.GivenUp", properties.getProperty( MODEL_NAME ),
+      properties.getProperty( ATTEMPTS ), target.getPath(), cause.getMessage() ), cause );
+  }
+
+  long getRetryDelay( int attempts ) {
+    long delay = retryDelay;
+    for ( int i = 1; i < attempts && delay < maxRetryDelay; i++ ) {
+      delay *= 2;
+    }
+    return Math.min( delay, maxRetryDelay );
+  }
+
+  private void recordFingerprints( Properties properties, boolean forget ) {
+    String stateFile = properties.getProperty( STATE_FILE );
+    if ( StringUtils.isBlank( stateFile ) ) {
+      return;
+    }
+    Map<String, String> fingerprints = new LinkedHashMap<String, String>();
+    for ( String name : properties.stringPropertyNames() ) {
+      if ( name.startsWith( FINGERPRINT_PREFIX ) ) {
+        fingerprints.put( name.substring( FINGERPRINT_PREFIX.length() ),
+          forget ? null : properties.getProperty( name ) );
+      }
+    }
+    if ( fingerprints.isEmpty() ) {
+      return;
+    }
+    PublishStateStore stateStore = PublishStateStore.getInstance();
+    if ( !stateStore.getFile().getPath().equals( stateFile ) ) {
+      stateStore = new PublishStateStore( new File( stateFile ) );
+    }
+    try {
+      stateStore.putFingerprints( fingerprints );
+    } catch ( IOException e ) {
+      // next run will publish again, nothing else is affected
+      log.logError( getMsg( "JobEntryDatasourcePublish.Error.PublishState", stateFile ), e );
+    }
+  }
+
+  private BiServerConnection getBiServerConnection( Properties properties ) {
+    BiServerConnection connection = new BiServerConnection();
+    connection.setName( properties.getProperty( SERVER_NAME ) );
+    connection.setUrl( properties.getProperty( SERVER_URL ) );
+    connection.setUserId( properties.getProperty( SERVER_USER_ID ) );
+    connection.setPassword( Encr.decryptPasswordOptionallyEncrypted( properties.getProperty( SERVER_PASSWORD ) ) );
+    return connection;
+  }
+
+  private DataSourceAclModel getAclModel( Properties properties ) {
+    DataSourceAclModel aclModel = new DataSourceAclModel();
+    String accessType = properties.getProperty( ACCESS_TYPE );
+    if ( DataSourcePublishModel.ACCESS_TYPE_ROLE.equals( accessType ) ) {
+      aclModel.addRole( properties.getProperty( USER_OR_ROLE ) );
+    } else if ( DataSourcePublishModel.ACCESS_TYPE_USER.equals( accessType ) ) {
+      aclModel.addUser( properties.getProperty( USER_OR_ROLE ) );
+    }
+    return aclModel;
+  }
+
+  /**
+   * @return queued batch folders, oldest first
+   */
+  private File[] listBatches() {
+    File[] batches = directory.listFiles();
+    if ( batches == null ) {
+      return new File[0];
+    }
+    int count = 0;
+    for ( File batch : batches ) {
+      if ( batch.isDirectory() && batch.getName().endsWith( BATCH_EXTENSION ) ) {
+        batches[count++] = batch;
+      }
+    }
+    batches = Arrays.copyOf( batches, count );
+    Arrays.sort( batches );
+    return batches;
+  }
+
+  private void writePayload( File file, String payload, File payloadFile ) throws IOException {
+    if ( payloadFile != null ) {
+      // copied, spool files go away when the job that built the model finishes
+      FileUtils.copyFile( payloadFile, file );
+    } else if ( payload != null ) {
+      FileUtils.writeStringToFile( file, payload, ENCODING );
+    }
+  }
+
+  private void delete( File file ) throws IOException {
+    if ( !file.delete() && file.exists() ) {
+      throw new IOException( "Unable to delete " + file );
+    }
+  }
+
+  private Properties loadProperties( File batch ) throws IOException {
+    Properties properties = new Properties();
+    InputStream in = new FileInputStream( new File( batch, BATCH_FILE ) );
+    try {
+      properties.load( in );
+    } finally {
+      IOUtils.closeQuietly( in );
+    }
+    return properties;
+  }
+
+  private void storeProperties( File batch, Properties properties ) throws IOException {
+    // write aside and rename so a crash never leaves a partial file
+    File temp = File.createTempFile( "batch", ".tmp", batch );
+    try {
+      OutputStream out = new FileOutputStream( temp );
+      try {
+        properties.store( out, null );
+      } finally {
+        IOUtils.closeQuietly( out );
+      }
+      File file = new File( batch, BATCH_FILE );
+      if ( !temp.renameTo( file ) ) {
+        file.delete();
+        if ( !temp.renameTo( file ) ) {
+          throw new IOException( "Unable to write " + file );
+        }
+      }
+    } finally {
+      temp.delete();
+    }
+  }
+
+  // Allows dependency injection/mocks
+  protected ModelServerPublish getModelServerPublish() {
+    return new ModelServerPublish( log );
+  }
+
+  /**
+   * @return batches waiting to be delivered
+   */
+  public int getQueueDepth() {
+    return listBatches().length;
+  }
+
+  public long getDelivered() {
+    return delivered.get();
+  }
+
+  public long getFailed() {
+    return failed.get();
+  }
+
+  public long getRetries() {
+    return retries.get();
+  }
+
+  /**
+   * @return ms between queuing and delivery of the last batch delivered
+   */
+  public long getLastLatency() {
+    return lastLatency;
+  }
+
+  /**
+   * @return average ms between queuing and delivery of the batches delivered
+   */
+  public long getAverageLatency() {
+    long count = delivered.get();
+    return count == 0 ? 0 : totalLatency.get() / count;
+  }
+
+  public File getDirectory() {
+    return directory;
+  }
+
+  private String getMsg( String key, String... parameters ) {
+    return BaseMessages.getString( PKG, key, parameters );
+  }
+
+  /**
+   * Everything published for one model, as resolved by the job entry.
+   */
+  public static class Batch {
+
+    private final BiServerConnection server;
+    private final String modelName;
+    private boolean forceOverride;
+    private String accessType;
+    private String userOrRole;
+    private DatabaseConnection connection;
+    private boolean dsw;
+    private String xmi;
+    private File xmiFile;
+    private String mondrianDatasource;
+    private String mondrianSchema;
+    private File mondrianSchemaFile;
+    private File stateFile;
+    private String dependsOn;
+    private final Map<String, String> fingerprints = new LinkedHashMap<String, String>();
+
+    public Batch( BiServerConnection server, String modelName ) {
+      this.server = server;
+      this.modelName = modelName;
+    }
+
+    public void setForceOverride( boolean forceOverride ) {
+      this.forceOverride = forceOverride;
+    }
+
+    public void setAccess( String accessType, String userOrRole ) {
+      this.accessType = accessType;
+      this.userOrRole = userOrRole;
+    }
+
+    public void setDatabaseConnection( DatabaseConnection connection ) {
+      this.connection = connection;
+    }
+
+    public boolean hasDatabaseConnection() {
+      return connection != null;
+    }
+
+    /**
+     * @param batch queued batch that has to be delivered before this one
+     */
+    public void setDependsOn( File batch ) {
+      this.dependsOn = batch == null ? null : batch.getName();
+    }
+
+    /**
+     * @param xmiFile spooled XMI, takes precedence over the xmi string
+     */
+    public void setXmi( boolean dsw, String xmi, File xmiFile ) {
+      this.dsw = dsw;
+      this.xmi = xmi;
+      this.xmiFile = xmiFile;
+    }
+
+    /**
+     * @param schemaFile spooled schema, takes precedence over the schema string
+     */
+    public void setMondrianSchema( String datasource, String schema, File schemaFile ) {
+      this.mondrianDatasource = datasource;
+      this.mondrianSchema = schema;
+      this.mondrianSchemaFile = schemaFile;
+    }
+
+    /**
+     * Fingerprints recorded in the state file once the batch is delivered.
+     */
+    public void setFingerprints( File stateFile, Map<String, String> fingerprints ) {
+      this.stateFile = stateFile;
+      this.fingerprints.clear();
+      this.fingerprints.putAll( fingerprints );
+    }
+
+    public String getModelName() {
+      return modelName;
+    }
+
+    /**
+     * @return true if there is nothing to publish
+     */
+    public boolean isEmpty() {
+      return connection == null && xmi == null && xmiFile == null
+        && ( mondrianDatasource == null || mondrianSchema == null && mondrianSchemaFile == null );
+    }
+
+    private Properties toProperties() {
+      Properties properties = new Properties();
+      properties.setProperty( SERVER_NAME, Const.nullToEmpty( server.getName() ) );
+      properties.setProperty( SERVER_URL, Const.nullToEmpty( server.getUrl() ) );
+      properties.setProperty( SERVER_USER_ID, Const.nullToEmpty( server.getUserId() ) );
+      properties.setProperty( SERVER_PASSWORD,
+        Const.nullToEmpty( Encr.encryptPasswordIfNotUsingVariables( Const.nullToEmpty( server.getPassword() ) ) ) );
+      properties.setProperty( MODEL_NAME, modelName );
+      properties.setProperty( DSW, String.valueOf( dsw ) );
+      properties.setProperty( OVERRIDE, String.valueOf( forceOverride ) );
+      properties.setProperty( ACCESS_TYPE, Const.nullToEmpty( accessType ) );
+      properties.setProperty( USER_OR_ROLE, Const.nullToEmpty( userOrRole ) );
+      if ( mondrianDatasource != null ) {
+        properties.setProperty( MONDRIAN_DATASOURCE, mondrianDatasource );
+      }
+      if ( dependsOn != null ) {
+        properties.setProperty( DEPENDS_ON, dependsOn );
+      }
+      if ( stateFile != null ) {
+        properties.setProperty( STATE_FILE, stateFile.getPath() );
+        for ( Map.Entry<String, String> fingerprint : fingerprints.entrySet() ) {
+          if ( fingerprint.getValue() != null ) {
+            properties.setProperty( FINGERPRINT_PREFIX + fingerprint.getKey(), fingerprint.getValue() );
+          }
+        }
+      }
+      return properties;
+    }
+  }
+}
@@ -39,6 +39,7 @@ import org.eclipse.swt.widgets.Group;
 import org.eclipse.swt.widgets.Label;
 import org.eclipse.swt.widgets.Listener;
 import org.eclipse.swt.widgets.Shell;
+import org.eclipse.swt.widgets.TableItem;
 import org.eclipse.swt.widgets.Text;
 import org.pentaho.di.core.exception.KettleException;
 import static org.pentaho.di.core.refinery.UIBuilder.BUTTON_MIN_WIDTH;
@@ -47,14 +48,20 @@ import static org.pentaho.di.core.refinery.UIBuilder.DEFAULT_TEXT_SIZE_REGULAR;
 import static org.pentaho.di.core.refinery.UIBuilder.SHELL_MIN_WIDTH;
 import org.pentaho.di.job.JobMeta;
 import org.pentaho.di.job.entries.JobEntryDialogBoilerplate;
+import org.pentaho.di.job.entries.build.AdditionalModel;
 import org.pentaho.di.job.entries.build.JobEntryBuildModel;
 import org.pentaho.di.job.entry.JobEntryDialogInterface;
 import org.pentaho.di.job.entry.JobEntryInterface;
 import org.pentaho.di.repository.Repository;
 import org.pentaho.di.trans.util.TransUtil;
+import org.pentaho.di.ui.core.widget.ColumnInfo;
 import org.pentaho.di.ui.core.widget.ComboVar;
+import org.pentaho.di.ui.core.widget.TableView;
 import org.pentaho.di.ui.core.widget.TextVar;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class JobEntryBuildModelDialog extends JobEntryDialogBoilerplate<JobEntryBuildModel> implements
     JobEntryDialogInterface {
 
@@ -69,6 +76,7 @@ public class JobEntryBuildModelDialog extends JobEntryDialogBoilerplate<JobEntry
   private Label wlExistingModelExtra;
   private Button wSelectExistingModel;
   private Composite wExistingModel;
+  private TableView wAdditionalModels;
 
   private SelectModelDialog selectModelDialog;
 
@@ -126,7 +134,9 @@ public class JobEntryBuildModelDialog extends JobEntryDialogBoilerplate<JobEntry
     widgetAbove = addLabelInputPairBelow( wlModelName, wModelName, widgetAbove,
         DEFAULT_TEXT_SIZE_REGULAR + VAR_EXTRA_WIDTH );
 
-    addModelGroup( main, widgetAbove );
+    widgetAbove = addModelGroup( main, widgetAbove );
+
+    addAdditionalModels( main, widgetAbove, stepNames );
 
     // set a decent minimum
     final int minHeight = getMinHeight( shell );
@@ -159,6 +169,31 @@ public class JobEntryBuildModelDialog extends JobEntryDialogBoilerplate<JobEntry
     return gModelGroup;
   }
 
+  /**
+   * Models built along with the main one
+   */
+  private void addAdditionalModels( final Composite parent, Control widgetAbove, String[] stepNames ) {
+    Label wlAdditionalModels = new Label( parent, SWT.LEFT );
+    wlAdditionalModels.setText( getMsg( "BuildModelJob.AdditionalModels" ) );
+    widgetAbove = addLabelBelow( wlAdditionalModels, widgetAbove );
+
+    ColumnInfo[] columns = new ColumnInfo[] {
+      new ColumnInfo( getMsg( "BuildModelJob.AdditionalModels.OutputStep" ), ColumnInfo.COLUMN_TYPE_CCOMBO,
+          stepNames, false ),
+      new ColumnInfo( getMsg( "BuildModelJob.AdditionalModels.ModelName" ), ColumnInfo.COLUMN_TYPE_TEXT, false )
+    };
+    columns[0].setUsingVariables( true );
+    columns[1].setUsingVariables( true );
+    wAdditionalModels = new TableView( jobMeta, parent, SWT.BORDER | SWT.FULL_SELECTION | SWT.MULTI | SWT.V_SCROLL
+        | SWT.H_SCROLL, columns, 1, lsMod, props );
+    FormData fData = new FormData();
+    fData.top = new FormAttachment( widgetAbove, DEFAULT_LABEL_INPUT_MARGIN );
+    fData.left = new FormAttachment( 0 );
+    fData.right = new FormAttachment( 100 );
+    fData.height = 100;
+    wAdditionalModels.setLayoutData( fData );
+  }
+
   private Control addExistingModelControl( Composite parent, Control widgetAbove ) {
     wExistingModel = new ExistingModelControl( parent, SWT.NULL );
     wExistingModel.setLayout( new FormLayout() );
@@ -273,6 +308,16 @@ public class JobEntryBuildModelDialog extends JobEntryDialogBoilerplate<JobEntry
     wUseAutoModel.setSelection( !jobEntry.useExistingModel() );
     wExistingModel.setEnabled( jobEntry.useExistingModel() );
     updateExistingModel( jobEntry );
+
+    wAdditionalModels.table.removeAll();
+    for ( AdditionalModel additionalModel : jobEntry.getAdditionalModels() ) {
+      TableItem item = new TableItem( wAdditionalModels.table, SWT.NONE );
+      item.setText( 1, StringUtils.defaultString( additionalModel.getOutputStep() ) );
+      item.setText( 2, StringUtils.defaultString( additionalModel.getModelName() ) );
+    }
+    wAdditionalModels.removeEmptyRows();
+    wAdditionalModels.setRowNums();
+    wAdditionalModels.optWidth( true );
   }
 
   @Override
@@ -282,6 +327,13 @@ public class JobEntryBuildModelDialog extends JobEntryDialogBoilerplate<JobEntry
     jobEntry.setModelName( wModelName.getText() );
     jobEntry.setUseExistingModel( wUseExistingModel.getSelection() );
     jobEntry.setExistingModel( wExistingModelName.getText() );
+
+    List<AdditionalModel> additionalModels = new ArrayList<AdditionalModel>();
+    for ( int i = 0; i < wAdditionalModels.nrNonEmpty(); i++ ) {
+      TableItem item = wAdditionalModels.getNonEmpty( i );
+      additionalModels.add( new AdditionalModel( item.getText( 1 ), item.getText( 2 ) ) );
+    }
+    jobEntry.setAdditionalModels( additionalModels );
   }
 
   @Override
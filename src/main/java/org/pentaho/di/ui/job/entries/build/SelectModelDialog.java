@@ -41,6 +41,7 @@ import org.eclipse.swt.widgets.Label;
 import org.eclipse.swt.widgets.Listener;
 import org.eclipse.swt.widgets.Shell;
 import org.pentaho.di.core.Const;
+import org.pentaho.di.core.refinery.model.DatasourceCatalog;
 import org.pentaho.di.core.refinery.model.ModelServerFetcher;
 import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
 import org.pentaho.di.job.JobMeta;
@@ -54,7 +55,7 @@ import org.pentaho.di.ui.core.widget.ComboVar;
 import org.pentaho.di.ui.job.entries.common.ConnectionValidator;
 import org.pentaho.di.ui.job.entries.common.ServerConnectionGroupWrapper;
 
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.regex.Pattern;
 
@@ -98,9 +99,13 @@ public class SelectModelDialog extends JobEntryDialogBoilerplate<JobEntryBuildMo
 
         ModelServerFetcher fetcher = new ModelServerFetcher( biServerConnection );
         try {
-          List<String> datasourceList = fetcher.fetchDswList();
-          datasourceList.addAll( fetcher.fetchAnalysisList() );
-          Collections.sort( datasourceList );
+          List<String> datasourceList;
+          DatasourceCatalog catalog = DatasourceCatalog.getInstance();
+          if ( catalog != null ) {
+            datasourceList = new ArrayList<String>( catalog.getMirror( fetcher ).getIds() );
+          } else {
+            datasourceList = new ArrayList<String>( fetcher.fetchAllDatasourceIds() );
+          }
           String prevSelection = wChooseModel.getText();
           wChooseModel.removeAll();
           for ( String datasource : datasourceList ) {
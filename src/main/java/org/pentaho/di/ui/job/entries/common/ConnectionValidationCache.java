@@ -0,0 +1,153 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2017 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.ui.job.entries.common;
+
+import org.apache.commons.lang.StringUtils;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
+import org.pentaho.di.core.refinery.publish.util.Fingerprint;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Process-wide cache of runtime connection validation results, so a job with several build/publish entries against
+ * the same BA server only validates once. Entries are keyed by server url, user and a hash of the password; failures
+ * are remembered too, for a shorter time. TTLs can be tuned with the following system properties (or
+ * kettle.properties entries), a value of 0 disables caching:
+ * <ul>
+ *   <li>{@value #TTL_PROPERTY} - ms a successful validation is reused (default {@value #DEFAULT_TTL})</li>
+ *   <li>{@value #NEGATIVE_TTL_PROPERTY} - ms a failed validation is reused (default {@value #DEFAULT_NEGATIVE_TTL})</li>
+ * </ul>
+ */
+public class ConnectionValidationCache {
+
+  public static final String TTL_PROPERTY = "KETTLE_DATA_REFINERY_CONNECTION_VALIDATION_TTL";
+  public static final String NEGATIVE_TTL_PROPERTY = "KETTLE_DATA_REFINERY_CONNECTION_VALIDATION_NEGATIVE_TTL";
+
+  public static final int DEFAULT_TTL = 300000;
+  public static final int DEFAULT_NEGATIVE_TTL = 30000;
+
+  private static ConnectionValidationCache instance;
+
+  private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+  private final long ttl;
+  private final long negativeTtl;
+
+  public static synchronized ConnectionValidationCache getInstance() {
+    if ( instance == null ) {
+      instance = new ConnectionValidationCache(
+          Const.toInt( System.getProperty( TTL_PROPERTY ), DEFAULT_TTL ),
+          Const.toInt( System.getProperty( NEGATIVE_TTL_PROPERTY ), DEFAULT_NEGATIVE_TTL ) );
+    }
+    return instance;
+  }
+
+  ConnectionValidationCache( long ttl, long negativeTtl ) {
+    this.ttl = ttl;
+    this.negativeTtl = negativeTtl;
+  }
+
+  /**
+   * @return cached result, or null if the connection has not been validated recently
+   */
+  public Entry get( final BiServerConnection connection ) {
+    String key = getKey( connection );
+    if ( key == null ) {
+      return null;
+    }
+    Entry entry = entries.get( key );
+    if ( entry == null ) {
+      return null;
+    }
+    if ( entry.expires <= currentTimeMillis() ) {
+      entries.remove( key, entry );
+      return null;
+    }
+    return entry;
+  }
+
+  public void putValid( final BiServerConnection connection ) {
+    put( connection, null, ttl );
+  }
+
+  public void putInvalid( final BiServerConnection connection, final String errorMessage ) {
+    put( connection, errorMessage, negativeTtl );
+  }
+
+  public void invalidate( final BiServerConnection connection ) {
+    String key = getKey( connection );
+    if ( key != null ) {
+      entries.remove( key );
+    }
+  }
+
+  public void clear() {
+    entries.clear();
+  }
+
+  private void put( final BiServerConnection connection, final String errorMessage, final long timeToLive ) {
+    String key = getKey( connection );
+    if ( key == null || timeToLive <= 0 ) {
+      return;
+    }
+    entries.put( key, new Entry( errorMessage, currentTimeMillis() + timeToLive ) );
+  }
+
+  /**
+   * @return cache key, or null for connections that cannot be validated against a server
+   */
+  static String getKey( final BiServerConnection connection ) {
+    if ( connection == null || StringUtils.isBlank( connection.getUrl() ) ) {
+      return null;
+    }
+    return connection.getUrl() + '\u0000' + connection.getUserId() + '\u0000'
+      + new Fingerprint().add( connection.getPassword() ).getValue();
+  }
+
+  protected long currentTimeMillis() {
+    return System.currentTimeMillis();
+  }
+
+  /**
+   * Outcome of a validation, valid if there is no error message.
+   */
+  public static class Entry {
+
+    private final String errorMessage;
+    private final long expires;
+
+    Entry( String errorMessage, long expires ) {
+      this.errorMessage = errorMessage;
+      this.expires = expires;
+    }
+
+    public boolean isValid() {
+      return errorMessage == null;
+    }
+
+    public String getErrorMessage() {
+      return errorMessage;
+    }
+  }
+}
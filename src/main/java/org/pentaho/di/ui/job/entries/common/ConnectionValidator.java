@@ -27,10 +27,18 @@ import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.gui.SpoonFactory;
 import org.pentaho.di.core.gui.SpoonInterface;
 import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
+import org.pentaho.di.core.refinery.publish.model.PermissionSnapshot;
 import org.pentaho.di.core.refinery.publish.util.PublishRestUtil;
 import org.pentaho.di.i18n.BaseMessages;
 import org.pentaho.di.job.entries.publish.JobEntryDatasourcePublish;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Logger;
 
 /**
@@ -41,42 +49,94 @@ public class ConnectionValidator {
   private static final Class<JobEntryDatasourcePublish> PKG = JobEntryDatasourcePublish.class;
   private static final Logger logger = Logger.getLogger( PKG.getName() );
 
+  /**
+   * Permissions a user needs to publish data sources
+   */
+  public static final Set<String> REQUIRED_ACTIONS = Collections.unmodifiableSet( new LinkedHashSet<String>(
+      Arrays.asList( PublishRestUtil.PUBLISH_ACTION, PublishRestUtil.MANAGE_DATASOURCES_ACTION ) ) );
+
+  /**
+   * Extension data key of the permission snapshots kept for a job run
+   */
+  public static final String KEY_PERMISSIONS = "ConnectionValidator.Permissions";
+
   private boolean suppressSuccessMessage;
   private PublishRestUtil publishRestUtil;
   private BiServerConnection connection;
+  private ConnectionValidationCache validationCache;
+  private ConcurrentMap<String, PermissionSnapshot> permissionMemo;
+  private Boolean pentahoServer;
+  private PermissionSnapshot permissions;
 
   public ConnectionValidator() {
     this.publishRestUtil = new PublishRestUtil(); // default
+    this.validationCache = ConnectionValidationCache.getInstance();
   }
 
+  /**
+   * Validates the connection, reusing a recent result for the same server, user and password if there is one.
+   */
   public void validateConnectionInRuntime() throws KettleException {
-    // check server
-    if ( !this.isPentahoServer() ) {
-      throw new KettleException( this.getMsg( "JobEntryDatasourcePublish.Test.InvalidPentahoServerMsgRuntime" ) );
+    ConnectionValidationCache.Entry cached = validationCache.get( this.connection );
+    if ( cached != null ) {
+      if ( !cached.isValid() ) {
+        throw new KettleException( cached.getErrorMessage() );
+      }
+      return;
     }
 
-    // check login info
-    if ( !this.isUserInfoProvided() ) {
-      throw new KettleException( this.getMsg( "JobEntryDatasourcePublish.Test.MissingUserMsg" ) );
+    String errorMessage = checkConnectionInRuntime();
+    if ( errorMessage != null ) {
+      validationCache.putInvalid( this.connection, errorMessage );
+      throw new KettleException( errorMessage );
     }
+    validationCache.putValid( this.connection );
+  }
 
-    boolean isAuthenticated = !publishRestUtil.isUnauthenticatedUser( this.connection );
-    if ( !isAuthenticated ) {
-      throw new KettleException( this.getMsg( "JobEntryDatasourcePublish.Test.UsernamePasswordFailMsg" ) );
-    }
+  /**
+   * @return error message, or null if the connection is valid
+   */
+  private String checkConnectionInRuntime() {
+    pentahoServer = null;
+    permissions = null;
+    try {
+      // check server
+      if ( !this.isPentahoServer() ) {
+        return this.getMsg( "JobEntryDatasourcePublish.Test.InvalidPentahoServerMsgRuntime" );
+      }
+      pentahoServer = Boolean.TRUE;
 
-    // test permissions
-    if ( !this.canConnect() ) {
-      if ( publishRestUtil.getLastHTTPStatus() == 404 ) {
-        throw new KettleException( this.getMsg( "JobEntryDatasourcePublish.Test.BadURLMsg" ) );
-      } else {
-        throw new KettleException( this.getMsg( "JobEntryDatasourcePublish.Test.PermissionsErrorMsg" ) );
+      // check login info
+      if ( !this.isUserInfoProvided() ) {
+        return this.getMsg( "JobEntryDatasourcePublish.Test.MissingUserMsg" );
+      }
+
+      // log in first, a wrong password would otherwise fail once more per permission probe
+      boolean isAuthenticated = !publishRestUtil.isUnauthenticatedUser( this.connection );
+      if ( !isAuthenticated ) {
+        return this.getMsg( "JobEntryDatasourcePublish.Test.UsernamePasswordFailMsg" );
+      }
+
+      // test permissions, PublishRestUtil probes them in parallel
+      if ( !this.canConnect() ) {
+        if ( isNotFound() ) {
+          return this.getMsg( "JobEntryDatasourcePublish.Test.BadURLMsg" );
+        } else {
+          return this.getMsg( "JobEntryDatasourcePublish.Test.PermissionsErrorMsg" );
+        }
       }
+      return null;
+    } finally {
+      pentahoServer = null;
     }
   }
 
   public boolean validateConnectionInDesignTime() {
 
+    // an explicit test always goes to the server, and later runs should see its outcome too
+    validationCache.invalidate( this.connection );
+    permissions = null;
+
     // check server
     if ( !this.isPentahoServer() ) {
       this.showError(
@@ -115,7 +175,7 @@ public class ConnectionValidator {
       return true; // valid
 
     } else {
-      if ( publishRestUtil.getLastHTTPStatus() == 404 ) {
+      if ( isNotFound() ) {
         this.showError(
             getMsg( "JobEntryDatasourcePublish.Test.BadURL" ),
             getMsg( "JobEntryDatasourcePublish.Test.BadURLMsg" ) );
@@ -138,6 +198,10 @@ public class ConnectionValidator {
   }
 
   public boolean isPentahoServer() {
+    // already checked during this runtime validation, don't fetch webcontext.js again
+    if ( pentahoServer != null ) {
+      return pentahoServer;
+    }
     try {
       return isBiServerConnectionProvided() && publishRestUtil.isPentahoServer( this.connection );
     } catch ( Exception e ) {
@@ -152,17 +216,54 @@ public class ConnectionValidator {
       return false;
     }
 
-    boolean canPublish = publishRestUtil.canPublish( this.connection );
-    if ( !canPublish ) {
-      return false;
+    permissions = getPermissions();
+    return permissions != null && permissions.isAuthorized();
+  }
+
+  /**
+   * Probes the {@link #REQUIRED_ACTIONS} in one batch. When running inside a job the snapshot is kept for the rest
+   * of the job run, so other entries using the same server and user do not probe again. Snapshots with a probe that
+   * got no answer are not kept.
+   */
+  public PermissionSnapshot getPermissions() {
+    String key = ConnectionValidationCache.getKey( this.connection );
+    if ( key == null || permissionMemo == null ) {
+      return publishRestUtil.getPermissions( this.connection, REQUIRED_ACTIONS );
+    }
+    PermissionSnapshot snapshot = permissionMemo.get( key );
+    if ( snapshot != null ) {
+      return snapshot;
     }
+    snapshot = publishRestUtil.getPermissions( this.connection, REQUIRED_ACTIONS );
+    if ( snapshot != null && snapshot.isComplete() ) {
+      permissionMemo.put( key, snapshot );
+    }
+    return snapshot;
+  }
 
-    boolean canManageDatasources = publishRestUtil.canManageDatasources( this.connection );
-    if ( !canManageDatasources ) {
-      return false;
+  /**
+   * Returns the permission snapshots of a job run, adding them to its extension data on first use. The extension data
+   * is a plain map, call this from the job thread before starting workers and hand them the result.
+   *
+   * @param jobExtensionDataMap extension data of the running job
+   * @return snapshots by server, user and password
+   */
+  @SuppressWarnings( "unchecked" )
+  public static ConcurrentMap<String, PermissionSnapshot> getPermissionMemo( Map<String, Object> jobExtensionDataMap ) {
+    Object memo = jobExtensionDataMap.get( KEY_PERMISSIONS );
+    if ( !( memo instanceof ConcurrentMap ) ) {
+      memo = new ConcurrentHashMap<String, PermissionSnapshot>();
+      jobExtensionDataMap.put( KEY_PERMISSIONS, memo );
     }
+    return (ConcurrentMap<String, PermissionSnapshot>) memo;
+  }
 
-    return true;
+  private boolean isNotFound() {
+    String denied = permissions != null ? permissions.getFirstDenied() : null;
+    if ( denied != null ) {
+      return permissions.getStatus( denied ) == 404;
+    }
+    return publishRestUtil.getLastHTTPStatus() == 404;
   }
 
   public void showInfo( String title, String message ) {
@@ -187,6 +288,25 @@ public class ConnectionValidator {
     this.publishRestUtil = publishRestUtil;
   }
 
+  public void setValidationCache( ConnectionValidationCache validationCache ) {
+    this.validationCache = validationCache;
+  }
+
+  /**
+   * @param jobExtensionDataMap extension data of the running job, used to share permission checks during the run
+   * @see #getPermissionMemo(Map)
+   */
+  public void setJobExtensionDataMap( Map<String, Object> jobExtensionDataMap ) {
+    this.permissionMemo = jobExtensionDataMap == null ? null : getPermissionMemo( jobExtensionDataMap );
+  }
+
+  /**
+   * @param permissionMemo permission snapshots shared during the job run
+   */
+  public void setPermissionMemo( ConcurrentMap<String, PermissionSnapshot> permissionMemo ) {
+    this.permissionMemo = permissionMemo;
+  }
+
   protected SpoonInterface getSpoon() {
     return SpoonFactory.getInstance();
   }
@@ -48,7 +48,6 @@ import static org.pentaho.di.core.refinery.UIBuilder.positionControlBelow;
 import static org.pentaho.di.core.refinery.UIBuilder.positionLabelInputPairBelow;
 import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
 import org.pentaho.di.core.refinery.publish.model.DataSourcePublishModel;
-import org.pentaho.di.core.refinery.publish.util.ObjectUtils;
 import org.pentaho.di.job.JobMeta;
 import org.pentaho.di.job.entries.JobEntryDialogBoilerplate;
 import org.pentaho.di.job.entries.publish.JobEntryDatasourcePublish;
@@ -73,6 +72,9 @@ public class JobEntryDatasourcePublishDialog extends JobEntryDialogBoilerplate<J
   private JobEntryDatasourcePublish jobEntry;
   private DataSourcePublishModel model;
   private Button bForceOverwrite;
+  private Button bOnlyIfChanged;
+  private Button bPublishAllModels;
+  private Button bPublishAsync;
   private ServerConnectionGroupWrapper serverConnectionGroupWrapper;
   private ComboVar wAccessType;
   private TextVar wUserOrRoleAcl;
@@ -107,6 +109,30 @@ public class JobEntryDatasourcePublishDialog extends JobEntryDialogBoilerplate<J
 
     positionControlBelow( bForceOverwrite, null, 0 );
 
+    // Skip unchanged content flag
+    bOnlyIfChanged = new Button( composite, SWT.CHECK );
+    bOnlyIfChanged.setToolTipText( getMsg( "JobEntryDatasourcePublish.OnlyIfChanged.Tooltip" ) );
+    bOnlyIfChanged.setText( getMsg( "JobEntryDatasourcePublish.OnlyIfChanged.Label" ) );
+    props.setLook( bOnlyIfChanged );
+
+    positionControlBelow( bOnlyIfChanged, bForceOverwrite, DEFAULT_CONTROLS_TOP_MARGIN );
+
+    // Publish every model built by the job
+    bPublishAllModels = new Button( composite, SWT.CHECK );
+    bPublishAllModels.setToolTipText( getMsg( "JobEntryDatasourcePublish.PublishAllModels.Tooltip" ) );
+    bPublishAllModels.setText( getMsg( "JobEntryDatasourcePublish.PublishAllModels.Label" ) );
+    props.setLook( bPublishAllModels );
+
+    positionControlBelow( bPublishAllModels, bOnlyIfChanged, DEFAULT_CONTROLS_TOP_MARGIN );
+
+    // Queue for background delivery
+    bPublishAsync = new Button( composite, SWT.CHECK );
+    bPublishAsync.setToolTipText( getMsg( "JobEntryDatasourcePublish.PublishAsync.Tooltip" ) );
+    bPublishAsync.setText( getMsg( "JobEntryDatasourcePublish.PublishAsync.Label" ) );
+    props.setLook( bPublishAsync );
+
+    positionControlBelow( bPublishAsync, bPublishAllModels, DEFAULT_CONTROLS_TOP_MARGIN );
+
     return composite;
   }
 
@@ -213,6 +239,9 @@ public class JobEntryDatasourcePublishDialog extends JobEntryDialogBoilerplate<J
     }
 
     this.bForceOverwrite.setSelection( this.model.isOverride() );
+    this.bOnlyIfChanged.setSelection( this.model.isPublishOnlyIfChanged() );
+    this.bPublishAllModels.setSelection( this.model.isPublishAllModels() );
+    this.bPublishAsync.setSelection( this.model.isPublishAsync() );
     if ( this.model.getUserOrRole() != null ) {
       this.wUserOrRoleAcl.setText( this.model.getUserOrRole() );
     }
@@ -242,7 +271,7 @@ public class JobEntryDatasourcePublishDialog extends JobEntryDialogBoilerplate<J
 
     this.model = getDataSourcePublishModel( false ); // save variables, not actual values
 
-    DataSourcePublishModel copy = ObjectUtils.deepClone( this.model );
+    DataSourcePublishModel copy = new DataSourcePublishModel( this.model );
     copy.setModelName( "" );
 
     jobEntry.setDataSourcePublishModel( copy );
@@ -253,6 +282,9 @@ public class JobEntryDatasourcePublishDialog extends JobEntryDialogBoilerplate<J
     DataSourcePublishModel dataSourcePublishModel = new DataSourcePublishModel();
 
     dataSourcePublishModel.setOverride( bForceOverwrite.getSelection() );
+    dataSourcePublishModel.setPublishOnlyIfChanged( bOnlyIfChanged.getSelection() );
+    dataSourcePublishModel.setPublishAllModels( bPublishAllModels.getSelection() );
+    dataSourcePublishModel.setPublishAsync( bPublishAsync.getSelection() );
 
     if ( resolveVariables ) {
       dataSourcePublishModel.setAccessType( getAccessTypeCodeFromDescription(
@@ -64,6 +64,7 @@ import org.pentaho.di.core.variables.Variables;
 import org.pentaho.di.job.Job;
 import org.pentaho.di.job.JobHopMeta;
 import org.pentaho.di.job.JobMeta;
+import org.pentaho.di.job.entries.build.AdditionalModel;
 import org.pentaho.di.job.entries.build.JobEntryBuildModel;
 import org.pentaho.di.job.entries.special.JobEntrySpecial;
 import org.pentaho.di.job.entries.trans.JobEntryTrans;
@@ -81,6 +82,7 @@ import org.pentaho.metastore.api.IMetaStore;
 import org.pentaho.metastore.stores.memory.MemoryMetaStore;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 
@@ -405,6 +407,32 @@ public class DataRefineryTransFinishListenerTest {
         "\\s*Unable to auto-model because more than one step with the same name was found: cosmic output\\s*" ) );
   }
 
+  @Test
+  public void testAdditionalModelStepsAreInExtensionMap() throws Exception {
+    DataRefineryTransFinishListener listener = new DataRefineryTransFinishListener();
+    StepMetaDataCombi salesOutput = new StepMetaDataCombi();
+    salesOutput.stepname = "sales output";
+    StepMetaDataCombi customerOutput = new StepMetaDataCombi();
+    customerOutput.stepname = "customer output";
+    Trans trans = mock( Trans.class );
+    Job job = mock( Job.class );
+    JobMeta meta = new JobMeta();
+    addModelEntry( meta, "build models", "sales output" );
+    JobEntryBuildModel jeBuildModel = (JobEntryBuildModel) meta.getJobEntry( 0 ).getEntry();
+    jeBuildModel.setAdditionalModels( Arrays.asList( new AdditionalModel( "${customer}", "customers" ) ) );
+    when( job.getJobMeta() ).thenReturn( meta );
+    when( job.environmentSubstitute( "sales output" ) ).thenReturn( "sales output" );
+    when( job.environmentSubstitute( "${customer}" ) ).thenReturn( "customer output" );
+    HashMap<String, Object> actualMap = new HashMap<String, Object>();
+    when( job.getExtensionDataMap() ).thenReturn( actualMap );
+    when( trans.getSteps() ).thenReturn( Arrays.asList( salesOutput, customerOutput ) );
+
+    listener.setBuildModelOutputStep( job, trans );
+    assertEquals( 2, actualMap.size() );
+    assertEquals( salesOutput, actualMap.get( "JobEntryBuildModel.OutputStep.build models" ) );
+    assertEquals( customerOutput, actualMap.get( "JobEntryBuildModel.OutputStep.build models/customer output" ) );
+  }
+
   private void addModelEntry(
       final JobMeta meta, final String modelStepName, final String outputStepName ) {
     final JobEntryCopy copy = new JobEntryCopy();
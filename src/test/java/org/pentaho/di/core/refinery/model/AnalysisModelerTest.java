@@ -27,18 +27,30 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.pentaho.di.core.ProvidesDatabaseConnectionInformation;
+import org.pentaho.di.core.database.DatabaseMeta;
 import org.pentaho.di.core.exception.KettleDatabaseException;
 import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.logging.LoggingObjectInterface;
+import org.pentaho.di.core.row.RowMeta;
 import org.pentaho.di.core.row.ValueMetaInterface;
 import org.pentaho.di.core.row.value.ValueMetaBase;
 import org.pentaho.di.job.entries.build.JobEntryBuildModel;
 import org.pentaho.di.job.entry.JobEntryBase;
+import org.pentaho.di.trans.step.StepMetaDataCombi;
+import org.pentaho.di.trans.steps.tableoutput.TableOutputData;
+import org.pentaho.di.trans.steps.tableoutput.TableOutputMeta;
 
 import java.util.Arrays;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.pentaho.di.core.row.ValueMetaInterface.*;
 import static org.pentaho.di.i18n.BaseMessages.getString;
@@ -61,6 +73,15 @@ public class AnalysisModelerTest {
     assertEquals( expectedSchema.replaceAll( "\r", "" ), newSchema.replaceAll( "\r", "" ) );
   }
 
+  @Test
+  public void testNamesWithMarkupAreEscaped() throws Exception {
+    when( connectionInfo.getTableName() ).thenReturn( "new<Table>" );
+    String schema = IOUtils.toString( getClass().getResourceAsStream( "resources/testAnalysisSchema.xml" ) );
+    String newSchema = getAnalysisModeler().replaceTableAndSchemaNames( schema, "\"Sales\" & <Returns>" );
+    assertTrue( newSchema.contains( "<Schema name=\"&quot;Sales&quot; &amp; &lt;Returns&gt;\">" ) );
+    assertTrue( newSchema.contains( "<Table name=\"new&lt;Table&gt;\"/>" ) );
+  }
+
   @Test
   public void testSchemaWithMultipleTableNamesIsInvalid() throws Exception {
     String schema = IOUtils.toString( getClass().getResourceAsStream( "resources/multiTableAnalysisSchema.xml" ) );
@@ -121,6 +142,98 @@ public class AnalysisModelerTest {
     }
   }
 
+  @Test
+  public void testCaseInsensitiveColumns() throws Exception {
+    String schema = IOUtils.toString( getClass().getResourceAsStream( "resources/testAnalysisSchema.xml" ) );
+    AnalysisModeler modeler = new AnalysisModeler( new JobEntryBase(), connectionInfo ) {
+      @Override List<ValueMetaInterface> getFieldsInDatabase() throws KettleDatabaseException {
+        List<ValueMetaInterface> fields = getAnalysisModeler().getFieldsInDatabase();
+        for ( ValueMetaInterface field : fields ) {
+          field.setName( field.getName().toLowerCase() );
+        }
+        return fields;
+      }
+    };
+    modeler.setCaseInsensitive( false );
+    try {
+      modeler.replaceTableAndSchemaNames( schema, "newModel" );
+      Assert.fail( "should have thrown exception" );
+    } catch ( KettleException e ) {
+      assertTrue( e.getMessage().contains( "TERRITORY" ) );
+    }
+    modeler.setCaseInsensitive( true );
+    String expectedSchema = IOUtils.toString( getClass().getResourceAsStream( "resources/newTableAnalysisSchema.xml" ) );
+    String newSchema = modeler.replaceTableAndSchemaNames( schema, "newModel" );
+    assertEquals( expectedSchema.replaceAll( "\r", "" ), newSchema.replaceAll( "\r", "" ) );
+  }
+
+  @Test
+  public void testFieldsFromOutputStep() throws Exception {
+    String schema = IOUtils.toString( getClass().getResourceAsStream( "resources/testAnalysisSchema.xml" ) );
+    RowMeta rowMeta = new RowMeta();
+    rowMeta.setValueMetaList( getAnalysisModeler().getFieldsInDatabase() );
+    StepMetaDataCombi outputStep = new StepMetaDataCombi();
+    outputStep.meta = new TableOutputMeta();
+    outputStep.data = new TableOutputData();
+    ( (TableOutputData) outputStep.data ).insertRowMeta = rowMeta;
+    final TableMetadataCache cache = mock( TableMetadataCache.class );
+    AnalysisModeler modeler = new AnalysisModeler( new JobEntryBase(), connectionInfo, outputStep ) {
+      @Override protected TableMetadataCache getTableMetadataCache() {
+        return cache;
+      }
+    };
+
+    modeler.replaceTableAndSchemaNames( schema, "newModel" );
+    verify( cache, never() ).getTableFields(
+      any( LoggingObjectInterface.class ), any( DatabaseMeta.class ), anyString(), anyString() );
+
+    // columns the step does not load are looked up in the database
+    RowMeta tableFields = (RowMeta) rowMeta.clone();
+    rowMeta.removeValueMeta( "SALES" );
+    when( cache.getTableFields(
+      any( LoggingObjectInterface.class ), any( DatabaseMeta.class ), anyString(), anyString() ) )
+      .thenReturn( tableFields );
+    modeler.replaceTableAndSchemaNames( schema, "newModel" );
+    verify( cache ).getTableFields(
+      any( LoggingObjectInterface.class ), any( DatabaseMeta.class ), anyString(), eq( "newTable" ) );
+  }
+
+  @Test
+  public void testStreamTypesRecheckedInDatabase() throws Exception {
+    String schema = IOUtils.toString( getClass().getResourceAsStream( "resources/testAnalysisSchema.xml" ) );
+    RowMeta rowMeta = new RowMeta();
+    rowMeta.setValueMetaList( getAnalysisModeler().getFieldsInDatabase() );
+    RowMeta tableFields = (RowMeta) rowMeta.clone();
+    // the step writes a string the database stores as a number
+    rowMeta.setValueMeta( rowMeta.indexOfValue( "ORDERNUMBER" ), valueMeta( "ORDERNUMBER", TYPE_STRING ) );
+    StepMetaDataCombi outputStep = new StepMetaDataCombi();
+    outputStep.meta = new TableOutputMeta();
+    outputStep.data = new TableOutputData();
+    ( (TableOutputData) outputStep.data ).insertRowMeta = rowMeta;
+    final TableMetadataCache cache = mock( TableMetadataCache.class );
+    when( cache.getTableFields(
+      any( LoggingObjectInterface.class ), any( DatabaseMeta.class ), anyString(), anyString() ) )
+      .thenReturn( tableFields );
+    AnalysisModeler modeler = new AnalysisModeler( new JobEntryBase(), connectionInfo, outputStep ) {
+      @Override protected TableMetadataCache getTableMetadataCache() {
+        return cache;
+      }
+    };
+
+    modeler.replaceTableAndSchemaNames( schema, "newModel" );
+    verify( cache ).getTableFields(
+      any( LoggingObjectInterface.class ), any( DatabaseMeta.class ), anyString(), eq( "newTable" ) );
+
+    // still reported when the table agrees with the stream
+    tableFields.setValueMeta( tableFields.indexOfValue( "ORDERNUMBER" ), valueMeta( "ORDERNUMBER", TYPE_STRING ) );
+    try {
+      modeler.replaceTableAndSchemaNames( schema, "newModel" );
+      Assert.fail( "should have thrown exception" );
+    } catch ( KettleException e ) {
+      assertTrue( e.getMessage().contains( "ORDERNUMBER" ) );
+    }
+  }
+
   private AnalysisModeler getAnalysisModeler() {
     return new AnalysisModeler( new JobEntryBase( ), connectionInfo ) {
       @Override List<ValueMetaInterface> getFieldsInDatabase()
@@ -0,0 +1,84 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2017 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+
+package org.pentaho.di.core.refinery.model;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import javax.xml.stream.XMLStreamException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class AnalysisSchemaRewriterTest {
+
+  @Test
+  public void testRewrite() throws Exception {
+    String schema = IOUtils.toString( getClass().getResourceAsStream( "resources/multiCubeAnalysisSchema.xml" ) );
+    AnalysisSchemaRewriter rewriter = new AnalysisSchemaRewriter( "newModel", "newTable" );
+    String newSchema = rewriter.rewrite( schema );
+
+    assertEquals( Arrays.asList( "SALES_DATA" ), Arrays.asList( rewriter.getTableNames().toArray() ) );
+    assertEquals( 2, rewriter.getCubeCount() );
+    assertEquals( 2, newSchema.split( "<Cube name=\"newModel\"" ).length - 1 );
+    assertEquals( 0, newSchema.split( "SALES_DATA" ).length - 1 );
+  }
+
+  @Test
+  public void testCollectsColumnsInDocumentOrder() throws Exception {
+    AnalysisSchemaRewriter rewriter = new AnalysisSchemaRewriter( "m", "t" );
+    String newSchema = rewriter.rewrite( "<?xml version=\"1.0\"?>\n<!-- sales -->\n<Schema name=\"s\"><Cube name=\"c\">"
+      + "<Table name=\"a\"/><Measure column=\"SALES\" aggregator=\"sum\"/><Dimension><Hierarchy>"
+      + "<Level column=\"CITY\" type=\"String\">x &amp; y<![CDATA[<z>]]></Level><Level name=\"all\"/>"
+      + "</Hierarchy></Dimension></Cube></Schema>" );
+
+    assertEquals( "<?xml version=\"1.0\" encoding=\"UTF-8\"?><!-- sales --><Schema name=\"m\"><Cube name=\"m\">"
+      + "<Table name=\"t\"/><Measure column=\"SALES\" aggregator=\"sum\"/><Dimension><Hierarchy>"
+      + "<Level column=\"CITY\" type=\"String\">x &amp; y&lt;z&gt;</Level><Level name=\"all\"/>"
+      + "</Hierarchy></Dimension></Cube></Schema>", newSchema );
+    List<AnalysisSchemaRewriter.Column> columns = rewriter.getColumns();
+    assertEquals( 2, columns.size() );
+    assertEquals( "SALES", columns.get( 0 ).getName() );
+    assertNull( columns.get( 0 ).getType() );
+    assertEquals( "CITY", columns.get( 1 ).getName() );
+    assertEquals( "String", columns.get( 1 ).getType() );
+  }
+
+  @Test
+  public void testEntitiesNotExpanded() throws Exception {
+    // a doctype alone is fine
+    assertEquals( "<?xml version=\"1.0\" encoding=\"UTF-8\"?><Schema name=\"m\"/>",
+      new AnalysisSchemaRewriter( "m", "t" ).rewrite( "<!DOCTYPE Schema><Schema name=\"s\"/>" ) );
+    try {
+      new AnalysisSchemaRewriter( "m", "t" ).rewrite( "<!DOCTYPE Schema [<!ENTITY a \"aaaaaaaaaa\">"
+        + "<!ENTITY b \"&a;&a;&a;&a;&a;&a;&a;&a;&a;&a;\">]><Schema name=\"&b;\"/>" );
+      fail( "entities must not be expanded" );
+    } catch ( XMLStreamException e ) {
+      // expected
+    }
+  }
+}
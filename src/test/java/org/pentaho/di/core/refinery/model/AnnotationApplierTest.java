@@ -0,0 +1,207 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2017 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.model;
+
+import org.junit.Test;
+import org.pentaho.agilebi.modeler.ModelerWorkspace;
+import org.pentaho.agilebi.modeler.models.annotations.CreateAttribute;
+import org.pentaho.agilebi.modeler.models.annotations.CreateMeasure;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotation;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationGroup;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationGroup.ApplyStatus;
+import org.pentaho.di.core.KettleClientEnvironment;
+import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaString;
+import org.pentaho.metadata.automodel.PhysicalTableImporter;
+import org.pentaho.metadata.model.concept.types.AggregationType;
+import org.pentaho.metastore.api.IMetaStore;
+import org.pentaho.metastore.stores.memory.MemoryMetaStore;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+public class AnnotationApplierTest {
+
+  @Test
+  public void testParentsComeFirst() throws Exception {
+    ModelAnnotation<CreateAttribute> city = attribute( "Geo", "City", "County" );
+    ModelAnnotation<CreateMeasure> measure = new ModelAnnotation<CreateMeasure>( new CreateMeasure() );
+    ModelAnnotation<CreateAttribute> county = attribute( "Geo", "County", "State" );
+    ModelAnnotation<CreateAttribute> state = attribute( "Geo", "State", null );
+    ModelAnnotation<CreateAttribute> other = attribute( "Other", "City", "State" );
+    ModelAnnotation nullAnnotation = new ModelAnnotation();
+    ModelAnnotationGroup group = new ModelAnnotationGroup( city, measure, county, state, other, nullAnnotation );
+    group.setName( "group" );
+
+    ModelAnnotationGroup ordered = AnnotationApplier.order( group );
+    assertEquals( "group", ordered.getName() );
+    assertEquals( 6, ordered.size() );
+    assertSame( state, ordered.get( 0 ) );
+    assertSame( county, ordered.get( 1 ) );
+    assertSame( city, ordered.get( 2 ) );
+    assertSame( measure, ordered.get( 3 ) );
+    // parent State is in another dimension
+    assertSame( other, ordered.get( 4 ) );
+    assertSame( nullAnnotation, ordered.get( 5 ) );
+  }
+
+  @Test
+  public void testCycle() throws Exception {
+    ModelAnnotation<CreateAttribute> first = attribute( "Dim", "A", "B" );
+    ModelAnnotation<CreateAttribute> second = attribute( "Dim", "B", "A" );
+    ModelAnnotationGroup ordered = AnnotationApplier.order( new ModelAnnotationGroup( first, second ) );
+    assertEquals( 2, ordered.size() );
+    assertSame( second, ordered.get( 0 ) );
+    assertSame( first, ordered.get( 1 ) );
+  }
+
+  /**
+   * Wide groups listed bottom up, the order the library needs one retry pass per level for.
+   */
+  @Test
+  public void testWideGroups() throws Exception {
+    for ( int size : new int[] { 10, 300, 3000 } ) {
+      ModelAnnotationGroup group = new ModelAnnotationGroup();
+      for ( int i = size - 1; i >= 0; i-- ) {
+        // hierarchies of ten levels
+        group.add( attribute( "Dim" + ( i / 10 ), "Level" + i, i % 10 == 0 ? null : "Level" + ( i - 1 ) ) );
+      }
+      ModelAnnotationGroup ordered = AnnotationApplier.order( group );
+
+      assertEquals( size, ordered.size() );
+      Set<String> seen = new HashSet<String>();
+      for ( ModelAnnotation modelAnnotation : ordered ) {
+        CreateAttribute attribute = (CreateAttribute) modelAnnotation.getAnnotation();
+        assertTrue( attribute.getParentAttribute() == null || seen.contains( attribute.getParentAttribute() ) );
+        seen.add( attribute.getName() );
+      }
+    }
+  }
+
+  /**
+   * Ordering only changes how many passes the group takes, not what gets applied.
+   */
+  @Test
+  public void testSameOutcomeAsGroup() throws Exception {
+    ModelAnnotation<CreateAttribute> missingField = attribute( "Geo", "Zip", "City" );
+    missingField.getAnnotation().setField( "zip" );
+    CreateMeasure sales = new CreateMeasure();
+    sales.setName( "Total Sales" );
+    sales.setField( "sales" );
+    sales.setAggregateType( AggregationType.SUM );
+    ModelAnnotationGroup group = new ModelAnnotationGroup( attribute( "Geo", "City", "County" ), missingField,
+        new ModelAnnotation<CreateMeasure>( sales ), attribute( "Geo", "County", "State" ),
+        attribute( "Geo", "State", null ), new ModelAnnotation() );
+
+    Map<ApplyStatus, List<ModelAnnotation>> expected =
+        group.applyAnnotations( newWorkspace(), new MemoryMetaStore() );
+    Map<ApplyStatus, List<ModelAnnotation>> actual =
+        new AnnotationApplier().apply( newWorkspace(), group, new MemoryMetaStore() );
+
+    assertFalse( getStatus( expected, ApplyStatus.SUCCESS ).isEmpty() );
+    for ( ApplyStatus status : ApplyStatus.values() ) {
+      List<ModelAnnotation> expectedAnnotations = getStatus( expected, status );
+      List<ModelAnnotation> actualAnnotations = getStatus( actual, status );
+      assertEquals( status.name(), expectedAnnotations.size(), actualAnnotations.size() );
+      assertTrue( status.name(), actualAnnotations.containsAll( expectedAnnotations ) );
+    }
+  }
+
+  @Test
+  public void testUnresolvedNeverReachTheLibrary() throws Exception {
+    ModelAnnotation<CreateAttribute> missingField = spy( attribute( "Geo", "Zip", null ) );
+    ModelAnnotation<CreateAttribute> missingParent = spy( attribute( "Geo", "City", "Country" ) );
+    ModelAnnotation<CreateAttribute> state = spy( attribute( "Geo", "State", null ) );
+    // other spellings of a column are found
+    state.getAnnotation().setField( "STATE " );
+    ModelAnnotationGroup group = new ModelAnnotationGroup( missingField, missingParent, state );
+
+    Map<ApplyStatus, List<ModelAnnotation>> statusMap =
+        new AnnotationApplier().apply( newWorkspace(), group, new MemoryMetaStore() );
+
+    List<ModelAnnotation> failed = getStatus( statusMap, ApplyStatus.FAILED );
+    assertEquals( 2, failed.size() );
+    assertTrue( failed.containsAll( Arrays.asList( missingField, missingParent ) ) );
+    verify( missingField, never() ).apply( any( ModelerWorkspace.class ), any( IMetaStore.class ) );
+    verify( missingParent, never() ).apply( any( ModelerWorkspace.class ), any( IMetaStore.class ) );
+    verify( state ).apply( any( ModelerWorkspace.class ), any( IMetaStore.class ) );
+  }
+
+  @Test
+  public void testGetAttributeDimensions() throws Exception {
+    ModelAnnotationGroup group = new ModelAnnotationGroup( attribute( "Geo", "City", null ),
+        new ModelAnnotation<CreateMeasure>( new CreateMeasure() ), new ModelAnnotation() );
+    assertEquals( Collections.singleton( "geo" ), AnnotationApplier.getAttributeDimensions( group ) );
+  }
+
+  private List<ModelAnnotation> getStatus( Map<ApplyStatus, List<ModelAnnotation>> statusMap, ApplyStatus status ) {
+    List<ModelAnnotation> annotations = statusMap.get( status );
+    return annotations == null ? Collections.<ModelAnnotation>emptyList() : annotations;
+  }
+
+  private ModelerWorkspace newWorkspace() throws Exception {
+    if ( !KettleClientEnvironment.isInitialized() ) {
+      KettleClientEnvironment.init();
+    }
+    DatabaseMeta dbMeta = new DatabaseMeta( "myh2", "H2", "Native", null, "target/test-db/unused", null, "sa", null );
+    RowMeta rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaString( "state" ) );
+    rowMeta.addValueMeta( new ValueMetaString( "county" ) );
+    rowMeta.addValueMeta( new ValueMetaString( "city" ) );
+    rowMeta.addValueMeta( new ValueMetaInteger( "sales" ) );
+    RowMetaModelerSource source = new RowMetaModelerSource( dbMeta, "sales", "", rowMeta );
+
+    // no geo roles, as when DswModeler finds no geo configuration
+    ModelerWorkspace workspace = new ModelerWorkspace( new RefineryModelerWorkspaceHelper( null ), null );
+    workspace.setModelSource( source );
+    workspace.setDomain( source.generateDomain( PhysicalTableImporter.defaultImportStrategy ) );
+    workspace.setModelName( "sales" );
+    workspace.getWorkspaceHelper().autoModelFlat( workspace );
+    return workspace;
+  }
+
+  private ModelAnnotation<CreateAttribute> attribute( String dimension, String name, String parent ) {
+    CreateAttribute attribute = new CreateAttribute();
+    attribute.setDimension( dimension );
+    attribute.setHierarchy( dimension );
+    attribute.setName( name );
+    attribute.setField( name.toLowerCase() );
+    attribute.setParentAttribute( parent );
+    return new ModelAnnotation<CreateAttribute>( attribute );
+  }
+}
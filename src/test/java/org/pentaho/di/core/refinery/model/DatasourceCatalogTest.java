@@ -0,0 +1,176 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2017 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+
+package org.pentaho.di.core.refinery.model;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class DatasourceCatalogTest {
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private ModelServerFetcher fetcher;
+  private List<Runnable> refreshes;
+  private Executor executor;
+
+  @Before
+  public void setUp() throws Exception {
+    BiServerConnection connection = new BiServerConnection();
+    connection.setUrl( "http://localhost:8080/pentaho/" );
+    connection.setUserId( "admin" );
+    fetcher = mock( ModelServerFetcher.class );
+    when( fetcher.getBiServerConnection() ).thenReturn( connection );
+    when( fetcher.fetchDswListAsync() ).thenReturn( listing( "b.xmi", "a.xmi" ) );
+    when( fetcher.fetchAnalysisListAsync() ).thenReturn( listing( "SteelWheels" ) );
+    refreshes = new ArrayList<Runnable>();
+    executor = new Executor() {
+      @Override public void execute( Runnable command ) {
+        refreshes.add( command );
+      }
+    };
+  }
+
+  @Test
+  public void testContains() throws Exception {
+    DatasourceCatalog catalog = new DatasourceCatalog( 60000, 3600000, null, executor );
+    assertTrue( catalog.contains( fetcher, "a.xmi" ) );
+    assertTrue( catalog.contains( fetcher, "SteelWheels" ) );
+    assertTrue( catalog.contains( fetcher, "b.xmi" ) );
+    assertEquals( 1, catalog.getRefreshes() );
+    assertEquals( Arrays.asList( "SteelWheels", "a.xmi", "b.xmi" ),
+        new ArrayList<String>( catalog.getMirror( fetcher ).getIds() ) );
+
+    // a miss always lists the catalogs again, in case it was just created
+    when( fetcher.fetchDswListAsync() ).thenReturn( listing( "a.xmi", "c.xmi" ) );
+    assertTrue( catalog.contains( fetcher, "c.xmi" ) );
+    assertFalse( catalog.contains( fetcher, "b.xmi" ) );
+    assertEquals( 3, catalog.getRefreshes() );
+    assertTrue( refreshes.isEmpty() );
+  }
+
+  @Test
+  public void testStaleMirrorRefreshedInBackground() throws Exception {
+    DatasourceCatalog catalog = new DatasourceCatalog( 0, 3600000, null, executor );
+    catalog.refresh( fetcher );
+    assertTrue( catalog.getMirror( fetcher ).contains( "a.xmi" ) );
+    assertTrue( catalog.getMirror( fetcher ).contains( "a.xmi" ) );
+    // one refresh at a time
+    assertEquals( 1, refreshes.size() );
+    verify( fetcher, times( 1 ) ).fetchDswListAsync();
+
+    when( fetcher.fetchDswListAsync() ).thenReturn( listing( "d.xmi" ) );
+    refreshes.remove( 0 ).run();
+    assertEquals( 2, catalog.getRefreshes() );
+    assertFalse( catalog.getMirror( fetcher ).contains( "a.xmi" ) );
+    assertTrue( catalog.getMirror( fetcher ).contains( "d.xmi" ) );
+  }
+
+  @Test
+  public void testStaleMirrorRecheckedBeforeContains() throws Exception {
+    DatasourceCatalog catalog = new DatasourceCatalog( 0, 3600000, null, executor );
+    catalog.refresh( fetcher );
+
+    // deleted since, a stale mirror must not report it
+    when( fetcher.fetchDswListAsync() ).thenReturn( listing( "b.xmi" ) );
+    assertFalse( catalog.contains( fetcher, "a.xmi" ) );
+    assertTrue( catalog.contains( fetcher, "b.xmi" ) );
+    assertEquals( 3, catalog.getRefreshes() );
+    assertTrue( refreshes.isEmpty() );
+  }
+
+  @Test( expected = ModelServerFetcher.ServerException.class )
+  public void testRefreshFailure() throws Exception {
+    CompletableFuture<List<String>> failed = new CompletableFuture<List<String>>();
+    failed.completeExceptionally( new CompletionException( new ModelServerFetcher.ServerException() ) );
+    when( fetcher.fetchAnalysisListAsync() ).thenReturn( failed );
+    new DatasourceCatalog( 60000, 3600000, null, executor ).contains( fetcher, "a.xmi" );
+  }
+
+  @Test
+  public void testOldSavedMirrorIgnored() throws Exception {
+    new DatasourceCatalog( 60000, 3600000, temporaryFolder.getRoot(), executor ).refresh( fetcher );
+    for ( File file : temporaryFolder.getRoot().listFiles() ) {
+      assertTrue( file.setLastModified( System.currentTimeMillis() - 7200000 ) );
+    }
+
+    DatasourceCatalog restarted = new DatasourceCatalog( 60000, 3600000, temporaryFolder.getRoot(), executor );
+    assertTrue( restarted.getMirror( fetcher ).contains( "b.xmi" ) );
+    assertEquals( 1, restarted.getRefreshes() );
+  }
+
+  @Test
+  public void testPersisted() throws Exception {
+    new DatasourceCatalog( 60000, 3600000, temporaryFolder.getRoot(), executor ).refresh( fetcher );
+
+    DatasourceCatalog restarted = new DatasourceCatalog( 60000, 3600000, temporaryFolder.getRoot(), executor );
+    assertTrue( restarted.contains( fetcher, "b.xmi" ) );
+    assertTrue( restarted.contains( fetcher, "SteelWheels" ) );
+    assertEquals( 0, restarted.getRefreshes() );
+
+    restarted.invalidate( fetcher.getBiServerConnection() );
+    DatasourceCatalog invalidated = new DatasourceCatalog( 60000, 3600000, temporaryFolder.getRoot(), executor );
+    assertTrue( invalidated.contains( fetcher, "b.xmi" ) );
+    assertEquals( 1, invalidated.getRefreshes() );
+  }
+
+  @Test
+  public void testLargeCatalog() throws Exception {
+    List<String> ids = new ArrayList<String>();
+    for ( int i = 0; i < 12000; i++ ) {
+      ids.add( "model" + i + ".xmi" );
+    }
+    when( fetcher.fetchDswListAsync() ).thenReturn( CompletableFuture.completedFuture( ids ) );
+    DatasourceCatalog catalog = new DatasourceCatalog( 60000, 3600000, temporaryFolder.getRoot(), executor );
+    for ( int i = 0; i < 12000; i += 7 ) {
+      assertTrue( catalog.contains( fetcher, "model" + i + ".xmi" ) );
+    }
+    assertEquals( 1, catalog.getRefreshes() );
+    assertEquals( 12001, new DatasourceCatalog( 60000, 3600000, temporaryFolder.getRoot(), executor )
+        .getMirror( fetcher ).getIds().size() );
+  }
+
+  private static CompletableFuture<List<String>> listing( String... ids ) {
+    return CompletableFuture.completedFuture( (List<String>) new ArrayList<String>( Arrays.asList( ids ) ) );
+  }
+}
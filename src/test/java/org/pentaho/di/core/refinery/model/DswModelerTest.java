@@ -56,6 +56,7 @@ import org.pentaho.metadata.model.IPhysicalModel;
 import org.pentaho.metadata.model.LogicalModel;
 import org.pentaho.metadata.model.SqlDataSource;
 import org.pentaho.metadata.model.SqlPhysicalModel;
+import org.pentaho.metadata.model.SqlPhysicalTable;
 import org.pentaho.metadata.model.olap.OlapAnnotation;
 import org.pentaho.metadata.model.olap.OlapCube;
 import org.pentaho.metadata.model.olap.OlapDimension;
@@ -165,6 +166,77 @@ public class DswModelerTest {
     }
   }
 
+  @Test
+  public void testCachedDomainPerConnectionName() throws Exception {
+    DatabaseMeta dbMeta = createOrderfactDB();
+    DatabaseMeta renamed = (DatabaseMeta) dbMeta.clone();
+    renamed.setName( "renamed" );
+    DswModeler modeler = new DswModeler( mock( LogChannelInterface.class ) );
+    // a JNDI data source would be renamed after the connection anyway
+    modeler.setUseJndi( false );
+    modeler.setTableMetadataCache( new TableMetadataCache( 60000 ) );
+
+    Domain first = modeler.createModel( "FromScratch", new TableModelerSource( dbMeta, "orderfact", "" ), dbMeta,
+      getImportStrategy(), new ModelAnnotationGroup(), metaStore );
+    Domain second = modeler.createModel( "FromScratch", new TableModelerSource( renamed, "orderfact", "" ), renamed,
+      getImportStrategy(), new ModelAnnotationGroup(), metaStore );
+
+    assertEquals( "myh2",
+      ( (SqlPhysicalModel) first.getPhysicalModels().get( 0 ) ).getDatasource().getDatabaseName() );
+    assertEquals( "renamed",
+      ( (SqlPhysicalModel) second.getPhysicalModels().get( 0 ) ).getDatasource().getDatabaseName() );
+  }
+
+  @Test
+  public void testCreateModelFromCachedMetadata() throws Exception {
+    DatabaseMeta dbMeta = createOrderfactDB();
+    TableModelerSource source = new TableModelerSource( dbMeta, "orderfact", "" );
+    DswModeler modeler = new DswModeler( mock( LogChannelInterface.class ) );
+    TableMetadataCache cache = new TableMetadataCache( 60000 );
+    modeler.setTableMetadataCache( cache );
+
+    Domain first = modeler.createModel(
+      "FromScratch", source, dbMeta, getImportStrategy(), new ModelAnnotationGroup(), metaStore );
+    Database db = new Database( null, dbMeta );
+    db.connect();
+    db.execStatement( "DROP TABLE orderfact;" );
+    db.disconnect();
+    Domain second = modeler.createModel(
+      "FromScratch", source, dbMeta, getImportStrategy(), new ModelAnnotationGroup(), metaStore );
+
+    assertEquals( 1, cache.getHits() );
+    assertNotSame( first, second );
+    @SuppressWarnings( "unchecked" )
+    OlapCube cube = ( (List<OlapCube>) second.getLogicalModels().get( 1 )
+      .getProperty( LogicalModel.PROPERTY_OLAP_CUBES ) ).get( 0 );
+    assertEquals( 2, cube.getOlapMeasures().size() );
+  }
+
+  @Test
+  public void testCreateModelFromRowMeta() throws Exception {
+    // no orderfact table, nothing is read from the database
+    DatabaseMeta dbMeta = newH2Db();
+    RefineryValueMetaStrategy importStrategy = (RefineryValueMetaStrategy) getImportStrategy();
+    TableModelerSource source =
+      new RowMetaModelerSource( dbMeta, "orderfact", "", importStrategy.getInsertRowMeta() );
+    DswModeler modeler = new DswModeler( mock( LogChannelInterface.class ) );
+    modeler.setTableMetadataCache( new TableMetadataCache( 60000 ) );
+
+    Domain dsw = modeler.createModel(
+      "FromScratch", source, dbMeta, importStrategy, new ModelAnnotationGroup(), metaStore );
+
+    SqlPhysicalTable table = ( (SqlPhysicalModel) dsw.getPhysicalModels().get( 0 ) ).getPhysicalTables().get( 0 );
+    assertEquals( "orderfact", table.getTargetTable() );
+    assertEquals( 5, table.getPhysicalColumns().size() );
+    @SuppressWarnings( "unchecked" )
+    OlapCube cube = ( (List<OlapCube>) dsw.getLogicalModels().get( 1 )
+      .getProperty( LogicalModel.PROPERTY_OLAP_CUBES ) ).get( 0 );
+    assertEquals( 2, cube.getOlapMeasures().size() );
+    assertEquals( "Quantity Ordered", cube.getOlapMeasures().get( 0 ).getName() );
+    assertEquals( "Total Price", cube.getOlapMeasures().get( 1 ).getName() );
+    assertEquals( "FromScratch", dsw.getLogicalModels().get( 0 ).getCategories().get( 0 ).getName( "en_US" ) );
+  }
+
   @Test
   public void testCreateModel() throws Exception {
     DatabaseMeta dbMeta = createOrderfactDB();
@@ -0,0 +1,121 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2017 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.model;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.service.cm.ConfigurationEvent;
+import org.pentaho.agilebi.modeler.ModelerException;
+import org.pentaho.agilebi.modeler.geo.GeoContext;
+import org.pentaho.agilebi.modeler.geo.GeoContextConfigProvider;
+import org.pentaho.agilebi.modeler.geo.GeoContextPropertiesProvider;
+
+import java.io.InputStream;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class GeoContextCacheTest {
+
+  private GeoContextConfigProvider provider;
+
+  @Before
+  public void setUp() throws Exception {
+    Properties props = new Properties();
+    InputStream in = getClass().getResourceAsStream( "/geoRoles.properties" );
+    try {
+      props.load( in );
+    } finally {
+      in.close();
+    }
+    provider = new GeoContextPropertiesProvider( props );
+  }
+
+  @Test
+  public void testGetGeoContext() throws Exception {
+    GeoContextCache cache = new GeoContextCache();
+    GeoContext geoContext = cache.getGeoContext( provider );
+    assertNotNull( geoContext );
+    assertSame( geoContext, cache.getGeoContext( provider ) );
+    assertEquals( 1, cache.getBuildCount() );
+  }
+
+  @Test
+  public void testConfigurationChange() throws Exception {
+    GeoContextCache cache = new GeoContextCache();
+    GeoContext geoContext = cache.getGeoContext( provider );
+
+    cache.configurationEvent( newEvent( "some.other.pid" ) );
+    assertSame( geoContext, cache.getGeoContext( provider ) );
+
+    cache.configurationEvent( newEvent( GeoContextBlueprintConfigProvider.PID ) );
+    assertNotSame( geoContext, cache.getGeoContext( provider ) );
+    assertEquals( 2, cache.getBuildCount() );
+  }
+
+  @Test
+  public void testFailedBuildIsRetriedAfterDelay() throws Exception {
+    GeoContextConfigProvider badProvider = mock( GeoContextConfigProvider.class );
+    when( badProvider.getDimensionName() ).thenThrow( new ModelerException( "no configuration" ) );
+    when( badProvider.getRoles() ).thenThrow( new ModelerException( "no roles" ) );
+    GeoContextCache cache = new GeoContextCache();
+    for ( int i = 0; i < 2; i++ ) {
+      try {
+        cache.getGeoContext( badProvider );
+        fail( "expected failure" );
+      } catch ( ModelerException e ) {
+        // expected, the second time without building again
+      }
+    }
+    assertEquals( 1, cache.getBuildCount() );
+
+    cache.invalidate();
+    assertNotNull( cache.getGeoContext( provider ) );
+    assertEquals( 2, cache.getBuildCount() );
+
+    // no delay, the next lookup builds again and a success is kept
+    GeoContextCache noDelay = new GeoContextCache( 0 );
+    try {
+      noDelay.getGeoContext( badProvider );
+      fail( "expected failure" );
+    } catch ( ModelerException e ) {
+      // expected
+    }
+    GeoContext geoContext = noDelay.getGeoContext( provider );
+    assertNotNull( geoContext );
+    assertSame( geoContext, noDelay.getGeoContext( provider ) );
+    assertEquals( 2, noDelay.getBuildCount() );
+  }
+
+  private ConfigurationEvent newEvent( String pid ) {
+    ConfigurationEvent event = mock( ConfigurationEvent.class );
+    when( event.getPid() ).thenReturn( pid );
+    return event;
+  }
+}
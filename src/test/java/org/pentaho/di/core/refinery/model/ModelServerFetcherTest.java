@@ -25,9 +25,11 @@ package org.pentaho.di.core.refinery.model;
 import static org.junit.Assert.*;
 
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.List;
 
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
 
 import org.apache.commons.io.IOUtils;
 import org.junit.Before;
@@ -42,6 +44,7 @@ import com.sun.jersey.api.client.Client;
 import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.api.client.WebResource;
 
+import static java.util.Arrays.asList;
 import static org.mockito.Mockito.*;
 
 public class ModelServerFetcherTest {
@@ -50,6 +53,7 @@ public class ModelServerFetcherTest {
   Client client;
   WebResource webResource;
   WebResource.Builder builder;
+  TemplateDomainCache templateCache;
 
 
   @Before
@@ -59,8 +63,11 @@ public class ModelServerFetcherTest {
     webResource = mock( WebResource.class );
     when( webResource.type( any( MediaType.class ) ) ).thenReturn( builder );
     when( webResource.type( any( String.class ) ) ).thenReturn( builder );
+    when( webResource.getRequestBuilder() ).thenReturn( builder );
+    when( builder.header( anyString(), any() ) ).thenReturn( builder );
     client = mock( Client.class );
     when( client.resource( any( String.class ) ) ).thenReturn( webResource );
+    templateCache = new TemplateDomainCache( 60000 );
   }
 
   @Test
@@ -106,6 +113,65 @@ public class ModelServerFetcherTest {
     }
   }
 
+  @Test
+  public void testDatasourceExists() throws Exception {
+    mockListing( "<List><Item>One.xmi</Item><Item>Two.xmi</Item></List>" );
+    ModelServerFetcher fetcher = createModelServerFetcher();
+    assertTrue( fetcher.datasourceExists( "Two.xmi" ) );
+    assertFalse( fetcher.datasourceExists( "Three.xmi" ) );
+    verify( client, atLeastOnce() ).resource( "http://server:8081/webapp/plugin/data-access/api/datasource/dsw/ids" );
+    verify( client, atLeastOnce() ).resource(
+        "http://server:8081/webapp/plugin/data-access/api/datasource/analysis/ids" );
+
+    mockResponse( 401, "" );
+    try {
+      fetcher.datasourceExists( "One.xmi" );
+      fail( "no exception" );
+    } catch ( AuthorizationException e ) {
+      //
+    }
+  }
+
+  @Test
+  public void testFetchAllDatasourceIds() throws Exception {
+    mockListing( "<List><Item>b.xmi</Item><Item>a.xmi</Item></List>" );
+    ModelServerFetcher fetcher = createModelServerFetcher();
+    assertEquals( asList( "a.xmi", "b.xmi" ), new ArrayList<String>( fetcher.fetchAllDatasourceIds() ) );
+    verify( client, times( 1 ) ).resource( "http://server:8081/webapp/plugin/data-access/api/datasource/dsw/ids" );
+    verify( client, times( 1 ) ).resource(
+        "http://server:8081/webapp/plugin/data-access/api/datasource/analysis/ids" );
+  }
+
+  @Test
+  public void testReadIdsStopsEarly() throws Exception {
+    StringBuilder listing = new StringBuilder( "<List>" );
+    for ( int i = 0; i < 20000; i++ ) {
+      listing.append( "<Item xsi:type=\"xs:string\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\">" )
+          .append( "Model " ).append( i ).append( " &amp; co.xmi</Item>\n" );
+    }
+    listing.append( "<Item/></List>" );
+    final List<String> ids = new ArrayList<String>();
+    ModelServerFetcher.readIds( IOUtils.toInputStream( listing.toString(), "UTF-8" ),
+        new ModelServerFetcher.IdCallback() {
+          @Override public boolean onId( String id ) {
+            ids.add( id );
+            return true;
+          }
+        } );
+    assertEquals( 20000, ids.size() );
+    assertEquals( "Model 19999 & co.xmi", ids.get( 19999 ) );
+
+    ids.clear();
+    ModelServerFetcher.readIds( IOUtils.toInputStream( listing.toString(), "UTF-8" ),
+        new ModelServerFetcher.IdCallback() {
+          @Override public boolean onId( String id ) {
+            ids.add( id );
+            return ids.size() < 3;
+          }
+        } );
+    assertEquals( 3, ids.size() );
+  }
+
   @Test
   public void testFetchAnalysisList() throws Exception {
     final String okPayload =
@@ -176,6 +242,68 @@ public class ModelServerFetcherTest {
     }
   }
 
+  @Test
+  public void testFetchCachedDswFileNotModified() throws Exception {
+    InputStream in = getClass().getResourceAsStream( "/Dsw Test.zip" );
+    try {
+      ModelServerFetcher fetcher = createModelServerFetcher();
+      assertNull( fetcher.fetchCachedDswFile( "Dsw Test.xmi" ) );
+      ClientResponse download = mockResponse( 200, in, "xml" );
+      mockHeaders( download, "\"v1\"", null );
+      Domain dsw = fetcher.downloadDswFile( "Dsw Test.xmi" );
+      assertEquals( 1, templateCache.getMisses() );
+
+      mockResponse( 304, "" );
+      Domain cached = fetcher.fetchCachedDswFile( "Dsw Test.xmi" );
+      verify( builder ).header( "If-None-Match", "\"v1\"" );
+      assertNotSame( dsw, cached );
+      assertEquals( "DswTest", cached.getLogicalModels().get( 1 ).getProperty( "MondrianCatalogRef" ) );
+      assertEquals( 1, templateCache.getHits() );
+      assertEquals( 1, templateCache.getMisses() );
+    } finally {
+      IOUtils.closeQuietly( in );
+    }
+  }
+
+  @Test
+  public void testFetchCachedDswFileWithoutValidator() throws Exception {
+    InputStream in = getClass().getResourceAsStream( "/Dsw Test.zip" );
+    try {
+      ModelServerFetcher fetcher = createModelServerFetcher();
+      mockResponse( 200, in, "xml" );
+      fetcher.downloadDswFile( "Dsw Test.xmi" );
+
+      mockResponse( 200, "<List><Item>Dsw Test.xmi</Item></List>" );
+      Domain cached = fetcher.fetchCachedDswFile( "Dsw Test.xmi" );
+      assertEquals( "DswTest", cached.getLogicalModels().get( 1 ).getProperty( "MondrianCatalogRef" ) );
+      assertEquals( 1, templateCache.getHits() );
+
+      // removed from the server
+      mockResponse( 200, "<List></List>" );
+      assertNull( fetcher.fetchCachedDswFile( "Dsw Test.xmi" ) );
+      assertNull( templateCache.get( null, "Dsw Test.xmi" ) );
+    } finally {
+      IOUtils.closeQuietly( in );
+    }
+  }
+
+  @Test
+  public void testFetchCachedDswFileChanged() throws Exception {
+    InputStream in = getClass().getResourceAsStream( "/Dsw Test.zip" );
+    try {
+      ModelServerFetcher fetcher = createModelServerFetcher();
+      mockHeaders( mockResponse( 200, in, "xml" ), null, "Tue, 01 Sep 2015 10:00:00 GMT" );
+      fetcher.downloadDswFile( "Dsw Test.xmi" );
+
+      mockResponse( 404, "" );
+      assertNull( fetcher.fetchCachedDswFile( "Dsw Test.xmi" ) );
+      verify( builder ).header( "If-Modified-Since", "Tue, 01 Sep 2015 10:00:00 GMT" );
+      assertNull( templateCache.get( null, "Dsw Test.xmi" ) );
+      assertEquals( 0, templateCache.getHits() );
+    } finally {
+      IOUtils.closeQuietly( in );
+    }
+  }
 
   private ModelServerFetcher createModelServerFetcher() {
     return new MockFriendlyServerFetcher();
@@ -195,6 +323,10 @@ public class ModelServerFetcherTest {
     protected String getUrl( String path ) {
       return BOGUS_SERVER + path;
     }
+    @Override
+    protected TemplateDomainCache getTemplateDomainCache() {
+      return templateCache;
+    }
   }
 
   private ClientResponse mockResponse( final int status, final String entity ) throws Exception {
@@ -216,5 +348,25 @@ public class ModelServerFetcherTest {
     return resp;
   }
 
+  /**
+   * Same listing for every request, the listings are read concurrently.
+   */
+  private void mockListing( final String listing ) throws Exception {
+    ClientResponse resp = mockResponse( 200, listing );
+    when( resp.getEntity( InputStream.class ) ).thenAnswer( new Answer<InputStream>() {
+      public InputStream answer( InvocationOnMock invocation ) throws Throwable {
+        return IOUtils.toInputStream( listing, "UTF-8" );
+      }
+    } );
+  }
+
+  @SuppressWarnings( "unchecked" )
+  private void mockHeaders( final ClientResponse resp, final String etag, final String lastModified ) {
+    MultivaluedMap<String, String> headers = mock( MultivaluedMap.class );
+    when( headers.getFirst( "ETag" ) ).thenReturn( etag );
+    when( headers.getFirst( "Last-Modified" ) ).thenReturn( lastModified );
+    when( resp.getHeaders() ).thenReturn( headers );
+  }
+
 
 }
@@ -0,0 +1,172 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2017 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.model;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pentaho.agilebi.modeler.util.TableModelerSource;
+import org.pentaho.di.core.KettleClientEnvironment;
+import org.pentaho.di.core.database.Database;
+import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaDate;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaString;
+import org.pentaho.di.core.row.value.ValueMetaTimestamp;
+import org.pentaho.metadata.automodel.PhysicalTableImporter;
+import org.pentaho.metadata.model.Domain;
+import org.pentaho.metadata.model.IPhysicalColumn;
+import org.pentaho.metadata.model.LogicalColumn;
+import org.pentaho.metadata.model.LogicalModel;
+import org.pentaho.metadata.model.LogicalTable;
+import org.pentaho.metadata.model.SqlPhysicalColumn;
+import org.pentaho.metadata.model.SqlPhysicalModel;
+import org.pentaho.metadata.model.SqlPhysicalTable;
+import org.pentaho.metadata.model.concept.types.DataType;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class RowMetaModelerSourceTest {
+
+  private static final String LOCALE = "en_US";
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    if ( !KettleClientEnvironment.isInitialized() ) {
+      KettleClientEnvironment.init();
+    }
+  }
+
+  @Test
+  public void testGenerateDomain() throws Exception {
+    DatabaseMeta dbMeta = new DatabaseMeta( "myh2", "H2", "Native", null, "target/test-db/unused", null, "sa", null );
+    RowMeta rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaInteger( "SALES_ID" ) );
+    rowMeta.addValueMeta( new ValueMetaString( "skipped" ) );
+    rowMeta.addValueMeta( new ValueMetaTimestamp( "ORDER_TIME" ) );
+    rowMeta.addValueMeta( new ValueMetaDate( "shipDate" ) );
+    RowMetaModelerSource source = new RowMetaModelerSource( dbMeta, "SALES_TEST", "pub", rowMeta );
+
+    Domain domain = source.generateDomain( new PhysicalTableImporter.ImportStrategy() {
+      @Override public boolean shouldInclude( ValueMetaInterface valueMeta ) {
+        return !valueMeta.getName().equals( "skipped" );
+      }
+
+      @Override public String displayName( ValueMetaInterface valueMeta ) {
+        return valueMeta.getName().equals( "SALES_ID" ) ? "SalesId" : valueMeta.getName();
+      }
+    } );
+
+    SqlPhysicalModel physicalModel = (SqlPhysicalModel) domain.getPhysicalModels().get( 0 );
+    assertEquals( "myh2", physicalModel.getId() );
+    SqlPhysicalTable table = physicalModel.getPhysicalTables().get( 0 );
+    assertEquals( "PT_SALES_TEST", table.getId() );
+    assertEquals( "pub", table.getTargetSchema() );
+    assertEquals( "SALES_TEST", table.getTargetTable() );
+    assertEquals( "SALES TEST", table.getName( LOCALE ) );
+    assertEquals( 3, table.getPhysicalColumns().size() );
+    SqlPhysicalColumn salesId = (SqlPhysicalColumn) table.getPhysicalColumns().get( 0 );
+    assertEquals( "SALES_ID", salesId.getTargetColumn() );
+    assertEquals( "Sales Id", salesId.getName( LOCALE ) );
+    assertEquals( DataType.NUMERIC, salesId.getDataType() );
+    assertEquals( DataType.DATE, table.getPhysicalColumns().get( 1 ).getDataType() );
+    assertEquals( "ship Date", table.getPhysicalColumns().get( 2 ).getName( LOCALE ) );
+
+    LogicalModel logicalModel = domain.getLogicalModels().get( 0 );
+    LogicalTable logicalTable = logicalModel.getLogicalTables().get( 0 );
+    assertEquals( "BT_SALES_TEST_SALES_TEST", logicalTable.getId() );
+    assertSame( table, logicalTable.getPhysicalTable() );
+    LogicalColumn logicalColumn = logicalTable.getLogicalColumns().get( 0 );
+    assertEquals( "LC_SALES_TEST_SALES_ID", logicalColumn.getId() );
+    assertSame( salesId, logicalColumn.getPhysicalColumn() );
+    assertEquals( 3, logicalModel.getCategories().get( 0 ).getLogicalColumns().size() );
+  }
+
+  /**
+   * With the stream types matching the columns, the domain is the one the auto modeler builds from the database.
+   */
+  @Test
+  public void testSameAsTableModelerSource() throws Exception {
+    String dbDir = "target/test-db/RowMetaModelerSourceTest-H2-DB";
+    new File( dbDir + ".h2.db" ).delete();
+    DatabaseMeta dbMeta = new DatabaseMeta( "myh2", "H2", "Native", null, dbDir, null, "sa", null );
+    Database db = new Database( null, dbMeta );
+    db.connect();
+    RowMetaInterface tableFields;
+    try {
+      db.execStatement( "DROP TABLE IF EXISTS sales_fact;" );
+      db.execStatement( "CREATE TABLE sales_fact (order_id INTEGER, status VARCHAR(10), total_price DECIMAL(10, 2), "
+        + "quantity BIGINT, order_date DATE, QuantityOrdered DOUBLE);" );
+      tableFields = db.getTableFields( "sales_fact" );
+    } finally {
+      db.disconnect();
+    }
+
+    Domain expected = new TableModelerSource( dbMeta, "SALES_FACT", "" )
+      .generateDomain( PhysicalTableImporter.defaultImportStrategy );
+    Domain actual = new RowMetaModelerSource( dbMeta, "SALES_FACT", "", tableFields )
+      .generateDomain( PhysicalTableImporter.defaultImportStrategy );
+
+    assertEquals( expected.getId(), actual.getId() );
+    SqlPhysicalTable expectedTable =
+      ( (SqlPhysicalModel) expected.getPhysicalModels().get( 0 ) ).getPhysicalTables().get( 0 );
+    SqlPhysicalTable actualTable =
+      ( (SqlPhysicalModel) actual.getPhysicalModels().get( 0 ) ).getPhysicalTables().get( 0 );
+    assertEquals( expectedTable.getId(), actualTable.getId() );
+    assertEquals( expectedTable.getName( LOCALE ), actualTable.getName( LOCALE ) );
+    assertEquals( expectedTable.getPhysicalColumns().size(), actualTable.getPhysicalColumns().size() );
+    for ( int i = 0; i < expectedTable.getPhysicalColumns().size(); i++ ) {
+      IPhysicalColumn expectedColumn = expectedTable.getPhysicalColumns().get( i );
+      IPhysicalColumn actualColumn = actualTable.getPhysicalColumns().get( i );
+      String column = expectedColumn.getId();
+      assertEquals( column, expectedColumn.getId(), actualColumn.getId() );
+      assertEquals( column, expectedColumn.getName( LOCALE ), actualColumn.getName( LOCALE ) );
+      assertEquals( column, expectedColumn.getDataType(), actualColumn.getDataType() );
+      assertEquals( column, expectedColumn.getAggregationType(), actualColumn.getAggregationType() );
+      assertEquals( column, expectedColumn.getFieldType(), actualColumn.getFieldType() );
+    }
+
+    LogicalTable expectedLogicalTable = expected.getLogicalModels().get( 0 ).getLogicalTables().get( 0 );
+    LogicalTable actualLogicalTable = actual.getLogicalModels().get( 0 ).getLogicalTables().get( 0 );
+    assertEquals( expectedLogicalTable.getId(), actualLogicalTable.getId() );
+    assertEquals( expectedLogicalTable.getLogicalColumns().size(), actualLogicalTable.getLogicalColumns().size() );
+    for ( int i = 0; i < expectedLogicalTable.getLogicalColumns().size(); i++ ) {
+      LogicalColumn expectedColumn = expectedLogicalTable.getLogicalColumns().get( i );
+      LogicalColumn actualColumn = actualLogicalTable.getLogicalColumns().get( i );
+      assertEquals( expectedColumn.getId(), actualColumn.getId() );
+      assertEquals( expectedColumn.getName( LOCALE ), actualColumn.getName( LOCALE ) );
+    }
+  }
+
+  @Test
+  public void testBeautify() throws Exception {
+    assertEquals( "CUSTOMER ID", RowMetaModelerSource.beautify( "CUSTOMER_ID" ) );
+    assertEquals( "Quantity Ordered", RowMetaModelerSource.beautify( "QuantityOrdered" ) );
+    assertEquals( "state abbr", RowMetaModelerSource.beautify( "state_abbr" ) );
+  }
+}
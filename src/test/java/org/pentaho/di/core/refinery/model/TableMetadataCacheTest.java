@@ -0,0 +1,162 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2017 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+
+package org.pentaho.di.core.refinery.model;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pentaho.di.core.KettleClientEnvironment;
+import org.pentaho.di.core.database.Database;
+import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaNumber;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TableMetadataCacheTest {
+
+  private DatabaseMeta dbMeta;
+  private Database db;
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    if ( !KettleClientEnvironment.isInitialized() ) {
+      KettleClientEnvironment.init();
+    }
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    String dbDir = "target/test-db/TableMetadataCacheTest-H2-DB";
+    new File( dbDir + ".h2.db" ).delete();
+    dbMeta = new DatabaseMeta( "myh2", "H2", "Native", null, dbDir, null, "sa", null );
+    db = new Database( null, dbMeta );
+    db.connect();
+    db.execStatement( "DROP TABLE IF EXISTS orders;" );
+    db.execStatement( "CREATE TABLE orders (id INTEGER, status VARCHAR(10));" );
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    db.disconnect();
+  }
+
+  @Test
+  public void testCachesUntilInvalidated() throws Exception {
+    TableMetadataCache cache = new TableMetadataCache( 60000 );
+    assertEquals( 2, cache.getTableFields( null, dbMeta, null, "orders" ).size() );
+    db.execStatement( "ALTER TABLE orders ADD COLUMN total NUMERIC(10, 2);" );
+
+    DatabaseMeta sameDatabase = (DatabaseMeta) dbMeta.clone();
+    sameDatabase.setName( "other name" );
+    assertEquals( 2, cache.getTableFields( null, sameDatabase, null, "orders" ).size() );
+    assertEquals( 1, cache.getHits() );
+    assertEquals( 1, cache.getMisses() );
+
+    cache.invalidate( dbMeta, null, "orders" );
+    assertEquals( 3, cache.getTableFields( null, dbMeta, null, "orders" ).size() );
+    assertEquals( 2, cache.getMisses() );
+  }
+
+  @Test
+  public void testOnTableWritten() throws Exception {
+    TableMetadataCache cache = new TableMetadataCache( 60000 );
+    RowMetaInterface fields = cache.getTableFields( null, dbMeta, null, "orders" );
+    db.execStatement( "ALTER TABLE orders ADD COLUMN total NUMERIC(10, 2);" );
+
+    cache.onTableWritten( dbMeta, null, "orders", fields, false );
+    assertEquals( 2, cache.getTableFields( null, dbMeta, null, "orders" ).size() );
+
+    RowMetaInterface written = fields.clone();
+    written.addValueMeta( new ValueMetaNumber( "TOTAL" ) );
+    cache.onTableWritten( dbMeta, null, "orders", written, false );
+    assertEquals( 3, cache.getTableFields( null, dbMeta, null, "orders" ).size() );
+
+    db.execStatement( "ALTER TABLE orders DROP COLUMN total;" );
+    cache.onTableWritten( dbMeta, null, "orders", null, true );
+    assertEquals( 2, cache.getTableFields( null, dbMeta, null, "orders" ).size() );
+  }
+
+  @Test
+  public void testGetSharesValuesOfTable() throws Exception {
+    TableMetadataCache cache = new TableMetadataCache( 60000 );
+    final AtomicInteger loads = new AtomicInteger();
+    TableMetadataCache.Loader<String, RuntimeException> loader =
+      new TableMetadataCache.Loader<String, RuntimeException>() {
+        @Override public String load() {
+          return "value " + loads.incrementAndGet();
+        }
+      };
+    assertEquals( "value 1", cache.get( dbMeta, null, "orders", "kind", loader ) );
+    assertEquals( "value 1", cache.get( dbMeta, "", "orders", "kind", loader ) );
+    assertEquals( "value 2", cache.get( dbMeta, null, "orders", "other kind", loader ) );
+    cache.invalidate( dbMeta, null, "orders" );
+    assertEquals( "value 3", cache.get( dbMeta, null, "orders", "kind", loader ) );
+  }
+
+  @Test
+  public void testKeyedByTable() throws Exception {
+    assertFalse( TableMetadataCache.getKey( dbMeta, null, "orders" )
+      .equals( TableMetadataCache.getKey( dbMeta, "public", "orders" ) ) );
+    DatabaseMeta otherUser = (DatabaseMeta) dbMeta.clone();
+    otherUser.setUsername( "other" );
+    assertFalse( TableMetadataCache.getKey( dbMeta, null, "orders" )
+      .equals( TableMetadataCache.getKey( otherUser, null, "orders" ) ) );
+    // options are part of the URL the connection opens
+    DatabaseMeta otherOptions = (DatabaseMeta) dbMeta.clone();
+    otherOptions.addExtraOption( "H2", "IFEXISTS", "TRUE" );
+    assertFalse( TableMetadataCache.getKey( dbMeta, null, "orders" )
+      .equals( TableMetadataCache.getKey( otherOptions, null, "orders" ) ) );
+  }
+
+  @Test
+  public void testBounded() throws Exception {
+    TableMetadataCache cache = new TableMetadataCache( 60000 );
+    TableMetadataCache.Loader<String, RuntimeException> loader =
+      new TableMetadataCache.Loader<String, RuntimeException>() {
+        @Override public String load() {
+          return "value";
+        }
+      };
+    for ( int i = 0; i < TableMetadataCache.MAX_ENTRIES * 2; i++ ) {
+      cache.get( dbMeta, null, "table" + i, "kind", loader );
+      assertTrue( cache.size() <= TableMetadataCache.MAX_ENTRIES );
+    }
+  }
+
+  @Test
+  public void testDisabled() throws Exception {
+    TableMetadataCache cache = new TableMetadataCache( 0 );
+    assertEquals( 2, cache.getTableFields( null, dbMeta, null, "orders" ).size() );
+    db.execStatement( "ALTER TABLE orders ADD COLUMN total NUMERIC(10, 2);" );
+    assertEquals( 3, cache.getTableFields( null, dbMeta, null, "orders" ).size() );
+    assertEquals( 0, cache.getHits() );
+  }
+}
@@ -0,0 +1,71 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2017 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.model;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.pentaho.di.core.refinery.publish.util.Fingerprint;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class XmiBuildCacheTest {
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void testHitAndMiss() throws Exception {
+    XmiBuildCache cache = new XmiBuildCache( new File( temporaryFolder.getRoot(), "xmi-cache" ), 10 );
+    String fingerprint = new Fingerprint().add( "model" ).getValue();
+
+    assertNull( cache.get( fingerprint ) );
+    cache.put( fingerprint, "<xmi>é</xmi>" );
+    assertEquals( "<xmi>é</xmi>", cache.get( fingerprint ) );
+    assertEquals( 1, cache.getHits() );
+    assertEquals( 1, cache.getMisses() );
+
+    // overwrite
+    cache.put( fingerprint, "<xmi/>" );
+    assertEquals( "<xmi/>", cache.get( fingerprint ) );
+    assertEquals( 1, cache.getDirectory().list().length );
+  }
+
+  @Test
+  public void testPrunesLeastRecentlyUsed() throws Exception {
+    XmiBuildCache cache = new XmiBuildCache( temporaryFolder.getRoot(), 2 );
+    cache.put( "a", "a" );
+    new File( temporaryFolder.getRoot(), "a.xmi" ).setLastModified( 1000 );
+    cache.put( "b", "b" );
+    new File( temporaryFolder.getRoot(), "b.xmi" ).setLastModified( 2000 );
+    cache.put( "c", "c" );
+
+    assertNull( cache.get( "a" ) );
+    assertNotNull( cache.get( "b" ) );
+    assertNotNull( cache.get( "c" ) );
+  }
+}
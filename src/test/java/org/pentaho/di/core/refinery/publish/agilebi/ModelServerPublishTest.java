@@ -23,14 +23,20 @@
 package org.pentaho.di.core.refinery.publish.agilebi;
 
 import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.ClientHandler;
+import com.sun.jersey.api.client.ClientRequest;
 import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.api.client.WebResource;
+import com.sun.jersey.api.client.config.ClientConfig;
 import com.sun.jersey.multipart.BodyPart;
 import com.sun.jersey.multipart.FormDataMultiPart;
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Properties;
+import org.apache.commons.io.IOUtils;
 import org.hamcrest.BaseMatcher;
 import org.hamcrest.Description;
 import org.hamcrest.Matcher;
@@ -48,6 +54,7 @@ import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.logging.LogChannelInterface;
 import org.pentaho.di.core.refinery.publish.model.DataSourceAclModel;
 import org.pentaho.di.core.refinery.publish.util.JAXBUtils;
+import org.pentaho.di.core.refinery.publish.util.ServerResilience;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -61,7 +68,9 @@ import static org.mockito.Mockito.anyString;
 import static org.mockito.Mockito.doCallRealMethod;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -144,7 +153,7 @@ public class ModelServerPublishTest {
 
     // valid
     when( clientResponse.getStatus() ).thenReturn( 200 );
-    when( clientResponse.getEntity( String.class ) ).thenReturn( json );
+    when( clientResponse.getEntity( InputStream.class ) ).thenReturn( IOUtils.toInputStream( json, "UTF-8" ) );
     assertNotNull( modelServerPublishSpy.connectionNameExists( "test" ) );
   }
 
@@ -443,6 +452,58 @@ public class ModelServerPublishTest {
   }
 
 
+  @Test
+  public void testAddNotRetriedAfterLostResponse() throws Exception {
+    WebResource.Builder builder = mock( WebResource.Builder.class );
+    doReturn( builder ).when( modelServerPublishSpy )
+        .resourceBuilder( any( WebResource.class ), any( FormDataMultiPart.class ) );
+    doReturn( new ServerResilience( 2, 0, 0, 0 ) ).when( modelServerPublishSpy ).getServerResilience();
+    ClientResponse conflict = mock( ClientResponse.class );
+    when( conflict.getStatus() ).thenReturn( 409 );
+    when( clientResponse.getStatus() ).thenReturn( 502 );
+    // the server stored the add but answered 502, sending it again would conflict
+    when( builder.put( ClientResponse.class ) ).thenReturn( clientResponse, conflict );
+    when( builder.method( "PUT", ClientResponse.class ) ).thenReturn( clientResponse, conflict );
+
+    InputStream upload = new ByteArrayInputStream( "<xmi/>".getBytes() );
+    assertEquals( ModelServerPublish.PUBLISH_FAILED, modelServerPublishSpy.publishDsw( upload, "Test.xmi" ) );
+    verify( builder, times( 1 ) ).put( ClientResponse.class );
+    when( builder.put( ClientResponse.class ) ).thenReturn( clientResponse, conflict );
+    assertEquals( ModelServerPublish.PUBLISH_FAILED, modelServerPublishSpy.publishMetaDataFile( upload, "Test" ) );
+    verify( builder, times( 2 ) ).put( ClientResponse.class );
+    verify( builder, never() ).method( "PUT", ClientResponse.class );
+
+    // replacing is safe to send again
+    ClientResponse ok = mock( ClientResponse.class );
+    when( ok.getStatus() ).thenReturn( 200 );
+    when( builder.method( "PUT", ClientResponse.class ) ).thenReturn( clientResponse, ok );
+    modelServerPublishSpy.setForceOverwrite( true );
+    assertEquals( ModelServerPublish.PUBLISH_SUCCESS, modelServerPublishSpy.publishDsw( upload, "Test.xmi" ) );
+    verify( builder, times( 2 ) ).method( "PUT", ClientResponse.class );
+  }
+
+  @Test
+  public void testUploadsUseTheirOwnReadTimeout() throws Exception {
+    final List<ClientRequest> requests = new ArrayList<ClientRequest>();
+    Client capturing = new Client( new ClientHandler() {
+      @Override public ClientResponse handle( ClientRequest request ) {
+        requests.add( request );
+        return clientResponse;
+      }
+    } );
+    doReturn( 600000 ).when( modelServerPublishSpy ).getUploadReadTimeout();
+
+    WebResource resource = capturing.resource( "http://localhost:8080/pentaho/plugin/data-access/api/datasource" );
+    modelServerPublishSpy.resourceBuilder( resource, new FormDataMultiPart() ).put( ClientResponse.class );
+    assertEquals( 1, requests.size() );
+    assertEquals( 600000, requests.get( 0 ).getProperties().get( ClientConfig.PROPERTY_READ_TIMEOUT ) );
+
+    // other calls keep the client's read timeout
+    capturing.resource( "http://localhost:8080/pentaho/plugin/data-access/api/connection/list" )
+        .get( ClientResponse.class );
+    assertNull( requests.get( 1 ).getProperties().get( ClientConfig.PROPERTY_READ_TIMEOUT ) );
+  }
+
   @Test( expected = IllegalArgumentException.class )
   public void testPublishDsw() throws Exception {
 
@@ -0,0 +1,54 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2017 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.publish.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class FingerprintTest {
+
+  @Test
+  public void testFingerprint() throws Exception {
+    String fingerprint = fingerprint( "ab", "c" );
+    assertEquals( fingerprint, fingerprint( "ab", "c" ) );
+    assertFalse( fingerprint.equals( fingerprint( "a", "bc" ) ) );
+    assertFalse( fingerprint( "", "c" ).equals( fingerprint( null, "c" ) ) );
+    assertEquals( 64, fingerprint.length() );
+
+    ArrayList<String> list = new ArrayList<String>();
+    list.add( "measure" );
+    assertEquals( new Fingerprint().add( list ).getValue(),
+        new Fingerprint().add( new ArrayList<String>( list ) ).getValue() );
+
+    Fingerprint numbers = new Fingerprint().add( 1 ).add( true );
+    assertEquals( numbers.getValue(), numbers.toString() );
+  }
+
+  private String fingerprint( String first, String second ) {
+    return new Fingerprint().add( first ).add( second ).getValue();
+  }
+}
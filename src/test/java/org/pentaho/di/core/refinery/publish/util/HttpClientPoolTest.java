@@ -0,0 +1,143 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2017 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.publish.util;
+
+import com.sun.jersey.api.client.Client;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class HttpClientPoolTest {
+
+  private static final int REQUESTS = 20;
+
+  private HttpServer server;
+  private String url;
+  private final AtomicInteger requests = new AtomicInteger();
+  // every TCP connection opened by a client shows up with its own ephemeral port
+  private final Set<Integer> connections = Collections.synchronizedSet( new HashSet<Integer>() );
+
+  @Before
+  public void setUp() throws Exception {
+    server = HttpServer.create( new InetSocketAddress( "localhost", 0 ), 0 );
+    server.createContext( "/pentaho/", new HttpHandler() {
+      @Override public void handle( HttpExchange exchange ) throws IOException {
+        requests.incrementAndGet();
+        connections.add( exchange.getRemoteAddress().getPort() );
+        byte[] body = "true".getBytes( "UTF-8" );
+        exchange.sendResponseHeaders( 200, body.length );
+        exchange.getResponseBody().write( body );
+        exchange.close();
+      }
+    } );
+    server.start();
+    url = "http://localhost:" + server.getAddress().getPort() + "/pentaho/api/authorization";
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    server.stop( 0 );
+  }
+
+  @Test
+  public void testClientsAreShared() {
+    HttpClientPool pool = new HttpClientPool( 1000, 1000, 0, 2, 2 );
+    assertSame( pool.getClient(), pool.getClient() );
+    assertSame( pool.getClient( "admin", "password" ), pool.getClient( "admin", "password" ) );
+    assertNotSame( pool.getClient( "admin", "password" ), pool.getClient( "admin", "other" ) );
+    assertNotSame( pool.getClient(), pool.getClient( "admin", "password" ) );
+  }
+
+  @Test
+  public void testAuthenticatedClientsBounded() {
+    HttpClientPool pool = new HttpClientPool( 1000, 1000, 0, 2, 2 );
+    Client first = pool.getClient( "user0", "password" );
+    for ( int i = 1; i <= HttpClientPool.MAX_AUTHENTICATED_CLIENTS; i++ ) {
+      pool.getClient( "user" + i, "password" );
+      // recently used, kept
+      assertSame( first, pool.getClient( "user0", "password" ) );
+    }
+    assertEquals( HttpClientPool.MAX_AUTHENTICATED_CLIENTS, pool.getAuthenticatedClientCount() );
+    // least recently used one was dropped
+    Client again = pool.getClient( "user1", "password" );
+    assertEquals( HttpClientPool.MAX_AUTHENTICATED_CLIENTS, pool.getAuthenticatedClientCount() );
+    assertSame( again, pool.getClient( "user1", "password" ) );
+  }
+
+  @Test
+  public void testJerseyClientReusesConnection() throws Exception {
+    HttpClientPool pool = new HttpClientPool( 1000, 1000, 0, 2, 2 );
+    for ( int i = 0; i < REQUESTS; i++ ) {
+      Client client = pool.getClient( "admin", "password" );
+      assertEquals( "true", client.resource( url ).get( String.class ) );
+    }
+    assertEquals( REQUESTS, requests.get() );
+    assertEquals( 1, connections.size() );
+  }
+
+  @Test
+  public void testHttpClientReusesConnection() throws Exception {
+    HttpClientPool pool = new HttpClientPool( 1000, 1000, 0, 2, 2 );
+    for ( int i = 0; i < REQUESTS; i++ ) {
+      executeGet( pool.newHttpClient() );
+    }
+    assertEquals( REQUESTS, requests.get() );
+    assertEquals( 1, connections.size() );
+  }
+
+  @Test
+  public void testUnpooledHttpClientOpensConnectionPerCall() throws Exception {
+    // baseline: what BaseRestUtil.simpleHttpGet used to do
+    for ( int i = 0; i < REQUESTS; i++ ) {
+      executeGet( new HttpClient() );
+    }
+    assertEquals( REQUESTS, requests.get() );
+    assertEquals( REQUESTS, connections.size() );
+  }
+
+  private void executeGet( HttpClient client ) throws Exception {
+    GetMethod get = new GetMethod( url );
+    try {
+      assertEquals( 200, client.executeMethod( get ) );
+      assertEquals( "true", get.getResponseBodyAsString() );
+    } finally {
+      get.releaseConnection();
+    }
+  }
+}
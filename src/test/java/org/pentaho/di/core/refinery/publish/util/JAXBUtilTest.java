@@ -26,9 +26,19 @@ import org.junit.Before;
 import org.junit.Test;
 import org.pentaho.database.model.DatabaseConnection;
 
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 
 /**
  * @author Rowell Belen
@@ -65,4 +75,53 @@ public class JAXBUtilTest {
     assertNotNull( connection );
 
   }
+
+  @Test
+  public void testContextIsShared() throws Exception {
+    assertSame( JAXBUtils.getContext( DatabaseConnection.class ), JAXBUtils.getContext( DatabaseConnection.class ) );
+  }
+
+  @Test
+  public void testStreams() throws Exception {
+    DatabaseConnection connection = new DatabaseConnection();
+    connection.setId( "id" );
+    connection.setName( "Sales é" );
+
+    StringWriter xml = new StringWriter();
+    JAXBUtils.marshallToXml( connection, xml );
+    assertEquals( JAXBUtils.marshallToXml( connection ), xml.toString() );
+    assertEquals( "Sales é", JAXBUtils.unmarshalFromXml(
+        new ByteArrayInputStream( xml.toString().getBytes( "UTF-8" ) ), DatabaseConnection.class ).getName() );
+
+    StringWriter json = new StringWriter();
+    JAXBUtils.marshallToJson( connection, json );
+    assertEquals( JAXBUtils.marshallToJson( connection ), json.toString() );
+    assertEquals( "Sales é", JAXBUtils.unmarshalFromJson(
+        new ByteArrayInputStream( json.toString().getBytes( "UTF-8" ) ), DatabaseConnection.class ).getName() );
+  }
+
+  @Test
+  public void testConcurrentUse() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool( 16 );
+    try {
+      List<Future<String>> names = new ArrayList<Future<String>>();
+      for ( int i = 0; i < 200; i++ ) {
+        final String name = "connection " + i;
+        names.add( executor.submit( new Callable<String>() {
+          @Override public String call() throws Exception {
+            DatabaseConnection connection = new DatabaseConnection();
+            connection.setName( name );
+            String json = JAXBUtils.marshallToJson( connection );
+            String xml = JAXBUtils.marshallToXml( JAXBUtils.unmarshalFromJson( json, DatabaseConnection.class ) );
+            return JAXBUtils.unmarshalFromXml( xml, DatabaseConnection.class ).getName();
+          }
+        } ) );
+      }
+      for ( int i = 0; i < names.size(); i++ ) {
+        assertEquals( "connection " + i, names.get( i ).get() );
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
 }
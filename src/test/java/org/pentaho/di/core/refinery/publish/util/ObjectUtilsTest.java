@@ -26,6 +26,7 @@ import org.apache.commons.lang.StringUtils;
 import org.junit.Before;
 import org.junit.Test;
 import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
+import org.pentaho.di.core.refinery.publish.model.DataSourceAclModel;
 import org.pentaho.di.core.refinery.publish.model.DataSourcePublishModel;
 
 import org.pentaho.agilebi.modeler.models.annotations.AnnotationType;
@@ -84,6 +85,40 @@ public class ObjectUtilsTest {
     objectUtils.deepClone( null );
   }
 
+  @Test
+  public void testDeepCloneModels() {
+    biServerConnection.setDefaultFolder( "/public" );
+    biServerConnection.setDefaultDatasourcePublish( true );
+    BiServerConnection connection = objectUtils.deepClone( biServerConnection );
+    assertNotSame( biServerConnection, connection );
+    assertEquals( objectUtils.toXml( biServerConnection ), objectUtils.toXml( connection ) );
+
+    DataSourcePublishModel model = new DataSourcePublishModel();
+    model.setModelName( "logicalModel" );
+    model.setOverride( true );
+    model.setPublishOnlyIfChanged( true );
+    model.setPublishAllModels( true );
+    model.setPublishAsync( true );
+    model.setUserOrRole( "suzy" );
+    model.setAccessType( DataSourcePublishModel.ACCESS_TYPE_USER );
+    model.setBiServerConnection( biServerConnection );
+    DataSourcePublishModel modelCopy = objectUtils.deepClone( model );
+    assertNotSame( model.getBiServerConnection(), modelCopy.getBiServerConnection() );
+    // same content as the serialization round trip
+    assertEquals( objectUtils.toXml( objectUtils.cloneSerialize( model ) ), objectUtils.toXml( modelCopy ) );
+    assertNull( objectUtils.deepClone( new DataSourcePublishModel() ).getBiServerConnection() );
+
+    DataSourceAclModel acl = new DataSourceAclModel();
+    acl.addUser( "suzy" );
+    acl.addRole( "Power User" );
+    DataSourceAclModel aclCopy = objectUtils.deepClone( acl );
+    acl.addUser( "pat" );
+    assertEquals( 1, aclCopy.getUsers().size() );
+    assertEquals( acl.getRoles(), aclCopy.getRoles() );
+    assertNotSame( acl.getRoles(), aclCopy.getRoles() );
+    assertNull( objectUtils.deepClone( new DataSourceAclModel() ).getUsers() );
+  }
+
   @Test
   public void testDeepClone2() {
     CreateDimensionKey cdk = new CreateDimensionKey();
@@ -0,0 +1,113 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2017 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.publish.util;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PayloadSpoolTest {
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void testWrite() throws Exception {
+    PayloadSpool spool = new PayloadSpool( new File( temporaryFolder.getRoot(), "spool" ) );
+    File first = spool.write( "xmi", "<xmi>é</xmi>" );
+    File second = spool.write( "xmi", "<xmi/>" );
+
+    assertFalse( first.equals( second ) );
+    assertEquals( spool.getDirectory(), first.getParentFile() );
+    assertEquals( "<xmi>é</xmi>", FileUtils.readFileToString( first, "UTF-8" ) );
+    assertEquals( "<xmi/>", FileUtils.readFileToString( second, "UTF-8" ) );
+  }
+
+  @Test
+  public void testWriteLargePayload() throws Exception {
+    StringBuilder sb = new StringBuilder();
+    for ( int i = 0; i < 5000; i++ ) {
+      sb.append( "<column name=\"é" ).append( i ).append( "\"/>" );
+    }
+    String payload = sb.toString();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    PayloadSpool.write( payload, out );
+    assertArrayEquals( payload.getBytes( "UTF-8" ), out.toByteArray() );
+  }
+
+  @Test
+  public void testWriteGzip() throws Exception {
+    PayloadSpool spool = new PayloadSpool( temporaryFolder.getRoot(), true );
+    File file = spool.write( "xmi", "<xmi>é</xmi>" );
+    byte[] content = FileUtils.readFileToByteArray( file );
+    assertEquals( 0x1f, content[0] & 0xff );
+    assertEquals( 0x8b, content[1] & 0xff );
+
+    InputStream in = RewindableFileInputStream.open( file );
+    try {
+      assertTrue( in.markSupported() );
+      assertEquals( '<', in.read() );
+      in.mark( 0 );
+      assertEquals( "xmi>é</xmi>", IOUtils.toString( in, "UTF-8" ) );
+      in.reset();
+      assertEquals( "xmi>é</xmi>", IOUtils.toString( in, "UTF-8" ) );
+    } finally {
+      in.close();
+    }
+
+    InputStream plain = RewindableFileInputStream.open( new PayloadSpool( temporaryFolder.getRoot() )
+        .write( "xmi", "<xmi/>" ) );
+    try {
+      assertTrue( plain instanceof RewindableFileInputStream );
+      assertEquals( "<xmi/>", IOUtils.toString( plain, "UTF-8" ) );
+    } finally {
+      plain.close();
+    }
+  }
+
+  @Test
+  public void testPrune() throws Exception {
+    PayloadSpool spool = new PayloadSpool( temporaryFolder.getRoot() );
+    File old = spool.write( "mondrian", "<Schema/>" );
+    old.setLastModified( 1000 );
+    File recent = spool.write( "mondrian", "<Schema/>" );
+    File other = temporaryFolder.newFile( "other.txt" );
+    other.setLastModified( 1000 );
+
+    spool.prune( 2000 );
+    assertFalse( old.exists() );
+    assertTrue( recent.exists() );
+    assertTrue( other.exists() );
+  }
+}
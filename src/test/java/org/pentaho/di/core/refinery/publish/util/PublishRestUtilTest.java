@@ -26,12 +26,13 @@ import com.sun.jersey.api.client.Client;
 import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.api.client.WebResource;
 import com.sun.jersey.api.client.filter.HTTPBasicAuthFilter;
-import com.sun.jersey.client.urlconnection.URLConnectionClientHandler;
+import com.sun.jersey.client.apache.ApacheHttpClientHandler;
 import com.sun.jersey.multipart.FormDataMultiPart;
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.methods.GetMethod;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.*;
 
@@ -43,9 +44,16 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
 import org.mockito.MockitoAnnotations;
 import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
+import org.pentaho.di.core.refinery.publish.model.PermissionSnapshot;
 import org.pentaho.di.core.refinery.publish.model.ResponseStatus;
 
 import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author Rowell Belen
@@ -87,13 +95,15 @@ public class PublishRestUtilTest {
   @Test
   public void testGetAnonymousClient() {
     Client client = publishRestUtil.getAnonymousClient();
-    assertTrue( client.getHeadHandler() instanceof URLConnectionClientHandler );
+    assertTrue( client.getHeadHandler() instanceof ApacheHttpClientHandler );
+    assertSame( client, publishRestUtil.getAnonymousClient() );
   }
 
   @Test
   public void testGetAuthenticatedClient() {
     Client client = publishRestUtil.getAuthenticatedClient( getMockConnection() );
     assertTrue( client.getHeadHandler() instanceof HTTPBasicAuthFilter );
+    assertSame( client, publishRestUtil.getAuthenticatedClient( getMockConnection() ) );
   }
 
   @Test
@@ -352,6 +362,95 @@ public class PublishRestUtilTest {
     assertFalse( publishRestUtil.canExecute( connection ) );
   }
 
+  @Test
+  public void testIsAuthorized() {
+
+    BiServerConnection connection = getMockConnection();
+
+    ClientResponse mockResponse = mock( ClientResponse.class );
+    stub( mockResponse.getEntity( String.class ) ).toReturn( "true" );
+    stub( mockResponse.getStatus() ).toReturn( 200 );
+    doReturn( mockResponse ).when( publishRestUtil ).httpGet( connection, PublishRestUtil.CAN_PUBLISH_PATH, true );
+
+    ResponseStatus status = publishRestUtil.isAuthorized( connection, PublishRestUtil.PUBLISH_ACTION );
+    assertEquals( 200, status.getStatus() );
+    assertEquals( "true", status.getMessage() );
+
+    // unknown response
+    doReturn( null ).when( publishRestUtil ).httpGet( connection, PublishRestUtil.CAN_PUBLISH_PATH, true );
+    assertEquals( -1, publishRestUtil.isAuthorized( connection, PublishRestUtil.PUBLISH_ACTION ).getStatus() );
+
+    // connection failure
+    doThrow( new RuntimeException( "refused" ) ).when( publishRestUtil )
+        .httpGet( connection, PublishRestUtil.CAN_PUBLISH_PATH, true );
+    assertEquals( -1, publishRestUtil.isAuthorized( connection, PublishRestUtil.PUBLISH_ACTION ).getStatus() );
+  }
+
+  @Test
+  public void testGetPermissionsProbesInParallel() {
+
+    final Set<String> actions = new LinkedHashSet<String>( Arrays.asList( PublishRestUtil.PUBLISH_ACTION,
+        PublishRestUtil.MANAGE_DATASOURCES_ACTION, PublishRestUtil.CREATE_ACTION ) );
+    final CountDownLatch allInFlight = new CountDownLatch( actions.size() );
+
+    PublishRestUtil restUtil = new PublishRestUtil() {
+      @Override protected ResponseStatus isAuthorized( BiServerConnection connection, String authAction ) {
+        allInFlight.countDown();
+        try {
+          // only completes if every probe is running at the same time
+          allInFlight.await( 5, TimeUnit.SECONDS );
+        } catch ( InterruptedException e ) {
+          Thread.currentThread().interrupt();
+        }
+        ResponseStatus status = new ResponseStatus();
+        if ( PublishRestUtil.CREATE_ACTION.equals( authAction ) ) {
+          status.setStatus( -1 );
+        } else if ( PublishRestUtil.MANAGE_DATASOURCES_ACTION.equals( authAction ) ) {
+          status.setStatus( 404 );
+          status.setMessage( "<html/>" );
+        } else {
+          status.setStatus( 200 );
+          status.setMessage( "true" );
+        }
+        return status;
+      }
+    };
+
+    PermissionSnapshot permissions = restUtil.getPermissions( getMockConnection(), actions );
+    assertEquals( 0, allInFlight.getCount() );
+    assertEquals( actions, permissions.getActions() );
+
+    assertTrue( permissions.isAuthorized( PublishRestUtil.PUBLISH_ACTION ) );
+    assertEquals( 200, permissions.getStatus( PublishRestUtil.PUBLISH_ACTION ) );
+    assertFalse( permissions.isAuthorized( PublishRestUtil.MANAGE_DATASOURCES_ACTION ) );
+    assertEquals( 404, permissions.getStatus( PublishRestUtil.MANAGE_DATASOURCES_ACTION ) );
+    assertFalse( permissions.isAuthorized( PublishRestUtil.CREATE_ACTION ) );
+    assertEquals( -1, permissions.getStatus( PublishRestUtil.CREATE_ACTION ) );
+    assertFalse( permissions.isAuthorized( PublishRestUtil.EXECUTE_ACTION ) );
+
+    assertFalse( permissions.isAuthorized() );
+    assertEquals( PublishRestUtil.MANAGE_DATASOURCES_ACTION, permissions.getFirstDenied() );
+    // same as the serial checks stopping at the first denied action
+    assertEquals( 404, restUtil.getLastHTTPStatus() );
+  }
+
+  @Test( expected = UnsupportedOperationException.class )
+  public void testPermissionSnapshotIsImmutable() {
+    PublishRestUtil restUtil = new PublishRestUtil() {
+      @Override protected ResponseStatus isAuthorized( BiServerConnection connection, String authAction ) {
+        ResponseStatus status = new ResponseStatus();
+        status.setStatus( 200 );
+        status.setMessage( "true" );
+        return status;
+      }
+    };
+    PermissionSnapshot permissions =
+        restUtil.getPermissions( getMockConnection(), Collections.singleton( PublishRestUtil.PUBLISH_ACTION ) );
+    assertTrue( permissions.isAuthorized() );
+    assertEquals( 200, restUtil.getLastHTTPStatus() );
+    permissions.getActions().add( PublishRestUtil.CREATE_ACTION );
+  }
+
   @Test
   public void testIsPentahoServer() {
 
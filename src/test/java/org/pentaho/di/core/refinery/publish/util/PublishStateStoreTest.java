@@ -0,0 +1,69 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2017 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.publish.util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class PublishStateStoreTest {
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void testPutAndForget() throws Exception {
+    File file = new File( temporaryFolder.getRoot(), "state/publish-state.properties" );
+    PublishStateStore store = new PublishStateStore( file );
+    String key = PublishStateStore.key( "http://localhost:8080/pentaho/", PublishStateStore.TYPE_XMI, "model" );
+
+    assertNull( store.getFingerprint( key ) );
+
+    Map<String, String> fingerprints = new HashMap<String, String>();
+    fingerprints.put( key, "abc" );
+    store.putFingerprints( fingerprints );
+    assertEquals( "abc", store.getFingerprint( key ) );
+
+    // shared through the file
+    assertEquals( "abc", new PublishStateStore( file ).getFingerprint( key ) );
+
+    fingerprints.put( key, null );
+    store.putFingerprints( fingerprints );
+    assertNull( store.getFingerprint( key ) );
+    assertEquals( 1, file.getParentFile().list().length );
+  }
+
+  @Test
+  public void testKey() {
+    assertEquals( PublishStateStore.key( "http://localhost:8080/pentaho", PublishStateStore.TYPE_DATABASE, "db" ),
+        PublishStateStore.key( "http://localhost:8080/pentaho/", PublishStateStore.TYPE_DATABASE, "db" ) );
+    assertEquals( "|mondrian|model", PublishStateStore.key( null, PublishStateStore.TYPE_MONDRIAN, "model" ) );
+  }
+}
@@ -0,0 +1,180 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2017 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+
+package org.pentaho.di.core.refinery.publish.util;
+
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientResponse;
+import org.junit.Test;
+import org.pentaho.di.core.logging.LogChannelInterface;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.contains;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ServerResilienceTest {
+
+  private static final String SERVER = "http://localhost:8080/pentaho/";
+
+  @Test
+  public void testRetriesIdempotentCalls() {
+    ServerResilience resilience = new ServerResilience( 2, 0, 0, 0 );
+    CountingCall call = new CountingCall( 503, 503, 200 );
+    assertEquals( 200, resilience.execute( SERVER, true, call ).getStatus() );
+    assertEquals( 3, call.calls.get() );
+    assertEquals( 2, resilience.getRetries() );
+
+    // gives up after the configured retries
+    call = new CountingCall( 503, 503, 503, 200 );
+    assertEquals( 503, resilience.execute( SERVER, true, call ).getStatus() );
+    assertEquals( 3, call.calls.get() );
+  }
+
+  @Test
+  public void testRetriesConnectionFailures() {
+    ServerResilience resilience = new ServerResilience( 2, 0, 0, 0 );
+    final AtomicInteger calls = new AtomicInteger();
+    ClientResponse response = resilience.execute( SERVER, true, new ServerResilience.Call() {
+      @Override public ClientResponse execute() {
+        if ( calls.incrementAndGet() == 1 ) {
+          throw new ClientHandlerException( "connection refused" );
+        }
+        return response( 200 );
+      }
+    } );
+    assertEquals( 200, response.getStatus() );
+    assertEquals( 2, calls.get() );
+  }
+
+  @Test
+  public void testDoesNotRetryOtherCalls() {
+    ServerResilience resilience = new ServerResilience( 2, 0, 0, 0 );
+    CountingCall call = new CountingCall( 503, 200 );
+    assertEquals( 503, resilience.execute( SERVER, false, call ).getStatus() );
+    assertEquals( 1, call.calls.get() );
+
+    // not transient
+    call = new CountingCall( 500, 200 );
+    assertEquals( 500, resilience.execute( SERVER, true, call ).getStatus() );
+    assertEquals( 1, call.calls.get() );
+    assertEquals( 0, resilience.getRetries() );
+  }
+
+  @Test
+  public void testCircuitOpensAndRecovers() {
+    final AtomicLong now = new AtomicLong( 1000 );
+    ServerResilience resilience = new ServerResilience( 0, 0, 2, 200 ) {
+      @Override protected long currentTimeMillis() {
+        return now.get();
+      }
+    };
+    resilience.execute( SERVER, true, new CountingCall( 503 ) );
+    assertFalse( resilience.isOpen( SERVER ) );
+    resilience.execute( SERVER, true, new CountingCall( 503 ) );
+    assertTrue( resilience.isOpen( SERVER ) );
+    assertEquals( 1, resilience.getOpenCircuits() );
+    assertEquals( 1, resilience.getCircuitsOpened() );
+
+    CountingCall call = new CountingCall( 200 );
+    try {
+      resilience.execute( "http://localhost:8080/pentaho", true, call );
+      fail( "expected ServerUnavailableException" );
+    } catch ( ServerUnavailableException e ) {
+      assertEquals( 0, call.calls.get() );
+      assertEquals( 1, resilience.getRejected() );
+    }
+    // other servers are not affected
+    assertEquals( 200, resilience.execute( "http://other:8080/pentaho/", true, call ).getStatus() );
+
+    now.addAndGet( 199 );
+    assertTrue( resilience.isOpen( SERVER ) );
+    now.addAndGet( 1 );
+    assertEquals( 200, resilience.execute( SERVER, true, new CountingCall( 200 ) ).getStatus() );
+    assertFalse( resilience.isOpen( SERVER ) );
+    assertEquals( 0, resilience.getOpenCircuits() );
+  }
+
+  @Test
+  public void testLogsRetriesAndCircuitChanges() {
+    final AtomicLong now = new AtomicLong( 1000 );
+    ServerResilience resilience = new ServerResilience( 1, 0, 2, 200 ) {
+      @Override protected long currentTimeMillis() {
+        return now.get();
+      }
+    };
+    LogChannelInterface log = mock( LogChannelInterface.class );
+    resilience.execute( SERVER, true, new CountingCall( 503, 503 ), log );
+    verify( log ).logBasic( contains( "(HTTP 503), retry 1 of 1 in 0 ms" ) );
+    verify( log ).logError( contains( "failed 2 times in a row" ) );
+
+    try {
+      resilience.execute( SERVER, true, new CountingCall( 200 ), log );
+      fail( "expected ServerUnavailableException" );
+    } catch ( ServerUnavailableException e ) {
+      verify( log ).logDetailed( contains( "not sent" ) );
+    }
+
+    now.addAndGet( 200 );
+    resilience.execute( SERVER, true, new CountingCall( 200 ), log );
+    verify( log ).logBasic( contains( "answers again" ) );
+  }
+
+  @Test
+  public void testGetRetryDelay() {
+    ServerResilience resilience = new ServerResilience( 2, 1000, 0, 0 );
+    for ( int i = 0; i < 20; i++ ) {
+      long delay = resilience.getRetryDelay( 1 );
+      assertTrue( delay >= 1000 && delay <= 2000 );
+      assertTrue( resilience.getRetryDelay( 40 ) <= 30000 );
+    }
+    assertEquals( 0, new ServerResilience( 2, 0, 0, 0 ).getRetryDelay( 3 ) );
+  }
+
+  private static ClientResponse response( int status ) {
+    ClientResponse response = mock( ClientResponse.class );
+    when( response.getStatus() ).thenReturn( status );
+    return response;
+  }
+
+  private static class CountingCall implements ServerResilience.Call {
+    private final int[] statuses;
+    private final AtomicInteger calls = new AtomicInteger();
+
+    CountingCall( int... statuses ) {
+      this.statuses = statuses;
+    }
+
+    @Override public ClientResponse execute() {
+      int call = calls.getAndIncrement();
+      return response( statuses[ Math.min( call, statuses.length - 1 ) ] );
+    }
+  }
+}
@@ -22,16 +22,20 @@
 
 package org.pentaho.di.job.entries.build;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.BeforeClass;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.Mockito;
 import org.pentaho.agilebi.modeler.ModelerException;
 import org.pentaho.agilebi.modeler.models.annotations.CreateMeasure;
 import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotation;
 import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationGroup;
+import org.pentaho.agilebi.modeler.util.TableModelerSource;
 import org.pentaho.di.core.Const;
 import org.pentaho.di.core.KettleClientEnvironment;
 import org.pentaho.di.core.Props;
@@ -46,7 +50,9 @@ import org.pentaho.di.core.plugins.StepPluginType;
 import org.pentaho.di.core.refinery.model.AnalysisModeler;
 import org.pentaho.di.core.refinery.model.DswModeler;
 import org.pentaho.di.core.refinery.model.ModelServerFetcher;
+import org.pentaho.di.core.refinery.model.XmiBuildCache;
 import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
+import org.pentaho.di.core.refinery.publish.util.PayloadSpool;
 import org.pentaho.di.core.row.RowMeta;
 import org.pentaho.di.core.row.value.ValueMetaBigNumber;
 import org.pentaho.di.core.row.value.ValueMetaString;
@@ -92,6 +98,9 @@ import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.*;
 
 public class JobEntryBuildModelTest {
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
   private LogChannelInterface mockLog;
   private Job job;
   private JobEntryTrans trans;
@@ -315,7 +324,7 @@ public class JobEntryBuildModelTest {
         getClass().getResourceAsStream( "/org/pentaho/di/core/refinery/model/resources/testDSW.xmi" );
     when( modelServerFetcher.downloadDswFile( "testDSW.xmi" ) )
         .thenReturn( new XmiParser().parseXmi( existingSchema ) );
-    when( modelServerFetcher.fetchDswList() ).thenReturn( asList( "testDSW.xmi" ) );
+    when( modelServerFetcher.datasourceExists( "testDSW.xmi" ) ).thenReturn( true );
     job.run();
 
     assertTrue( job.getResult().getResult() );
@@ -366,7 +375,7 @@ public class JobEntryBuildModelTest {
             .toString(
                 getClass().getResourceAsStream( "/org/pentaho/di/core/refinery/model/resources/testAnalysisSchema.xml" ) ) );
 
-    Mockito.when( modelServerFetcher.fetchAnalysisList() ).thenReturn( asList( "someModelName" ) );
+    Mockito.when( modelServerFetcher.datasourceExists( "someModelName" ) ).thenReturn( true );
 
     when( analysisModeler.replaceTableAndSchemaNames(
         eq( existingSchema ), eq( "Car Sales Analysis" ) ) )
@@ -406,6 +415,107 @@ public class JobEntryBuildModelTest {
     verify( modeler, times( 1 ) ).updateModel( "modelName", null, null, schemaName, null );
   }
 
+  @Test
+  public void testBuildXmiReusesCachedXmi() throws Exception {
+    XmiBuildCache cache = new XmiBuildCache( temporaryFolder.getRoot(), 10 );
+    DswModeler modeler = spy( new DswModeler() );
+    modeler.setLog( mock( LogChannelInterface.class ) );
+    doReturn( cache ).when( buildJobEntry ).getXmiBuildCache();
+    doReturn( modeler ).when( buildJobEntry ).getDswModeler();
+
+    String xmi = buildJobEntry.buildXmi( job.getJobMeta(), "Sales Fact", "Car Sales Analysis" );
+    assertEquals( xmi, buildJobEntry.buildXmi( job.getJobMeta(), "Sales Fact", "Car Sales Analysis" ) );
+    verify( modeler, times( 1 ) ).createModel( anyString(), any( TableModelerSource.class ),
+        any( DatabaseMeta.class ), any( PhysicalTableImporter.ImportStrategy.class ),
+        any( ModelAnnotationGroup.class ), any( IMetaStore.class ) );
+    assertEquals( 1, cache.getHits() );
+    assertEquals( 1, cache.getMisses() );
+
+    // other model name is built
+    buildJobEntry.buildXmi( job.getJobMeta(), "Sales Fact", "Other Sales Analysis" );
+    // equal annotations from the next run are a hit, changed annotations are built
+    setAnnotations();
+    buildJobEntry.buildXmi( job.getJobMeta(), "Sales Fact", "Car Sales Analysis" );
+    job.getExtensionDataMap().put( JobEntryBuildModel.KEY_MODEL_ANNOTATIONS, new ModelAnnotationGroup() );
+    buildJobEntry.buildXmi( job.getJobMeta(), "Sales Fact", "Car Sales Analysis" );
+    verify( modeler, times( 3 ) ).createModel( anyString(), any( TableModelerSource.class ),
+        any( DatabaseMeta.class ), any( PhysicalTableImporter.ImportStrategy.class ),
+        any( ModelAnnotationGroup.class ), any( IMetaStore.class ) );
+    assertEquals( 2, cache.getHits() );
+  }
+
+  @Test
+  public void testExecuteSpoolsXmi() throws Exception {
+    PayloadSpool spool = new PayloadSpool( temporaryFolder.getRoot() );
+    doReturn( spool ).when( buildJobEntry ).getPayloadSpool();
+    job.setVariable( "JobEntryBuildModel.XMI.Car Sales Analysis", "stale" );
+    buildJobEntry.setOutputStep( "Sales Fact" );
+    buildJobEntry.setModelName( "Car Sales Analysis" );
+
+    Result result = new Result();
+    buildJobEntry.execute( result, 0 );
+    assertTrue( result.getResult() );
+
+    assertNull( job.getVariable( "JobEntryBuildModel.XMI.Car Sales Analysis" ) );
+    File xmiFile = new File( job.getVariable( JobEntryBuildModel.XMI_FILE_VARIABLE_PREFIX + "Car Sales Analysis" ) );
+    assertEquals( temporaryFolder.getRoot(), xmiFile.getParentFile() );
+    String xmi = FileUtils.readFileToString( xmiFile, "UTF-8" );
+    assertTrue( xmi, xmi.contains( "<CWMOLAP:Schema name=\"MODEL_1_OLAP\"" ) );
+    assertEquals( "true", job.getVariable( "JobEntryBuildModel.XMI.DSW.Car Sales Analysis" ) );
+  }
+
+  @Test
+  public void testExecuteBuildsAdditionalModels() throws Exception {
+    StepMetaDataCombi combi =
+        (StepMetaDataCombi) job.getExtensionDataMap().get( JobEntryBuildModel.KEY_OUTPUT_STEP_PREFIX + "Build Model" );
+    ( (TableOutputMeta) combi.meta ).setDatabaseMeta( databaseMeta );
+    ( (TableOutputMeta) combi.meta ).setTableName( "sales_test" );
+    job.getExtensionDataMap().put( JobEntryBuildModel.KEY_OUTPUT_STEP_PREFIX + "Multi Build", combi );
+    job.getExtensionDataMap().put( JobEntryBuildModel.getOutputStepKey( "Multi Build", "Sales Copy" ), combi );
+    job.getExtensionDataMap().put( JobEntryBuildModel.getOutputStepKey( "Multi Build", "Sales Fact" ), combi );
+
+    JobEntryBuildModel multiBuild = new JobEntryBuildModel( "Multi Build", "Builds several models" );
+    multiBuild.setModeler( new DswModeler() );
+    multiBuild.setParentJob( job );
+    multiBuild.setOutputStep( "Sales Fact" );
+    multiBuild.setModelName( "Car Sales" );
+    multiBuild.setAdditionalModels( asList(
+        new AdditionalModel( "Sales Copy", "Truck Sales" ),
+        new AdditionalModel( "Sales Fact", "" ) ) );
+
+    Result result = new Result();
+    multiBuild.execute( result, 0 );
+
+    // the model without a name fails, the others are still built
+    assertFalse( result.getResult() );
+    assertEquals( 1, result.getNrErrors() );
+    assertTrue( job.getVariable( "JobEntryBuildModel.XMI.Car Sales" ).contains( "Car Sales" ) );
+    assertTrue( job.getVariable( "JobEntryBuildModel.XMI.Truck Sales" ).contains( "Truck Sales" ) );
+    assertEquals( "true", job.getVariable( "JobEntryBuildModel.XMI.DSW.Truck Sales" ) );
+    assertEquals( "myh2", job.getVariable( "JobEntryBuildModel.DatabaseConnection.Truck Sales" ) );
+  }
+
+  @Test
+  public void testAdditionalModelsXml() throws Exception {
+    buildJobEntry.setAdditionalModels( asList(
+        new AdditionalModel( "Customer Dimension", "Customers" ),
+        new AdditionalModel( "${step}", "${model}" ) ) );
+
+    Document doc = XMLHandler.loadXMLString( "<entry>" + buildJobEntry.getXML() + "</entry>" );
+    JobEntryBuildModel local = new JobEntryBuildModel( "name", "desc" );
+    local.loadXML( XMLHandler.getSubNode( doc, "entry" ), null, null, null, null );
+
+    assertEquals( 2, local.getAdditionalModels().size() );
+    assertEquals( "Customer Dimension", local.getAdditionalModels().get( 0 ).getOutputStep() );
+    assertEquals( "Customers", local.getAdditionalModels().get( 0 ).getModelName() );
+    assertEquals( "${step}", local.getAdditionalModels().get( 1 ).getOutputStep() );
+    assertEquals( "${model}", local.getAdditionalModels().get( 1 ).getModelName() );
+
+    JobEntryBuildModel copy = (JobEntryBuildModel) local.clone();
+    copy.getAdditionalModels().get( 0 ).setModelName( "changed" );
+    assertEquals( "Customers", local.getAdditionalModels().get( 0 ).getModelName() );
+  }
+
   @Test
   public void testEmptyExistingModelThrowsException() throws Exception {
 
@@ -433,7 +543,7 @@ public class JobEntryBuildModelTest {
     buildJobEntry.setSelectedModel( "someModelName" );
     buildJobEntry.setUseExistingModel( true );
 
-    Mockito.when( modelServerFetcher.fetchAnalysisList() ).thenReturn( asList( "otherModel" ) );
+    Mockito.when( modelServerFetcher.datasourceExists( "otherModel" ) ).thenReturn( true );
 
     doNothing().when( connectionValidator ).validateConnectionInRuntime();
     job.run();
@@ -22,13 +22,18 @@
 
 package org.pentaho.di.job.entries.publish;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 import org.hamcrest.BaseMatcher;
 import org.hamcrest.Description;
 import org.hamcrest.Matcher;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.pentaho.database.model.DatabaseAccessType;
 import org.pentaho.database.model.DatabaseConnection;
 import org.pentaho.di.core.database.BaseDatabaseMeta;
@@ -40,11 +45,14 @@ import org.pentaho.di.core.database.DatabaseMeta;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.logging.LogChannelInterface;
 import org.pentaho.di.core.refinery.DataRefineryConfig;
+import org.pentaho.di.core.refinery.model.ModelServerFetcher;
 import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
 import org.pentaho.di.core.refinery.publish.agilebi.ModelServerPublish;
 import org.pentaho.di.core.refinery.publish.model.DataSourceAclModel;
 import org.pentaho.di.core.refinery.publish.model.DataSourcePublishModel;
 import org.pentaho.di.core.refinery.publish.util.PublishRestUtil;
+import org.pentaho.di.core.refinery.publish.util.PublishStateStore;
+import org.pentaho.di.core.refinery.publish.util.ServerResilience;
 import org.pentaho.di.job.Job;
 import org.pentaho.di.job.JobHopMeta;
 import org.pentaho.di.job.JobMeta;
@@ -58,6 +66,7 @@ import org.w3c.dom.Node;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.File;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -81,6 +90,9 @@ import static org.mockito.Mockito.matches;
  */
 public class JobEntryDatasourcePublishTest {
 
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
   private JobEntryDatasourcePublish jobEntryDatasourcePublish;
   private Job parentJob;
   private JobMeta jobMeta;
@@ -610,6 +622,272 @@ public class JobEntryDatasourcePublishTest {
       anyString() );
   }
 
+  @Test
+  public void testExecuteSkipsUnchangedContent() throws Exception {
+    DatasourcePublishService datasourcePublishServiceSpy = spy( publishService );
+    JobEntryDatasourcePublish datasourcePublishSpy =
+      spy( new JobEntryDatasourcePublish( datasourcePublishServiceSpy ) );
+
+    when( datasourcePublishSpy.getParentJob() ).thenReturn( parentJob );
+    doNothing().when( datasourcePublishSpy ).logBasic( anyString() );
+    when( datasourcePublishSpy.getModelServerPublish() ).thenReturn( modelServerPublish );
+    when( datasourcePublishSpy
+      .getConnectionValidator( any( BiServerConnection.class ) ) ).thenReturn( connectionValidator );
+    doReturn( new PublishStateStore( new File( temporaryFolder.getRoot(), "publish-state.properties" ) ) )
+      .when( datasourcePublishSpy ).getPublishStateStore();
+    doReturn( databaseMeta ).when( datasourcePublishSpy ).discoverDatabaseMeta( any( JobMeta.class ) );
+    when( databaseMeta.getXML() ).thenReturn( "<connection/>" );
+    when( modelServerPublish.connectionNameExists( anyString() ) ).thenReturn( databaseConnection );
+    ModelServerFetcher fetcher = mock( ModelServerFetcher.class );
+    doReturn( fetcher ).when( datasourcePublishSpy ).getModelServerFetcher( any( BiServerConnection.class ) );
+    when( fetcher.metadataExists( "logicalModel" ) ).thenReturn( true );
+    when( fetcher.datasourceExists( "logicalModel" ) ).thenReturn( true );
+
+    when( parentJob.getVariable( "JobEntryBuildModel.XMI.logicalModel" ) ).thenReturn( "<xmi/>" );
+    when( parentJob.getVariable( "JobEntryBuildModel.Mondrian.Schema.logicalModel" ) ).thenReturn( "<Schema/>" );
+    when( parentJob.getVariable( "JobEntryBuildModel.Mondrian.Datasource.logicalModel" ) ).thenReturn( "ds" );
+
+    DataSourcePublishModel model = new DataSourcePublishModel();
+    model.setModelName( "logicalModel" );
+    model.setBiServerConnection( biServerConnection );
+    model.setOverride( true );
+    model.setPublishOnlyIfChanged( true );
+    datasourcePublishSpy.setDataSourcePublishModel( model );
+
+    doNothing().when( datasourcePublishServiceSpy ).publishDatabaseMeta( any( ModelServerPublish.class ),
+      any( DatabaseMeta.class ), anyBoolean() );
+    doNothing().when( datasourcePublishServiceSpy )
+      .publishMetadataXmi( anyString(), anyString(), any( ModelServerPublish.class ), anyBoolean() );
+    doNothing().when( datasourcePublishServiceSpy )
+      .publishMondrianSchema( anyString(), anyString(), anyString(), any( ModelServerPublish.class ), anyBoolean() );
+
+    assertTrue( datasourcePublishSpy.execute( new Result( 0 ), 0 ).getResult() );
+    assertTrue( datasourcePublishSpy.execute( new Result( 0 ), 0 ).getResult() );
+
+    verify( datasourcePublishServiceSpy, times( 1 ) ).publishDatabaseMeta( any( ModelServerPublish.class ),
+      any( DatabaseMeta.class ), anyBoolean() );
+    verify( datasourcePublishServiceSpy, times( 1 ) )
+      .publishMetadataXmi( anyString(), anyString(), any( ModelServerPublish.class ), anyBoolean() );
+    verify( datasourcePublishServiceSpy, times( 1 ) )
+      .publishMondrianSchema( anyString(), anyString(), anyString(), any( ModelServerPublish.class ), anyBoolean() );
+
+    // only the changed model is uploaded again
+    when( parentJob.getVariable( "JobEntryBuildModel.XMI.logicalModel" ) ).thenReturn( "<xmi>changed</xmi>" );
+    assertTrue( datasourcePublishSpy.execute( new Result( 0 ), 0 ).getResult() );
+    verify( datasourcePublishServiceSpy, times( 1 ) ).publishDatabaseMeta( any( ModelServerPublish.class ),
+      any( DatabaseMeta.class ), anyBoolean() );
+    verify( datasourcePublishServiceSpy, times( 2 ) )
+      .publishMetadataXmi( anyString(), anyString(), any( ModelServerPublish.class ), anyBoolean() );
+
+    // a connection deleted on the server is published again
+    when( modelServerPublish.connectionNameExists( anyString() ) ).thenReturn( null );
+    assertTrue( datasourcePublishSpy.execute( new Result( 0 ), 0 ).getResult() );
+    verify( datasourcePublishServiceSpy, times( 2 ) ).publishDatabaseMeta( any( ModelServerPublish.class ),
+      any( DatabaseMeta.class ), anyBoolean() );
+
+    // so are a model and a schema deleted on the server
+    when( fetcher.metadataExists( "logicalModel" ) ).thenReturn( false );
+    when( fetcher.datasourceExists( "logicalModel" ) ).thenReturn( false );
+    assertTrue( datasourcePublishSpy.execute( new Result( 0 ), 0 ).getResult() );
+    verify( datasourcePublishServiceSpy, times( 3 ) )
+      .publishMetadataXmi( anyString(), anyString(), any( ModelServerPublish.class ), anyBoolean() );
+    verify( datasourcePublishServiceSpy, times( 2 ) )
+      .publishMondrianSchema( anyString(), anyString(), anyString(), any( ModelServerPublish.class ), anyBoolean() );
+  }
+
+  @Test
+  public void testExecutePublishesSpooledFiles() throws Exception {
+    DatasourcePublishService datasourcePublishServiceSpy = spy( publishService );
+    JobEntryDatasourcePublish datasourcePublishSpy =
+      spy( new JobEntryDatasourcePublish( datasourcePublishServiceSpy ) );
+
+    when( datasourcePublishSpy.getParentJob() ).thenReturn( parentJob );
+    doNothing().when( datasourcePublishSpy ).logBasic( anyString() );
+    when( datasourcePublishSpy.getModelServerPublish() ).thenReturn( modelServerPublish );
+    when( datasourcePublishSpy
+      .getConnectionValidator( any( BiServerConnection.class ) ) ).thenReturn( connectionValidator );
+    doReturn( databaseMeta ).when( datasourcePublishSpy ).discoverDatabaseMeta( any( JobMeta.class ) );
+
+    File xmiFile = temporaryFolder.newFile( "model.xmi" );
+    File schemaFile = temporaryFolder.newFile( "schema.xml" );
+    when( parentJob.getVariable( JobEntryBuildModel.XMI_FILE_VARIABLE_PREFIX + "logicalModel" ) )
+      .thenReturn( xmiFile.getPath() );
+    when( parentJob.getVariable( JobEntryBuildModel.MONDRIAN_SCHEMA_FILE_VARIABLE_PREFIX + "logicalModel" ) )
+      .thenReturn( schemaFile.getPath() );
+    when( parentJob.getVariable( "JobEntryBuildModel.Mondrian.Datasource.logicalModel" ) ).thenReturn( "ds" );
+
+    DataSourcePublishModel model = new DataSourcePublishModel();
+    model.setModelName( "logicalModel" );
+    model.setBiServerConnection( biServerConnection );
+    datasourcePublishSpy.setDataSourcePublishModel( model );
+
+    doNothing().when( datasourcePublishServiceSpy ).publishDatabaseMeta( any( ModelServerPublish.class ),
+      any( DatabaseMeta.class ), anyBoolean() );
+    doNothing().when( datasourcePublishServiceSpy )
+      .publishMetadataXmiFile( anyString(), any( File.class ), any( ModelServerPublish.class ), anyBoolean() );
+    doNothing().when( datasourcePublishServiceSpy ).publishMondrianSchemaFile( anyString(), any( File.class ),
+      anyString(), any( ModelServerPublish.class ), anyBoolean() );
+
+    assertTrue( datasourcePublishSpy.execute( new Result( 0 ), 0 ).getResult() );
+    verify( datasourcePublishServiceSpy )
+      .publishMetadataXmiFile( eq( "logicalModel" ), eq( xmiFile ), eq( modelServerPublish ), eq( false ) );
+    verify( datasourcePublishServiceSpy ).publishMondrianSchemaFile( eq( "logicalModel" ), eq( schemaFile ),
+      eq( "ds" ), eq( modelServerPublish ), eq( false ) );
+    verify( datasourcePublishServiceSpy, never() )
+      .publishMetadataXmi( anyString(), anyString(), any( ModelServerPublish.class ), anyBoolean() );
+
+    // spool file removed when the building job finished
+    doNothing().when( datasourcePublishServiceSpy ).deleteDatabaseMeta( any( ModelServerPublish.class ),
+      any( DatabaseMeta.class ) );
+    doNothing().when( datasourcePublishServiceSpy ).deleteXMI( any( ModelServerPublish.class ), anyString(),
+      anyString() );
+    schemaFile.delete();
+    assertFalse( datasourcePublishSpy.execute( new Result( 0 ), 0 ).getResult() );
+  }
+
+  @Test
+  public void testExecutePublishesAllModels() throws Exception {
+    DatasourcePublishService datasourcePublishServiceSpy = spy( publishService );
+    JobEntryDatasourcePublish datasourcePublishSpy =
+      spy( new JobEntryDatasourcePublish( datasourcePublishServiceSpy ) );
+
+    when( datasourcePublishSpy.getParentJob() ).thenReturn( parentJob );
+    doNothing().when( datasourcePublishSpy ).logBasic( anyString() );
+    when( datasourcePublishSpy.getModelServerPublish() ).thenReturn( modelServerPublish );
+    when( datasourcePublishSpy
+      .getConnectionValidator( any( BiServerConnection.class ) ) ).thenReturn( connectionValidator );
+    doReturn( 1 ).when( datasourcePublishSpy ).getPublishThreads();
+    when( databaseMeta.getName() ).thenReturn( "db" );
+    Map<String, DatabaseMeta> databases = new HashMap<String, DatabaseMeta>();
+    databases.put( "db", databaseMeta );
+    doReturn( databases ).when( datasourcePublishSpy ).discoverDatabaseMetas( any( JobMeta.class ) );
+
+    when( parentJob.listVariables() ).thenReturn( new String[] {
+      JobEntryBuildModel.DATABASE_CONNECTION_VARIABLE_PREFIX + "sales",
+      JobEntryBuildModel.DATABASE_CONNECTION_VARIABLE_PREFIX + "customers",
+      JobEntryBuildModel.DATABASE_CONNECTION_VARIABLE_PREFIX + "broken",
+      JobEntryBuildModel.DATABASE_CONNECTION_VARIABLE_PREFIX + "notBuilt",
+      "JobEntryBuildModel.XMI.sales" } );
+    for ( String modelName : new String[] { "sales", "customers", "broken", "notBuilt" } ) {
+      when( parentJob.getVariable( JobEntryBuildModel.DATABASE_CONNECTION_VARIABLE_PREFIX + modelName ) )
+        .thenReturn( "db" );
+    }
+    for ( String modelName : new String[] { "sales", "customers", "broken" } ) {
+      when( parentJob.getVariable( "JobEntryBuildModel.XMI." + modelName ) ).thenReturn( "<xmi/>" );
+    }
+    when( parentJob.getVariable( "JobEntryBuildModel.Mondrian.Schema.broken" ) ).thenReturn( "<Schema/>" );
+    when( parentJob.getVariable( "JobEntryBuildModel.Mondrian.Datasource.broken" ) ).thenReturn( "ds" );
+
+    DataSourcePublishModel model = new DataSourcePublishModel();
+    model.setPublishAllModels( true );
+    model.setBiServerConnection( biServerConnection );
+    datasourcePublishSpy.setDataSourcePublishModel( model );
+
+    doNothing().when( datasourcePublishServiceSpy ).publishDatabaseMeta( any( ModelServerPublish.class ),
+      any( DatabaseMeta.class ), anyBoolean() );
+    doNothing().when( datasourcePublishServiceSpy )
+      .publishMetadataXmi( anyString(), anyString(), any( ModelServerPublish.class ), anyBoolean() );
+    doNothing().when( datasourcePublishServiceSpy ).publishMondrianSchema( anyString(), anyString(), anyString(),
+      any( ModelServerPublish.class ), anyBoolean() );
+    doThrow( new KettleException( "schema rejected" ) ).when( datasourcePublishServiceSpy ).publishMondrianSchema(
+      eq( "broken" ), anyString(), anyString(), any( ModelServerPublish.class ), anyBoolean() );
+    doNothing().when( datasourcePublishServiceSpy ).deleteXMI( any( ModelServerPublish.class ), anyString(),
+      anyString() );
+
+    Result result = datasourcePublishSpy.execute( new Result( 0 ), 0 );
+    assertFalse( result.getResult() );
+    assertEquals( 1, result.getNrErrors() );
+
+    // shared connection published once and kept for the models that made it
+    verify( datasourcePublishServiceSpy, times( 1 ) )
+      .publishDatabaseMeta( any( ModelServerPublish.class ), eq( databaseMeta ), anyBoolean() );
+    verify( datasourcePublishServiceSpy, never() )
+      .deleteDatabaseMeta( any( ModelServerPublish.class ), any( DatabaseMeta.class ) );
+    verify( datasourcePublishServiceSpy )
+      .publishMetadataXmi( eq( "sales" ), eq( "<xmi/>" ), any( ModelServerPublish.class ), anyBoolean() );
+    verify( datasourcePublishServiceSpy )
+      .publishMetadataXmi( eq( "customers" ), eq( "<xmi/>" ), any( ModelServerPublish.class ), anyBoolean() );
+    verify( datasourcePublishServiceSpy, never() )
+      .publishMetadataXmi( eq( "notBuilt" ), anyString(), any( ModelServerPublish.class ), anyBoolean() );
+    // only the failed model is rolled back
+    verify( datasourcePublishServiceSpy ).deleteXMI( any( ModelServerPublish.class ), eq( "broken" ), anyString() );
+    verify( datasourcePublishServiceSpy, times( 1 ) )
+      .deleteXMI( any( ModelServerPublish.class ), anyString(), anyString() );
+  }
+
+  @Test
+  public void testExecuteAsyncQueuesModels() throws Exception {
+    DatasourcePublishService datasourcePublishServiceSpy = spy( publishService );
+    JobEntryDatasourcePublish datasourcePublishSpy =
+      spy( new JobEntryDatasourcePublish( datasourcePublishServiceSpy ) );
+    PublishOutbox outbox =
+      new PublishOutbox( temporaryFolder.newFolder( "outbox" ), datasourcePublishServiceSpy, log, 3, 1000, 60000 );
+
+    when( datasourcePublishSpy.getParentJob() ).thenReturn( parentJob );
+    doNothing().when( datasourcePublishSpy ).logBasic( anyString() );
+    when( datasourcePublishSpy.getModelServerPublish() ).thenReturn( modelServerPublish );
+    when( datasourcePublishSpy
+      .getConnectionValidator( any( BiServerConnection.class ) ) ).thenReturn( connectionValidator );
+    doReturn( outbox ).when( datasourcePublishSpy ).getPublishOutbox();
+    when( databaseMeta.getName() ).thenReturn( "db" );
+    Map<String, DatabaseMeta> databases = new HashMap<String, DatabaseMeta>();
+    databases.put( "db", databaseMeta );
+    doReturn( databases ).when( datasourcePublishSpy ).discoverDatabaseMetas( any( JobMeta.class ) );
+    doReturn( databaseConnection ).when( datasourcePublishServiceSpy )
+      .getDatabaseConnection( any( ModelServerPublish.class ), eq( databaseMeta ) );
+
+    when( parentJob.listVariables() ).thenReturn( new String[] {
+      JobEntryBuildModel.DATABASE_CONNECTION_VARIABLE_PREFIX + "sales",
+      JobEntryBuildModel.DATABASE_CONNECTION_VARIABLE_PREFIX + "customers" } );
+    for ( String modelName : new String[] { "sales", "customers" } ) {
+      when( parentJob.getVariable( JobEntryBuildModel.DATABASE_CONNECTION_VARIABLE_PREFIX + modelName ) )
+        .thenReturn( "db" );
+      when( parentJob.getVariable( "JobEntryBuildModel.XMI." + modelName ) ).thenReturn( "<xmi/>" );
+    }
+
+    DataSourcePublishModel model = new DataSourcePublishModel();
+    model.setPublishAllModels( true );
+    model.setPublishAsync( true );
+    model.setBiServerConnection( new BiServerConnection() );
+    datasourcePublishSpy.setDataSourcePublishModel( model );
+
+    Result result = datasourcePublishSpy.execute( new Result( 0 ), 0 );
+    assertTrue( result.getResult() );
+    assertEquals( 2, outbox.getQueueDepth() );
+
+    // nothing went to the server, the shared connection is queued once
+    verify( connectionValidator, never() ).validateConnectionInRuntime();
+    verify( datasourcePublishServiceSpy, never() ).publishMetadataXmi( anyString(), anyString(),
+      any( ModelServerPublish.class ), anyBoolean() );
+    verify( datasourcePublishServiceSpy, times( 1 ) )
+      .getDatabaseConnection( any( ModelServerPublish.class ), eq( databaseMeta ) );
+  }
+
+  @Test
+  public void testPublishMetadataXmiFile() throws Exception {
+    File xmiFile = temporaryFolder.newFile( "model.xmi" );
+    FileUtils.writeStringToFile( xmiFile, "<xmi/>", "UTF-8" );
+    final StringBuilder uploaded = new StringBuilder();
+    when( modelServerPublish.publishMetaDataFile( any( InputStream.class ), eq( "logicalModel" ) ) ).thenAnswer(
+      new Answer<Integer>() {
+        @Override public Integer answer( InvocationOnMock invocation ) throws Throwable {
+          uploaded.append( IOUtils.toString( (InputStream) invocation.getArguments()[0], "UTF-8" ) );
+          return ModelServerPublish.PUBLISH_SUCCESS;
+        }
+      } );
+
+    publishService.publishMetadataXmiFile( "logicalModel", xmiFile, modelServerPublish, false );
+    assertEquals( "<xmi/>", uploaded.toString() );
+
+    xmiFile.delete();
+    try {
+      publishService.publishMetadataXmiFile( "logicalModel", xmiFile, modelServerPublish, false );
+      fail( "expected Exception" );
+    } catch ( KettleException e ) {
+      assertTrue( e.getMessage(), e.getMessage().contains( xmiFile.getPath() ) );
+    }
+  }
+
   @Test
   public void testExecuteDoubleSlash() throws Exception {
     DatasourcePublishService datasourcePublishServiceSpy = spy( publishService );
@@ -1024,6 +1302,21 @@ public class JobEntryDatasourcePublishTest {
     datasourcePublish.saveRep( rep, null, id_jobentry );
   }
 
+  @Test
+  public void testLogsServerResilience() {
+    JobEntryDatasourcePublish datasourcePublishSpy = spy( jobEntryDatasourcePublish );
+    ServerResilience resilience = mock( ServerResilience.class );
+    when( resilience.getRetries() ).thenReturn( 3L );
+    when( resilience.getRejected() ).thenReturn( 2L );
+    when( resilience.getCircuitsOpened() ).thenReturn( 1L );
+    doReturn( resilience ).when( datasourcePublishSpy ).getServerResilience();
+    doNothing().when( datasourcePublishSpy ).logBasic( anyString() );
+
+    datasourcePublishSpy.logServerResilience();
+    verify( datasourcePublishSpy ).logBasic( contains( "3 retried, 2 not sent because a circuit was open, "
+      + "circuits opened 1 times, 0 open now" ) );
+  }
+
   private Matcher<DataSourceAclModel> matchesEveryoneAcl() {
     return new BaseMatcher<DataSourceAclModel>() {
       @Override public boolean matches( final Object item ) {
@@ -0,0 +1,320 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2017 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+
+package org.pentaho.di.job.entries.publish;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.pentaho.database.model.DatabaseConnection;
+import org.pentaho.di.core.KettleClientEnvironment;
+import org.pentaho.di.core.logging.LogChannelInterface;
+import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.contains;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class PublishOutboxTest {
+
+  private static final String CONNECTION_GET = "GET plugin/data-access/api/connection/getresponse";
+  private static final String CONNECTION_ADD = "POST plugin/data-access/api/connection/add";
+  private static final String METADATA_IMPORT = "PUT plugin/data-access/api/metadata/import";
+  private static final String MONDRIAN_POST = "POST plugin/data-access/api/mondrian/postAnalysis";
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private HttpServer server;
+  private String url;
+  private final List<String> requests = Collections.synchronizedList( new ArrayList<String>() );
+  private final Map<String, String> bodies = Collections.synchronizedMap( new HashMap<String, String>() );
+  private final AtomicInteger mondrianFailures = new AtomicInteger();
+  private LogChannelInterface log;
+  private File folder;
+
+  @Before
+  public void setUp() throws Exception {
+    KettleClientEnvironment.init();
+    log = mock( LogChannelInterface.class );
+    folder = new File( temporaryFolder.getRoot(), "outbox" );
+
+    // stands in for the data access endpoints of a BA server
+    server = HttpServer.create( new InetSocketAddress( "localhost", 0 ), 0 );
+    server.createContext( "/pentaho/", new HttpHandler() {
+      @Override public void handle( HttpExchange exchange ) throws IOException {
+        String request = exchange.getRequestMethod() + " "
+          + exchange.getRequestURI().getPath().substring( "/pentaho/".length() );
+        bodies.put( request, IOUtils.toString( exchange.getRequestBody(), "UTF-8" ) );
+        requests.add( request );
+        int status = 200;
+        String response = "";
+        if ( request.equals( CONNECTION_GET ) ) {
+          status = 404;
+        } else if ( request.equals( METADATA_IMPORT ) ) {
+          response = "3";
+        } else if ( request.equals( MONDRIAN_POST ) ) {
+          if ( mondrianFailures.getAndDecrement() > 0 ) {
+            status = 503;
+          } else {
+            response = "3";
+          }
+        }
+        byte[] bytes = response.getBytes( "UTF-8" );
+        exchange.sendResponseHeaders( status, bytes.length == 0 ? -1 : bytes.length );
+        exchange.getResponseBody().write( bytes );
+        exchange.close();
+      }
+    } );
+    server.start();
+    url = "http://localhost:" + server.getAddress().getPort() + "/pentaho/";
+  }
+
+  @After
+  public void tearDown() {
+    server.stop( 0 );
+  }
+
+  @Test
+  public void testDeliversAndResumesAfterFailure() throws Exception {
+    PublishOutbox outbox = newOutbox( 3 );
+    mondrianFailures.set( 1 );
+
+    PublishOutbox.Batch batch = newBatch( "sales" );
+    DatabaseConnection connection = new DatabaseConnection();
+    connection.setName( "db" );
+    connection.setPassword( "secret" );
+    batch.setDatabaseConnection( connection );
+    batch.setXmi( false, "<xmi/>", null );
+    batch.setMondrianSchema( "ds", "<Schema/>", null );
+    File queued = outbox.enqueue( batch );
+
+    assertEquals( 1, outbox.getQueueDepth() );
+    assertFalse( FileUtils.readFileToString( new File( queued, "connection.json" ), "UTF-8" ).contains( "secret" ) );
+
+    long now = System.currentTimeMillis();
+    assertEquals( 1000, outbox.dispatch( now ) );
+    assertEquals( Arrays.asList( CONNECTION_GET, CONNECTION_ADD, METADATA_IMPORT, MONDRIAN_POST ), requests );
+    assertTrue( bodies.get( CONNECTION_ADD ).contains( "secret" ) );
+    assertEquals( 1, outbox.getRetries() );
+    assertEquals( 1, outbox.getQueueDepth() );
+
+    // not due yet
+    assertEquals( 500, outbox.dispatch( now + 500 ) );
+    assertEquals( 4, requests.size() );
+
+    // only the schema is sent again
+    assertEquals( 0, outbox.dispatch( now + 1000 ) );
+    assertEquals( Arrays.asList( CONNECTION_GET, CONNECTION_ADD, METADATA_IMPORT, MONDRIAN_POST, MONDRIAN_POST ),
+      requests );
+    assertEquals( 0, outbox.getQueueDepth() );
+    assertEquals( 1, outbox.getDelivered() );
+    assertEquals( 0, outbox.getFailed() );
+    assertFalse( queued.exists() );
+  }
+
+  @Test
+  public void testModelsAreDeliveredInOrder() throws Exception {
+    PublishOutbox outbox = newOutbox( 3 );
+    mondrianFailures.set( 1 );
+
+    PublishOutbox.Batch first = newBatch( "sales" );
+    first.setMondrianSchema( "ds", "<Schema/>", null );
+    outbox.enqueue( first );
+    PublishOutbox.Batch second = newBatch( "sales" );
+    second.setXmi( false, "<xmi/>", null );
+    outbox.enqueue( second );
+    PublishOutbox.Batch other = newBatch( "customers" );
+    other.setXmi( false, "<xmi/>", null );
+    outbox.enqueue( other );
+
+    // the second sales batch waits for the first, customers does not
+    long now = System.currentTimeMillis();
+    outbox.dispatch( now );
+    assertEquals( Arrays.asList( MONDRIAN_POST, METADATA_IMPORT ), requests );
+    assertEquals( 2, outbox.getQueueDepth() );
+
+    outbox.dispatch( now + 1000 );
+    assertEquals( Arrays.asList( MONDRIAN_POST, METADATA_IMPORT, MONDRIAN_POST, METADATA_IMPORT ), requests );
+    assertEquals( 0, outbox.getQueueDepth() );
+    assertEquals( 3, outbox.getDelivered() );
+  }
+
+  @Test
+  public void testWaitsForConnectionBatch() throws Exception {
+    PublishOutbox outbox = newOutbox( 3 );
+    mondrianFailures.set( 1 );
+
+    PublishOutbox.Batch sales = newBatch( "sales" );
+    DatabaseConnection connection = new DatabaseConnection();
+    connection.setName( "db" );
+    sales.setDatabaseConnection( connection );
+    sales.setMondrianSchema( "ds", "<Schema/>", null );
+    File salesBatch = outbox.enqueue( sales );
+    PublishOutbox.Batch customers = newBatch( "customers" );
+    customers.setXmi( false, "<xmi/>", null );
+    customers.setDependsOn( salesBatch );
+    outbox.enqueue( customers );
+
+    long now = System.currentTimeMillis();
+    outbox.dispatch( now );
+    assertEquals( Arrays.asList( CONNECTION_GET, CONNECTION_ADD, MONDRIAN_POST ), requests );
+    assertEquals( 2, outbox.getQueueDepth() );
+
+    outbox.dispatch( now + 1000 );
+    assertEquals( Arrays.asList( CONNECTION_GET, CONNECTION_ADD, MONDRIAN_POST, MONDRIAN_POST, METADATA_IMPORT ),
+      requests );
+    assertEquals( 2, outbox.getDelivered() );
+  }
+
+  @Test
+  public void testGivesUpWithConnectionBatch() throws Exception {
+    PublishOutbox outbox = newOutbox( 1 );
+    mondrianFailures.set( 10 );
+
+    PublishOutbox.Batch sales = newBatch( "sales" );
+    sales.setMondrianSchema( "ds", "<Schema/>", null );
+    PublishOutbox.Batch customers = newBatch( "customers" );
+    customers.setXmi( false, "<xmi/>", null );
+    customers.setDependsOn( outbox.enqueue( sales ) );
+    outbox.enqueue( customers );
+
+    outbox.dispatch( System.currentTimeMillis() );
+    assertEquals( Arrays.asList( MONDRIAN_POST ), requests );
+    assertEquals( 0, outbox.getQueueDepth() );
+    assertEquals( 2, outbox.getFailed() );
+  }
+
+  @Test
+  public void testGivesUp() throws Exception {
+    PublishOutbox outbox = newOutbox( 2 );
+    mondrianFailures.set( 10 );
+
+    PublishOutbox.Batch batch = newBatch( "sales" );
+    batch.setMondrianSchema( "ds", "<Schema/>", null );
+    outbox.enqueue( batch );
+
+    long now = System.currentTimeMillis();
+    assertEquals( 1000, outbox.dispatch( now ) );
+    assertEquals( 0, outbox.dispatch( now + 1000 ) );
+    assertEquals( 0, outbox.getQueueDepth() );
+    assertEquals( 1, outbox.getFailed() );
+    assertEquals( 1, new File( folder, PublishOutbox.FAILED_FOLDER ).list().length );
+  }
+
+  @Test
+  public void testSurvivesRestart() throws Exception {
+    PublishOutbox.Batch batch = newBatch( "sales" );
+    batch.setXmi( false, "<xmi/>", null );
+    File first = newOutbox( 3 ).enqueue( batch );
+
+    PublishOutbox outbox = newOutbox( 3 );
+    assertEquals( 1, outbox.getQueueDepth() );
+    File second = outbox.enqueue( batch );
+    assertTrue( second.getName().compareTo( first.getName() ) > 0 );
+
+    outbox.dispatch( System.currentTimeMillis() );
+    assertEquals( Arrays.asList( METADATA_IMPORT, METADATA_IMPORT ), requests );
+    assertEquals( 2, outbox.getDelivered() );
+  }
+
+  @Test
+  public void testOneDispatcherPerOutbox() throws Exception {
+    PublishOutbox first = newOutbox( 3 );
+    PublishOutbox second = newOutbox( 3 );
+    assertTrue( first.lock() );
+    assertTrue( first.lock() );
+    assertFalse( second.lock() );
+
+    // taken over once the first one lets go
+    first.unlock();
+    assertTrue( second.lock() );
+    assertFalse( first.lock() );
+    second.unlock();
+  }
+
+  @Test
+  public void testDrainReportsQueuedBatches() throws Exception {
+    PublishOutbox outbox = newOutbox( 3 );
+    outbox.enqueue( newBatch( "sales" ) );
+
+    // no dispatcher in this process, nothing to wait for
+    assertEquals( 1, outbox.drain( 60000 ) );
+    verify( log ).logMinimal( contains( folder.getPath() ) );
+    assertTrue( requests.isEmpty() );
+
+    if ( FileSystems.getDefault().supportedFileAttributeViews().contains( "posix" ) ) {
+      Set<PosixFilePermission> permissions = Files.getPosixFilePermissions( folder.toPath() );
+      assertFalse( permissions.contains( PosixFilePermission.GROUP_READ ) );
+      assertFalse( permissions.contains( PosixFilePermission.OTHERS_READ ) );
+      assertTrue( permissions.contains( PosixFilePermission.OWNER_READ ) );
+    }
+  }
+
+  @Test
+  public void testGetRetryDelay() {
+    PublishOutbox outbox = new PublishOutbox( folder, null, log, 10, 1000, 5000 );
+    assertEquals( 1000, outbox.getRetryDelay( 1 ) );
+    assertEquals( 2000, outbox.getRetryDelay( 2 ) );
+    assertEquals( 4000, outbox.getRetryDelay( 3 ) );
+    assertEquals( 5000, outbox.getRetryDelay( 4 ) );
+    assertEquals( 5000, outbox.getRetryDelay( 40 ) );
+  }
+
+  private PublishOutbox newOutbox( int maxAttempts ) {
+    return new PublishOutbox( folder, new DatasourcePublishService( log ), log, maxAttempts, 1000, 60000 );
+  }
+
+  private PublishOutbox.Batch newBatch( String modelName ) {
+    BiServerConnection connection = new BiServerConnection();
+    connection.setUrl( url );
+    connection.setUserId( "admin" );
+    connection.setPassword( "password" );
+    return new PublishOutbox.Batch( connection, modelName );
+  }
+}
@@ -0,0 +1,128 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2017 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.ui.job.entries.common;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ConnectionValidationCacheTest {
+
+  private long now;
+  private ConnectionValidationCache cache;
+  private BiServerConnection connection;
+
+  @Before
+  public void setup() {
+    now = 1000;
+    cache = newCache( 100, 10 );
+    connection = newConnection( "admin", "password" );
+  }
+
+  @Test
+  public void testValidEntryExpires() {
+    assertNull( cache.get( connection ) );
+    cache.putValid( connection );
+    assertTrue( cache.get( connection ).isValid() );
+
+    now += 99;
+    assertTrue( cache.get( connection ).isValid() );
+
+    now += 1;
+    assertNull( cache.get( connection ) );
+  }
+
+  @Test
+  public void testInvalidEntryUsesNegativeTtl() {
+    cache.putInvalid( connection, "error" );
+    ConnectionValidationCache.Entry entry = cache.get( connection );
+    assertFalse( entry.isValid() );
+    assertEquals( "error", entry.getErrorMessage() );
+
+    now += 10;
+    assertNull( cache.get( connection ) );
+  }
+
+  @Test
+  public void testKeyIncludesUserAndPassword() {
+    cache.putValid( connection );
+    assertTrue( cache.get( newConnection( "admin", "password" ) ).isValid() );
+    assertNull( cache.get( newConnection( "admin", "other" ) ) );
+    assertNull( cache.get( newConnection( "suzy", "password" ) ) );
+
+    BiServerConnection otherServer = newConnection( "admin", "password" );
+    otherServer.setUrl( "http://otherhost:8080/pentaho" );
+    assertNull( cache.get( otherServer ) );
+  }
+
+  @Test
+  public void testInvalidate() {
+    cache.putValid( connection );
+    cache.invalidate( connection );
+    assertNull( cache.get( connection ) );
+
+    cache.putInvalid( connection, "error" );
+    cache.clear();
+    assertNull( cache.get( connection ) );
+  }
+
+  @Test
+  public void testDisabled() {
+    cache = newCache( 0, 0 );
+    cache.putValid( connection );
+    assertNull( cache.get( connection ) );
+    cache.putInvalid( connection, "error" );
+    assertNull( cache.get( connection ) );
+  }
+
+  @Test
+  public void testConnectionWithoutUrlIsNotCached() {
+    cache.putValid( null );
+    assertNull( cache.get( null ) );
+
+    BiServerConnection noUrl = new BiServerConnection();
+    cache.putValid( noUrl );
+    assertNull( cache.get( noUrl ) );
+  }
+
+  private ConnectionValidationCache newCache( long ttl, long negativeTtl ) {
+    return new ConnectionValidationCache( ttl, negativeTtl ) {
+      @Override protected long currentTimeMillis() {
+        return now;
+      }
+    };
+  }
+
+  private BiServerConnection newConnection( String userId, String password ) {
+    BiServerConnection connection = new BiServerConnection();
+    connection.setUrl( "http://localhost:8080/pentaho" );
+    connection.setUserId( userId );
+    connection.setPassword( password );
+    return connection;
+  }
+}
@@ -29,10 +29,18 @@ import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.gui.SpoonInterface;
 import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
 import org.pentaho.di.core.refinery.publish.model.DataSourcePublishModel;
+import org.pentaho.di.core.refinery.publish.model.PermissionSnapshot;
 import org.pentaho.di.core.refinery.publish.util.PublishRestUtil;
 
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.*;
 
 /**
@@ -62,13 +70,14 @@ public class ConnectionValidatorTest {
   public void testCanConnectTrue() {
     ConnectionValidator spy = spy( connectionValidator );
     when( publishRestUtil.isPentahoServer( model.getBiServerConnection() ) ).thenReturn( true );
-    when( publishRestUtil.canPublish( model.getBiServerConnection() ) ).thenReturn( true );
-    when( publishRestUtil.canManageDatasources( model.getBiServerConnection() ) ).thenReturn( true );
+    when( publishRestUtil.getPermissions( model.getBiServerConnection(), ConnectionValidator.REQUIRED_ACTIONS ) )
+        .thenReturn( permissions( true, true, 200 ) );
 
-    spy.canConnect();
+    assertTrue( spy.canConnect() );
     verify( publishRestUtil ).isPentahoServer( model.getBiServerConnection() );
-    verify( publishRestUtil ).canPublish( model.getBiServerConnection() );
-    verify( publishRestUtil ).canManageDatasources( model.getBiServerConnection() );
+    verify( publishRestUtil ).getPermissions( model.getBiServerConnection(), ConnectionValidator.REQUIRED_ACTIONS );
+    verify( publishRestUtil, never() ).canPublish( model.getBiServerConnection() );
+    verify( publishRestUtil, never() ).canManageDatasources( model.getBiServerConnection() );
   }
 
   @Test
@@ -93,24 +102,24 @@ public class ConnectionValidatorTest {
   public void testCanConnectFalse3() {
     ConnectionValidator spy = spy( connectionValidator );
     when( publishRestUtil.isPentahoServer( model.getBiServerConnection() ) ).thenReturn( true );
-    when( publishRestUtil.canPublish( model.getBiServerConnection() ) ).thenReturn( false );
+    when( publishRestUtil.getPermissions( model.getBiServerConnection(), ConnectionValidator.REQUIRED_ACTIONS ) )
+        .thenReturn( permissions( false, true, 200 ) );
 
-    spy.canConnect();
+    assertFalse( spy.canConnect() );
     verify( publishRestUtil ).isPentahoServer( model.getBiServerConnection() );
-    verify( publishRestUtil ).canPublish( model.getBiServerConnection() );
+    verify( publishRestUtil ).getPermissions( model.getBiServerConnection(), ConnectionValidator.REQUIRED_ACTIONS );
   }
 
   @Test
   public void testCanConnectFalse4() {
     ConnectionValidator spy = spy( connectionValidator );
     when( publishRestUtil.isPentahoServer( model.getBiServerConnection() ) ).thenReturn( true );
-    when( publishRestUtil.canPublish( model.getBiServerConnection() ) ).thenReturn( true );
-    when( publishRestUtil.canManageDatasources( model.getBiServerConnection() ) ).thenReturn( false );
+    when( publishRestUtil.getPermissions( model.getBiServerConnection(), ConnectionValidator.REQUIRED_ACTIONS ) )
+        .thenReturn( permissions( true, false, 200 ) );
 
-    spy.canConnect();
+    assertFalse( spy.canConnect() );
     verify( publishRestUtil ).isPentahoServer( model.getBiServerConnection() );
-    verify( publishRestUtil ).canPublish( model.getBiServerConnection() );
-    verify( publishRestUtil ).canManageDatasources( model.getBiServerConnection() );
+    verify( publishRestUtil ).getPermissions( model.getBiServerConnection(), ConnectionValidator.REQUIRED_ACTIONS );
   }
 
   @Test
@@ -217,6 +226,127 @@ public class ConnectionValidatorTest {
     spy.validateConnectionInRuntime();
   }
 
+  @Test
+  public void testRuntimeValidationFetchesWebContextOnce() throws KettleException {
+    BiServerConnection connection = newConnection( "password" );
+    connectionValidator.setConnection( connection );
+    connectionValidator.setValidationCache( new ConnectionValidationCache( 60000, 60000 ) );
+    when( publishRestUtil.isPentahoServer( connection ) ).thenReturn( true );
+    when( publishRestUtil.isUserInfoProvided( connection ) ).thenReturn( true );
+    when( publishRestUtil.getPermissions( connection, ConnectionValidator.REQUIRED_ACTIONS ) )
+        .thenReturn( permissions( true, true, 200 ) );
+
+    connectionValidator.validateConnectionInRuntime();
+    verify( publishRestUtil ).isPentahoServer( connection );
+    verify( publishRestUtil ).isUnauthenticatedUser( connection );
+    verify( publishRestUtil ).getPermissions( connection, ConnectionValidator.REQUIRED_ACTIONS );
+  }
+
+  @Test
+  public void testRuntimeValidationIsCached() throws KettleException {
+    BiServerConnection connection = newConnection( "password" );
+    connectionValidator.setConnection( connection );
+    connectionValidator.setValidationCache( new ConnectionValidationCache( 60000, 60000 ) );
+    when( publishRestUtil.isPentahoServer( connection ) ).thenReturn( true );
+    when( publishRestUtil.isUserInfoProvided( connection ) ).thenReturn( true );
+    when( publishRestUtil.getPermissions( connection, ConnectionValidator.REQUIRED_ACTIONS ) )
+        .thenReturn( permissions( true, true, 200 ) );
+
+    connectionValidator.validateConnectionInRuntime();
+    connectionValidator.validateConnectionInRuntime();
+    verify( publishRestUtil, times( 1 ) ).isPentahoServer( connection );
+    verify( publishRestUtil, times( 1 ) ).getPermissions( connection, ConnectionValidator.REQUIRED_ACTIONS );
+
+    // a different password is a different cache entry
+    BiServerConnection other = newConnection( "other" );
+    connectionValidator.setConnection( other );
+    try {
+      connectionValidator.validateConnectionInRuntime();
+      fail();
+    } catch ( KettleException e ) {
+      // not a pentaho server according to the mock
+    }
+  }
+
+  @Test
+  public void testRuntimeValidationFailureIsCached() throws KettleException {
+    BiServerConnection connection = newConnection( "password" );
+    connectionValidator.setConnection( connection );
+    connectionValidator.setValidationCache( new ConnectionValidationCache( 60000, 60000 ) );
+    when( publishRestUtil.isPentahoServer( connection ) ).thenReturn( true );
+    when( publishRestUtil.isUserInfoProvided( connection ) ).thenReturn( true );
+    when( publishRestUtil.isUnauthenticatedUser( connection ) ).thenReturn( true );
+
+    for ( int i = 0; i < 2; i++ ) {
+      try {
+        connectionValidator.validateConnectionInRuntime();
+        fail();
+      } catch ( KettleException e ) {
+        assertTrue( e.getMessage().contains( "log you in" ) );
+      }
+    }
+    verify( publishRestUtil, times( 1 ) ).isPentahoServer( connection );
+    verify( publishRestUtil, times( 1 ) ).isUnauthenticatedUser( connection );
+    // no permission probe with a password the server rejected
+    verify( publishRestUtil, never() ).getPermissions( connection, ConnectionValidator.REQUIRED_ACTIONS );
+  }
+
+  @Test
+  public void testPermissionsMemoizedForJobRun() {
+    Map<String, Object> jobExtensionData = new HashMap<String, Object>();
+    BiServerConnection connection = newConnection( "password" );
+    when( publishRestUtil.getPermissions( connection, ConnectionValidator.REQUIRED_ACTIONS ) )
+        .thenReturn( permissions( true, true, 200 ) );
+
+    for ( int i = 0; i < 3; i++ ) {
+      ConnectionValidator validator = new ConnectionValidator();
+      validator.setPublishRestUtil( publishRestUtil );
+      validator.setConnection( connection );
+      validator.setJobExtensionDataMap( jobExtensionData );
+      assertTrue( validator.getPermissions().isAuthorized() );
+    }
+    verify( publishRestUtil, times( 1 ) ).getPermissions( connection, ConnectionValidator.REQUIRED_ACTIONS );
+    // one map for all snapshots, created up front
+    assertEquals( 1, jobExtensionData.size() );
+    assertTrue( jobExtensionData.get( ConnectionValidator.KEY_PERMISSIONS ) instanceof ConcurrentMap );
+  }
+
+  @Test
+  public void testUnansweredPermissionsNotMemoized() {
+    Map<String, Object> jobExtensionData = new HashMap<String, Object>();
+    BiServerConnection connection = newConnection( "password" );
+    when( publishRestUtil.getPermissions( connection, ConnectionValidator.REQUIRED_ACTIONS ) )
+        .thenReturn( permissions( false, false, PermissionSnapshot.NO_RESPONSE ) )
+        .thenReturn( permissions( true, true, 200 ) );
+
+    ConnectionValidator validator = new ConnectionValidator();
+    validator.setPublishRestUtil( publishRestUtil );
+    validator.setConnection( connection );
+    validator.setPermissionMemo( ConnectionValidator.getPermissionMemo( jobExtensionData ) );
+    assertFalse( validator.getPermissions().isAuthorized() );
+    assertTrue( validator.getPermissions().isAuthorized() );
+    assertTrue( validator.getPermissions().isAuthorized() );
+    verify( publishRestUtil, times( 2 ) ).getPermissions( connection, ConnectionValidator.REQUIRED_ACTIONS );
+  }
+
+  @Test
+  public void testRuntimeValidation404FromPermissions() throws KettleException {
+    BiServerConnection connection = newConnection( "password" );
+    connectionValidator.setConnection( connection );
+    connectionValidator.setValidationCache( new ConnectionValidationCache( 0, 0 ) );
+    when( publishRestUtil.isPentahoServer( connection ) ).thenReturn( true );
+    when( publishRestUtil.isUserInfoProvided( connection ) ).thenReturn( true );
+    when( publishRestUtil.getPermissions( connection, ConnectionValidator.REQUIRED_ACTIONS ) )
+        .thenReturn( permissions( false, false, 404 ) );
+
+    try {
+      connectionValidator.validateConnectionInRuntime();
+      fail();
+    } catch ( KettleException e ) {
+      assertTrue( e.getMessage().indexOf( "to be getting connections to the sever" ) > 0 );
+    }
+  }
+
   @Test( expected = Exception.class )
   public void testTestConnectionException() throws KettleException {
     ConnectionValidator spy = spy( connectionValidator );
@@ -228,4 +358,22 @@ public class ConnectionValidatorTest {
 
     spy.validateConnectionInRuntime();
   }
+
+  private BiServerConnection newConnection( String password ) {
+    BiServerConnection connection = new BiServerConnection();
+    connection.setUrl( "http://localhost:8080/pentaho" );
+    connection.setUserId( "admin" );
+    connection.setPassword( password );
+    return connection;
+  }
+
+  private PermissionSnapshot permissions( boolean canPublish, boolean canManageDatasources, int status ) {
+    Map<String, Boolean> authorized = new LinkedHashMap<String, Boolean>();
+    authorized.put( PublishRestUtil.PUBLISH_ACTION, canPublish );
+    authorized.put( PublishRestUtil.MANAGE_DATASOURCES_ACTION, canManageDatasources );
+    Map<String, Integer> statuses = new LinkedHashMap<String, Integer>();
+    statuses.put( PublishRestUtil.PUBLISH_ACTION, status );
+    statuses.put( PublishRestUtil.MANAGE_DATASOURCES_ACTION, status );
+    return new PermissionSnapshot( authorized, statuses );
+  }
 }